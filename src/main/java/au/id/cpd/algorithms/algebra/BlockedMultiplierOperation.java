@@ -0,0 +1,412 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.algebra;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Cache blocked matrix multiplication C = op(A) * op(B).
+ *
+ * The operands are read through a strided view of a primitive array
+ * so that a transposed operand is handled by swapping its strides
+ * rather than by materialising transform().
+ *
+ * Panels of A (MC x KC) and B (KC x NC) are packed into contiguous buffers
+ * sized for the L2 and L3 caches, and a MR x NR micro kernel keeps
+ * its accumulators in registers while it walks the packed panels.
+ *
+ * @author cd
+ *
+ */
+public class BlockedMultiplierOperation implements IMultiplierOperation {
+
+	/**
+	 * Rows of A packed per block (A block is MC x KC doubles, sized for L2).
+	 */
+	static final int MC = 128;
+	/**
+	 * Depth of a packed block.
+	 */
+	static final int KC = 256;
+	/**
+	 * Columns of B packed per block (B block is KC x NC doubles, sized for L3).
+	 */
+	static final int NC = 2048;
+	/**
+	 * Rows of the register block.
+	 */
+	static final int MR = 4;
+	/**
+	 * Columns of the register block.
+	 */
+	static final int NR = 4;
+
+	/**
+	 * Below this many multiply-adds packing costs more than it saves.
+	 */
+	private static final long SMALL_PRODUCT = 32 * 32 * 32;
+
+	/**
+	 * A read only strided view of a matrix held in a primitive array.
+	 * Element (i,j) is at offset + i*rowStride + j*colStride.
+	 *
+	 * @author cd
+	 *
+	 */
+	static class Operand {
+		final double[] data;
+		final int offset;
+		final int rowStride;
+		final int colStride;
+		final int rows;
+		final int cols;
+
+		Operand(double[] data, int offset, int rows, int cols, int rowStride, int colStride) {
+			this.data = data;
+			this.offset = offset;
+			this.rows = rows;
+			this.cols = cols;
+			this.rowStride = rowStride;
+			this.colStride = colStride;
+		}
+
+		/**
+		 * The transpose of this operand, sharing the same array.
+		 * @return
+		 */
+		Operand transpose() {
+			return new Operand(data, offset, cols, rows, colStride, rowStride);
+		}
+
+		final double get(int i, int j) {
+			return data[offset + i*rowStride + j*colStride];
+		}
+
+		/**
+		 * Build an operand over the supplied matrix.
+		 * A dense matrix, or a view of one, is used in place.
+		 * A float matrix is widened and any other matrix is copied
+		 * once into a row major array.
+		 * @param m
+		 * @param trans use the transpose of m.
+		 * @return
+		 */
+		static Operand of(IMatrix m, boolean trans) {
+			int rows = m.getSize().getRows();
+			int cols = m.getSize().getCols();
+			Operand op;
+			if (m instanceof DenseMatrix) {
+				op = new Operand(((DenseMatrix)m).getValues(), 0, rows, cols, cols, 1);
+			} else if ((m instanceof MatrixView) && (((MatrixView)m).getParent() instanceof DenseMatrix)) {
+				MatrixView v = (MatrixView)m;
+				int ld = v.getParent().getSize().getCols();
+				int offset = v.getRowOffset()*ld + v.getColumnOffset();
+				if (v.isTransposed()) {
+					op = new Operand(((DenseMatrix)v.getParent()).getValues(), offset, cols, rows,
+							v.getRowStride()*ld, v.getColumnStride()).transpose();
+				} else {
+					op = new Operand(((DenseMatrix)v.getParent()).getValues(), offset, rows, cols,
+							v.getRowStride()*ld, v.getColumnStride());
+				}
+			} else if (m instanceof FloatMatrix) {
+				float[] values = ((FloatMatrix)m).getValues();
+				double[] flat = new double[rows*cols];
+				for(int i=0;i<flat.length;i++) {
+					flat[i] = values[i];
+				}
+				op = new Operand(flat, 0, rows, cols, cols, 1);
+			} else {
+				double[][] values = m.convertToDoubles();
+				double[] flat = new double[rows*cols];
+				for(int i=0;i<rows;i++) {
+					System.arraycopy(values[i], 0, flat, i*cols, cols);
+					values[i] = null;
+				}
+				op = new Operand(flat, 0, rows, cols, cols, 1);
+			}
+			return trans ? op.transpose() : op;
+		}
+	}
+
+	public BlockedMultiplierOperation() {
+
+	}
+
+	/**
+	 * Produce product C of A*B.
+	 * @see au.id.cpd.algorithms.algebra.IMultiplierOperation#operate(au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public void operate(IMatrix<Double> A, IMatrix<Double> B, IMatrix<Double> C) {
+		operate(A, false, B, false, C);
+	}
+
+	/**
+	 * Produce product A*B in a new dense matrix.
+	 * @see au.id.cpd.algorithms.algebra.IMultiplierOperation#operate(au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Double> operate(IMatrix<Double> A, IMatrix<Double> B) {
+		return operate(A, false, B, false);
+	}
+
+	/**
+	 * Produce product op(A)*op(B) in a new dense matrix
+	 * where op(X) is X or its transpose.
+	 * @param A
+	 * @param transA
+	 * @param B
+	 * @param transB
+	 * @return the product or null if the operands are not conformable.
+	 */
+	public IMatrix<Double> operate(IMatrix<Double> A, boolean transA, IMatrix<Double> B, boolean transB) {
+		int m = transA ? A.getSize().getCols() : A.getSize().getRows();
+		int n = transB ? B.getSize().getRows() : B.getSize().getCols();
+		DenseMatrix<Double> C = new DenseMatrix<Double>(m, n);
+		if (!operate(A, transA, B, transB, C)) return null;
+		return C;
+	}
+
+	/**
+	 * Produce C = op(A)*op(B) where op(X) is X or its transpose.
+	 * C must already have the dimensions of the product.
+	 * @param A
+	 * @param transA
+	 * @param B
+	 * @param transB
+	 * @param C
+	 * @return false if the operands are not conformable.
+	 */
+	public boolean operate(IMatrix A, boolean transA, IMatrix B, boolean transB, IMatrix C) {
+		Operand a = Operand.of(A, transA);
+		Operand b = Operand.of(B, transB);
+		if (a.cols != b.rows) {
+			System.err.println("A Cols != B Rows : " + a.rows + "," + a.cols + " " + b.rows + "," + b.cols);
+			return false;
+		}
+		if ((C.getSize().getRows() != a.rows) || (C.getSize().getCols() != b.cols)) {
+			System.err.println("C is not " + a.rows + "," + b.cols + " : " + C.getSize());
+			return false;
+		}
+		if (C instanceof DenseMatrix) {
+			product(a, b, ((DenseMatrix)C).getValues(), b.cols);
+		} else {
+			double[] c = new double[a.rows * b.cols];
+			product(a, b, c, b.cols);
+			if (C instanceof FloatMatrix) {
+				// accumulated in double, rounded once.
+				float[] f = ((FloatMatrix)C).getValues();
+				for(int i=0;i<c.length;i++) {
+					f[i] = (float)c[i];
+				}
+				return true;
+			}
+			for(int i=0;i<a.rows;i++) {
+				for(int j=0;j<b.cols;j++) {
+					C.set(i, j, c[i*b.cols + j]);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the whole product of a and b into the row major array c.
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param ldc
+	 */
+	protected void product(Operand a, Operand b, double[] c, int ldc) {
+		multiply(a, b, c, ldc, 0, a.rows, 0, b.cols);
+	}
+
+	/**
+	 * Compute the tile C[rowStart:rowEnd, colStart:colEnd] = A[rowStart:rowEnd, :] * B[:, colStart:colEnd]
+	 * into the row major array c with leading dimension ldc.
+	 * Only the cells of the tile are written.
+	 *
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param ldc
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param colStart
+	 * @param colEnd
+	 */
+	static void multiply(Operand a, Operand b, double[] c, int ldc, int rowStart, int rowEnd, int colStart, int colEnd) {
+		int k = a.cols;
+		long work = (long)(rowEnd - rowStart) * (colEnd - colStart) * k;
+		if ((work <= SMALL_PRODUCT) || (k == 0)) {
+			multiplySmall(a, b, c, ldc, rowStart, rowEnd, colStart, colEnd);
+			return;
+		}
+		double[] aPack = new double[MC * KC];
+		double[] bPack = new double[KC * Math.min(NC, roundUp(colEnd - colStart, NR))];
+		for(int jc=colStart;jc<colEnd;jc+=NC) {
+			int nc = Math.min(NC, colEnd - jc);
+			for(int pc=0;pc<k;pc+=KC) {
+				int kc = Math.min(KC, k - pc);
+				packB(b, pc, kc, jc, nc, bPack);
+				for(int ic=rowStart;ic<rowEnd;ic+=MC) {
+					int mc = Math.min(MC, rowEnd - ic);
+					packA(a, ic, mc, pc, kc, aPack);
+					for(int jr=0;jr<nc;jr+=NR) {
+						int nr = Math.min(NR, nc - jr);
+						for(int ir=0;ir<mc;ir+=MR) {
+							int mr = Math.min(MR, mc - ir);
+							kernel(kc, aPack, ir*kc, bPack, jr*kc, c, (ic + ir)*ldc + jc + jr, ldc, mr, nr, pc == 0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static int roundUp(int n, int r) {
+		return ((n + r - 1) / r) * r;
+	}
+
+	/**
+	 * Direct triple loop for products too small to be worth packing.
+	 */
+	private static void multiplySmall(Operand a, Operand b, double[] c, int ldc, int rowStart, int rowEnd, int colStart, int colEnd) {
+		int k = a.cols;
+		for(int i=rowStart;i<rowEnd;i++) {
+			int aRow = a.offset + i*a.rowStride;
+			for(int j=colStart;j<colEnd;j++) {
+				int bCol = b.offset + j*b.colStride;
+				double d = 0.0;
+				for(int p=0;p<k;p++) {
+					d += a.data[aRow + p*a.colStride] * b.data[bCol + p*b.rowStride];
+				}
+				c[i*ldc + j] = d;
+			}
+		}
+	}
+
+	/**
+	 * Pack the mc x kc block of A at (ic, pc) into MR row slivers.
+	 * Sliver s holds rows ic+s*MR .. ic+s*MR+MR-1 stored column by column,
+	 * rows past the edge are zero filled.
+	 */
+	private static void packA(Operand a, int ic, int mc, int pc, int kc, double[] aPack) {
+		int idx = 0;
+		for(int ir=0;ir<mc;ir+=MR) {
+			int mr = Math.min(MR, mc - ir);
+			for(int p=0;p<kc;p++) {
+				int src = a.offset + (ic + ir)*a.rowStride + (pc + p)*a.colStride;
+				int ii = 0;
+				for(;ii<mr;ii++) {
+					aPack[idx++] = a.data[src + ii*a.rowStride];
+				}
+				for(;ii<MR;ii++) {
+					aPack[idx++] = 0.0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pack the kc x nc block of B at (pc, jc) into NR column slivers.
+	 * Sliver s holds columns jc+s*NR .. jc+s*NR+NR-1 stored row by row,
+	 * columns past the edge are zero filled.
+	 */
+	private static void packB(Operand b, int pc, int kc, int jc, int nc, double[] bPack) {
+		int idx = 0;
+		for(int jr=0;jr<nc;jr+=NR) {
+			int nr = Math.min(NR, nc - jr);
+			for(int p=0;p<kc;p++) {
+				int src = b.offset + (pc + p)*b.rowStride + (jc + jr)*b.colStride;
+				int jj = 0;
+				for(;jj<nr;jj++) {
+					bPack[idx++] = b.data[src + jj*b.colStride];
+				}
+				for(;jj<NR;jj++) {
+					bPack[idx++] = 0.0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * MR x NR micro kernel over packed slivers.
+	 * Accumulates in sixteen locals and then stores (or adds)
+	 * the mr x nr valid corner into C.
+	 */
+	private static void kernel(int kc, double[] aPack, int aIdx, double[] bPack, int bIdx,
+			double[] c, int cIdx, int ldc, int mr, int nr, boolean overwrite) {
+		double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for(int p=0;p<kc;p++) {
+			double a0 = aPack[aIdx];
+			double a1 = aPack[aIdx + 1];
+			double a2 = aPack[aIdx + 2];
+			double a3 = aPack[aIdx + 3];
+			double b0 = bPack[bIdx];
+			double b1 = bPack[bIdx + 1];
+			double b2 = bPack[bIdx + 2];
+			double b3 = bPack[bIdx + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+			aIdx += MR;
+			bIdx += NR;
+		}
+		if ((mr == MR) && (nr == NR)) {
+			if (overwrite) {
+				c[cIdx] = c00; c[cIdx + 1] = c01; c[cIdx + 2] = c02; c[cIdx + 3] = c03;
+				cIdx += ldc;
+				c[cIdx] = c10; c[cIdx + 1] = c11; c[cIdx + 2] = c12; c[cIdx + 3] = c13;
+				cIdx += ldc;
+				c[cIdx] = c20; c[cIdx + 1] = c21; c[cIdx + 2] = c22; c[cIdx + 3] = c23;
+				cIdx += ldc;
+				c[cIdx] = c30; c[cIdx + 1] = c31; c[cIdx + 2] = c32; c[cIdx + 3] = c33;
+			} else {
+				c[cIdx] += c00; c[cIdx + 1] += c01; c[cIdx + 2] += c02; c[cIdx + 3] += c03;
+				cIdx += ldc;
+				c[cIdx] += c10; c[cIdx + 1] += c11; c[cIdx + 2] += c12; c[cIdx + 3] += c13;
+				cIdx += ldc;
+				c[cIdx] += c20; c[cIdx + 1] += c21; c[cIdx + 2] += c22; c[cIdx + 3] += c23;
+				cIdx += ldc;
+				c[cIdx] += c30; c[cIdx + 1] += c31; c[cIdx + 2] += c32; c[cIdx + 3] += c33;
+			}
+			return;
+		}
+		// edge of the block.
+		double[] acc = {
+				c00, c01, c02, c03,
+				c10, c11, c12, c13,
+				c20, c21, c22, c23,
+				c30, c31, c32, c33 };
+		for(int i=0;i<mr;i++) {
+			for(int j=0;j<nr;j++) {
+				if (overwrite)
+					c[cIdx + i*ldc + j] = acc[i*NR + j];
+				else
+					c[cIdx + i*ldc + j] += acc[i*NR + j];
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see au.id.cpd.algorithms.data.IMatrixOperation#operate(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Double> operate(IMatrix<Double> input) {
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see au.id.cpd.algorithms.data.IMatrixOperation#operate(java.lang.Number)
+	 */
+	public Double operate(Number input) {
+		return null;
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.algebra;
+
+/**
+ * Element-wise and reduction kernels over primitive double arrays.
+ *
+ * The element-wise loops are plain counted loops over arrays with no
+ * calls or branches in the body, the form the JIT compiles to packed
+ * SSE/AVX instructions. Reductions keep four independent accumulators
+ * so that consecutive adds do not wait on each other, which also
+ * means their rounding may differ from a left to right sum in the
+ * last bits.
+ *
+ * expApprox and tanhApprox are branch free polynomial approximations
+ * for the activation functions where Math.exp and Math.tanh dominate
+ * the cost. expApprox is within 2 units in the last place of
+ * StrictMath.exp over the range of normal results, rarely more than 1,
+ * and within Double.MIN_VALUE of it for subnormal results.
+ * tanhApprox is within 30 units in the last place of StrictMath.tanh,
+ * about 4e-15 relative, the largest errors lying just above |x| = 1/16.
+ *
+ * @author cd
+ *
+ */
+public final class DoubleKernels {
+
+	private static final double LOG2E = 1.4426950408889634;
+	/**
+	 * ln 2 split so that k*LN2_HI is exact for |k| < 2^11.
+	 */
+	private static final double LN2_HI = 6.93147180369123816490e-01;
+	private static final double LN2_LO = 1.90821492927058770002e-10;
+	/**
+	 * exp overflows above this.
+	 */
+	private static final double EXP_MAX = 709.782712893384;
+	/**
+	 * exp rounds to zero below this, between it and -708.39 the
+	 * result is subnormal.
+	 */
+	private static final double EXP_MIN = -745.1332191019411;
+	/**
+	 * tanh rounds to +-1 above this.
+	 */
+	private static final double TANH_ONE = 19.1;
+	/**
+	 * tanh uses its Taylor series below this.
+	 */
+	private static final double TANH_SMALL = 0.0625;
+	/**
+	 * 1.5 * 2^52, adding it rounds a double to an integer.
+	 */
+	private static final double SHIFTER = 6755399441055744.0;
+
+	private DoubleKernels() {
+	}
+
+	/**
+	 * r = a + b
+	 */
+	public static void add(double[] a, double[] b, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] + b[i];
+		}
+	}
+
+	/**
+	 * r = a - b
+	 */
+	public static void subtract(double[] a, double[] b, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] - b[i];
+		}
+	}
+
+	/**
+	 * r = a .* b
+	 */
+	public static void multiply(double[] a, double[] b, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] * b[i];
+		}
+	}
+
+	/**
+	 * r = a ./ b
+	 */
+	public static void divide(double[] a, double[] b, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] / b[i];
+		}
+	}
+
+	/**
+	 * r = s * a
+	 */
+	public static void scale(double[] a, double s, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] * s;
+		}
+	}
+
+	/**
+	 * r = a + s
+	 */
+	public static void addScalar(double[] a, double s, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = a[i] + s;
+		}
+	}
+
+	/**
+	 * y = y + alpha * x
+	 */
+	public static void axpy(double alpha, double[] x, double[] y, int n) {
+		for(int i=0;i<n;i++) {
+			y[i] += alpha * x[i];
+		}
+	}
+
+	/**
+	 * Sum of a[off] .. a[off+n-1].
+	 */
+	public static double sum(double[] a, int off, int n) {
+		return sum(a, off, 1, n);
+	}
+
+	/**
+	 * Sum of the n values a[off], a[off+stride], ...
+	 */
+	public static double sum(double[] a, int off, int stride, int n) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		int p = off;
+		for(;i+3<n;i+=4, p+=4*stride) {
+			s0 += a[p];
+			s1 += a[p + stride];
+			s2 += a[p + 2*stride];
+			s3 += a[p + 3*stride];
+		}
+		for(;i<n;i++, p+=stride) {
+			s0 += a[p];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Sum of a[i]*b[i] for i in 0 .. n-1.
+	 */
+	public static double dot(double[] a, double[] b, int n) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for(;i+3<n;i+=4) {
+			s0 += a[i] * b[i];
+			s1 += a[i+1] * b[i+1];
+			s2 += a[i+2] * b[i+2];
+			s3 += a[i+3] * b[i+3];
+		}
+		for(;i<n;i++) {
+			s0 += a[i] * b[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * The largest of from and a[0] .. a[n-1].
+	 * NaN values are ignored.
+	 */
+	public static double max(double[] a, int n, double from) {
+		double m0 = from, m1 = from, m2 = from, m3 = from;
+		int i = 0;
+		for(;i+3<n;i+=4) {
+			m0 = (a[i] > m0) ? a[i] : m0;
+			m1 = (a[i+1] > m1) ? a[i+1] : m1;
+			m2 = (a[i+2] > m2) ? a[i+2] : m2;
+			m3 = (a[i+3] > m3) ? a[i+3] : m3;
+		}
+		for(;i<n;i++) {
+			m0 = (a[i] > m0) ? a[i] : m0;
+		}
+		m0 = (m1 > m0) ? m1 : m0;
+		m2 = (m3 > m2) ? m3 : m2;
+		return (m2 > m0) ? m2 : m0;
+	}
+
+	/**
+	 * The smallest of from and a[0] .. a[n-1].
+	 * NaN values are ignored.
+	 */
+	public static double min(double[] a, int n, double from) {
+		double m0 = from, m1 = from, m2 = from, m3 = from;
+		int i = 0;
+		for(;i+3<n;i+=4) {
+			m0 = (a[i] < m0) ? a[i] : m0;
+			m1 = (a[i+1] < m1) ? a[i+1] : m1;
+			m2 = (a[i+2] < m2) ? a[i+2] : m2;
+			m3 = (a[i+3] < m3) ? a[i+3] : m3;
+		}
+		for(;i<n;i++) {
+			m0 = (a[i] < m0) ? a[i] : m0;
+		}
+		m0 = (m1 < m0) ? m1 : m0;
+		m2 = (m3 < m2) ? m3 : m2;
+		return (m2 < m0) ? m2 : m0;
+	}
+
+	/**
+	 * r = exp(a) using Math.exp.
+	 */
+	public static void exp(double[] a, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = Math.exp(a[i]);
+		}
+	}
+
+	/**
+	 * r = tanh(a) using Math.tanh.
+	 */
+	public static void tanh(double[] a, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = Math.tanh(a[i]);
+		}
+	}
+
+	/**
+	 * r = exp(a) using expApprox.
+	 */
+	public static void expApprox(double[] a, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = expApprox(a[i]);
+		}
+	}
+
+	/**
+	 * r = tanh(a) using tanhApprox.
+	 */
+	public static void tanhApprox(double[] a, double[] r, int n) {
+		for(int i=0;i<n;i++) {
+			r[i] = tanhApprox(a[i]);
+		}
+	}
+
+	/**
+	 * exp(x) = 2^k * exp(r) where x = k*ln2 + r and |r| <= ln2/2,
+	 * exp(r) is the degree 13 Taylor polynomial.
+	 * @param x
+	 * @return
+	 */
+	public static double expApprox(double x) {
+		double c = (x < EXP_MIN) ? EXP_MIN : x;
+		c = (c > EXP_MAX) ? EXP_MAX : c;
+		// round to nearest by adding and removing 1.5 * 2^52.
+		double k = (c * LOG2E + SHIFTER) - SHIFTER;
+		double r = (c - k*LN2_HI) - k*LN2_LO;
+		double p = 1.0/6227020800.0;
+		p = p*r + 1.0/479001600.0;
+		p = p*r + 1.0/39916800.0;
+		p = p*r + 1.0/3628800.0;
+		p = p*r + 1.0/362880.0;
+		p = p*r + 1.0/40320.0;
+		p = p*r + 1.0/5040.0;
+		p = p*r + 1.0/720.0;
+		p = p*r + 1.0/120.0;
+		p = p*r + 1.0/24.0;
+		p = p*r + 1.0/6.0;
+		p = p*r + 0.5;
+		p = p*r + 1.0;
+		p = p*r + 1.0;
+		// 2^k, k is in -1022 .. 1024 so apply it in two halves.
+		long h = (long)k >> 1;
+		double e = p * Double.longBitsToDouble((h + 1023) << 52)
+				* Double.longBitsToDouble(((long)k - h + 1023) << 52);
+		e = (x < EXP_MIN) ? 0.0 : e;
+		e = (x > EXP_MAX) ? Double.POSITIVE_INFINITY : e;
+		return (x != x) ? x : e;
+	}
+
+	/**
+	 * tanh(x) = 1 - 2/(exp(2x) + 1) for |x| >= 1/16,
+	 * otherwise its Taylor series to x^13.
+	 * @param x
+	 * @return
+	 */
+	public static double tanhApprox(double x) {
+		double ax = Math.abs(x);
+		ax = (ax > TANH_ONE) ? TANH_ONE : ax;
+		double t = 1.0 - 2.0 / (expApprox(2.0*ax) + 1.0);
+		double x2 = x*x;
+		double s = 21844.0/6081075.0;
+		s = s*x2 - 1382.0/155925.0;
+		s = s*x2 + 62.0/2835.0;
+		s = s*x2 - 17.0/315.0;
+		s = s*x2 + 2.0/15.0;
+		s = s*x2 - 1.0/3.0;
+		s = x + x*(s*x2);
+		t = (x < 0.0) ? -t : t;
+		return (Math.abs(x) < TANH_SMALL) ? s : t;
+	}
+}
@@ -5,6 +5,7 @@ package au.id.cpd.algorithms.algebra;
 
 import au.id.cpd.algorithms.data.IMatrix;
 import au.id.cpd.algorithms.data.Matrix;
+import au.id.cpd.algorithms.data.SparseMatrix;
 
 /**
  * @author cd
@@ -29,6 +30,9 @@ public class EuclideanDistanceMatrixOperation extends DistanceMatrixOperation {
 	 */
 	public IMatrix<Double> operate(IMatrix<Double> A, IMatrix<Double> B, Distance type) {
 		if (!A.getSize().equals(B.getSize())) return null;
+		if ((A instanceof SparseMatrix) && (B instanceof SparseMatrix)) {
+			return getSparseDistance((SparseMatrix)A, (SparseMatrix)B, type);
+		}
 		if (type == Distance.COLUMNS) {
 			return getColumnDistance(A, B);
 		} else {
@@ -75,6 +79,49 @@ public class EuclideanDistanceMatrixOperation extends DistanceMatrixOperation {
 	}
 
 
+	/**
+	 * Distances between sparse matrices visiting only the stored cells.
+	 * The rows of A and B are merged in column order so cells that
+	 * are zero in both matrices contribute nothing.
+	 * @param A
+	 * @param B
+	 * @param type
+	 * @return
+	 */
+	private IMatrix<Double> getSparseDistance(SparseMatrix A, SparseMatrix B, Distance type) {
+		int rows = A.getSize().getRows();
+		int cols = A.getSize().getCols();
+		double[] e = new double[(type == Distance.COLUMNS) ? cols : rows];
+		int[] aPtr = A.getRowPointers();
+		int[] aIdx = A.getColumnIndices();
+		double[] aVal = A.getNonZeroValues();
+		int[] bPtr = B.getRowPointers();
+		int[] bIdx = B.getColumnIndices();
+		double[] bVal = B.getNonZeroValues();
+		for(int i=0;i<rows;i++) {
+			int p = aPtr[i];
+			int q = bPtr[i];
+			while ((p < aPtr[i+1]) || (q < bPtr[i+1])) {
+				int cp = (p < aPtr[i+1]) ? aIdx[p] : Integer.MAX_VALUE;
+				int cq = (q < bPtr[i+1]) ? bIdx[q] : Integer.MAX_VALUE;
+				int j = Math.min(cp, cq);
+				double a = (cp == j) ? aVal[p++] : 0.0;
+				double b = (cq == j) ? bVal[q++] : 0.0;
+				double d = (a - b) * (a - b);
+				if (type == Distance.COLUMNS)
+					e[j] += d;
+				else
+					e[i] += d;
+			}
+		}
+		IMatrix<Double> distance = new Matrix<Double>(e.length, 1);
+		for(int i=0;i<e.length;i++) {
+			distance.set(i, 0, Math.sqrt(e[i]));
+		}
+		return distance;
+	}
+
+
 	/* (non-Javadoc)
 	 * @see au.id.cpd.algorithms.data.IMatrixOperation#operate(au.id.cpd.algorithms.data.IMatrix)
 	 */
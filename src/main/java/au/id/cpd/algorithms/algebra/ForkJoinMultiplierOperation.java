@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.algebra;
+
+import java.util.concurrent.*;
+
+/**
+ * Parallel matrix multiplication.
+ *
+ * The output is split recursively into 2D tiles which are computed
+ * by the blocked kernel on a fork join pool. Each task writes only the
+ * cells of its own tile, so no lock is held on the output.
+ *
+ * Products too small to be worth splitting are computed on the
+ * calling thread. An operation given a number of workers makes its pool
+ * on first use and keeps it for later products, the idle workers exit
+ * on their own.
+ *
+ * @author cd
+ *
+ */
+public class ForkJoinMultiplierOperation extends BlockedMultiplierOperation {
+
+	/**
+	 * Products with fewer multiply-adds than this are not run in parallel.
+	 */
+	private static final long PARALLEL_WORK = 64 * 64 * 64;
+	/**
+	 * Tiles no larger than MC x TILE_COLS are not split further
+	 * so that each task reuses its packed panels.
+	 */
+	private static final int TILE_COLS = 256;
+
+	/**
+	 * Number of worker threads, 0 uses the common pool.
+	 */
+	private volatile int parallelism;
+
+	/**
+	 * Pool of parallelism workers, null until first used.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Tile of the output computed by one task.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Operand a;
+		private final Operand b;
+		private final double[] c;
+		private final int ldc;
+		private final int rowStart;
+		private final int rowEnd;
+		private final int colStart;
+		private final int colEnd;
+
+		TileTask(Operand a, Operand b, double[] c, int ldc, int rowStart, int rowEnd, int colStart, int colEnd) {
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.ldc = ldc;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+			this.colStart = colStart;
+			this.colEnd = colEnd;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			int rows = rowEnd - rowStart;
+			int cols = colEnd - colStart;
+			if ((rows <= MC) && (cols <= TILE_COLS)) {
+				BlockedMultiplierOperation.multiply(a, b, c, ldc, rowStart, rowEnd, colStart, colEnd);
+				return;
+			}
+			// split the longer side on a register block boundary.
+			if ((rows > MC) && ((rows >= cols) || (cols <= TILE_COLS))) {
+				int mid = rowStart + align(rows / 2, MR);
+				invokeAll(new TileTask(a, b, c, ldc, rowStart, mid, colStart, colEnd),
+						new TileTask(a, b, c, ldc, mid, rowEnd, colStart, colEnd));
+			} else {
+				int mid = colStart + align(cols / 2, NR);
+				invokeAll(new TileTask(a, b, c, ldc, rowStart, rowEnd, colStart, mid),
+						new TileTask(a, b, c, ldc, rowStart, rowEnd, mid, colEnd));
+			}
+		}
+
+		private static int align(int n, int r) {
+			int m = (n / r) * r;
+			return (m == 0) ? r : m;
+		}
+	}
+
+	/**
+	 * Run on the common fork join pool.
+	 */
+	public ForkJoinMultiplierOperation() {
+		this(0);
+	}
+
+	/**
+	 * Run with the given number of worker threads.
+	 * @param parallelism number of workers, 0 uses the common pool.
+	 */
+	public ForkJoinMultiplierOperation(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Compute the product by splitting the output into tiles.
+	 * @see au.id.cpd.algorithms.algebra.BlockedMultiplierOperation#product(au.id.cpd.algorithms.algebra.BlockedMultiplierOperation.Operand, au.id.cpd.algorithms.algebra.BlockedMultiplierOperation.Operand, double[], int)
+	 */
+	@Override
+	protected void product(Operand a, Operand b, double[] c, int ldc) {
+		long work = (long)a.rows * b.cols * a.cols;
+		int workers = (parallelism <= 0) ? ForkJoinPool.getCommonPoolParallelism() : parallelism;
+		if ((work <= PARALLEL_WORK) || (workers <= 1)) {
+			super.product(a, b, c, ldc);
+			return;
+		}
+		pool().invoke(new TileTask(a, b, c, ldc, 0, a.rows, 0, b.cols));
+	}
+
+	/**
+	 * @return the pool the tiles are computed on.
+	 */
+	private synchronized ForkJoinPool pool() {
+		if (parallelism <= 0)
+			return ForkJoinPool.commonPool();
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * @return the number of worker threads, 0 for the common pool.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of worker threads, 0 for the common pool.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if ((pool != null) && (parallelism != this.parallelism)) {
+			// products already running finish on the old pool.
+			pool.shutdown();
+			pool = null;
+		}
+		this.parallelism = parallelism;
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.algebra;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Out of core matrix multiplication C = A*B for matrices held in files.
+ *
+ * C is computed a square tile at a time. The tile of C at (i,j) is the sum
+ * over k of the products of tile (i,k) of A and tile (k,j) of B, each of
+ * which is computed by the parallel blocked kernel. A background thread
+ * reads the next pair of tiles of A and B and writes finished tiles of C
+ * while the current pair is multiplied, so the disk and the processors are
+ * kept busy together.
+ *
+ * At most seven tiles are held in memory: two pairs of A and B tiles,
+ * two tiles of C and a partial product. The tile size is the largest that
+ * keeps these within the memory budget.
+ *
+ * Any IMatrix may be used as an operand, MatrixBuffers and OffHeapMatrices
+ * are read and written a block at a time. C must not be either of A or B.
+ * Tiles are a whole number of the tiles of a tiled MatrixBuffer.
+ *
+ * @author cd
+ *
+ */
+public class OutOfCoreMultiplierOperation implements IMultiplierOperation {
+
+	/**
+	 * Memory budget used by the default constructor, 256MB.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * Tiles held at once for the budget.
+	 */
+	private static final int TILES = 7;
+
+	/**
+	 * Bytes of memory the tiles may use.
+	 */
+	private long memoryBudget;
+
+	/**
+	 * Multiplies a pair of tiles.
+	 */
+	private ForkJoinMultiplierOperation kernel = new ForkJoinMultiplierOperation();
+
+	public OutOfCoreMultiplierOperation() {
+		this(DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param memoryBudget bytes of memory the tiles may use.
+	 */
+	public OutOfCoreMultiplierOperation(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * The rows and columns in a tile for the memory budget,
+	 * a multiple of the register block of the kernel.
+	 * @return
+	 */
+	public int getTileSize() {
+		long cells = memoryBudget / (TILES * 8L);
+		long t = (long)Math.sqrt((double)cells);
+		t = Math.min(t, (long)Math.sqrt((double)Integer.MAX_VALUE));
+		t = (t / BlockedMultiplierOperation.MR) * BlockedMultiplierOperation.MR;
+		return (int)Math.max(t, BlockedMultiplierOperation.MR);
+	}
+
+	/**
+	 * Produce product C of A*B.
+	 * @see au.id.cpd.algorithms.algebra.IMultiplierOperation#operate(au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public void operate(IMatrix<Double> A, IMatrix<Double> B, IMatrix<Double> C) {
+		multiply(A, B, C);
+	}
+
+	/**
+	 * Produce product A*B in a new temporary MatrixBuffer.
+	 * @see au.id.cpd.algorithms.algebra.IMultiplierOperation#operate(au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Double> operate(IMatrix<Double> A, IMatrix<Double> B) {
+		MatrixBuffer<Double> C = MatrixBuffer.CreateMatrixBuffer(A.getSize().getRows(), B.getSize().getCols());
+		if ((C == null) || !multiply(A, B, C)) return null;
+		return C;
+	}
+
+	/**
+	 * Produce C = A*B.
+	 * C must already have the dimensions of the product.
+	 * @param A
+	 * @param B
+	 * @param C
+	 * @return false if the operands are not conformable or a tile cannot be read or written.
+	 */
+	public boolean multiply(IMatrix A, IMatrix B, IMatrix C) {
+		int m = A.getSize().getRows();
+		int k = A.getSize().getCols();
+		int n = B.getSize().getCols();
+		if (k != B.getSize().getRows()) {
+			System.err.println("A Cols != B Rows : " + m + "," + k + " " + B.getSize().getRows() + "," + n);
+			return false;
+		}
+		if ((C.getSize().getRows() != m) || (C.getSize().getCols() != n)) {
+			System.err.println("C is not " + m + "," + n + " : " + C.getSize());
+			return false;
+		}
+		if ((m == 0) || (n == 0)) return true;
+		int t = align(align(align(getTileSize(), A), B), C);
+		// one step per pair of tiles, in the order they are multiplied.
+		List<Step> steps = new ArrayList<Step>();
+		for(int i=0;i<m;i+=t) {
+			for(int j=0;j<n;j+=t) {
+				if (k == 0) {
+					steps.add(new Step(i, Math.min(t, m - i), j, Math.min(t, n - j), 0, 0, true));
+				}
+				for(int p=0;p<k;p+=t) {
+					steps.add(new Step(i, Math.min(t, m - i), j, Math.min(t, n - j), p, Math.min(t, k - p), p + t >= k));
+				}
+			}
+		}
+		// tiles are no larger than the matrices.
+		int tm = Math.min(t, m);
+		int tn = Math.min(t, n);
+		int tk = Math.min(t, k);
+		double[][] aTiles = new double[][] { new double[tm*tk], new double[tm*tk] };
+		double[][] bTiles = new double[][] { new double[tk*tn], new double[tk*tn] };
+		double[][] cTiles = new double[][] { new double[tm*tn], new double[tm*tn] };
+		double[] partial = new double[tm*tn];
+		ExecutorService io = Executors.newSingleThreadExecutor();
+		try {
+			Future<Boolean> read = io.submit(new ReadTiles(A, B, steps.get(0), aTiles[0], bTiles[0]));
+			Future<Boolean>[] written = new Future[2];
+			int c = 0;
+			for(int s=0;s<steps.size();s++) {
+				Step step = steps.get(s);
+				if (!read.get()) return false;
+				if (s + 1 < steps.size()) {
+					read = io.submit(new ReadTiles(A, B, steps.get(s + 1), aTiles[(s + 1) % 2], bTiles[(s + 1) % 2]));
+				}
+				double[] cTile = cTiles[c];
+				int cells = step.rows*step.cols;
+				if (step.depth == 0) {
+					Arrays.fill(cTile, 0, cells, 0.0);
+				} else {
+					BlockedMultiplierOperation.Operand a = new BlockedMultiplierOperation.Operand(aTiles[s % 2], 0, step.rows, step.depth, step.depth, 1);
+					BlockedMultiplierOperation.Operand b = new BlockedMultiplierOperation.Operand(bTiles[s % 2], 0, step.depth, step.cols, step.cols, 1);
+					if (step.depthStart == 0) {
+						kernel.product(a, b, cTile, step.cols);
+					} else {
+						kernel.product(a, b, partial, step.cols);
+						DoubleKernels.add(cTile, partial, cTile, cells);
+					}
+				}
+				if (step.last) {
+					written[c] = io.submit(new WriteTile(C, step, cTile));
+					// the other tile of C may still be being written.
+					c = 1 - c;
+					if ((written[c] != null) && !written[c].get()) return false;
+				}
+			}
+			for(int i=0;i<written.length;i++) {
+				if ((written[i] != null) && !written[i].get()) return false;
+			}
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			io.shutdown();
+		}
+		return false;
+	}
+
+	/**
+	 * Round t down to a whole number of the tiles m is stored in, so
+	 * a tile of the product reads whole tiles of the file.
+	 */
+	private static int align(int t, IMatrix m) {
+		if (m instanceof MatrixBuffer) {
+			int s = ((MatrixBuffer)m).getTileSize();
+			if ((s > 0) && (t >= s))
+				return t / s * s;
+		}
+		return t;
+	}
+
+	/**
+	 * Read the block of m at row, col into values, row major.
+	 */
+	private static boolean readTile(IMatrix m, int row, int col, int rows, int cols, double[] values) {
+		if (m instanceof MatrixBuffer)
+			return ((MatrixBuffer)m).readBlock(row, col, rows, cols, values);
+		if (m instanceof OffHeapMatrix)
+			return ((OffHeapMatrix)m).readBlock(row, col, rows, cols, values);
+		if (m instanceof DenseMatrix) {
+			double[] d = ((DenseMatrix)m).getValues();
+			int ld = m.getSize().getCols();
+			for(int i=0;i<rows;i++) {
+				System.arraycopy(d, (row + i)*ld + col, values, i*cols, cols);
+			}
+			return true;
+		}
+		for(int i=0;i<rows;i++) {
+			for(int j=0;j<cols;j++) {
+				java.lang.Number v = m.get(row + i, col + j);
+				values[i*cols + j] = (v != null) ? v.doubleValue() : 0.0;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write values, row major, to the block of m at row, col.
+	 */
+	private static boolean writeTile(IMatrix m, int row, int col, int rows, int cols, double[] values) {
+		if (m instanceof MatrixBuffer)
+			return ((MatrixBuffer)m).writeBlock(row, col, rows, cols, values);
+		if (m instanceof OffHeapMatrix)
+			return ((OffHeapMatrix)m).writeBlock(row, col, rows, cols, values);
+		if (m instanceof DenseMatrix) {
+			double[] d = ((DenseMatrix)m).getValues();
+			int ld = m.getSize().getCols();
+			for(int i=0;i<rows;i++) {
+				System.arraycopy(values, i*cols, d, (row + i)*ld + col, cols);
+			}
+			return true;
+		}
+		for(int i=0;i<rows;i++) {
+			for(int j=0;j<cols;j++) {
+				m.set(row + i, col + j, values[i*cols + j]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The tiles of A, B and C used in one multiplication.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class Step {
+		final int rowStart;
+		final int rows;
+		final int colStart;
+		final int cols;
+		final int depthStart;
+		final int depth;
+		/**
+		 * The tile of C is complete after this step.
+		 */
+		final boolean last;
+
+		Step(int rowStart, int rows, int colStart, int cols, int depthStart, int depth, boolean last) {
+			this.rowStart = rowStart;
+			this.rows = rows;
+			this.colStart = colStart;
+			this.cols = cols;
+			this.depthStart = depthStart;
+			this.depth = depth;
+			this.last = last;
+		}
+	}
+
+	/**
+	 * Read the tiles of A and B for a step.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class ReadTiles implements Callable<Boolean> {
+		private final IMatrix A;
+		private final IMatrix B;
+		private final Step step;
+		private final double[] aTile;
+		private final double[] bTile;
+
+		ReadTiles(IMatrix A, IMatrix B, Step step, double[] aTile, double[] bTile) {
+			this.A = A;
+			this.B = B;
+			this.step = step;
+			this.aTile = aTile;
+			this.bTile = bTile;
+		}
+
+		public Boolean call() {
+			if (step.depth == 0) return true;
+			return readTile(A, step.rowStart, step.depthStart, step.rows, step.depth, aTile)
+					&& readTile(B, step.depthStart, step.colStart, step.depth, step.cols, bTile);
+		}
+	}
+
+	/**
+	 * Write a finished tile of C.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class WriteTile implements Callable<Boolean> {
+		private final IMatrix C;
+		private final Step step;
+		private final double[] cTile;
+
+		WriteTile(IMatrix C, Step step, double[] cTile) {
+			this.C = C;
+			this.step = step;
+			this.cTile = cTile;
+		}
+
+		public Boolean call() {
+			return writeTile(C, step.rowStart, step.colStart, step.rows, step.cols, cTile);
+		}
+	}
+
+	/**
+	 * @return the memory budget in bytes.
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget bytes of memory the tiles may use.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see au.id.cpd.algorithms.data.IMatrixOperation#operate(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Double> operate(IMatrix<Double> input) {
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see au.id.cpd.algorithms.data.IMatrixOperation#operate(java.lang.Number)
+	 */
+	public Double operate(Number input) {
+		return null;
+	}
+}
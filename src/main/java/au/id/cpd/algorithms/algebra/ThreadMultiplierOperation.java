@@ -9,8 +9,10 @@ import au.id.cpd.algorithms.data.*;
 
 /**
  * @author cd
- * 
+ * @deprecated starts a thread per column and serialises them on C,
+ * use {@link ForkJoinMultiplierOperation}.
  */
+@Deprecated
 public class ThreadMultiplierOperation implements IMultiplierOperation {
 
 	/**
@@ -55,7 +55,7 @@ public class PerceptronActivator implements IUnitActivator, IMatrixOperation, ja
 	public List<IMatrix<Double>> activate(IMatrix<Double> W, IMatrix<Double> X, double A, double T) {
 		List<IMatrix<Double>> out = new ArrayList<IMatrix<Double>>();
 		// h = w'x
-		IMatrix<Double> h = W.transform().multiply(X.transform());
+		IMatrix<Double> h = W.transposeView().multiply(X.transposeView());
 		h = h.operate(this);
 		out.add(h);
 		// not differentiable, so we initialise the do to ones.
@@ -69,9 +69,10 @@ public class RadialBasisActivator implements IUnitActivator, java.io.Serializabl
 	public List<IMatrix<Double>> activate(IMatrix<Double> W, IMatrix<Double> X, double A, double T) {
 		List<IMatrix<Double>> out = new ArrayList<IMatrix<Double>>();
 		// h = w'x
-		IMatrix<Double> h = W.transform().multiply(X.transform());
-		IMatrix<Double> o = h.tanh();
-		IMatrix<Double> d = o.sum(1.0).multiply(o.subtractFrom(1.0));
+		IMatrix<Double> h = W.transposeView().multiply(X.transposeView());
+		IMatrix<Double> o = h.lazy().tanh().evaluate();
+		// do = (1 + o) * (1 - o)
+		IMatrix<Double> d = o.lazy().sum(1.0).pointwiseMultiply(o.lazy().subtractFrom(1.0)).evaluate();
 		out.add(o);
 		out.add(d);
 		return out;
@@ -54,17 +54,13 @@ public class SigmoidActivator implements IUnitActivator, java.io.Serializable {
 			T = 1.0;
 		List<IMatrix<Double>> out = new ArrayList<IMatrix<Double>>();
 		// h = w'x
-		IMatrix<Double> h = W.transform().multiply(X.transform());
-		IMatrix<Double> a = Matrix.ones(h.getSize().getRows(), h.getSize().getCols());
-		a = a.multiply(A);
+		IMatrix<Double> h = W.transposeView().multiply(X.transposeView());
 		// A / (1 + exp(-Th) 
-		IMatrix<Double> o = h.multiply(-1.0*T);
-		// 1 / n = 0.1*n
-		o = a.pointwiseDivide(o.exp().sum(1.0));
+		IMatrix<Double> o = h.lazy().multiply(-1.0*T).exp().sum(1.0).divisorOf(A).evaluate();
 		out.add(o);
 		// differentiate.
 		// do = T * o * (A - o)
-		IMatrix<Double> d = o.multiply(T).pointwiseMultiply(a.subtract(o));
+		IMatrix<Double> d = o.lazy().multiply(T).pointwiseMultiply(o.lazy().subtractFrom(A)).evaluate();
 		out.add(d);
 		return out;
 	}
@@ -54,7 +54,9 @@ public class TanSigmoidActivator implements IUnitActivator, java.io.Serializable
 	}
 	
 	/**
-	 * Activate the neuron using the supplied matrices
+	 * Activate the neuron using the supplied matrices.
+	 * The outputs are computed with MatrixExpression.tanhApprox, within
+	 * 30 units in the last place of Math.tanh.
 	 * 
 	 * @param W - weight matrix
 	 * @param X - input matrix
@@ -65,9 +67,10 @@ public class TanSigmoidActivator implements IUnitActivator, java.io.Serializable
 	public List<IMatrix<Double>> activate(IMatrix<Double> W, IMatrix<Double> X, double A, double T) {
 		List<IMatrix<Double>> out = new ArrayList<IMatrix<Double>>();
 		// h = w'x
-		IMatrix<Double> h = W.transform().multiply(X.transform());
-		IMatrix<Double> o = h.tanh();
-		IMatrix<Double> d = o.sum(1.0).multiply(o.subtractFrom(1.0));
+		IMatrix<Double> h = W.transposeView().multiply(X.transposeView());
+		IMatrix<Double> o = h.lazy().tanhApprox().evaluate();
+		// do = (1 + o) * (1 - o)
+		IMatrix<Double> d = o.lazy().sum(1.0).pointwiseMultiply(o.lazy().subtractFrom(1.0)).evaluate();
 		out.add(o);
 		out.add(d);
 		return out;
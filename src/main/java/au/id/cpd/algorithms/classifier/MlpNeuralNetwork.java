@@ -249,34 +249,124 @@ public class MlpNeuralNetwork extends Subject implements java.io.Serializable {
 	 */
 	public void initialiseData(IMatrix<Double> tData) {
 		// we need to copy the targets from the target data.
-		targets = new Matrix<Double>(tData.getSize().getRows(), outputCount);
+		targets = new DenseMatrix<Double>(tData.getSize().getRows(), outputCount);
 		for(int j=0;j<targetColumns.size();j++) {
 			for(int i=0;i<tData.getSize().getRows();i++) {
 				targets.set(i, j, tData.get(i, targetColumns.get(j)));
 			}
 		}
-		data = new Matrix<Double>(tData.getSize().getRows(), tData.getSize().getCols() + 1);
+		if (tData instanceof SparseMatrix) {
+			initialiseSparseData((SparseMatrix<Double>)tData);
+			return;
+		}
+		int cols = tData.getSize().getCols();
+		int[] position = dataColumns(cols);
+		int n = dataColumnCount(position);
+		data = new DenseMatrix<Double>(tData.getSize().getRows(), n + 1);
 		for(int i=0;i<tData.getSize().getRows();i++) {
-			for(int j=0;j<tData.getSize().getCols()+1;j++) {
-				if (j <tData.getSize().getCols()) {
-					data.set(i, j, tData.get(i,j));
-				} else {
-					// allow for network bias.
-					data.set(i, j, -1.0);
+			for(int j=0;j<cols;j++) {
+				if (position[j] >= 0) {
+					data.set(i, position[j], tData.get(i,j));
 				}
 			}
+			// allow for network bias.
+			data.set(i, n, -1.0);
 		}
-		// remove the data columns from the data.
+	}
+
+	/**
+	 * Position of each column of the supplied data once the target
+	 * columns are removed, -1 for a target column.
+	 * Every initialiseData path uses this so that they agree on the
+	 * data columns, whatever the order of the target columns.
+	 * @param cols columns of the supplied data.
+	 * @return
+	 */
+	private int[] dataColumns(int cols) {
+		int[] position = new int[cols];
 		for(int j=0;j<targetColumns.size();j++) {
-			data.removeColumn(targetColumns.get(j));
-			if (j < targetColumns.size() - 1) {
-				// if the next target column is larger than the one we
-				// have just removed, then decrement it.
-				if (targetColumns.get(j + 1) > targetColumns.get(j)) {
-					targetColumns.set(j + 1, targetColumns.get(j + 1) - 1);
-				}
+			position[targetColumns.get(j)] = -1;
+		}
+		int n = 0;
+		for(int j=0;j<cols;j++) {
+			if (position[j] == 0) {
+				position[j] = n++;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * @param position as returned by dataColumns.
+	 * @return the number of data columns.
+	 */
+	private static int dataColumnCount(int[] position) {
+		int n = 0;
+		for(int j=0;j<position.length;j++) {
+			if (position[j] >= 0) n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * Initialise Data from a column file.
+	 * Only the columns that are used are read, the target columns into
+	 * the targets and the remaining columns, followed by the network bias,
+	 * into the data, as by initialiseData(IMatrix).
+	 * @param file
+	 * @throws IOException
+	 */
+	public void initialiseData(ColumnFile file) throws java.io.IOException {
+		int rows = file.getSize().getRows();
+		int cols = file.getSize().getCols();
+		DenseMatrix<Double> t = new DenseMatrix<Double>(rows, outputCount);
+		for(int j=0;j<targetColumns.size();j++) {
+			file.readColumn(targetColumns.get(j), t.getValues(), j, outputCount);
+		}
+		int[] position = dataColumns(cols);
+		int n = dataColumnCount(position);
+		DenseMatrix<Double> d = new DenseMatrix<Double>(rows, n + 1);
+		double[] values = d.getValues();
+		for(int j=0;j<cols;j++) {
+			if (position[j] < 0) continue;
+			file.readColumn(j, values, position[j], n + 1);
+		}
+		// allow for network bias.
+		for(int i=0;i<rows;i++) {
+			values[i*(n + 1) + n] = -1.0;
+		}
+		targets = t;
+		data = d;
+	}
+
+	/**
+	 * Initialise sparse data.
+	 * The non-zero cells of each row are copied with the bias appended
+	 * so that the data is never expanded to a dense matrix.
+	 * @param tData
+	 */
+	private void initialiseSparseData(SparseMatrix<Double> tData) {
+		int[] position = dataColumns(tData.getSize().getCols());
+		int n = dataColumnCount(position);
+		SparseMatrix<Double> sparse = new SparseMatrix<Double>(0, n + 1);
+		int[] rowPtr = tData.getRowPointers();
+		int[] colIdx = tData.getColumnIndices();
+		double[] vals = tData.getNonZeroValues();
+		int[] c = new int[n + 1];
+		double[] v = new double[n + 1];
+		for(int i=0;i<tData.getSize().getRows();i++) {
+			int count = 0;
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				if (position[colIdx[k]] < 0) continue;
+				c[count] = position[colIdx[k]];
+				v[count++] = vals[k];
 			}
+			// allow for network bias.
+			c[count] = n;
+			v[count++] = -1.0;
+			sparse.addRow(c, v, count);
 		}
+		data = sparse;
 	}
 	
 	/**
@@ -388,10 +478,10 @@ public class MlpNeuralNetwork extends Subject implements java.io.Serializable {
 		out = propogation.get(sz - 1);
 		sz--;
 		// dw = r*g*x' = r * mom * g * x'
-		IMatrix<Double> deltaWeights = out.get(0).multiply(gradient.transform()).multiply(r);
-		// now we update the outputWeights.
-		// w = w + dw
-		this.outputWeights = this.outputWeights.sum(deltaWeights);
+		IMatrix<Double> deltaWeights = out.get(0).multiply(gradient.transform());
+		// now we update the outputWeights in place.
+		// w = w + r * dw
+		this.outputWeights.axpy(r, deltaWeights);
 		IMatrix<Double> pw = this.outputWeights;
 		// now we transfer through the network.
 		// TODO: work out the right transforms for the hidden layers.
@@ -404,13 +494,13 @@ public class MlpNeuralNetwork extends Subject implements java.io.Serializable {
 				out = propogation.get(sz - 1);
 				sz--;
 				// the previous layer is a hidden layer.
-				deltaWeights = out.get(0).multiply(gradient.transform()).multiply(r);
+				deltaWeights = out.get(0).multiply(gradient.transform());
 			} else {
 				// at the previous layer we have the input layer.
-				deltaWeights = data.transform().multiply(gradient.transform()).multiply(r);
+				deltaWeights = data.transform().multiply(gradient.transform());
 			}
 			// deltaWeights must be the same dimension as hiddenWeights j
-			this.hiddenWeights.set(j, this.hiddenWeights.get(j).sum(deltaWeights));
+			this.hiddenWeights.get(j).axpy(r, deltaWeights);
 		}
 		return errorsMat;
 	}
@@ -791,6 +881,13 @@ public class MlpNeuralNetwork extends Subject implements java.io.Serializable {
 		this.errorThreshold = errorThreshold;
 	}
 
+	/**
+	 * @return the data prepared by initialiseData, with the bias column.
+	 */
+	public IMatrix<Double> getData() {
+		return data;
+	}
+
 	/**
 	 * @return the targets
 	 */
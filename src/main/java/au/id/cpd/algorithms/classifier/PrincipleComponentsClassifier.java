@@ -175,8 +175,8 @@ public class PrincipleComponentsClassifier {
 		//System.err.println();
 		//System.err.println("Transform: " + t.getRow(0));
 		
-		featureMatrix = workingData.transform().multiply(sortedEigenVectors.transform());
-		featureMatrix = featureMatrix.transform();
+		// (W'E')' = EW, computed without transposing either operand.
+		featureMatrix = sortedEigenVectors.multiply(workingData);
 		System.err.println();
 		System.out.println("Feature Matrix Size: " + featureMatrix.getSize().toString());
 		System.err.println();
@@ -198,7 +198,7 @@ public class PrincipleComponentsClassifier {
 	 */
 	public IMatrix<Double> project(IMatrix<Double> image, IMatrix<Double> meanImage, IMatrix<Double> vectors) {
 		IMatrix<Double> difference = image.subtract(meanImage);
-		return vectors.multiply(difference.transform());
+		return vectors.multiply(difference.transposeView());
 	}
 	
 	/**
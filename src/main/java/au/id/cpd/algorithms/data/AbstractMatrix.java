@@ -12,6 +12,8 @@ import java.util.List;
 import java.util.Random;
 import java.util.Vector;
 
+import au.id.cpd.algorithms.algebra.ForkJoinMultiplierOperation;
+
 
 /**
  * @author cd
@@ -34,6 +36,41 @@ public abstract class AbstractMatrix<Number> implements au.id.cpd.algorithms.dat
 	 */
 	public void close() {}
 	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#lazy()
+	 */
+	public MatrixExpression lazy() {
+		return new MatrixExpression(this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#transposeView()
+	 */
+	public IMatrix<Number> transposeView() {
+		return MatrixView.transpose(this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsView(int, int)
+	 */
+	public IMatrix<Number> rowsView(int start, int end) {
+		return MatrixView.rows(this, start, end);
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnsView(int, int)
+	 */
+	public IMatrix<Number> columnsView(int start, int end) {
+		return MatrixView.columns(this, start, end);
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#blockView(int, int, int, int, int, int)
+	 */
+	public IMatrix<Number> blockView(int row, int col, int rows, int cols, int rowStep, int colStep) {
+		return MatrixView.block(this, row, col, rows, cols, rowStep, colStep);
+	}
+	
 	
 	/* (non-Javadoc)
 	 * @see au.id.cpd.algorithms.data.IMatrix#getSize()
@@ -435,18 +472,27 @@ public abstract class AbstractMatrix<Number> implements au.id.cpd.algorithms.dat
 		int cols = this.getSize().getCols();
 		if (rows != cols) return null;
 		
-		Double d = new Double(0);
-		for(int j=0;j<matrix.getSize().getCols();j++) {
-			for(int i=0;i<this.getSize().getRows();i++) {
-				for(int k=0;k<matrix.getSize().getRows();k++) {
-					// Acols == Brows
-					// sum A(i,k)*B(k,j)
-					d += this.get(i, k).doubleValue() * matrix.get(k, j).doubleValue();
-				}
-				result.set(i,j,d);
-				d = new Double(0);
-			}
+		if ((matrix instanceof SparseMatrix) && (result instanceof DenseMatrix)) {
+			DenseMatrix a = (this instanceof DenseMatrix) ? (DenseMatrix)this : new DenseMatrix(this);
+			SparseMatrix.multiply(a, (SparseMatrix)matrix, (DenseMatrix)result);
+			return result;
 		}
+		if (!new ForkJoinMultiplierOperation().operate(this, false, matrix, false, result))
+			return null;
+		return result;
+	}
+	
+	/**
+	 * Multiply this matrix by the transpose of the supplied matrix
+	 * without creating the transposed matrix.
+	 * @param matrix
+	 * @param result a matrix of this.rows x matrix.rows
+	 * @return result or null if the matrices are not conformable.
+	 */
+	protected IMatrix<Number> multiplyTransposed(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (matrix.getSize().getCols() != this.getSize().getCols()) return null;
+		if (!new ForkJoinMultiplierOperation().operate(this, false, matrix, true, result))
+			return null;
 		return result;
 	}
 	
@@ -881,6 +927,46 @@ public abstract class AbstractMatrix<Number> implements au.id.cpd.algorithms.dat
 		return result;
 	}
 	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#addInPlace(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> addInPlace(IMatrix<Number> matrix) {
+		return axpy(1.0, matrix);
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#scaleInPlace(double)
+	 */
+	public IMatrix<Number> scaleInPlace(double alpha) {
+		for(int i=0;i<this.getSize().getRows();i++) {
+			for(int j=0;j<this.getSize().getCols();j++) {
+				this.set(i, j, alpha*this.get(i,j).doubleValue());
+			}
+		}
+		return this;
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#axpy(double, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x) {
+		if (this.getSize().compareTo(x.getSize()) != 0) return null;
+		for(int i=0;i<this.getSize().getRows();i++) {
+			for(int j=0;j<this.getSize().getCols();j++) {
+				double a = this.get(i,j).doubleValue();
+				this.set(i, j, a + alpha*x.get(i,j).doubleValue());
+			}
+		}
+		return this;
+	}
+	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#hadamardInPlace(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> hadamardInPlace(IMatrix<Number> matrix) {
+		return pointwiseMultiply(matrix, this);
+	}
+	
 	/* (non-Javadoc)
 	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
 	 */
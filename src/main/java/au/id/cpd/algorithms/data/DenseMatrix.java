@@ -0,0 +1,1058 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import java.io.*;
+import au.id.cpd.algorithms.data.io.*;
+import au.id.cpd.algorithms.algebra.DoubleKernels;
+
+/**
+ * A dense matrix of primitive doubles.
+ *
+ * Values are held in a single row major double array
+ * so that a cell costs 8 bytes rather than a boxed Double
+ * and reading or writing a cell does not allocate.
+ *
+ * Use getDouble and setDouble in preference to get and set
+ * where the caller is working with primitive values.
+ *
+ * @author cd
+ *
+ */
+public class DenseMatrix<Number> extends AbstractMatrix<Number> {
+
+	/**
+	 * serial version id.
+	 */
+	static final long serialVersionUID = 4312207316451931742L;
+
+	/**
+	 * @serial row major array of values.
+	 */
+	private double[] values;
+
+	/**
+	 * @serial number of cells filled by add(Object).
+	 */
+	private int filled;
+
+	public DenseMatrix() {
+		this(0, 0);
+	}
+
+	public DenseMatrix(int rows, int cols) {
+		setSize(new Size(rows, cols));
+		this.values = new double[rows*cols];
+	}
+
+	public DenseMatrix(Size s) {
+		this(s.getRows(), s.getCols());
+	}
+
+	/**
+	 * Wrap the supplied row major array.
+	 * The array is not copied.
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 */
+	public DenseMatrix(int rows, int cols, double[] values) {
+		if (values.length != rows*cols)
+			throw new IllegalArgumentException("Expected " + (rows*cols) + " values but found " + values.length);
+		setSize(new Size(rows, cols));
+		this.values = values;
+		this.filled = values.length;
+	}
+
+	/**
+	 * Copy the supplied matrix into a new dense matrix.
+	 * @param m
+	 */
+	public DenseMatrix(IMatrix m) {
+		this(m.getSize().getRows(), m.getSize().getCols());
+		if (m instanceof DenseMatrix) {
+			System.arraycopy(((DenseMatrix)m).values, 0, values, 0, values.length);
+		} else if (m instanceof FloatMatrix) {
+			float[] f = ((FloatMatrix)m).getValues();
+			for(int i=0;i<values.length;i++) {
+				values[i] = f[i];
+			}
+		} else {
+			int cols = getSize().getCols();
+			for(int i=0;i<getSize().getRows();i++) {
+				for(int j=0;j<cols;j++) {
+					java.lang.Number n = m.get(i, j);
+					values[i*cols + j] = (n != null) ? n.doubleValue() : 0.0;
+				}
+			}
+		}
+		this.filled = values.length;
+	}
+
+	/**
+	 * Return a dense matrix of ones of dimension rows x cols
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public static DenseMatrix<Double> ones(int rows, int cols) {
+		DenseMatrix<Double> m = new DenseMatrix<Double>(rows, cols);
+		Arrays.fill(m.values, 1.0);
+		return m;
+	}
+
+	/**
+	 * Return a dense matrix of zeroes of dimension rows x cols
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public static DenseMatrix<Double> zeroes(int rows, int cols) {
+		return new DenseMatrix<Double>(rows, cols);
+	}
+
+	/**
+	 * Construct a dense matrix with 1.0 in the diagonal.
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public static DenseMatrix<Double> identity(int rows, int cols) {
+		DenseMatrix<Double> m = new DenseMatrix<Double>(rows, cols);
+		for(int i=0;i<rows && i<cols;i++) {
+			m.values[i*cols + i] = 1.0;
+		}
+		return m;
+	}
+
+	/**
+	 * The backing row major array.
+	 * Element (i,j) is at i*cols + j.
+	 * @return
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Primitive access to the value at row, col.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double getDouble(int row, int col) {
+		return values[row*getSize().getCols() + col];
+	}
+
+	/**
+	 * Primitive assignment of the value at row, col.
+	 * @param row
+	 * @param col
+	 * @param v
+	 */
+	public void setDouble(int row, int col, double v) {
+		values[row*getSize().getCols() + col] = v;
+	}
+
+	/**
+	 * Read a numeric cell from any matrix without going through
+	 * the boxed accessor when the matrix is dense.
+	 */
+	private static double valueOf(IMatrix m, int row, int col) {
+		if (m instanceof DenseMatrix)
+			return ((DenseMatrix)m).getDouble(row, col);
+		java.lang.Number n = m.get(row, col);
+		return (n != null) ? n.doubleValue() : 0.0;
+	}
+
+	private static double toDouble(Object item) {
+		if (item == null) return 0.0;
+		return ((java.lang.Number)item).doubleValue();
+	}
+
+	private DenseMatrix<Number> like() {
+		return new DenseMatrix<Number>(getSize().getRows(), getSize().getCols());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clone()
+	 */
+	public DenseMatrix<Double> clone() {
+		DenseMatrix<Double> child = new DenseMatrix<Double>(getSize().getRows(), getSize().getCols(), values.clone());
+		child.filled = filled;
+		return child;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
+	 */
+	public void resize(Size s) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((s.getRows() == rows) && (s.getCols() == cols)) return;
+		double[] tmp;
+		if (s.getCols() == cols) {
+			tmp = Arrays.copyOf(values, s.getRows()*cols);
+		} else {
+			tmp = new double[s.getRows()*s.getCols()];
+			int r = Math.min(rows, s.getRows());
+			int c = Math.min(cols, s.getCols());
+			for(int i=0;i<r;i++) {
+				System.arraycopy(values, i*cols, tmp, i*s.getCols(), c);
+			}
+		}
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(s));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
+	 */
+	public IMatrix<Double> reshape(int rows, int cols) {
+		if (rows*cols > values.length) return null;
+		return new DenseMatrix<Double>(rows, cols, Arrays.copyOf(values, rows*cols));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#repmat(int, int)
+	 */
+	public IMatrix<Double> repmat(int x, int y) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		int newCols = cols*y;
+		DenseMatrix<Double> m = new DenseMatrix<Double>(rows*x, newCols);
+		for(int i=0;i<rows*x;i++) {
+			int src = (i % rows)*cols;
+			for(int k=0;k<y;k++) {
+				System.arraycopy(values, src, m.values, i*newCols + k*cols, cols);
+			}
+		}
+		return m;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
+	 */
+	public IMatrix<Number> transform() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Number> t = new DenseMatrix<Number>(cols, rows);
+		for(int i=0;i<rows;i++) {
+			int off = i*cols;
+			for(int j=0;j<cols;j++) {
+				t.values[j*rows + i] = values[off + j];
+			}
+		}
+		return t;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> multiply(IMatrix<Number> matrix) {
+		DenseMatrix<Number> result = new DenseMatrix<Number>(getSize().getRows(), matrix.getSize().getCols());
+		return multiply(matrix, result);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#covariance()
+	 */
+	@Override
+	public IMatrix<Number> covariance() {
+		DenseMatrix<Number> result = new DenseMatrix<Number>(getSize().getRows(), getSize().getRows());
+		return multiplyTransposed(this, result);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#ddot(int, au.id.cpd.algorithms.data.IMatrix, int)
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		int n = getSize().getCols();
+		int off = row*n;
+		double result = 0.0;
+		for(int k=0;k<n;k++) {
+			result += values[off + k] * valueOf(matrix, k, col);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
+	 */
+	public IMatrix<Number> multiply(Double m) {
+		return multiply(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> multiply(Double m, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.multiply(m, result);
+		double s = m;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.scale(values, s, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix) {
+		return pointwiseMultiply(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof DenseMatrix) || !(result instanceof DenseMatrix))
+			return super.pointwiseMultiply(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		double[] b = ((DenseMatrix)matrix).values;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.multiply(values, b, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix) {
+		return pointwiseDivide(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof DenseMatrix) || !(result instanceof DenseMatrix))
+			return super.pointwiseDivide(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		double[] b = ((DenseMatrix)matrix).values;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.divide(values, b, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
+	 */
+	public IMatrix<Number> divide(Double m) {
+		return divide(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> divide(Double m, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.divide(m, result);
+		double s = m;
+		double[] r = ((DenseMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			double v = values[i];
+			r[i] = (v != 0 && s != 0) ? v / s : v;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
+	 */
+	public IMatrix<Number> divisorOf(Double m) {
+		return divisorOf(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> divisorOf(Double m, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.divisorOf(m, result);
+		double s = m;
+		double[] r = ((DenseMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = s / values[i];
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public IMatrix<Number> operate(IMatrixOperation op) {
+		return operate(op, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
+	 */
+	public IMatrix<Number> exp() {
+		return exp(like());
+	}
+
+	@Override
+	public IMatrix<Number> exp(IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.exp(result);
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.exp(values, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
+	 */
+	public IMatrix<Number> tanh() {
+		return tanh(like());
+	}
+
+	@Override
+	public IMatrix<Number> tanh(IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.tanh(result);
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.tanh(values, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
+	 */
+	public IMatrix<Number> sin() {
+		return sin(like());
+	}
+
+	@Override
+	public IMatrix<Number> sin(IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.sin(result);
+		double[] r = ((DenseMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = Math.sin(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
+	 */
+	public IMatrix<Number> cos() {
+		return cos(like());
+	}
+
+	@Override
+	public IMatrix<Number> cos(IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.cos(result);
+		double[] r = ((DenseMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = Math.cos(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public IMatrix<Number> power(Double p) {
+		return power(p, like());
+	}
+
+	@Override
+	public IMatrix<Number> power(Double p, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.power(p, result);
+		double e = p;
+		double[] r = ((DenseMatrix)result).values;
+		if (e == 2.0) {
+			DoubleKernels.multiply(values, values, r, values.length);
+		} else {
+			for(int i=0;i<values.length;i++) {
+				r[i] = Math.pow(values[i], e);
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
+	 */
+	public IMatrix<Number> sum(Double b) {
+		return sum(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> sum(Double b, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.sum(b, result);
+		double s = b;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.addScalar(values, s, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> sum(IMatrix<Number> matrix) {
+		return sum(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> sum(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof DenseMatrix) || !(result instanceof DenseMatrix))
+			return super.sum(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		double[] b = ((DenseMatrix)matrix).values;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.add(values, b, r, values.length);
+		return result;
+	}
+
+	@Override
+	public IMatrix<Number> scaleInPlace(double alpha) {
+		DoubleKernels.scale(values, alpha, values, values.length);
+		return this;
+	}
+
+	@Override
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x) {
+		if (!(x instanceof DenseMatrix)) return super.axpy(alpha, x);
+		if (this.getSize().compareTo(x.getSize()) != 0) return null;
+		double[] b = ((DenseMatrix)x).values;
+		DoubleKernels.axpy(alpha, b, values, values.length);
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> subtract(IMatrix<Number> matrix) {
+		return subtract(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtract(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof DenseMatrix) || !(result instanceof DenseMatrix))
+			return super.subtract(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		double[] b = ((DenseMatrix)matrix).values;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.subtract(values, b, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
+	 */
+	public IMatrix<Number> subtract(Double b) {
+		return subtract(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtract(Double b, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.subtract(b, result);
+		double s = b;
+		double[] r = ((DenseMatrix)result).values;
+		DoubleKernels.addScalar(values, -s, r, values.length);
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
+	 */
+	public IMatrix<Number> subtractFrom(Double b) {
+		return subtractFrom(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtractFrom(Double b, IMatrix<Number> result) {
+		if (!(result instanceof DenseMatrix)) return super.subtractFrom(b, result);
+		double s = b;
+		double[] r = ((DenseMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = s - values[i];
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public IMatrix<Double> normalise() {
+		DenseMatrix<Double> normal = new DenseMatrix<Double>(getSize().getRows(), getSize().getCols());
+		return normalise(normal);
+	}
+
+	@Override
+	public IMatrix<Double> normalise(IMatrix<Double> normal) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if (rows == 1) return clone();
+		if (!(normal instanceof DenseMatrix)) return super.normalise(normal);
+		double[] means = new double[cols];
+		double[] std = new double[cols];
+		double[] max = new double[cols];
+		double[] min = new double[cols];
+		Arrays.fill(max, Double.MIN_VALUE);
+		Arrays.fill(min, Double.MAX_VALUE);
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				double val = values[off + k];
+				if (val < min[k]) min[k] = val;
+				if (val > max[k]) max[k] = val;
+				means[k] += val;
+			}
+		}
+		for(int k=0;k<cols;k++) {
+			means[k] = (means[k] != 0) ? means[k]/rows : 0.0;
+			std[k] = max[k] - min[k];
+		}
+		double[] r = ((DenseMatrix)normal).values;
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				double val = values[off + k] - means[k];
+				r[off + k] = (std[k] != 0) ? val/std[k] : val;
+			}
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise(int)
+	 */
+	public IMatrix<Double> normalise(int exclude) {
+		DenseMatrix<Double> norm = (DenseMatrix<Double>)this.normalise();
+		int cols = getSize().getCols();
+		for(int i=0;i<norm.getSize().getRows();i++) {
+			norm.values[i*cols + exclude] = values[i*cols + exclude];
+		}
+		return norm;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#meanNormalise()
+	 */
+	public IMatrix<Double> meanNormalise() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if (rows == 1) return clone();
+		DenseMatrix<Double> normal = new DenseMatrix<Double>(rows, cols);
+		double[] means = ((DenseMatrix)columnMeans()).values;
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				normal.values[off + k] = values[off + k] - means[k];
+			}
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#minMaxNormalise()
+	 */
+	public IMatrix<Double> minMaxNormalise() {
+		DenseMatrix<Double> normal = new DenseMatrix<Double>(getSize().getRows(), getSize().getCols());
+		double max = this.max();
+		double min = this.min();
+		double delta = max - min;
+		for(int i=0;i<values.length;i++) {
+			double val = values[i];
+			normal.values[i] = ((val != 0.0) && (delta != 0.0)) ? (val - min) / delta : val;
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsMeans()
+	 */
+	public IMatrix<Double> rowsMeans() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(rows, 1);
+		for(int j=0;j<rows;j++) {
+			double sum = DoubleKernels.sum(values, j*cols, cols);
+			// as per AbstractMatrix.rowsMeans.
+			means.values[j] = (sum != 0) ? sum/rows : 0.0;
+		}
+		return means;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnMeans()
+	 */
+	public IMatrix<Double> columnMeans() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(1, cols);
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				means.values[k] += values[off + k];
+			}
+		}
+		for(int k=0;k<cols;k++) {
+			means.values[k] = (means.values[k] != 0) ? means.values[k]/rows : 0.0;
+		}
+		return means;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
+	 */
+	public IMatrix<Double> shuffle() {
+		DenseMatrix<Double> shuffled = new DenseMatrix<Double>(getSize().getRows(), getSize().getCols());
+		return shuffle(shuffled);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#euclideanNorm()
+	 */
+	public double euclideanNorm() {
+		return Math.sqrt(DoubleKernels.dot(values, values, values.length));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#max()
+	 */
+	public double max() {
+		return DoubleKernels.max(values, values.length, Double.MIN_VALUE);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#min()
+	 */
+	public double min() {
+		return DoubleKernels.min(values, values.length, Double.MAX_VALUE);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMax()
+	 */
+	public double getMax() {
+		return max();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMin()
+	 */
+	public double getMin() {
+		return min();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#convertToDoubles()
+	 */
+	public double[][] convertToDoubles() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		double[][] result = new double[rows][];
+		for(int i=0;i<rows;i++) {
+			result[i] = Arrays.copyOfRange(values, i*cols, (i+1)*cols);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#equals(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public boolean equals(IMatrix<Double> m) {
+		if (!(m instanceof DenseMatrix)) return super.equals(m);
+		if (!this.getSize().equals(m.getSize())) return false;
+		double[] b = ((DenseMatrix)m).values;
+		for(int i=0;i<values.length;i++) {
+			if (values[i] != b[i]) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public boolean add(Object o) {
+		if (filled >= values.length) {
+			int cols = getSize().getCols();
+			if (cols == 0) cols = 1;
+			resize(new Size(getSize().getRows() + 1, cols));
+		}
+		values[filled++] = toDouble(o);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 */
+	public boolean add(int row, int col, Object item) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((row >= rows) || (col >= cols)) {
+			resize(new Size(Math.max(rows, row + 1), Math.max(cols, col + 1)));
+		}
+		setDouble(row, col, toDouble(item));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#set(int, int, java.lang.Object)
+	 */
+	public void set(int row, int col, Object item) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return;
+		values[row*getSize().getCols() + col] = toDouble(item);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#get(int, int)
+	 */
+	public java.lang.Number get(int row, int col) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return null;
+		return values[row*getSize().getCols() + col];
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getRow(int)
+	 */
+	public List<Number> getRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return null;
+		int cols = getSize().getCols();
+		List<Number> rowList = new Vector<Number>(cols);
+		for(int j=0;j<cols;j++) {
+			rowList.add((Number)(Double)values[row*cols + j]);
+		}
+		return rowList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setRow(int, java.util.List)
+	 */
+	public void setRow(int row, List<Number> rowValues) {
+		int cols = getSize().getCols();
+		if ((row < 0) || (row >= getSize().getRows()) || (rowValues.size() != cols))
+			return;
+		for(int j=0;j<cols;j++) {
+			values[row*cols + j] = toDouble(rowValues.get(j));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumRow(int)
+	 */
+	public Double sumRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return 0.0;
+		int cols = getSize().getCols();
+		return DoubleKernels.sum(values, row*cols, cols);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getColumn(int)
+	 */
+	public List<Number> getColumn(int col) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return null;
+		List<Number> colList = new Vector<Number>(getSize().getRows());
+		for(int i=0;i<getSize().getRows();i++) {
+			colList.add((Number)(Double)values[i*cols + col]);
+		}
+		return colList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setColumn(int, java.util.List)
+	 */
+	public void setColumn(int col, List<Number> colValues) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols) || (colValues.size() != getSize().getRows()))
+			return;
+		for(int i=0;i<getSize().getRows();i++) {
+			values[i*cols + col] = toDouble(colValues.get(i));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumColumn(int)
+	 */
+	public Double sumColumn(int col) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return 0.0;
+		return DoubleKernels.sum(values, col, cols, getSize().getRows());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clear()
+	 */
+	public void clear() {
+		Arrays.fill(values, 0.0);
+		filled = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#contains(java.lang.Object)
+	 */
+	public boolean contains(Object o) {
+		if (!(o instanceof java.lang.Number)) return false;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int i=0;i<values.length;i++) {
+			if (values[i] == v) return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContains(int, Number)
+	 */
+	public boolean rowContains(int row, Number o) {
+		return !findColumns(row, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContains(int, Number)
+	 */
+	public boolean columnContains(int col, Number o) {
+		return !findRows(col, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#containsAll(java.util.Collection)
+	 */
+	public boolean containsAll(Collection c) {
+		for(Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContainsAll(int, java.util.Collection)
+	 */
+	public boolean rowContainsAll(int row, Collection c) {
+		if ((row < 0) || (row >= getSize().getRows())) return false;
+		for(Object o : c) {
+			if (findColumns(row, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContainsAll(int, java.util.Collection)
+	 */
+	public boolean columnContainsAll(int col, Collection c) {
+		if ((col < 0) || (col >= getSize().getCols())) return false;
+		for(Object o : c) {
+			if (findRows(col, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findColumns(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findColumns(int row, Number o) {
+		List<Integer> columns = new Vector<Integer>();
+		if ((row < 0) || (row >= getSize().getRows()) || !(o instanceof java.lang.Number)) return columns;
+		double v = ((java.lang.Number)o).doubleValue();
+		int cols = getSize().getCols();
+		for(int j=0;j<cols;j++) {
+			if (values[row*cols + j] == v) columns.add(j);
+		}
+		return columns;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findRows(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findRows(int col, Number o) {
+		List<Integer> rows = new Vector<Integer>();
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols) || !(o instanceof java.lang.Number)) return rows;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int i=0;i<getSize().getRows();i++) {
+			if (values[i*cols + col] == v) rows.add(i);
+		}
+		return rows;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return (values.length == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeRow(int)
+	 */
+	@Override
+	public boolean removeRow(int row) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((row < 0) || (row >= rows)) return false;
+		double[] tmp = new double[(rows-1)*cols];
+		System.arraycopy(values, 0, tmp, 0, row*cols);
+		System.arraycopy(values, (row+1)*cols, tmp, row*cols, (rows-row-1)*cols);
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(rows-1, cols));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeColumn(int)
+	 */
+	@Override
+	public boolean removeColumn(int col) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return false;
+		double[] tmp = new double[rows*(cols-1)];
+		for(int i=0;i<rows;i++) {
+			System.arraycopy(values, i*cols, tmp, i*(cols-1), col);
+			System.arraycopy(values, i*cols + col + 1, tmp, i*(cols-1) + col, cols - col - 1);
+		}
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(rows, cols-1));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toArray()
+	 */
+	public Object[] toArray() {
+		Object[] arr = new Object[values.length];
+		for(int i=0;i<values.length;i++) {
+			arr[i] = values[i];
+		}
+		return arr;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toString()
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		String separator = System.getProperty("line.separator");
+		int cols = getSize().getCols();
+		for(int i=0;i<getSize().getRows();i++) {
+			for(int j=0;j<cols;j++) {
+				str.append(values[i*cols + j]);
+				if (j<cols-1)
+					str.append(',');
+			}
+			str.append(separator);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Save the matrix to the supplied file.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		return new MatrixChannelWriter().save(this, file);
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+	}
+}
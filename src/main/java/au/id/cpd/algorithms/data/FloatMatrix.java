@@ -0,0 +1,1099 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import java.io.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * A dense matrix of primitive floats.
+ *
+ * Values are held in a single row major float array so a cell costs
+ * 4 bytes, half that of a DenseMatrix, for data such as feature matrices
+ * and network weights that do not need double precision.
+ *
+ * Conversion is explicit: FloatMatrix(IMatrix) rounds a matrix to single
+ * precision and toDense() widens it back.
+ * Element-wise operations return float matrices, while sums, norms, means
+ * and products accumulate in double and only round the final value.
+ *
+ * @author cd
+ *
+ */
+public class FloatMatrix<Number> extends AbstractMatrix<Number> {
+
+	/**
+	 * serial version id.
+	 */
+	static final long serialVersionUID = -2871930516407725638L;
+
+	/**
+	 * @serial row major array of values.
+	 */
+	private float[] values;
+
+	/**
+	 * @serial number of cells filled by add(Object).
+	 */
+	private int filled;
+
+	public FloatMatrix() {
+		this(0, 0);
+	}
+
+	public FloatMatrix(int rows, int cols) {
+		setSize(new Size(rows, cols));
+		this.values = new float[rows*cols];
+	}
+
+	public FloatMatrix(Size s) {
+		this(s.getRows(), s.getCols());
+	}
+
+	/**
+	 * Wrap the supplied row major array.
+	 * The array is not copied.
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 */
+	public FloatMatrix(int rows, int cols, float[] values) {
+		if (values.length != rows*cols)
+			throw new IllegalArgumentException("Expected " + (rows*cols) + " values but found " + values.length);
+		setSize(new Size(rows, cols));
+		this.values = values;
+		this.filled = values.length;
+	}
+
+	/**
+	 * Copy the supplied matrix into a new float matrix,
+	 * rounding each value to single precision.
+	 * @param m
+	 */
+	public FloatMatrix(IMatrix m) {
+		this(m.getSize().getRows(), m.getSize().getCols());
+		if (m instanceof FloatMatrix) {
+			System.arraycopy(((FloatMatrix)m).values, 0, values, 0, values.length);
+		} else if (m instanceof DenseMatrix) {
+			double[] d = ((DenseMatrix)m).getValues();
+			for(int i=0;i<values.length;i++) {
+				values[i] = (float)d[i];
+			}
+		} else {
+			int cols = getSize().getCols();
+			for(int i=0;i<getSize().getRows();i++) {
+				for(int j=0;j<cols;j++) {
+					java.lang.Number n = m.get(i, j);
+					values[i*cols + j] = (n != null) ? n.floatValue() : 0.0f;
+				}
+			}
+		}
+		this.filled = values.length;
+	}
+
+	/**
+	 * Widen this matrix to a new dense matrix of doubles.
+	 * @return
+	 */
+	public DenseMatrix<Double> toDense() {
+		return new DenseMatrix<Double>(this);
+	}
+
+	/**
+	 * The backing row major array.
+	 * Element (i,j) is at i*cols + j.
+	 * @return
+	 */
+	public float[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Primitive access to the value at row, col.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public float getFloat(int row, int col) {
+		return values[row*getSize().getCols() + col];
+	}
+
+	/**
+	 * Primitive assignment of the value at row, col.
+	 * @param row
+	 * @param col
+	 * @param v
+	 */
+	public void setFloat(int row, int col, float v) {
+		values[row*getSize().getCols() + col] = v;
+	}
+
+	private static float toFloat(Object item) {
+		if (item == null) return 0.0f;
+		return ((java.lang.Number)item).floatValue();
+	}
+
+	/**
+	 * Sum of the n values a[off], a[off+stride], ... accumulated in double.
+	 */
+	private static double sum(float[] a, int off, int stride, int n) {
+		double s0 = 0.0, s1 = 0.0;
+		int i = 0;
+		int p = off;
+		for(;i+1<n;i+=2, p+=2*stride) {
+			s0 += a[p];
+			s1 += a[p + stride];
+		}
+		for(;i<n;i++, p+=stride) {
+			s0 += a[p];
+		}
+		return s0 + s1;
+	}
+
+	private FloatMatrix<Number> like() {
+		return new FloatMatrix<Number>(getSize().getRows(), getSize().getCols());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clone()
+	 */
+	public FloatMatrix<Double> clone() {
+		FloatMatrix<Double> child = new FloatMatrix<Double>(getSize().getRows(), getSize().getCols(), values.clone());
+		child.filled = filled;
+		return child;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
+	 */
+	public void resize(Size s) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((s.getRows() == rows) && (s.getCols() == cols)) return;
+		float[] tmp;
+		if (s.getCols() == cols) {
+			tmp = Arrays.copyOf(values, s.getRows()*cols);
+		} else {
+			tmp = new float[s.getRows()*s.getCols()];
+			int r = Math.min(rows, s.getRows());
+			int c = Math.min(cols, s.getCols());
+			for(int i=0;i<r;i++) {
+				System.arraycopy(values, i*cols, tmp, i*s.getCols(), c);
+			}
+		}
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(s));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
+	 */
+	public IMatrix<Double> reshape(int rows, int cols) {
+		if (rows*cols > values.length) return null;
+		return new FloatMatrix<Double>(rows, cols, Arrays.copyOf(values, rows*cols));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#repmat(int, int)
+	 */
+	public IMatrix<Double> repmat(int x, int y) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		int newCols = cols*y;
+		FloatMatrix<Double> m = new FloatMatrix<Double>(rows*x, newCols);
+		for(int i=0;i<rows*x;i++) {
+			int src = (i % rows)*cols;
+			for(int k=0;k<y;k++) {
+				System.arraycopy(values, src, m.values, i*newCols + k*cols, cols);
+			}
+		}
+		return m;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
+	 */
+	public IMatrix<Number> transform() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		FloatMatrix<Number> t = new FloatMatrix<Number>(cols, rows);
+		for(int i=0;i<rows;i++) {
+			int off = i*cols;
+			for(int j=0;j<cols;j++) {
+				t.values[j*rows + i] = values[off + j];
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * The product is accumulated in double and rounded once into
+	 * a new float matrix.
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> multiply(IMatrix<Number> matrix) {
+		FloatMatrix<Number> result = new FloatMatrix<Number>(getSize().getRows(), matrix.getSize().getCols());
+		return multiply(matrix, result);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#covariance()
+	 */
+	@Override
+	public IMatrix<Number> covariance() {
+		FloatMatrix<Number> result = new FloatMatrix<Number>(getSize().getRows(), getSize().getRows());
+		return multiplyTransposed(this, result);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#ddot(int, au.id.cpd.algorithms.data.IMatrix, int)
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		int n = getSize().getCols();
+		int off = row*n;
+		double result = 0.0;
+		if (matrix instanceof FloatMatrix) {
+			float[] b = ((FloatMatrix)matrix).values;
+			int ldb = matrix.getSize().getCols();
+			for(int k=0;k<n;k++) {
+				result += (double)values[off + k] * b[k*ldb + col];
+			}
+			return result;
+		}
+		for(int k=0;k<n;k++) {
+			java.lang.Number v = matrix.get(k, col);
+			result += values[off + k] * ((v != null) ? v.doubleValue() : 0.0);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
+	 */
+	public IMatrix<Number> multiply(Double m) {
+		return multiply(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> multiply(Double m, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.multiply(m, result);
+		float s = m.floatValue();
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = values[i] * s;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix) {
+		return pointwiseMultiply(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof FloatMatrix) || !(result instanceof FloatMatrix))
+			return super.pointwiseMultiply(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		float[] b = ((FloatMatrix)matrix).values;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = values[i] * b[i];
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix) {
+		return pointwiseDivide(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof FloatMatrix) || !(result instanceof FloatMatrix))
+			return super.pointwiseDivide(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		float[] b = ((FloatMatrix)matrix).values;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = values[i] / b[i];
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
+	 */
+	public IMatrix<Number> divide(Double m) {
+		return divide(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> divide(Double m, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.divide(m, result);
+		double s = m;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			float v = values[i];
+			r[i] = (v != 0 && s != 0) ? (float)(v / s) : v;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
+	 */
+	public IMatrix<Number> divisorOf(Double m) {
+		return divisorOf(m, like());
+	}
+
+	@Override
+	public IMatrix<Number> divisorOf(Double m, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.divisorOf(m, result);
+		double s = m;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)(s / values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public IMatrix<Number> operate(IMatrixOperation op) {
+		return operate(op, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
+	 */
+	public IMatrix<Number> exp() {
+		return exp(like());
+	}
+
+	@Override
+	public IMatrix<Number> exp(IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.exp(result);
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)Math.exp(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
+	 */
+	public IMatrix<Number> tanh() {
+		return tanh(like());
+	}
+
+	@Override
+	public IMatrix<Number> tanh(IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.tanh(result);
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)Math.tanh(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
+	 */
+	public IMatrix<Number> sin() {
+		return sin(like());
+	}
+
+	@Override
+	public IMatrix<Number> sin(IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.sin(result);
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)Math.sin(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
+	 */
+	public IMatrix<Number> cos() {
+		return cos(like());
+	}
+
+	@Override
+	public IMatrix<Number> cos(IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.cos(result);
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)Math.cos(values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public IMatrix<Number> power(Double p) {
+		return power(p, like());
+	}
+
+	@Override
+	public IMatrix<Number> power(Double p, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.power(p, result);
+		double e = p;
+		float[] r = ((FloatMatrix)result).values;
+		if (e == 2.0) {
+			for(int i=0;i<values.length;i++) {
+				r[i] = values[i] * values[i];
+			}
+		} else {
+			for(int i=0;i<values.length;i++) {
+				r[i] = (float)Math.pow(values[i], e);
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
+	 */
+	public IMatrix<Number> sum(Double b) {
+		return sum(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> sum(Double b, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.sum(b, result);
+		double s = b;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)(values[i] + s);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> sum(IMatrix<Number> matrix) {
+		return sum(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> sum(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof FloatMatrix) || !(result instanceof FloatMatrix))
+			return super.sum(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		float[] b = ((FloatMatrix)matrix).values;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = values[i] + b[i];
+		}
+		return result;
+	}
+
+	@Override
+	public IMatrix<Number> scaleInPlace(double alpha) {
+		float s = (float)alpha;
+		for(int i=0;i<values.length;i++) {
+			values[i] *= s;
+		}
+		return this;
+	}
+
+	@Override
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x) {
+		if (!(x instanceof FloatMatrix)) return super.axpy(alpha, x);
+		if (this.getSize().compareTo(x.getSize()) != 0) return null;
+		float[] b = ((FloatMatrix)x).values;
+		for(int i=0;i<values.length;i++) {
+			values[i] = (float)(values[i] + alpha * b[i]);
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> subtract(IMatrix<Number> matrix) {
+		return subtract(matrix, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtract(IMatrix<Number> matrix, IMatrix<Number> result) {
+		if (!(matrix instanceof FloatMatrix) || !(result instanceof FloatMatrix))
+			return super.subtract(matrix, result);
+		if (this.getSize().compareTo(matrix.getSize()) != 0) return null;
+		float[] b = ((FloatMatrix)matrix).values;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = values[i] - b[i];
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
+	 */
+	public IMatrix<Number> subtract(Double b) {
+		return subtract(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtract(Double b, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.subtract(b, result);
+		double s = b;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)(values[i] - s);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
+	 */
+	public IMatrix<Number> subtractFrom(Double b) {
+		return subtractFrom(b, like());
+	}
+
+	@Override
+	public IMatrix<Number> subtractFrom(Double b, IMatrix<Number> result) {
+		if (!(result instanceof FloatMatrix)) return super.subtractFrom(b, result);
+		double s = b;
+		float[] r = ((FloatMatrix)result).values;
+		for(int i=0;i<values.length;i++) {
+			r[i] = (float)(s - values[i]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public IMatrix<Double> normalise() {
+		FloatMatrix<Double> normal = new FloatMatrix<Double>(getSize().getRows(), getSize().getCols());
+		return normalise(normal);
+	}
+
+	@Override
+	public IMatrix<Double> normalise(IMatrix<Double> normal) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if (rows == 1) return clone();
+		if (!(normal instanceof FloatMatrix)) return super.normalise(normal);
+		double[] means = new double[cols];
+		double[] std = new double[cols];
+		double[] max = new double[cols];
+		double[] min = new double[cols];
+		Arrays.fill(max, Double.MIN_VALUE);
+		Arrays.fill(min, Double.MAX_VALUE);
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				double val = values[off + k];
+				if (val < min[k]) min[k] = val;
+				if (val > max[k]) max[k] = val;
+				means[k] += val;
+			}
+		}
+		for(int k=0;k<cols;k++) {
+			means[k] = (means[k] != 0) ? means[k]/rows : 0.0;
+			std[k] = max[k] - min[k];
+		}
+		float[] r = ((FloatMatrix)normal).values;
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				double val = values[off + k] - means[k];
+				r[off + k] = (float)((std[k] != 0) ? val/std[k] : val);
+			}
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise(int)
+	 */
+	public IMatrix<Double> normalise(int exclude) {
+		FloatMatrix<Double> norm = (FloatMatrix<Double>)this.normalise();
+		int cols = getSize().getCols();
+		for(int i=0;i<norm.getSize().getRows();i++) {
+			norm.values[i*cols + exclude] = values[i*cols + exclude];
+		}
+		return norm;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#meanNormalise()
+	 */
+	public IMatrix<Double> meanNormalise() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if (rows == 1) return clone();
+		FloatMatrix<Double> normal = new FloatMatrix<Double>(rows, cols);
+		double[] means = ((DenseMatrix)columnMeans()).getValues();
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				normal.values[off + k] = (float)(values[off + k] - means[k]);
+			}
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#minMaxNormalise()
+	 */
+	public IMatrix<Double> minMaxNormalise() {
+		FloatMatrix<Double> normal = new FloatMatrix<Double>(getSize().getRows(), getSize().getCols());
+		double max = this.max();
+		double min = this.min();
+		double delta = max - min;
+		for(int i=0;i<values.length;i++) {
+			float val = values[i];
+			normal.values[i] = ((val != 0.0f) && (delta != 0.0)) ? (float)((val - min) / delta) : val;
+		}
+		return normal;
+	}
+
+	/**
+	 * The means are accumulated and returned in double precision.
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsMeans()
+	 */
+	public IMatrix<Double> rowsMeans() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(rows, 1);
+		double[] m = means.getValues();
+		for(int j=0;j<rows;j++) {
+			double sum = sum(values, j*cols, 1, cols);
+			// as per AbstractMatrix.rowsMeans.
+			m[j] = (sum != 0) ? sum/rows : 0.0;
+		}
+		return means;
+	}
+
+	/**
+	 * The means are accumulated and returned in double precision.
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnMeans()
+	 */
+	public IMatrix<Double> columnMeans() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(1, cols);
+		double[] m = means.getValues();
+		for(int j=0;j<rows;j++) {
+			int off = j*cols;
+			for(int k=0;k<cols;k++) {
+				m[k] += values[off + k];
+			}
+		}
+		for(int k=0;k<cols;k++) {
+			m[k] = (m[k] != 0) ? m[k]/rows : 0.0;
+		}
+		return means;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
+	 */
+	public IMatrix<Double> shuffle() {
+		FloatMatrix<Double> shuffled = new FloatMatrix<Double>(getSize().getRows(), getSize().getCols());
+		return shuffle(shuffled);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#euclideanNorm()
+	 */
+	public double euclideanNorm() {
+		double s0 = 0.0, s1 = 0.0;
+		int i = 0;
+		for(;i+1<values.length;i+=2) {
+			s0 += (double)values[i] * values[i];
+			s1 += (double)values[i+1] * values[i+1];
+		}
+		for(;i<values.length;i++) {
+			s0 += (double)values[i] * values[i];
+		}
+		return Math.sqrt(s0 + s1);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#max()
+	 */
+	public double max() {
+		double max = Double.MIN_VALUE;
+		for(int i=0;i<values.length;i++) {
+			max = (values[i] > max) ? values[i] : max;
+		}
+		return max;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#min()
+	 */
+	public double min() {
+		double min = Double.MAX_VALUE;
+		for(int i=0;i<values.length;i++) {
+			min = (values[i] < min) ? values[i] : min;
+		}
+		return min;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMax()
+	 */
+	public double getMax() {
+		return max();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMin()
+	 */
+	public double getMin() {
+		return min();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#convertToDoubles()
+	 */
+	public double[][] convertToDoubles() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		double[][] result = new double[rows][cols];
+		for(int i=0;i<rows;i++) {
+			double[] row = result[i];
+			for(int j=0;j<cols;j++) {
+				row[j] = values[i*cols + j];
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#equals(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public boolean equals(IMatrix<Double> m) {
+		if (!(m instanceof FloatMatrix)) return super.equals(m);
+		if (!this.getSize().equals(m.getSize())) return false;
+		float[] b = ((FloatMatrix)m).values;
+		for(int i=0;i<values.length;i++) {
+			if (values[i] != b[i]) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public boolean add(Object o) {
+		if (filled >= values.length) {
+			int cols = getSize().getCols();
+			if (cols == 0) cols = 1;
+			resize(new Size(getSize().getRows() + 1, cols));
+		}
+		values[filled++] = toFloat(o);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 */
+	public boolean add(int row, int col, Object item) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((row >= rows) || (col >= cols)) {
+			resize(new Size(Math.max(rows, row + 1), Math.max(cols, col + 1)));
+		}
+		setFloat(row, col, toFloat(item));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#set(int, int, java.lang.Object)
+	 */
+	public void set(int row, int col, Object item) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return;
+		values[row*getSize().getCols() + col] = toFloat(item);
+	}
+
+	/**
+	 * The value is widened to a Double.
+	 * @see au.id.cpd.algorithms.data.IMatrix#get(int, int)
+	 */
+	public java.lang.Number get(int row, int col) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return null;
+		return (double)values[row*getSize().getCols() + col];
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getRow(int)
+	 */
+	public List<Number> getRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return null;
+		int cols = getSize().getCols();
+		List<Number> rowList = new Vector<Number>(cols);
+		for(int j=0;j<cols;j++) {
+			rowList.add((Number)(Double)(double)values[row*cols + j]);
+		}
+		return rowList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setRow(int, java.util.List)
+	 */
+	public void setRow(int row, List<Number> rowValues) {
+		int cols = getSize().getCols();
+		if ((row < 0) || (row >= getSize().getRows()) || (rowValues.size() != cols))
+			return;
+		for(int j=0;j<cols;j++) {
+			values[row*cols + j] = toFloat(rowValues.get(j));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumRow(int)
+	 */
+	public Double sumRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return 0.0;
+		int cols = getSize().getCols();
+		return sum(values, row*cols, 1, cols);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getColumn(int)
+	 */
+	public List<Number> getColumn(int col) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return null;
+		List<Number> colList = new Vector<Number>(getSize().getRows());
+		for(int i=0;i<getSize().getRows();i++) {
+			colList.add((Number)(Double)(double)values[i*cols + col]);
+		}
+		return colList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setColumn(int, java.util.List)
+	 */
+	public void setColumn(int col, List<Number> colValues) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols) || (colValues.size() != getSize().getRows()))
+			return;
+		for(int i=0;i<getSize().getRows();i++) {
+			values[i*cols + col] = toFloat(colValues.get(i));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumColumn(int)
+	 */
+	public Double sumColumn(int col) {
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return 0.0;
+		return sum(values, col, cols, getSize().getRows());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clear()
+	 */
+	public void clear() {
+		Arrays.fill(values, 0.0f);
+		filled = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#contains(java.lang.Object)
+	 */
+	public boolean contains(Object o) {
+		if (!(o instanceof java.lang.Number)) return false;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int i=0;i<values.length;i++) {
+			if (values[i] == v) return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContains(int, Number)
+	 */
+	public boolean rowContains(int row, Number o) {
+		return !findColumns(row, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContains(int, Number)
+	 */
+	public boolean columnContains(int col, Number o) {
+		return !findRows(col, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#containsAll(java.util.Collection)
+	 */
+	public boolean containsAll(Collection c) {
+		for(Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContainsAll(int, java.util.Collection)
+	 */
+	public boolean rowContainsAll(int row, Collection c) {
+		if ((row < 0) || (row >= getSize().getRows())) return false;
+		for(Object o : c) {
+			if (findColumns(row, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContainsAll(int, java.util.Collection)
+	 */
+	public boolean columnContainsAll(int col, Collection c) {
+		if ((col < 0) || (col >= getSize().getCols())) return false;
+		for(Object o : c) {
+			if (findRows(col, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findColumns(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findColumns(int row, Number o) {
+		List<Integer> columns = new Vector<Integer>();
+		if ((row < 0) || (row >= getSize().getRows()) || !(o instanceof java.lang.Number)) return columns;
+		double v = ((java.lang.Number)o).doubleValue();
+		int cols = getSize().getCols();
+		for(int j=0;j<cols;j++) {
+			if (values[row*cols + j] == v) columns.add(j);
+		}
+		return columns;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findRows(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findRows(int col, Number o) {
+		List<Integer> rows = new Vector<Integer>();
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols) || !(o instanceof java.lang.Number)) return rows;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int i=0;i<getSize().getRows();i++) {
+			if (values[i*cols + col] == v) rows.add(i);
+		}
+		return rows;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return (values.length == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeRow(int)
+	 */
+	@Override
+	public boolean removeRow(int row) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((row < 0) || (row >= rows)) return false;
+		float[] tmp = new float[(rows-1)*cols];
+		System.arraycopy(values, 0, tmp, 0, row*cols);
+		System.arraycopy(values, (row+1)*cols, tmp, row*cols, (rows-row-1)*cols);
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(rows-1, cols));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeColumn(int)
+	 */
+	@Override
+	public boolean removeColumn(int col) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return false;
+		float[] tmp = new float[rows*(cols-1)];
+		for(int i=0;i<rows;i++) {
+			System.arraycopy(values, i*cols, tmp, i*(cols-1), col);
+			System.arraycopy(values, i*cols + col + 1, tmp, i*(cols-1) + col, cols - col - 1);
+		}
+		values = tmp;
+		filled = Math.min(filled, values.length);
+		setSize(new Size(rows, cols-1));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toArray()
+	 */
+	public Object[] toArray() {
+		Object[] arr = new Object[values.length];
+		for(int i=0;i<values.length;i++) {
+			arr[i] = (double)values[i];
+		}
+		return arr;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toString()
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		String separator = System.getProperty("line.separator");
+		int cols = getSize().getCols();
+		for(int i=0;i<getSize().getRows();i++) {
+			for(int j=0;j<cols;j++) {
+				str.append(values[i*cols + j]);
+				if (j<cols-1)
+					str.append(',');
+			}
+			str.append(separator);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Save the matrix to the supplied file.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		return new MatrixChannelWriter().save(this, file);
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.io.*;
+import java.nio.*;
+
+import au.id.cpd.algorithms.data.io.TempFileStore;
+
+/**
+ * A MatrixBuffer that stores its elements as 4 byte floats.
+ *
+ * The file is half the size of the equivalent MatrixBuffer and
+ * a row takes half as long to read, at the cost of rounding each
+ * value to single precision when it is written.
+ * Values are widened to double when read so that sums, products and
+ * the other operations of MatrixBuffer accumulate in double precision.
+ *
+ * The element type is recorded in the file header, MatrixBuffer.open
+ * chooses the buffer for a file.
+ * Use CreateFloatMatrixBuffer(IMatrix) to convert an existing matrix.
+ *
+ * @author cd
+ *
+ */
+public class FloatMatrixBuffer<Number> extends MatrixBuffer<Number> {
+
+	/**
+	 * Number of bytes in a float.
+	 */
+	private static int FLOAT_SIZE = 4;
+
+	public static FloatMatrixBuffer<Double> CreateFloatMatrixBuffer(int rows, int cols) {
+		Size sz = new Size(rows, cols);
+		return CreateFloatMatrixBuffer(sz);
+	}
+
+	public static FloatMatrixBuffer<Double> CreateFloatMatrixBuffer(Size size) {
+		String fileName = createTempFileName(size, 0, FLOAT_SIZE);
+		if (fileName == null)
+			return null;
+		try {
+			return temporary(new FloatMatrixBuffer<Double>(fileName, size));
+		} catch (Exception e) {
+			e.printStackTrace();
+			TempFileStore.getDefault().delete(fileName);
+		}
+		return null;
+	}
+
+	/**
+	 * Create a temporary float buffer holding the values of m
+	 * rounded to single precision.
+	 *
+	 * @param m
+	 * @return
+	 */
+	public static FloatMatrixBuffer<Double> CreateFloatMatrixBuffer(IMatrix m) {
+		FloatMatrixBuffer<Double> mat = CreateFloatMatrixBuffer(new Size(m.getSize()));
+		if ((mat == null) || (mat.copyFrom(m) == null))
+			return null;
+		return mat;
+	}
+
+	/**
+	 * @param name
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(String name) throws FileNotFoundException, IOException {
+		super(name);
+	}
+
+	/**
+	 * @param file
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(File file) throws FileNotFoundException, IOException {
+		super(file);
+	}
+
+	/**
+	 * @param name
+	 * @param rows
+	 * @param cols
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(String name, int rows, int cols)
+			throws FileNotFoundException, IOException {
+		super(name, rows, cols);
+	}
+
+	/**
+	 * @param name
+	 * @param size
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(String name, Size size) throws FileNotFoundException,
+			IOException {
+		super(name, size);
+	}
+
+	/**
+	 * @param file
+	 * @param size
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(File file, Size size) throws FileNotFoundException,
+			IOException {
+		super(file, size);
+	}
+
+	/**
+	 * @param name
+	 * @param size
+	 * @param tileSize rows and columns in a tile, 0 for row major.
+	 * @throws FileNotFoundException
+	 */
+	public FloatMatrixBuffer(String name, Size size, int tileSize)
+			throws FileNotFoundException, IOException {
+		super(name, size, tileSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#getElementSize()
+	 */
+	@Override
+	protected int getElementSize() {
+		return FLOAT_SIZE;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#newBuffer(au.id.cpd.algorithms.data.Size)
+	 */
+	@Override
+	protected MatrixBuffer<Double> newBuffer(Size size) {
+		return CreateFloatMatrixBuffer(size);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#getValue(java.nio.ByteBuffer, int)
+	 */
+	@Override
+	protected double getValue(ByteBuffer buf, int offset) {
+		return buf.getFloat(offset);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#putValue(java.nio.ByteBuffer, int, double)
+	 */
+	@Override
+	protected void putValue(ByteBuffer buf, int offset, double v) {
+		buf.putFloat(offset, (float)v);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#getValues(java.nio.ByteBuffer, double[], int, int)
+	 */
+	@Override
+	protected void getValues(ByteBuffer buf, double[] values, int off, int n) {
+		FloatBuffer f = buf.asFloatBuffer();
+		for (int i = 0; i < n; i++) {
+			values[off + i] = f.get(i);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.MatrixBuffer#putValues(java.nio.ByteBuffer, double[], int, int)
+	 */
+	@Override
+	protected void putValues(ByteBuffer buf, double[] values, int off, int n) {
+		FloatBuffer f = buf.asFloatBuffer();
+		for (int i = 0; i < n; i++) {
+			f.put(i, (float)values[off + i]);
+		}
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+	}
+}
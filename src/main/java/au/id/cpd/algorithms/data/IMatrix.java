@@ -1,11 +1,12 @@
 package au.id.cpd.algorithms.data;
 
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-public interface IMatrix<Number> extends Collection, Serializable {
+public interface IMatrix<Number> extends Collection, Serializable, Closeable {
 
 	public Size getSize();
 
@@ -15,7 +16,8 @@ public interface IMatrix<Number> extends Collection, Serializable {
 	public IMatrix<Double> clone();
 
 	/**
-	 * Close operation.
+	 * Release the resources held by the matrix, such as files and
+	 * memory outside the heap, so it may be used in try-with-resources.
 	 */
 	public void close();
 	
@@ -142,6 +144,58 @@ public interface IMatrix<Number> extends Collection, Serializable {
 	 */
 	public List<Double> divide(List<java.lang.Number> list);
 
+	/**
+	 * Begin a lazily evaluated element-wise expression over this matrix.
+	 * The recorded operations are computed in a single pass by evaluate().
+	 * @return
+	 */
+	public MatrixExpression lazy();
+
+	/*
+	 * Views.
+	 * A view shares the cells of this matrix, writes through a view
+	 * change this matrix. Creating a view copies nothing, except for
+	 * transposeView of a SparseMatrix.
+	 */
+
+	/**
+	 * The transpose of this matrix as a view.
+	 * A SparseMatrix returns its CSR transpose instead, a copy made in
+	 * O(nnz) that shares no cells, writes to it do not change this
+	 * matrix. Use MatrixView.transpose for a view of a sparse matrix.
+	 * @return
+	 */
+	public IMatrix<Number> transposeView();
+
+	/**
+	 * Rows start .. end-1 of this matrix as a view.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public IMatrix<Number> rowsView(int start, int end);
+
+	/**
+	 * Columns start .. end-1 of this matrix as a view.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public IMatrix<Number> columnsView(int start, int end);
+
+	/**
+	 * The rows x cols block starting at (row, col) taking every
+	 * rowStep'th row and colStep'th column as a view.
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param rowStep
+	 * @param colStep
+	 * @return
+	 */
+	public IMatrix<Number> blockView(int row, int col, int rows, int cols, int rowStep, int colStep);
+
 	/**
 	 * Elementwise exp operation on this matrix.
 	 * @param m
@@ -305,6 +359,84 @@ public interface IMatrix<Number> extends Collection, Serializable {
 	 */
 	public IMatrix<Number> subtractFrom(Double b);
 
+	/*
+	 * Destination passing operations.
+	 * Each writes its result into the supplied matrix, which must have
+	 * the dimensions of the result, and returns it. The element-wise
+	 * operations may be given this matrix (or an operand) as the
+	 * destination; the matrix products may not.
+	 */
+
+	public IMatrix<Number> sum(IMatrix<Number> matrix, IMatrix<Number> result);
+
+	public IMatrix<Number> sum(Double b, IMatrix<Number> result);
+
+	public IMatrix<Number> subtract(IMatrix<Number> matrix, IMatrix<Number> result);
+
+	public IMatrix<Number> subtract(Double b, IMatrix<Number> result);
+
+	public IMatrix<Number> subtractFrom(Double b, IMatrix<Number> result);
+
+	public IMatrix<Number> multiply(IMatrix<Number> matrix, IMatrix<Number> result);
+
+	public IMatrix<Number> multiply(Double m, IMatrix<Number> result);
+
+	public IMatrix<Number> divide(Double m, IMatrix<Number> result);
+
+	public IMatrix<Number> divisorOf(Double m, IMatrix<Number> result);
+
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix, IMatrix<Number> result);
+
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix, IMatrix<Number> result);
+
+	public IMatrix<Number> power(Double p, IMatrix<Number> result);
+
+	public IMatrix<Number> exp(IMatrix<Number> result);
+
+	public IMatrix<Number> tanh(IMatrix<Number> result);
+
+	public IMatrix<Number> sin(IMatrix<Number> result);
+
+	public IMatrix<Number> cos(IMatrix<Number> result);
+
+	public IMatrix<Number> transform(IMatrix<Number> result);
+
+	/*
+	 * In place operations.
+	 * Each modifies this matrix and returns it,
+	 * or returns null without modification if the sizes differ.
+	 */
+
+	/**
+	 * this = this + matrix
+	 * @param matrix
+	 * @return
+	 */
+	public IMatrix<Number> addInPlace(IMatrix<Number> matrix);
+
+	/**
+	 * this = alpha * this
+	 * @param alpha
+	 * @return
+	 */
+	public IMatrix<Number> scaleInPlace(double alpha);
+
+	/**
+	 * this = this + alpha * x
+	 * @param alpha
+	 * @param x
+	 * @return
+	 */
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x);
+
+	/**
+	 * Element wise product in place.
+	 * this(i,j) = this(i,j) * matrix(i,j)
+	 * @param matrix
+	 * @return
+	 */
+	public IMatrix<Number> hadamardInPlace(IMatrix<Number> matrix);
+
 	/* (non-Javadoc)
 	 * @see java.util.Collection#add(java.lang.Object)
 	 */
@@ -155,42 +155,36 @@ public class Matrix< Number > extends AbstractMatrix<Number> {
 	
 	/**
 	 * Return a matrix of ones of dimension rows x cols
+	 * The matrix is backed by primitive doubles.
 	 * @param rows
 	 * @param cols
 	 * @return
 	 */
 	public static IMatrix<Double> ones(int rows, int cols) {
-		Matrix<Double> m = new Matrix<Double>(rows, cols);
-		m.fillValues(1.0);
-		return m;
+		return DenseMatrix.ones(rows, cols);
 	}
 	
 	/**
 	 * Return a matrix of zeroes of dimension rows x cols
+	 * The matrix is backed by primitive doubles.
 	 * @param rows
 	 * @param cols
 	 * @return
 	 */
 	public static IMatrix<Double> zeroes(int rows, int cols) {
-		Matrix<Double> m = new Matrix<Double>(rows, cols);
-		m.fillValues(0.0);
-		return m;
+		return DenseMatrix.zeroes(rows, cols);
 	}
 
 	/**
 	 * Construct a matrix with 1.0 in the diagonal.
 	 * rows should be the same as cols.
+	 * The matrix is backed by primitive doubles.
 	 * @param rows
 	 * @param cols
 	 * @return
 	 */
 	public static IMatrix<Double> identity(int rows, int cols) {
-		Matrix<Double> m = new Matrix<Double>(rows, cols);
-		m.fillValues(0.0);
-		for(int i=0;i<rows;i++) {
-			if (i < cols) m.set(i, i, 1.0);
-		}
-		return m;
+		return DenseMatrix.identity(rows, cols);
 	}
 	
 	/* (non-Javadoc)
@@ -224,6 +218,14 @@ public class Matrix< Number > extends AbstractMatrix<Number> {
 		return multiply(matrix, result);
 	}
 	
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#covariance()
+	 */
+	public IMatrix<Number> covariance() {
+		IMatrix<Number> result = new Matrix<Number>(this.getSize().getRows(), this.getSize().getRows());
+		return multiplyTransposed(this, result);
+	}
+	
 	/* (non-Javadoc)
 	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
 	 */
@@ -808,15 +810,7 @@ public class Matrix< Number > extends AbstractMatrix<Number> {
 	 * @return
 	 */
 	public boolean save(String file) {
-		try {
-			java.io.FileWriter fout = new java.io.FileWriter(file);
-			MatrixWriter writer = new MatrixWriter(fout);
-			writer.writeMatrix((IMatrix<Double>)this, fout);
-			return true;
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
-		return false;
+		return new MatrixChannelWriter().save(this, file);
 	}
 	
 	/**
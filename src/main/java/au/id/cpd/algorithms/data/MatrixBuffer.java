@@ -7,26 +7,75 @@ import java.lang.*;
 import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
-import java.security.*;
+import java.nio.file.*;
 import java.util.*;
-
-import javax.crypto.*;
-import javax.crypto.spec.*;
+import java.util.concurrent.locks.*;
 
 import org.netlib.util.MatConv;
-import sun.misc.*;
 
 import org.netlib.blas.*;
 
-import au.id.cpd.algorithms.algebra.ThreadMultiplierOperation;
+import au.id.cpd.algorithms.algebra.OutOfCoreMultiplierOperation;
 import au.id.cpd.algorithms.data.io.*;
+import java.util.zip.CRC32;
 
 /**
+ * A matrix held in a file.
+ * 
+ * In MAPPED mode, the default, the whole file is memory mapped while the
+ * buffer is open so reading or writing a cell is a load or store to the
+ * mapping rather than a locked channel read or write. The file is mapped
+ * in segments of 1GB so that matrices larger than 2GB can be mapped, and
+ * the mapping is replaced when the matrix is resized. In CHANNEL mode
+ * every access reads or writes through the channel.
+ * 
+ * Offsets into the file are longs, the number of rows and columns are
+ * each limited to an int.
+ * 
+ * Cells are stored a row after another unless a tile size is given when
+ * the buffer is created. The file is then a grid of square tiles, each
+ * stored row major in one contiguous run, so that reading a column or a
+ * block reads a few whole pages rather than one cell from each page.
+ * 
+ * A file starts with a MatrixFileHeader recording the element type, byte
+ * order, dimensions and layout, followed by the cells. New files hold
+ * their cells in the byte order of the machine, files written elsewhere
+ * are read in the order recorded. Files from before the header, whose
+ * dimensions are in a .size text file beside them, are upgraded when
+ * they are opened for writing.
+ * 
+ * Threads share a buffer through locks over ranges of rows, reads of
+ * the same rows share a lock and a write holds it alone. Reads of the
+ * mapping take the read lock rather than reading optimistically, so
+ * that close, which takes every lock, can unmap the segments once no
+ * read is inside them. Other processes are not excluded unless file
+ * locking is turned on with setFileLocking, which locks the whole file
+ * until it is turned off or the buffer is closed.
+ * 
+ * In CHANNEL mode the cells read are kept in a cache of blocks, each the
+ * cells of one range of rows, up to a budget of bytes. The least
+ * recently used blocks are dropped to stay within the budget and a block
+ * is dropped when any of its cells are written.
+ * 
  * @author cd
  * 
  */
 public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 
+	/**
+	 * How cells are read from and written to the file.
+	 */
+	public enum AccessMode {
+		/**
+		 * Through a mapping of the whole file.
+		 */
+		MAPPED,
+		/**
+		 * Through positional reads and writes on the channel.
+		 */
+		CHANNEL
+	}
+
 	/**
 	 * The row index.
 	 */
@@ -38,10 +87,22 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	private int col;
 
 	/**
-	 * Lock over the memory resource in use.
+	 * Lock over the whole file held for other processes,
+	 * null unless file locking is on.
 	 */
 	private volatile FileLock lock;
 
+	/**
+	 * Locks over ranges of rows, rows r and r + STRIPES*stripeRows()
+	 * share a lock.
+	 */
+	private final StampedLock[] stripes = newStripes();
+
+	/**
+	 * Blocks of cells read through the channel.
+	 */
+	private final BlockCache cache = new BlockCache(DEFAULT_CACHE_SIZE);
+
 	/**
 	 * Random access file.
 	 */
@@ -58,16 +119,82 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	private volatile FileChannel channel;
 
 	/**
-	 * Mapped byte buffer from which we extract the DoubleBuffer views. Used
-	 * primarily in writing.
+	 * Segments mapping the whole file, segment k starts at byte
+	 * k * 2^SEGMENT_SHIFT. Null when the file is accessed through the
+	 * channel.
+	 */
+	private volatile MappedByteBuffer[] maps;
+
+	/**
+	 * Whether the file is mapped.
 	 */
-	private volatile MappedByteBuffer map;
+	private volatile AccessMode accessMode = AccessMode.MAPPED;
 
 	/**
 	 * Number of bytes in a double.
 	 */
 	private static int DOUBLE_SIZE = 8;
 
+	/**
+	 * log2 of the bytes in a mapped segment. A multiple of every
+	 * element size so that no element spans two segments.
+	 */
+	private static int SEGMENT_SHIFT = 30;
+
+	/**
+	 * Bytes of blocks cached by default in CHANNEL mode, 32MB.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 32L * 1024 * 1024;
+
+	/**
+	 * Number of row locks, a power of 2.
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * Rows guarded by one lock in a row major file.
+	 */
+	private static final int STRIPE_ROWS = 64;
+
+	/**
+	 * Tile size giving 32KB tiles of doubles.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/**
+	 * Rows and columns in a tile of the file, 0 when the
+	 * file is row major.
+	 */
+	private int tileSize = 0;
+
+	/**
+	 * Offset of the first cell in the file, 0 for a file
+	 * without a header.
+	 */
+	private long dataOffset = 0;
+
+	/**
+	 * Byte order of the cells.
+	 */
+	private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
+	/**
+	 * Whether the header holds a checksum of the cells,
+	 * cleared by the next write.
+	 */
+	private volatile boolean checksummed;
+
+	/**
+	 * Whether the file was named by the TempFileStore and
+	 * is given back to it when the buffer is closed.
+	 */
+	private boolean temporary;
+
+	/**
+	 * Closes the file if the buffer is collected without being closed.
+	 */
+	private TempFileStore.Handle handle;
+
 	/**
 	 * Return a matrix of ones of dimension rows x cols
 	 * 
@@ -118,33 +245,157 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	}
 
 	public static MatrixBuffer<Double> CreateMatrixBuffer(Size size) {
+		String fileName = createTempFileName(size, 0, DOUBLE_SIZE);
+		if (fileName == null)
+			return null;
+		try {
+			return temporary(new MatrixBuffer<Double>(fileName, size));
+		} catch (Exception e) {
+			e.printStackTrace();
+			TempFileStore.getDefault().delete(fileName);
+		}
+		return null;
+	}
+
+	/**
+	 * Create a temporary buffer stored in square tiles.
+	 * 
+	 * @param size
+	 * @param tileSize rows and columns in a tile, 0 for row major.
+	 * @return
+	 */
+	public static MatrixBuffer<Double> CreateMatrixBuffer(Size size, int tileSize) {
+		String fileName = createTempFileName(size, tileSize, DOUBLE_SIZE);
+		if (fileName == null)
+			return null;
+		try {
+			return temporary(new MatrixBuffer<Double>(fileName, size, tileSize));
+		} catch (Exception e) {
+			e.printStackTrace();
+			TempFileStore.getDefault().delete(fileName);
+		}
+		return null;
+	}
+
+	/**
+	 * Open a matrix file with the buffer for the element type
+	 * recorded in its header.
+	 * 
+	 * @param name
+	 * @return a FloatMatrixBuffer for a file of floats, otherwise a
+	 *         MatrixBuffer, or null if the file cannot be opened.
+	 */
+	public static MatrixBuffer<Double> open(String name) {
 		try {
-			String macAlg = "HmacSHA1";
-			SecureRandom sr = new SecureRandom();
-			byte[] keyData = new byte[20];
-			sr.nextBytes(keyData);
-			SecretKey sk = new SecretKeySpec(keyData, macAlg);
-			Mac mac = Mac.getInstance(macAlg);
-			mac.init(sk);
-			String className = MatrixBuffer.class.getCanonicalName();
-			byte[] bytes = className.getBytes();
-			byte[] result = mac.doFinal(bytes);
-			String b64Encoded = new BASE64Encoder().encodeBuffer(result);
-			String tmpdir = System.getProperty("java.io.tmpdir");
-			String separator = System.getProperty("file.separator");
-			b64Encoded = b64Encoded.replaceAll("\n", "");
-			b64Encoded = b64Encoded.replaceAll(separator, "");
-			String fileName = tmpdir + separator + b64Encoded + ".jmat";
-			File f = new File(fileName);
-			f.deleteOnExit(); // request that the temp file is removed when jvm terminates.
-			MatrixBuffer<Double> mat = new MatrixBuffer<Double>(fileName, size);
-			return mat;
+			MatrixFileHeader header = null;
+			RandomAccessFile file = new RandomAccessFile(name, "r");
+			try {
+				header = MatrixFileHeader.read(file.getChannel());
+			} finally {
+				file.close();
+			}
+			if ((header != null) && (header.getDataType() == MatrixFileHeader.FLOAT32))
+				return new FloatMatrixBuffer<Double>(name);
+			return new MatrixBuffer<Double>(name);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
 
+	/**
+	 * Generate a unique file name in the temp directory
+	 * that is removed when the jvm terminates.
+	 * 
+	 * @return the file name or null if it cannot be generated.
+	 */
+	protected static String createTempFileName() {
+		return createTempFileName(0);
+	}
+
+	/**
+	 * Name a temporary file of zeroes of bytes from the TempFileStore.
+	 * 
+	 * @param bytes
+	 * @return the file name or null if the file would exceed the disk
+	 *         budget of the store.
+	 */
+	protected static String createTempFileName(long bytes) {
+		return TempFileStore.getDefault().acquire(bytes);
+	}
+
+	/**
+	 * Name a temporary file of bytes from the TempFileStore that the
+	 * caller writes in full, so its old contents are not cleared.
+	 * 
+	 * @param bytes
+	 * @return the file name or null if the file would exceed the disk
+	 *         budget of the store.
+	 */
+	protected static String createScratchFileName(long bytes) {
+		return TempFileStore.getDefault().acquire(bytes, false);
+	}
+
+	/**
+	 * Name a temporary file from the TempFileStore holding a matrix of
+	 * zeroes of the given size behind its header.
+	 * 
+	 * @param size
+	 * @param tileSize
+	 * @param elementSize
+	 * @return the file name or null if the file would exceed the disk
+	 *         budget of the store or cannot be written.
+	 */
+	protected static String createTempFileName(Size size, int tileSize, int elementSize) {
+		String name = createTempFileName(fileLength(size, tileSize, elementSize));
+		if (name == null)
+			return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(name, "rw");
+			try {
+				new MatrixFileHeader(elementSize, ByteOrder.nativeOrder(), size.getRows(), size.getCols(), tileSize)
+						.write(file.getChannel());
+			} finally {
+				file.close();
+			}
+			return name;
+		} catch (IOException e) {
+			e.printStackTrace();
+			TempFileStore.getDefault().delete(name);
+		}
+		return null;
+	}
+
+	/**
+	 * Bytes in a file holding a matrix of the given size.
+	 * 
+	 * @param size
+	 * @param tileSize
+	 * @param elementSize
+	 * @return
+	 */
+	protected static long fileLength(Size size, int tileSize, int elementSize) {
+		return MatrixFileHeader.SIZE + dataLength(size, tileSize, elementSize);
+	}
+
+	/**
+	 * Mark a buffer created in a temporary file, which is given back to the
+	 * TempFileStore when it is closed, and extend the file to its full size.
+	 * 
+	 * @param mat
+	 * @return mat
+	 * @throws IOException
+	 */
+	protected static <T extends MatrixBuffer> T temporary(T mat) throws IOException {
+		MatrixBuffer m = mat;
+		m.temporary = true;
+		TempFileStore.getDefault().setTemporary(m.handle, m.fileName);
+		long length = m.dataOffset + m.dataLength();
+		if (m.dataFile.length() < length)
+			m.dataFile.setLength(length);
+		return mat;
+	}
+
 	/**
 	 * @param name
 	 * @throws FileNotFoundException
@@ -243,6 +494,35 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		init();
 	}
 
+	/**
+	 * Create a buffer stored in square tiles. The layout is written
+	 * to the header so the buffer can be reopened by name.
+	 * 
+	 * @param name
+	 * @param size
+	 * @param tileSize rows and columns in a tile, 0 for row major.
+	 * @throws FileNotFoundException
+	 */
+	public MatrixBuffer(String name, Size size, int tileSize)
+			throws FileNotFoundException, IOException {
+		fileName = name;
+		dataFile = new RandomAccessFile(name, "rw");
+		this.tileSize = Math.max(tileSize, 0);
+		this.setSize(size);
+		init();
+	}
+
+	/**
+	 * @param file
+	 * @param size
+	 * @param tileSize rows and columns in a tile, 0 for row major.
+	 * @throws FileNotFoundException
+	 */
+	public MatrixBuffer(File file, Size size, int tileSize)
+			throws FileNotFoundException, IOException {
+		this(file.getAbsolutePath(), size, tileSize);
+	}
+
 	/**
 	 * @param name
 	 * @param mode
@@ -295,33 +575,57 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		init();
 	}
 
-	public void finalize() {
-		try {
-			if (lock.isValid()) {
-				lock.release();
-			}
-			if (channel.isOpen()) {
-				channel.close();
-			}
-			if (dataFile != null) {
-				dataFile.close();
+	/**
+	 * Initialize internal members.
+	 * 
+	 */
+	private void init() throws IOException {
+		channel = dataFile.getChannel();
+		handle = TempFileStore.getDefault().track(this, dataFile);
+		MatrixFileHeader header = MatrixFileHeader.read(channel);
+		if (header != null) {
+			if (header.getElementSize() != getElementSize())
+				System.err.println(fileName + " holds " + header.getElementSize() + " byte elements, not " + getElementSize());
+			dataOffset = MatrixFileHeader.SIZE;
+			byteOrder = header.getByteOrder();
+			checksummed = header.hasChecksum();
+			if (getSize() == null) {
+				setSize(new Size(header.getRows(), header.getCols()));
+				tileSize = header.getTileSize();
+			} else if ((getSize().compareTo(new Size(header.getRows(), header.getCols())) != 0)
+					|| (tileSize != header.getTileSize())) {
+				// the size given replaces the size recorded.
+				writeHeader();
 			}
-			File f = new File(fileName);
-			// remove the file if it is a temporary file.
-			String tmpdir = System.getProperty("java.io.tmpdir");
-			if (f.getAbsolutePath().indexOf(tmpdir) >= 0) {
-				f.delete();
+		} else {
+			boolean sized = (getSize() != null) || readSizeFile();
+			try {
+				if (channel.size() == 0) {
+					byteOrder = ByteOrder.nativeOrder();
+					dataOffset = MatrixFileHeader.SIZE;
+					writeHeader();
+				} else if (sized) {
+					upgrade();
+				}
+			} catch (NonWritableChannelException e) {
+				// opened for reading, read the cells as they are.
+				byteOrder = ByteOrder.BIG_ENDIAN;
+				dataOffset = 0;
 			}
-		} catch (Exception e) {
-
 		}
+		row = -1;
+		col = -1;
+		remap();
 	}
 
 	/**
-	 * Initialize internal members.
+	 * Read the dimensions of a file without a header from
+	 * the .size file beside it.
 	 * 
+	 * @return true if the size file was read.
 	 */
-	private void init() throws IOException {
+	private boolean readSizeFile() {
+		boolean sized = false;
 		if (getSize() == null) {
 			setSize(new Size(0, 0));
 			try {
@@ -336,204 +640,565 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 						int r = sMat.get(0, 0).intValue();
 						int c = sMat.get(0, 1).intValue();
 						this.setSize(new Size(r, c));
+						sized = true;
 					}
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		}
-		channel = dataFile.getChannel();
-		row = -1;
-		col = -1;
+		return sized;
 	}
 
 	/**
-	 * Calculate the index for two dimensions mapped onto a one dimensional
-	 * array.
+	 * Move the cells of a file without a header along to make room
+	 * for one, write the header and remove the .size file.
+	 * The cells were written big endian.
 	 * 
-	 * @param i
-	 * @param j
-	 * @return
+	 * @throws IOException
 	 */
-	private int index(int i, int j) {
-		return i * this.getSize().getCols() + j;
+	private void upgrade() throws IOException {
+		int shift = MatrixFileHeader.SIZE;
+		ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+		// from the end so no cell is overwritten before it is moved.
+		for (long end = channel.size(); end > 0;) {
+			long start = Math.max(0, end - buf.capacity());
+			buf.clear();
+			buf.limit((int) (end - start));
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, start + buf.position()) < 0)
+					break;
+			}
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf, start + shift + buf.position());
+			}
+			end = start;
+		}
+		byteOrder = ByteOrder.BIG_ENDIAN;
+		dataOffset = shift;
+		writeHeader();
+		new File(fileName + ".size").delete();
 	}
 
 	/**
-	 * Check if the index is out of bounds.
-	 * 
-	 * @param idx
-	 * @return
+	 * The header for the current size and layout.
 	 */
-	private boolean isOutOfBounds(int idx) {
-		if ((idx < 0)
-				|| (idx >= this.getSize().getCols() * this.getSize().getRows()))
-			return true;
-		return false;
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.lang.Object#clone()
-	 */
-	@Override
-	public  IMatrix<Double> clone() {
-		try {
-			IMatrix<Double> copy = MatrixBuffer.CreateMatrixBuffer(getSize());
-			for (int i = 0; i < getSize().getRows(); i++) {
-				List<Number> list = getRow(i);
-				if (list == null)
-					return null;
-				for (int j = 0; j < getSize().getCols(); j++) {
-					copy.set(i, j, list.get(j));
-				}
-			}
-			return copy;
-		} catch (Exception e) {
-
-		}
-		return null;
+	private MatrixFileHeader header() {
+		return new MatrixFileHeader(getElementSize(), byteOrder,
+				getSize().getRows(), getSize().getCols(), tileSize);
 	}
 
 	/**
-	 * Lock the file.
+	 * Write the header for the current size and layout,
+	 * without a checksum.
 	 * 
 	 * @throws IOException
 	 */
-	private void lock() throws IOException {
-		if (lock == null)
-			lock = channel.lock();
-		if (!lock.isValid())
-			lock = channel.lock();
+	private void writeHeader() throws IOException {
+		if (dataOffset == 0)
+			return;
+		checksummed = false;
+		header().write(channel);
 	}
 
 	/**
-	 * Close the memory mapped resource.
-	 * 
-	 * 
+	 * Drop the checksum before the cells are changed.
 	 */
-	public void close() {
+	private synchronized void clearChecksum() {
+		if (!checksummed)
+			return;
 		try {
-			if (channel != null)
-				channel.close();
-			if (dataFile != null)
-				dataFile.close();
-		} catch(Exception e) {
+			writeHeader();
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Save the matrix to the supplied file.
-	 * @param file
+	 * CRC32 of the cells as stored.
+	 * 
 	 * @return
+	 * @throws IOException
 	 */
-	public boolean save(String file) {
-		return copyFileTo(file);
+	private long crc() throws IOException {
+		CRC32 crc = new CRC32();
+		long len = dataLength();
+		ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+		for (long position = 0; position < len; position += buf.capacity()) {
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), len - position));
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, dataOffset + position + buf.position()) < 0)
+					break;
+			}
+			// cells never written are zero.
+			while (buf.hasRemaining())
+				buf.put((byte) 0);
+			crc.update(buf.array(), 0, buf.limit());
+		}
+		return crc.getValue();
 	}
-	
+
 	/**
-	 * Copy the mapped memory file to the supplied destination.
+	 * Record a checksum of the cells in the header.
+	 * The checksum is dropped by the next write to the matrix.
 	 * 
-	 * @param dest
+	 * @return false if the file has no header or cannot be read.
 	 */
-	public  boolean copyFileTo(String dest) {
+	public boolean updateChecksum() {
+		if (dataOffset == 0)
+			return false;
+		long[] stamps = lockAll(true);
 		try {
-			File f = new File(dest);
-			if (f.exists()) {
-				f.delete();
-			}
-			f = null;
-			lock();
-			RandomAccessFile fos = new RandomAccessFile(dest, "rw");
-			FileChannel outChannel = fos.getChannel();
-			FileLock outLock = outChannel.lock();
-			int m = getSize().getRows();
-			int n = getSize().getCols();
-			for (int i = 0; i < m; i++) {
-				byte[] rowData = new byte[n * DOUBLE_SIZE];
-				int position = index(i, 0) * DOUBLE_SIZE;
-				int len = n * DOUBLE_SIZE;
-				
-				ByteBuffer inBuf = ByteBuffer.allocate(len);
-				channel.read(inBuf, position);
-				inBuf.rewind();
-				inBuf.position(0);
-				rowData = inBuf.array();
-				
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(rowData.length);
-				outBuf.put(rowData);
-				outBuf.rewind();
-				outBuf.position(0);
-				
-				outChannel.write(outBuf);
-				outBuf.clear();
-				outBuf = null;
-			}
-			outLock.release();
-			//outChannel.force(true);
-			outChannel.close();
-			fos.close();
-			lock.release();
-			String sizeFile = dest + ".size";
-			IMatrix<Double> sMat = new Matrix<Double>(1, 2);
-			sMat.add(this.getSize().getRows());
-			sMat.add(this.getSize().getCols());
-			FileWriter fout = new FileWriter(new File(sizeFile));
-			MatrixWriter writer = new MatrixWriter(fout);
-			writer.writeMatrix(sMat, fout);
-			writer.close();
+			MatrixFileHeader header = header();
+			header.setChecksum(true, crc());
+			header.write(channel);
+			checksummed = true;
 			return true;
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			unlockAll(stamps);
 		}
 		return false;
 	}
 
 	/**
-	 * Add an item to the collection. This method works best if the Size is
-	 * predefined on the Matrix.
+	 * Compare the cells with the checksum in the header.
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 * @return false if a checksum is recorded and the cells do not match it.
 	 */
-	public  boolean add(Object o) {
-		boolean flag = false;
-		int m = getSize().getRows();
-		int n = getSize().getCols();
-		if (row + 1 >= m) {
-			resize(new Size(m + 1, n + 1));
-			flag = true;
-		}
+	public boolean verifyChecksum() {
+		long[] stamps = lockAll(false);
 		try {
-			if (flag) {
-				++row;
-				col = 0;
-			} else if (col + 1 >= n) {
-				++row;
-				col = 0;
-			} else {
-				++col;
-			}
-			int position = index(row, col) * DOUBLE_SIZE;
-			channel.position(position);
-			ByteBuffer outBuf = ByteBuffer.allocateDirect(DOUBLE_SIZE);
-			outBuf.asDoubleBuffer().put((Double)o);
-			channel.write(outBuf);
-			//channel.force(true);
-			outBuf.clear();
-			outBuf = null;
-			lock.release();
-			return true;
+			MatrixFileHeader header = MatrixFileHeader.read(channel);
+			if ((header == null) || !header.hasChecksum())
+				return true;
+			return header.getChecksum() == crc();
 		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			unlockAll(stamps);
 		}
 		return false;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Map the cells of the file for the current size, replacing any
+	 * previous mapping. A file opened for reading is mapped read only.
+	 * Nothing is mapped in CHANNEL mode.
+	 */
+	private void remap() {
+		maps = null;
+		// the cells in a block depend on the size.
+		cache.clear();
+		if ((accessMode != AccessMode.MAPPED) || (channel == null) || !channel.isOpen())
+			return;
+		long len = dataLength();
+		if (len == 0)
+			return;
+		try {
+			maps = mapSegments(FileChannel.MapMode.READ_WRITE, len);
+		} catch (NonWritableChannelException e) {
+			try {
+				if (channel.size() >= len)
+					maps = mapSegments(FileChannel.MapMode.READ_ONLY, len);
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Map the first len bytes of the file as a series of segments.
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 * @param mode
+	 * @param len
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer[] mapSegments(FileChannel.MapMode mode, long len) throws IOException {
+		long segmentSize = 1L << SEGMENT_SHIFT;
+		int count = (int) ((len + segmentSize - 1) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] segments = new MappedByteBuffer[count];
+		for (int k = 0; k < count; k++) {
+			long start = (long) k << SEGMENT_SHIFT;
+			segments[k] = channel.map(mode, dataOffset + start, Math.min(segmentSize, len - start));
+			segments[k].order(byteOrder);
+		}
+		return segments;
+	}
+
+	/**
+	 * The segment holding the byte at position.
+	 */
+	private static ByteBuffer segment(MappedByteBuffer[] segments, long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)];
+	}
+
+	/**
+	 * The offset of position within its segment.
+	 */
+	private static int segmentOffset(long position) {
+		return (int) (position & ((1L << SEGMENT_SHIFT) - 1));
+	}
+
+	/**
+	 * Calculate the cell in the file holding row i, column j.
+	 * Row major files hold cell i*cols + j, tiled files hold the cells of
+	 * a tile together with the tiles in row major order.
+	 * 
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	protected long offsetOf(int i, int j) {
+		if (tileSize == 0)
+			return (long) i * this.getSize().getCols() + j;
+		int t = tileSize;
+		long tileCols = (this.getSize().getCols() + t - 1) / t;
+		long tile = (i / t) * tileCols + (j / t);
+		return tile * t * t + (i % t) * t + (j % t);
+	}
+
+	/**
+	 * Number of bytes of the file holding cells. Tiled files hold
+	 * whole tiles so edge tiles are padded.
+	 * 
+	 * @return
+	 */
+	private long dataLength() {
+		return dataLength(getSize(), tileSize, getElementSize());
+	}
+
+	private static long dataLength(Size size, int tileSize, int elementSize) {
+		long rows = size.getRows();
+		long cols = size.getCols();
+		if (tileSize > 0) {
+			rows = (rows + tileSize - 1) / tileSize * tileSize;
+			cols = (cols + tileSize - 1) / tileSize * tileSize;
+		}
+		return rows * cols * elementSize;
+	}
+
+	/**
+	 * Check if the index is out of bounds.
+	 * 
+	 * @param idx
+	 * @return
+	 */
+	private boolean isOutOfBounds(long idx) {
+		if ((idx < 0)
+				|| (idx >= (long) this.getSize().getCols() * this.getSize().getRows()))
+			return true;
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public  IMatrix<Double> clone() {
+		// copy the file as a whole, which the file system may share
+		// rather than copy.
+		String name = createScratchFileName(MatrixFileHeader.SIZE + dataLength());
+		if (name != null) {
+			MatrixBuffer<Double> copy = copyFileTo(name) ? open(name) : null;
+			try {
+				if (copy != null)
+					return temporary(copy);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			TempFileStore.getDefault().delete(name);
+		}
+		RowCursor cursor = scan();
+		try {
+			IMatrix<Double> copy = newBuffer(getSize());
+			while (cursor.next()) {
+				storeRows(copy, cursor.getRow(), cursor.getRows(), cursor.getValues());
+			}
+			if (!scanned(cursor))
+				return null;
+			return copy;
+		} catch (Exception e) {
+
+		} finally {
+			cursor.close();
+		}
+		return null;
+	}
+
+	/**
+	 * Whether a scan reached the last row, a block that cannot be read
+	 * also ends the scan.
+	 */
+	private boolean scanned(RowCursor cursor) {
+		if (cursor.getRow() < getSize().getRows()) {
+			System.err.println(fileName + " : cannot read the rows from " + cursor.getRow());
+			return false;
+		}
+		return true;
+	}
+
+	private static StampedLock[] newStripes() {
+		StampedLock[] locks = new StampedLock[STRIPES];
+		for (int k = 0; k < STRIPES; k++) {
+			locks[k] = new StampedLock();
+		}
+		return locks;
+	}
+
+	/**
+	 * Rows guarded by one lock, a row of tiles in a tiled file.
+	 */
+	private int stripeRows() {
+		return (tileSize > 0) ? tileSize : STRIPE_ROWS;
+	}
+
+	/**
+	 * The lock guarding row.
+	 */
+	private StampedLock stripe(int row) {
+		return stripes[(row / stripeRows()) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Take every row lock, in order, for reading or writing.
+	 * 
+	 * @param write
+	 * @return the stamps to pass to unlockAll.
+	 */
+	private long[] lockAll(boolean write) {
+		long[] stamps = new long[STRIPES];
+		for (int k = 0; k < STRIPES; k++) {
+			stamps[k] = write ? stripes[k].writeLock() : stripes[k].readLock();
+		}
+		return stamps;
+	}
+
+	private void unlockAll(long[] stamps) {
+		for (int k = STRIPES - 1; k >= 0; k--) {
+			stripes[k].unlock(stamps[k]);
+		}
+	}
+
+	/**
+	 * Lock the whole file against other processes, or release the lock.
+	 * Turn file locking on once after opening a file shared with other
+	 * processes, threads of this process are kept apart by the row locks
+	 * either way. A file opened for reading is locked shared.
+	 * 
+	 * @param fileLocking
+	 */
+	public void setFileLocking(boolean fileLocking) {
+		try {
+			if (fileLocking) {
+				if ((lock != null) && lock.isValid())
+					return;
+				try {
+					lock = channel.lock();
+				} catch (NonWritableChannelException e) {
+					lock = channel.lock(0, Long.MAX_VALUE, true);
+				}
+			} else if (lock != null) {
+				if (lock.isValid())
+					lock.release();
+				lock = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return true if the file is locked against other processes.
+	 */
+	public boolean isFileLocking() {
+		return (lock != null) && lock.isValid();
+	}
+
+	/**
+	 * Close the memory mapped resource.
+	 * The mapping is released now rather than when the buffer is collected,
+	 * and a temporary file is given back to the TempFileStore.
+	 * Every row lock is taken first, so reads and writes in progress on
+	 * other threads finish before the mapping is released. Later reads
+	 * return null.
+	 * 
+	 */
+	public void close() {
+		long[] stamps = lockAll(true);
+		try {
+			MappedByteBuffer[] segments = maps;
+			maps = null;
+			cache.clear();
+			DirectBuffers.free(segments);
+			setFileLocking(false);
+			TempFileStore.getDefault().untrack(handle);
+			if (temporary && (dataFile != null) && channel.isOpen()) {
+				// the file is kept at its size for the next temporary buffer.
+				temporary = false;
+				dataFile.close();
+				TempFileStore.getDefault().release(fileName);
+			}
+			if (channel != null)
+				channel.close();
+			if (dataFile != null)
+				dataFile.close();
+		} catch(Exception e) {
+			e.printStackTrace();
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	/**
+	 * Save the matrix to the supplied file.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		return copyFileTo(file);
+	}
+	
+	/**
+	 * Copy the mapped memory file to the supplied destination.
+	 * The copy is made by the file system, which may share the blocks of
+	 * the file until either copy is changed, or by the kernel when the
+	 * file has no header.
+	 * 
+	 * @param dest
+	 */
+	public  boolean copyFileTo(String dest) {
+		long[] stamps = lockAll(false);
+		try {
+			long length = dataOffset + dataLength();
+			if (dataOffset > 0) {
+				Files.copy(new File(fileName).toPath(), new File(dest).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				RandomAccessFile fos = new RandomAccessFile(dest, "rw");
+				try {
+					// cells never written read as zero.
+					if (fos.length() != length)
+						fos.setLength(length);
+				} finally {
+					fos.close();
+				}
+			} else {
+				RandomAccessFile fos = new RandomAccessFile(dest, "rw");
+				try {
+					fos.setLength(0);
+					FileChannel outChannel = fos.getChannel();
+					header().write(outChannel);
+					// copy the cells as stored so tiled files keep their layout.
+					transfer(channel, 0, outChannel, MatrixFileHeader.SIZE, dataLength());
+				} finally {
+					fos.close();
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			unlockAll(stamps);
+		}
+		return false;
+	}
+
+	/**
+	 * Copy count bytes from position of one channel to position of
+	 * another in the kernel. Bytes past the end of the source are
+	 * written as zero.
+	 * 
+	 * @param src
+	 * @param srcPosition
+	 * @param dst
+	 * @param dstPosition
+	 * @param count
+	 * @throws IOException
+	 */
+	private static void transfer(FileChannel src, long srcPosition, FileChannel dst, long dstPosition, long count) throws IOException {
+		dst.position(dstPosition);
+		while (count > 0) {
+			long n = src.transferTo(srcPosition, count, dst);
+			if (n <= 0) {
+				if (srcPosition >= src.size())
+					break;
+				continue;
+			}
+			srcPosition += n;
+			dstPosition += n;
+			count -= n;
+		}
+		zero(dst, dstPosition, count);
+	}
+
+	/**
+	 * Write count zero bytes at position.
+	 */
+	private static void zero(FileChannel ch, long position, long count) throws IOException {
+		if (count <= 0)
+			return;
+		ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(count, 1 << 20));
+		while (count > 0) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), count));
+			while (zeros.hasRemaining()) {
+				int n = ch.write(zeros, position);
+				position += n;
+				count -= n;
+			}
+		}
+	}
+
+	/**
+	 * Add an item to the collection. This method works best if the Size is
+	 * predefined on the Matrix.
+	 * 
+	 * Cells are filled a row after another from the first. When the last
+	 * row is full the matrix grows by one row of the same columns, so the
+	 * cells written stay in place and growing writes only the new row.
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public  boolean add(Object o) {
+		int m = getSize().getRows();
+		int n = getSize().getCols();
+		int nextRow = row;
+		int nextCol = col + 1;
+		if ((row < 0) || (nextCol >= n)) {
+			nextRow = row + 1;
+			nextCol = 0;
+		}
+		if ((nextRow >= m) || (n == 0)) {
+			resize(new Size(Math.max(m, nextRow + 1), Math.max(n, 1)));
+		}
+		try {
+			row = nextRow;
+			col = nextCol;
+			StampedLock rowLock = stripe(row);
+			long stamp = rowLock.writeLock();
+			try {
+				writeCells(offsetOf(row, col), new double[] { (Double)o }, 0, 1);
+				//channel.force(true);
+			} finally {
+				rowLock.unlockWrite(stamp);
+			}
+			return true;
+		} catch (Exception e) {
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
 	 */
 	public  boolean add(int row, int col, Object item) {
 		// m x n matrix
@@ -549,16 +1214,14 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		try {
 			this.row = row;
 			this.col = col;
-			int position = index(row, col) * DOUBLE_SIZE;
-			lock();
-			channel.position(position);
-			ByteBuffer outBuf = ByteBuffer.allocateDirect(DOUBLE_SIZE);
-			outBuf.asDoubleBuffer().put((Double)item);
-			channel.write(outBuf);
-			outBuf.clear();
-			outBuf = null;
-			//channel.force(true);
-			lock.release();
+			StampedLock rowLock = stripe(row);
+			long stamp = rowLock.writeLock();
+			try {
+				writeCells(offsetOf(row, col), new double[] { (Double)item }, 0, 1);
+				//channel.force(true);
+			} finally {
+				rowLock.unlockWrite(stamp);
+			}
 			return true;
 		} catch (Exception e) {
 
@@ -639,10 +1302,46 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		int rows = this.getSize().getRows();
 		int cols = this.getSize().getCols();
 		// normalise column by column.
-		IMatrix<Double> means = MatrixBuffer.CreateMatrixBuffer(1, cols);
+		IMatrix<Double> means = newBuffer(1, cols);
 		return columnMeans(means);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#columnMeans(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	@Override
+	public  IMatrix<Double> columnMeans(IMatrix<Double> means) {
+		int rows = this.getSize().getRows();
+		int cols = this.getSize().getCols();
+		// sum a block of rows at a time.
+		double[] sums = new double[cols];
+		RowCursor cursor = scan();
+		try {
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for (int r = 0; r < cursor.getRows(); r++) {
+					for (int k = 0; k < cols; k++) {
+						sums[k] += block[r * cols + k];
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		if (!scanned(cursor))
+			return null;
+		for (int k = 0; k < cols; k++) {
+			if (sums[k] != 0) {
+				means.set(0, k, sums[k] / rows);
+			} else {
+				means.set(0, k, 0.0);
+			}
+		}
+		return means;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -685,22 +1384,18 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 			int m = getSize().getRows();
 			int n = getSize().getCols();
 			double[][] result = new double[m][n];
-			lock();
-			for (int i = 0; i < m; i++) {
-				int position = index(i, 0) * DOUBLE_SIZE;
-				int len = index(i, n) * DOUBLE_SIZE - position;
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-				channel.position(position);
-				channel.read(outBuf);
-				double[] rowData = new double[n];
-				outBuf.rewind();
-				outBuf.position(0);
-				outBuf.asDoubleBuffer().get(rowData, 0, n);
-				result[i] = rowData;
-				outBuf.clear();
-				outBuf = null;
+			RowCursor cursor = scan();
+			try {
+				while (cursor.next()) {
+					for (int r = 0; r < cursor.getRows(); r++) {
+						System.arraycopy(cursor.getValues(), r * n, result[cursor.getRow() + r], 0, n);
+					}
+				}
+			} finally {
+				cursor.close();
 			}
-			lock.release();
+			if (!scanned(cursor))
+				return null;
 			return result;
 		} catch(Exception e) {
 			
@@ -714,8 +1409,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
 	 */
 	public  IMatrix<Number> cos() {
-		IMatrix<Number> result = (IMatrix<Number>) MatrixBuffer
-				.CreateMatrixBuffer(getSize());
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(getSize());
 		return cos(result);
 	}
 
@@ -725,7 +1419,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
 	 */
 	public IMatrix<Number> divide(Double m) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize().getRows(), this.getSize().getCols());
 		return divide(m, result);
 	}
@@ -736,7 +1430,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
 	 */
 	public  IMatrix divisorOf(Double m) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize().getRows(), this.getSize().getCols());
 		return divisorOf(m, result);
 	}
@@ -747,7 +1441,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
 	 */
 	public  IMatrix exp() {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize().getRows(), this.getSize().getCols());
 		return exp(result);
 	}
@@ -778,24 +1472,12 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		try {
 			int m = getSize().getRows();
 			int n = getSize().getCols();
-			lock();
+			double[] rowData = new double[n];
+			Arrays.fill(rowData, val);
 			for (int i = 0; i < m; i++) {
-				int position = index(i, 0) * DOUBLE_SIZE;
-				int len = index(i, n) * DOUBLE_SIZE
-						- position;
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-				double[] rowData = new double[n];
-				for (int j = 0; j < n; j++) {
-					rowData[j] = val;
-				}
-				outBuf.asDoubleBuffer().put(rowData);
-				channel.position(position);
-				channel.write(outBuf);
-				outBuf.clear();
-				outBuf = null;
+				writeRow(i, rowData);
 			}
 			//channel.force(true);
-			lock.release();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -813,20 +1495,22 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		
 		if ((r >= 0) && (r < m) && (c >= 0)
 				&& (c < n)) {
+			StampedLock rowLock = stripe(r);
+			long stamp = rowLock.readLock();
 			try {
-				lock();
-				int position = index(r, c) * DOUBLE_SIZE;
-				ByteBuffer dst = ByteBuffer.allocateDirect(DOUBLE_SIZE);
-				int read = channel.read(dst, position);
-				dst.rewind();
-				dst.position(0);
-				Double result = dst.asDoubleBuffer().get();
-				dst.clear();
-				dst = null;
-				lock.release();
-				return result;
+				long position = offsetOf(r, c) * getElementSize();
+				MappedByteBuffer[] segments = maps;
+				if (segments != null)
+					return getValue(segment(segments, position), segmentOffset(position));
+				if (!channel.isOpen())
+					return null;
+				double[] result = new double[1];
+				readCells(offsetOf(r, c), result, 0, 1);
+				return result[0];
 			} catch (Exception e) {
 				e.printStackTrace();
+			} finally {
+				rowLock.unlockRead(stamp);
 			}
 		}
 		return null;
@@ -844,12 +1528,13 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		
 		if ((col < 0) || (col >= n))
 			return null;
+		double[] colData = new double[m];
+		if (!readBlock(0, col, m, 1, colData))
+			return null;
 		List<Number> list = new ArrayList<Number>();
-		for (int i = 0; i < m; i++) {
-			Number k = (Number) this.get(i, col);
-			if (k == null)
-				return null;
-			list.add(k);
+		for (double d : colData) {
+			Double k = new Double(d);
+			list.add((Number) k);
 		}
 		return list;
 	}
@@ -867,27 +1552,14 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		if ((row < 0) || (row >= m))
 			return null;
 		try {
-			lock();
-			int position = index(row, 0) * DOUBLE_SIZE;
-			int len = index(row, n) * DOUBLE_SIZE - position;
-			
 			double[] rowData = new double[getSize().getCols()];
-			
-			ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-			
-			channel.read(outBuf, position);
-			outBuf.rewind();
-			outBuf.position(0);
-			outBuf.asDoubleBuffer().get(rowData, 0, n);
-			outBuf.clear();
-			outBuf = null;
+			readRow(row, rowData);
 			
 			List<Number> list = new ArrayList<Number>();
 			for (double d : rowData) {
 				Double k = new Double(d);
 				list.add((Number) k);
 			}
-			lock.release();
 			return list;
 		} catch (Exception e) {
 
@@ -916,33 +1588,53 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		int m = getSize().getRows();
 		int n = getSize().getCols();
 		
+		RowCursor cursor = scan();
 		try {
-			lock();
-			for (int i = 0; i < m; i++) {
-				int position = index(i, 0) * DOUBLE_SIZE;
-				int len = index(i, n) * DOUBLE_SIZE - position;
-				double[] rowData = new double[n];
-				
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-				channel.read(outBuf, position);
-				outBuf.rewind();
-				outBuf.position(0);
-				outBuf.asDoubleBuffer().get(rowData, 0, n);
-				outBuf.clear();
-				outBuf = null;
-				for (int j = 0; j < n; j++) {
-					if (rowData[j] > max) {
-						max = rowData[j];
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for (int j = 0; j < cursor.getRows() * n; j++) {
+					if (block[j] > max) {
+						max = block[j];
 					}
 				}
-				lock.release();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			cursor.close();
 		}
+		if (!scanned(cursor))
+			return Double.NaN;
 		return max;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#min()
+	 */
+	@Override
+	public  double min() {
+		double min = Double.MAX_VALUE;
+		int n = getSize().getCols();
+		RowCursor cursor = scan();
+		try {
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for (int j = 0; j < cursor.getRows() * n; j++) {
+					if (block[j] < min) {
+						min = block[j];
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		if (!scanned(cursor))
+			return Double.NaN;
+		return min;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -952,7 +1644,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		int rows = this.getSize().getRows();
 		int cols = this.getSize().getCols();
 		// normalise column by column.
-		IMatrix<Double> normal = CreateMatrixBuffer(rows, cols);
+		IMatrix<Double> normal = newBuffer(rows, cols);
 		return meanNormalise(normal);
 	}
 	
@@ -963,50 +1655,32 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	public  IMatrix<Double> minMaxNormalise(IMatrix<Double> normal) {
 		int rows = this.getSize().getRows();
 		int cols = this.getSize().getCols();
+		if (normal.getSize().compareTo(this.getSize()) != 0) return null;
 		// normalise column by column.
 		double max = this.max();
 		double min = this.min();
 		double delta = max - min;
+		if (Double.isNaN(delta))
+			return null;
+		RowCursor cursor = scan();
 		try {
-			lock();
-			((MatrixBuffer) normal).lock();
-			for(int j=0;j<rows;j++) {
-				int position = index(j, 0) * DOUBLE_SIZE;
-				int len = index(j, cols) * DOUBLE_SIZE
-						- position;
-				
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-				double[] rowData = new double[cols];
-				channel.read(outBuf, position);
-				outBuf.rewind();
-				outBuf.position(0);
-				outBuf.asDoubleBuffer().get(rowData, 0, cols);
-				outBuf.clear();
-				outBuf = null;
-				
-				ByteBuffer nBuf = ByteBuffer.allocateDirect(len);
-				
-				double[] nRowData = new double[normal.getSize().getCols()];
-				
-				for(int k=0;k<cols;k++) {
-					double val = rowData[k];
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for(int k=0;k<cursor.getRows()*cols;k++) {
+					double val = block[k];
 					if ( (val != 0.0) && (delta != 0.0) ) {
-						nRowData[k] = (val - min) / delta;
-					} else {
-						nRowData[k] = val;
+						block[k] = (val - min) / delta;
 					}
 				}
-				nBuf.asDoubleBuffer().put(nRowData);
-				((MatrixBuffer) normal).getChannel().write(nBuf);
-				nBuf.clear();
-				nBuf = null;
+				storeRows(normal, cursor.getRow(), cursor.getRows(), block);
 			}
-			lock.release();
-			//((MatrixBuffer) normal).getChannel().force(true);
-			((MatrixBuffer) normal).lock.release();
 		} catch(Exception e) {
 			e.printStackTrace();
+		} finally {
+			cursor.close();
 		}
+		if (!scanned(cursor))
+			return null;
 		return normal;
 	}
 
@@ -1019,7 +1693,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		int rows = this.getSize().getRows();
 		int cols = this.getSize().getCols();
 		// normalise column by column.
-		IMatrix<Double> normal = CreateMatrixBuffer(rows, cols);
+		IMatrix<Double> normal = newBuffer(rows, cols);
 		return minMaxNormalise(normal);
 	}
 
@@ -1029,14 +1703,15 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
 	 */
 	public  IMatrix<Number> multiply(IMatrix matrix) {
-		IMatrix<Number> result = (IMatrix<Number>) MatrixBuffer
-				.CreateMatrixBuffer(this.getSize().getRows(), matrix.getSize()
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this.getSize().getRows(), matrix.getSize()
 						.getCols());
 		if (result.size() < 1000) {
 			return multiply(matrix, (MatrixBuffer<Number>)result);
 		} else {
-			ThreadMultiplierOperation op = new ThreadMultiplierOperation();
-			op.operate((IMatrix<Double>)this, (IMatrix<Double>)matrix, (IMatrix<Double>)result);
+			// tiles of this, matrix and the result are streamed through memory.
+			OutOfCoreMultiplierOperation op = new OutOfCoreMultiplierOperation();
+			if (!op.multiply(this, matrix, result))
+				return null;
 			return result;
 			//return blasMultiply(matrix, (MatrixBuffer<Number>)result);
 		}
@@ -1048,8 +1723,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
 	 */
 	public  IMatrix<Number> multiply(Double m) {
-		IMatrix<Number> result = (IMatrix<Number>) MatrixBuffer
-				.CreateMatrixBuffer(this.getSize().getRows(), this.getSize()
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this.getSize().getRows(), this.getSize()
 						.getCols());
 		return multiply(m, (MatrixBuffer<Number>)result);
 	}
@@ -1077,59 +1751,33 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		if (rows != cols)
 			return null;
 
-		Double d = new Double(0);
-
+		int p = matrix.getSize().getCols();
+		RowCursor cursor = scan();
 		try {
-			lock();
-			result.lock();
-			
-			ByteBuffer rOutBuf = ByteBuffer.allocate(DOUBLE_SIZE);
-			
-			for (int j = 0; j < matrix.getSize().getCols(); j++) {
-				for (int i = 0; i < m; i++) {
-
-					int position = index(i, 0) * DOUBLE_SIZE;
-					int len = index(i, n) * DOUBLE_SIZE
-							- position;
-					
-					ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-					double[] rowData = new double[n];
-					channel.read(outBuf, position);
-					outBuf.rewind();
-					outBuf.position(0);
-					// as double buffer places position and limit to 0.
-					outBuf.asDoubleBuffer().get(rowData, 0, n);
-					outBuf.clear();
-					outBuf = null;
-					
-					for (int k = 0; k < matrix.getSize().getRows(); k++) {
-						// Acols == Brows
-						// sum A(i,k)*B(k,j)
-						d += rowData[k] * matrix.get(k, j).doubleValue();
-					}
-					
-					int rPosition = index(i, j) * DOUBLE_SIZE;
-					if (position < 0) {
-						throw new Exception("Negative Position");
+			// each row of this is read once.
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				double[] product = new double[cursor.getRows() * p];
+				for (int i = 0; i < cursor.getRows(); i++) {
+					for (int j = 0; j < p; j++) {
+						double d = 0.0;
+						for (int k = 0; k < rows; k++) {
+							// Acols == Brows
+							// sum A(i,k)*B(k,j)
+							d += block[i * n + k] * matrix.get(k, j).doubleValue();
+						}
+						product[i * p + j] = d;
 					}
-					
-					rOutBuf.asDoubleBuffer().put((Double)d);
-					result.getChannel().position(rPosition);
-					result.getChannel().write(rOutBuf);
-					rOutBuf.clear();
-					
-					d = new Double(0);
 				}
+				storeRows(result, cursor.getRow(), cursor.getRows(), product);
 			}
-			rOutBuf.clear();
-			rOutBuf = null;
-			//result.getChannel().force(true);
-			result.lock.release();
-			lock.release();
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			cursor.close();
 		}
-
+		if (!scanned(cursor))
+			return null;
 		return result;
 	}
 
@@ -1166,226 +1814,819 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		double[][] C = new double[result.getSize().getRows()][result.getSize().getCols()];
 		if ( (A == null) || (B == null) ) return null;
 
-		DGEMM("N",
-				"N", 
-				getSize().getRows(), 
-				matrix.getSize().getCols(), 
-				getSize().getCols(), 
-				1.0, 
-				A,
-				B,
-				1.0,
-				C);
-		A = null;
-		B = null;
-		
+		DGEMM("N",
+				"N", 
+				getSize().getRows(), 
+				matrix.getSize().getCols(), 
+				getSize().getCols(), 
+				1.0, 
+				A,
+				B,
+				1.0,
+				C);
+		A = null;
+		B = null;
+		
+		try {
+			for(int i=0; i < result.getSize().getRows();i++) {
+				if (!result.writeBlock(i, 0, 1, C[i].length, C[i]))
+					return null;
+				// free memory a row at a time.
+				C[i] = null;
+			}
+			//result.getChannel().force(true);
+			return result;
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Multiply dot product
+	 * of row vector at row
+	 * by column vector at matrix column.
+	 * Row length must be equal to column length
+	 * @param matrix
+	 * @return
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		int n = getSize().getCols();
+		
+		try {
+			double[] rowData = new double[n];
+			readRow(row, rowData);
+			
+			double result = 0.0;
+			for(int k=0;k<rowData.length;k++) {
+				result = result + rowData[k]*matrix.get(k,col).doubleValue();	
+			}
+			return result;
+			
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		return Double.NaN;
+	}
+
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public  IMatrix<Double> normalise() {
+		int rows = this.getSize().getRows();
+		int cols = this.getSize().getCols();
+		// normalise column by column.
+		IMatrix<Double> normal = newBuffer(rows, cols);
+		return normalise(normal);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	@Override
+	public  IMatrix<Double> normalise(IMatrix<Double> normal) {
+		int rows = this.getSize().getRows();
+		int cols = this.getSize().getCols();
+		if (normal.getSize().compareTo(this.getSize()) != 0) return null;
+		// normalise column by column.
+		List<Double> means = new Vector<Double>();
+		List<Double> std = new Vector<Double>();
+		// calculate the mean and standard deviation for each column
+		// in one pass over the rows.
+		double[] sum = new double[cols];
+		double[] max = new double[cols];
+		double[] min = new double[cols];
+		Arrays.fill(max, -1 * Double.MIN_VALUE);
+		Arrays.fill(min, Double.MAX_VALUE);
+		RowCursor cursor = scan();
+		try {
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for (int j = 0; j < cursor.getRows(); j++) {
+					for (int k = 0; k < cols; k++) {
+						double val = block[j * cols + k];
+						if (val < min[k]) {
+							min[k] = val;
+						}
+						if (val > max[k]) {
+							max[k] = val;
+						}
+						sum[k] += val;
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		if (!scanned(cursor))
+			return null;
+		for (int k = 0; k < cols; k++) {
+			if (sum[k] != 0) {
+				means.add(sum[k] / rows);
+			} else {
+				means.add(0.0);
+			}
+			std.add(max[k] - min[k]);
+		}
+		cursor = scan();
+		try {
+			while (cursor.next()) {
+				double[] block = cursor.getValues();
+				for (int j = 0; j < cursor.getRows(); j++) {
+					for (int k = 0; k < cols; k++) {
+						double val = block[j * cols + k];
+						if (std.get(k) != 0) {
+							block[j * cols + k] = (val - means.get(k)) / std.get(k);
+						} else {
+							block[j * cols + k] = val - means.get(k);
+						}
+					}
+				}
+				storeRows(normal, cursor.getRow(), cursor.getRows(), block);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			cursor.close();
+		}
+		if (!scanned(cursor))
+			return null;
+		return normal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public  IMatrix<Number> operate(IMatrixOperation op) {
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
+				.getSize().getRows(), this.getSize().getCols());
+		return operate(op, result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public  IMatrix<Number> pointwiseDivide(IMatrix matrix) {
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
+				.getSize().getRows(), this.getSize().getCols());
+		return pointwiseDivide(matrix, result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public  IMatrix<Number> pointwiseMultiply(IMatrix matrix) {
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this.getSize().getRows(), this.getSize()
+						.getCols());
+		return pointwiseMultiply(matrix, result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public  IMatrix<Number> power(Double p) {
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
+				.getSize().getRows(), this.getSize().getCols());
+		return power(p, result);
+	}
+
+	
+	/**
+	 * Number of bytes used to store an element in the file.
+	 * 
+	 * @return
+	 */
+	protected int getElementSize() {
+		return DOUBLE_SIZE;
+	}
+
+	/**
+	 * Create an empty buffer of the same element type for results.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	protected MatrixBuffer<Double> newBuffer(Size size) {
+		return CreateMatrixBuffer(size);
+	}
+
+	protected MatrixBuffer<Double> newBuffer(int rows, int cols) {
+		return newBuffer(new Size(rows, cols));
+	}
+
+	/**
+	 * Decode the element at byte offset of buf.
+	 * The position of buf is not changed.
+	 * 
+	 * @param buf
+	 * @param offset
+	 * @return
+	 */
+	protected double getValue(ByteBuffer buf, int offset) {
+		return buf.getDouble(offset);
+	}
+
+	/**
+	 * Encode v at byte offset of buf.
+	 * The position of buf is not changed.
+	 * 
+	 * @param buf
+	 * @param offset
+	 * @param v
+	 */
+	protected void putValue(ByteBuffer buf, int offset, double v) {
+		buf.putDouble(offset, v);
+	}
+
+	/**
+	 * Decode n elements from the position of buf into values[off..off+n-1].
+	 * The position of buf is not changed.
+	 * 
+	 * @param buf
+	 * @param values
+	 * @param off
+	 * @param n
+	 */
+	protected void getValues(ByteBuffer buf, double[] values, int off, int n) {
+		buf.asDoubleBuffer().get(values, off, n);
+	}
+
+	/**
+	 * Encode values[off..off+n-1] at the position of buf.
+	 * The position of buf is not changed.
+	 * 
+	 * @param buf
+	 * @param values
+	 * @param off
+	 * @param n
+	 */
+	protected void putValues(ByteBuffer buf, double[] values, int off, int n) {
+		buf.asDoubleBuffer().put(values, off, n);
+	}
+
+	/**
+	 * Read row i into the supplied array.
+	 * 
+	 * @param i
+	 * @param rowData at least cols long.
+	 * @throws IOException
+	 */
+	private void readRow(int i, double[] rowData) throws IOException {
+		readLocked(i, 0, 1, getSize().getCols(), rowData, 0, getSize().getCols());
+	}
+
+	/**
+	 * Write the supplied array to row i.
+	 * 
+	 * @param i
+	 * @param rowData at least cols long.
+	 * @throws IOException
+	 */
+	private void writeRow(int i, double[] rowData) throws IOException {
+		writeLocked(i, 0, 1, getSize().getCols(), rowData, 0, getSize().getCols());
+	}
+
+	/**
+	 * Read n consecutive cells starting at cell into values[off..off+n-1].
+	 * The caller holds the row locks.
+	 * 
+	 * @param cell
+	 * @param values
+	 * @param off
+	 * @param n
+	 * @throws IOException
+	 */
+	private void readCells(long cell, double[] values, int off, int n) throws IOException {
+		long position = cell * getElementSize();
+		MappedByteBuffer[] segments = maps;
+		if (segments != null) {
+			// the cells may span two or more segments.
+			int done = 0;
+			while (done < n) {
+				ByteBuffer buf = segment(segments, position).duplicate().order(byteOrder);
+				buf.position(segmentOffset(position));
+				int count = Math.min(n - done, buf.remaining() / getElementSize());
+				getValues(buf, values, off + done, count);
+				done += count;
+				position += (long) count * getElementSize();
+			}
+			return;
+		}
+		long per = blockCells();
+		if (per * DOUBLE_SIZE > cache.getBudget()) {
+			readChannel(cell, values, off, n);
+			return;
+		}
+		int done = 0;
+		while (done < n) {
+			long k = (cell + done) / per;
+			double[] block = cache.get(k);
+			if (block == null) {
+				long first = k * per;
+				long last = Math.min(first + per, dataLength() / getElementSize());
+				block = new double[(int) (last - first)];
+				readChannel(first, block, 0, block.length);
+				cache.put(k, block);
+			}
+			int at = (int) (cell + done - k * per);
+			int count = Math.min(n - done, block.length - at);
+			if (count <= 0)
+				break;
+			System.arraycopy(block, at, values, off + done, count);
+			done += count;
+		}
+	}
+
+	/**
+	 * Read n consecutive cells starting at cell through the channel.
+	 * 
+	 * @param cell
+	 * @param values
+	 * @param off
+	 * @param n
+	 * @throws IOException
+	 */
+	private void readChannel(long cell, double[] values, int off, int n) throws IOException {
+		long position = dataOffset + cell * getElementSize();
+		ByteBuffer buf = ByteBuffer.allocateDirect(n * getElementSize()).order(byteOrder);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				break;
+		}
+		buf.rewind();
+		getValues(buf, values, off, n);
+	}
+
+	/**
+	 * Cells in a cached block, those of one range of rows.
+	 * A tiled file holds the cells of a range in whole tiles.
+	 */
+	private long blockCells() {
+		long cols = getSize().getCols();
+		if (tileSize > 0)
+			cols = (cols + tileSize - 1) / tileSize * tileSize;
+		return Math.max(1, stripeRows() * cols);
+	}
+
+	/**
+	 * Drop the cached blocks holding any of n cells from cell.
+	 */
+	private void invalidate(long cell, int n) {
+		long per = blockCells();
+		cache.remove(cell / per, (cell + Math.max(n, 1) - 1) / per);
+	}
+
+	/**
+	 * Write values[off..off+n-1] to n consecutive cells starting at cell.
+	 * The caller holds the row locks.
+	 * 
+	 * @param cell
+	 * @param values
+	 * @param off
+	 * @param n
+	 * @throws IOException
+	 */
+	private void writeCells(long cell, double[] values, int off, int n) throws IOException {
+		if (checksummed)
+			clearChecksum();
+		long position = cell * getElementSize();
+		MappedByteBuffer[] segments = maps;
+		if (segments != null) {
+			int done = 0;
+			while (done < n) {
+				ByteBuffer buf = segment(segments, position).duplicate().order(byteOrder);
+				buf.position(segmentOffset(position));
+				int count = Math.min(n - done, buf.remaining() / getElementSize());
+				putValues(buf, values, off + done, count);
+				done += count;
+				position += (long) count * getElementSize();
+			}
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.allocateDirect(n * getElementSize()).order(byteOrder);
+		putValues(buf, values, off, n);
+		while (buf.hasRemaining()) {
+			channel.write(buf, dataOffset + position + buf.position());
+		}
+		invalidate(cell, n);
+	}
+
+	/**
+	 * Read the rows x cols block at row, col into values from off,
+	 * ld values per row, taking the lock over each range of rows in turn.
+	 * The mapping is only read under the lock, so close cannot release
+	 * it during the read.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 * @param off
+	 * @param ld
+	 * @throws IOException
+	 */
+	private void readLocked(int row, int col, int rows, int cols, double[] values, int off, int ld) throws IOException {
+		int h = stripeRows();
+		for (int r0 = row; r0 < row + rows; r0 = (r0 / h + 1) * h) {
+			int r1 = Math.min(row + rows, (r0 / h + 1) * h);
+			StampedLock rowLock = stripe(r0);
+			int at = off + (r0 - row) * ld;
+			long stamp = rowLock.readLock();
+			try {
+				readRegion(r0, col, r1 - r0, cols, values, at, ld);
+			} finally {
+				rowLock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Write the rows x cols block at row, col from values from off,
+	 * ld values per row, taking the lock over each range of rows in turn.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 * @param off
+	 * @param ld
+	 * @throws IOException
+	 */
+	private void writeLocked(int row, int col, int rows, int cols, double[] values, int off, int ld) throws IOException {
+		int h = stripeRows();
+		for (int r0 = row; r0 < row + rows; r0 = (r0 / h + 1) * h) {
+			int r1 = Math.min(row + rows, (r0 / h + 1) * h);
+			StampedLock rowLock = stripe(r0);
+			long stamp = rowLock.writeLock();
+			try {
+				writeRegion(r0, col, r1 - r0, cols, values, off + (r0 - row) * ld, ld);
+			} finally {
+				rowLock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Read the rows x cols block at row, col into values from off,
+	 * ld values per row.
+	 * Through the channel each tile the block touches is read in one run.
+	 * The caller holds the row locks.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 * @param off
+	 * @param ld
+	 * @throws IOException
+	 */
+	private void readRegion(int row, int col, int rows, int cols, double[] values, int off, int ld) throws IOException {
+		if (tileSize == 0) {
+			for (int i = 0; i < rows; i++) {
+				readCells(offsetOf(row + i, col), values, off + i * ld, cols);
+			}
+			return;
+		}
+		int t = tileSize;
+		double[] tile = null;
+		for (int ti = row / t * t; ti < row + rows; ti += t) {
+			int r0 = Math.max(row, ti);
+			int r1 = Math.min(row + rows, ti + t);
+			for (int tj = col / t * t; tj < col + cols; tj += t) {
+				int c0 = Math.max(col, tj);
+				int c1 = Math.min(col + cols, tj + t);
+				long first = offsetOf(r0, c0);
+				if ((maps == null) && (r1 - r0 > 1)) {
+					// one read from the first cell to the last.
+					int span = (r1 - r0 - 1) * t + (c1 - c0);
+					if (tile == null)
+						tile = new double[t * t];
+					readCells(first, tile, 0, span);
+					for (int i = r0; i < r1; i++) {
+						System.arraycopy(tile, (i - r0) * t, values, off + (i - row) * ld + (c0 - col), c1 - c0);
+					}
+				} else {
+					for (int i = r0; i < r1; i++) {
+						readCells(first + (long) (i - r0) * t, values, off + (i - row) * ld + (c0 - col), c1 - c0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write values from off, ld values per row, to the rows x cols block
+	 * at row, col.
+	 * Through the channel each whole width of a tile is written in one run.
+	 * The caller holds the row locks.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values
+	 * @param off
+	 * @param ld
+	 * @throws IOException
+	 */
+	private void writeRegion(int row, int col, int rows, int cols, double[] values, int off, int ld) throws IOException {
+		if (tileSize == 0) {
+			for (int i = 0; i < rows; i++) {
+				writeCells(offsetOf(row + i, col), values, off + i * ld, cols);
+			}
+			return;
+		}
+		int t = tileSize;
+		double[] tile = null;
+		for (int ti = row / t * t; ti < row + rows; ti += t) {
+			int r0 = Math.max(row, ti);
+			int r1 = Math.min(row + rows, ti + t);
+			for (int tj = col / t * t; tj < col + cols; tj += t) {
+				int c0 = Math.max(col, tj);
+				int c1 = Math.min(col + cols, tj + t);
+				long first = offsetOf(r0, c0);
+				if ((maps == null) && (r1 - r0 > 1) && (c1 - c0 == t)) {
+					// the rows are contiguous in the file.
+					if (tile == null)
+						tile = new double[t * t];
+					for (int i = r0; i < r1; i++) {
+						System.arraycopy(values, off + (i - row) * ld + (c0 - col), tile, (i - r0) * t, t);
+					}
+					writeCells(first, tile, 0, (r1 - r0) * t);
+				} else {
+					for (int i = r0; i < r1; i++) {
+						writeCells(first + (long) (i - r0) * t, values, off + (i - row) * ld + (c0 - col), c1 - c0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the rows from first to last a block at a time, reading
+	 * ahead on background threads.
+	 * 
+	 * @return
+	 */
+	public RowCursor scan() {
+		// blocks of whole row locks of about 1MB.
+		int h = stripeRows();
+		long rowBytes = Math.max(1L, (long) getSize().getCols() * DOUBLE_SIZE);
+		int blocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / h, (1L << 20) / (rowBytes * h)));
+		return scan(blocks * h, RowCursor.DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * @param blockRows rows in a block.
+	 * @param readAhead blocks read ahead of the one in use.
+	 * @return
+	 */
+	public RowCursor scan(int blockRows, int readAhead) {
+		return new RowCursor(this, blockRows, readAhead);
+	}
+
+	/**
+	 * Read the rows x cols block of cells whose top left cell is at row, col
+	 * into values, row major with cols values per row.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values at least rows*cols long.
+	 * @return false if the block is outside the matrix or cannot be read.
+	 */
+	public boolean readBlock(int row, int col, int rows, int cols, double[] values) {
+		if ((row < 0) || (col < 0) || (row + rows > getSize().getRows())
+				|| (col + cols > getSize().getCols()))
+			return false;
 		try {
-			for(int i=0; i < result.getSize().getRows();i++) {
-				int position = index(i, 0) * DOUBLE_SIZE;
-				int len = index(i, result.getSize().getCols()) * DOUBLE_SIZE - position;
-				
-				MappedByteBuffer nMap = ((MatrixBuffer) result)
-				.getChannel().map(FileChannel.MapMode.READ_WRITE,
-						position, len);
-				
-				DoubleBuffer nDblBuf = nMap.asDoubleBuffer();
-				nDblBuf.put(C[i]);
-				nMap.clear();
-				nMap = null;
-				// free memory a row at a time.
-				C[i] = null;
-			}
-			System.err.println("blas completed.");
-			//result.getChannel().force(true);
-			return result;
-		} catch(Exception e) {
+			readLocked(row, col, rows, cols, values, 0, cols);
+			return true;
+		} catch (ClosedChannelException e) {
+			// the buffer was closed.
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		
-		return null;
+		return false;
 	}
-	
-	
+
 	/**
-	 * Multiply dot product
-	 * of row vector at row
-	 * by column vector at matrix column.
-	 * Row length must be equal to column length
-	 * @param matrix
-	 * @return
+	 * Write values, row major with cols values per row, to the rows x cols
+	 * block of cells whose top left cell is at row, col.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values at least rows*cols long.
+	 * @return false if the block is outside the matrix or cannot be written.
 	 */
-	public double ddot(int row, IMatrix<Number> matrix, int col) {
-		int m = getSize().getRows();
-		int n = getSize().getCols();
-		int position = index(row, 0) * DOUBLE_SIZE;
-		int len = index(row, n) * DOUBLE_SIZE
-				- position;
-		
+	public boolean writeBlock(int row, int col, int rows, int cols, double[] values) {
+		if ((row < 0) || (col < 0) || (row + rows > getSize().getRows())
+				|| (col + cols > getSize().getCols()))
+			return false;
 		try {
-			ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-			double[] rowData = new double[n];
-			channel.read(outBuf, position);
-			outBuf.rewind();
-			outBuf.position(0);
-			// as double buffer places position and limit to 0.
-			outBuf.asDoubleBuffer().get(rowData, 0, n);
-			outBuf.clear();
-			outBuf = null;
-			
-			double result = 0.0;
-			for(int k=0;k<rowData.length;k++) {
-				result = result + rowData[k]*matrix.get(k,col).doubleValue();	
-			}
-			return result;
-			
-		} catch(Exception e) {
+			writeLocked(row, col, rows, cols, values, 0, cols);
+			return true;
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return Double.NaN;
+		return false;
 	}
 
-	
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Copy row i of any matrix into the supplied array.
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 * @param m
+	 * @param i
+	 * @param rowData
+	 * @throws IOException
 	 */
-	public  IMatrix<Double> normalise() {
-		int rows = this.getSize().getRows();
-		int cols = this.getSize().getCols();
-		// normalise column by column.
-		IMatrix<Double> normal = CreateMatrixBuffer(rows, cols);
-		return normalise(normal);
+	private static void copyRow(IMatrix m, int i, double[] rowData) throws IOException {
+		int n = m.getSize().getCols();
+		if (m instanceof MatrixBuffer) {
+			MatrixBuffer b = (MatrixBuffer)m;
+			b.readRow(i, rowData);
+		} else if (m instanceof DenseMatrix) {
+			System.arraycopy(((DenseMatrix)m).getValues(), i*n, rowData, 0, n);
+		} else if (m instanceof FloatMatrix) {
+			float[] values = ((FloatMatrix)m).getValues();
+			for(int j=0;j<n;j++) {
+				rowData[j] = values[i*n + j];
+			}
+		} else {
+			for(int j=0;j<n;j++) {
+				java.lang.Number v = m.get(i, j);
+				rowData[j] = (v != null) ? v.doubleValue() : 0.0;
+			}
+		}
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Copy the supplied array into row i of any matrix.
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 * @param m
+	 * @param i
+	 * @param rowData
+	 * @throws IOException
 	 */
-	@Override
-	public  IMatrix<Double> normalise(IMatrix<Double> normal) {
-		int rows = this.getSize().getRows();
-		int cols = this.getSize().getCols();
-		// normalise column by column.
-		List<Double> means = new Vector<Double>();
-		List<Double> std = new Vector<Double>();
-		// calculate the mean and standard deviation for each column
-		for (int k = 0; k < cols; k++) {
-			double sum = 0.0;
-			double max = -1 * Double.MIN_VALUE;
-			double min = Double.MAX_VALUE;
-			for (int j = 0; j < rows; j++) {
-				double val = (this.get(j, k) != null) ? this.get(j, k)
-						.doubleValue() : 0;
-				if (val < min) {
-					min = val;
-				}
-				if (val > max) {
-					max = val;
-				}
-				sum += val;
+	private static void storeRow(IMatrix m, int i, double[] rowData) throws IOException {
+		int n = m.getSize().getCols();
+		if (m instanceof MatrixBuffer) {
+			MatrixBuffer b = (MatrixBuffer)m;
+			b.writeRow(i, rowData);
+		} else if (m instanceof DenseMatrix) {
+			System.arraycopy(rowData, 0, ((DenseMatrix)m).getValues(), i*n, n);
+		} else if (m instanceof FloatMatrix) {
+			float[] values = ((FloatMatrix)m).getValues();
+			for(int j=0;j<n;j++) {
+				values[i*n + j] = (float)rowData[j];
 			}
-			if (sum != 0) {
-				means.add(sum / rows);
-			} else {
-				means.add(0.0);
+		} else {
+			for(int j=0;j<n;j++) {
+				m.set(i, j, rowData[j]);
 			}
-			std.add(max - min);
 		}
-		try {
+	}
 
-			lock();
-			((MatrixBuffer) normal).lock();
-
-			for (int j = 0; j < rows; j++) {
-				int position = index(j, 0) * DOUBLE_SIZE;
-				int len = index(j, cols) * DOUBLE_SIZE
-						- position;
-				
-				ByteBuffer outBuf = ByteBuffer.allocateDirect(len);
-				double[] rowData = new double[cols];
-				
-				channel.read(outBuf, position);
-				outBuf.rewind();
-				outBuf.position(0);
-				outBuf.asDoubleBuffer().get(rowData, 0, cols);
-				outBuf.clear();
-				outBuf = null;
-				
-				((MatrixBuffer) normal).getChannel().position(position);
-				ByteBuffer nOutBuf = ByteBuffer.allocateDirect(len);
-				double[] nRowData = new double[normal.getSize().getCols()];
-				
-				for (int k = 0; k < cols; k++) {
-					double val = rowData[k];
-					if (std.get(k) != 0) {
-						nRowData[k] = (val - means.get(k)) / std.get(k);
-					} else {
-						nRowData[k] = val - means.get(k);
-					}
-				}
-				
-				nOutBuf.asDoubleBuffer().put(nRowData);
-				((MatrixBuffer) normal).getChannel().write(nOutBuf);
-				nOutBuf.clear();
-				nOutBuf = null;
+	/**
+	 * Copy rows of values, row major, into any matrix from row.
+	 * 
+	 * @param m
+	 * @param row
+	 * @param rows
+	 * @param values
+	 * @throws IOException
+	 */
+	private static void storeRows(IMatrix m, int row, int rows, double[] values) throws IOException {
+		int n = m.getSize().getCols();
+		if (m instanceof MatrixBuffer) {
+			((MatrixBuffer)m).writeBlock(row, 0, rows, n, values);
+			return;
+		}
+		double[] rowData = new double[n];
+		for (int i = 0; i < rows; i++) {
+			System.arraycopy(values, i * n, rowData, 0, n);
+			storeRow(m, row + i, rowData);
+		}
+	}
+
+	/**
+	 * Copy the values of the supplied matrix into this buffer a row at a time.
+	 * Values are converted to the element type of this buffer.
+	 * 
+	 * @param m a matrix of the same size.
+	 * @return this or null if the sizes differ.
+	 */
+	public IMatrix<Number> copyFrom(IMatrix m) {
+		if (this.getSize().compareTo(m.getSize()) != 0)
+			return null;
+		try {
+			double[] rowData = new double[getSize().getCols()];
+			for (int i = 0; i < getSize().getRows(); i++) {
+				copyRow(m, i, rowData);
+				storeRow(this, i, rowData);
 			}
-			lock.release();
-			//((MatrixBuffer) normal).getChannel().force(true);
-			((MatrixBuffer) normal).getLock().release();
+			return this;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return normal;
+		return null;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Apply this = alpha * this + beta * x (or this = this .* x when x is
+	 * multiplied) a row at a time.
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 * @param alpha
+	 * @param beta
+	 * @param x null when only scaling.
+	 * @param hadamard multiply by x rather than adding it.
+	 * @return
 	 */
-	public  IMatrix<Number> operate(IMatrixOperation op) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
-				.getSize().getRows(), this.getSize().getCols());
-		return operate(op, result);
+	private IMatrix<Number> updateInPlace(double alpha, double beta, IMatrix<Number> x, boolean hadamard) {
+		if ((x != null) && (this.getSize().compareTo(x.getSize()) != 0)) return null;
+		int rows = this.getSize().getRows();
+		int cols = this.getSize().getCols();
+		double[] rowData = new double[cols];
+		double[] xData = (x != null) ? new double[cols] : null;
+		try {
+			for (int i = 0; i < rows; i++) {
+				if (x != null)
+					copyRow(x, i, xData);
+				// no other write to the row between reading and writing it.
+				StampedLock rowLock = stripe(i);
+				long stamp = rowLock.writeLock();
+				try {
+					readRegion(i, 0, 1, cols, rowData, 0, cols);
+					for (int j = 0; j < cols; j++) {
+						if (x == null)
+							rowData[j] *= alpha;
+						else if (hadamard)
+							rowData[j] *= xData[j];
+						else
+							rowData[j] = alpha * rowData[j] + beta * xData[j];
+					}
+					writeRegion(i, 0, 1, cols, rowData, 0, cols);
+				} finally {
+					rowLock.unlockWrite(stamp);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return this;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 * @see au.id.cpd.algorithms.data.IMatrix#scaleInPlace(double)
 	 */
-	public  IMatrix<Number> pointwiseDivide(IMatrix matrix) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
-				.getSize().getRows(), this.getSize().getCols());
-		return pointwiseDivide(matrix, result);
+	@Override
+	public IMatrix<Number> scaleInPlace(double alpha) {
+		return updateInPlace(alpha, 0.0, null, false);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 * @see au.id.cpd.algorithms.data.IMatrix#axpy(double, au.id.cpd.algorithms.data.IMatrix)
 	 */
-	public  IMatrix<Number> pointwiseMultiply(IMatrix matrix) {
-		IMatrix<Number> result = (IMatrix<Number>) MatrixBuffer
-				.CreateMatrixBuffer(this.getSize().getRows(), this.getSize()
-						.getCols());
-		return pointwiseMultiply(matrix, result);
+	@Override
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x) {
+		return updateInPlace(1.0, alpha, x, false);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 * @see au.id.cpd.algorithms.data.IMatrix#hadamardInPlace(au.id.cpd.algorithms.data.IMatrix)
 	 */
-	public  IMatrix<Number> power(Double p) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
-				.getSize().getRows(), this.getSize().getCols());
-		return power(p, result);
+	@Override
+	public IMatrix<Number> hadamardInPlace(IMatrix<Number> matrix) {
+		return updateInPlace(1.0, 0.0, matrix, true);
 	}
 
-	
 	private  void read(FileChannel chan, ByteBuffer buf) throws IOException {
 		buf.rewind();
 		while(chan.read(buf) != -1) {
@@ -1398,7 +2639,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		int cols = getSize().getCols();
 		int newRows = rows*x;
 		int newCols = cols*y;
-		IMatrix<Double> m = MatrixBuffer.CreateMatrixBuffer(newRows, newCols);
+		IMatrix<Double> m = newBuffer(newRows, newCols);
 		return repmat(x, y, m);
 	}
 	
@@ -1408,7 +2649,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
 	 */
 	public  IMatrix reshape(int rows, int cols) {
-		IMatrix<Double> m = MatrixBuffer.CreateMatrixBuffer(rows, cols);
+		IMatrix<Double> m = newBuffer(rows, cols);
 		return reshape(rows, cols, m);
 
 	}
@@ -1419,19 +2660,95 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
 	 */
 	public  void resize(Size s) {
-		if (this.getSize().compareTo(s) > 0)
-			this.reduce(s);
-		else if (this.getSize().compareTo(s) < 0)
-			this.increase(s);
-		this.setSize(s);
+		long[] stamps = lockAll(true);
+		try {
+			Size old = this.getSize();
+			this.setSize(s);
+			relayout(old);
+			writeHeader();
+			remap();
+			clearNewCells(old);
+			if (temporary)
+				TempFileStore.getDefault().resized(fileName, dataOffset + dataLength());
+		} catch (NonWritableChannelException e) {
+			System.err.println(fileName + " is read only, the cells are not moved to the new size");
+			remap();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	/**
+	 * The runs of cells that move together when the matrix is resized,
+	 * rows or rows of tiles.
+	 */
+	private long runs(Size size) {
+		int t = tileSize;
+		return (t > 0) ? (size.getRows() + t - 1) / t : size.getRows();
+	}
+
+	/**
+	 * Bytes in a run of cells.
+	 */
+	private long runLength(Size size) {
+		int t = tileSize;
+		long cells = (t > 0) ? (long) ((size.getCols() + t - 1) / t) * t * t : size.getCols();
+		return cells * getElementSize();
 	}
 
-	private void reduce(Size s) {
-		// do we need to do anything with the mapped memory?
+	/**
+	 * Move the cells stored for the old size to their places for the
+	 * current size, so that each cell keeps its row and column. Runs are
+	 * copied out to a scratch file and back in the kernel.
+	 * 
+	 * @param old
+	 * @throws IOException
+	 */
+	private void relayout(Size old) throws IOException {
+		if ((channel == null) || !channel.isOpen())
+			return;
+		long oldRun = runLength(old);
+		long newRun = runLength(getSize());
+		long runs = Math.min(runs(old), runs(getSize()));
+		if ((oldRun == newRun) || (runs == 0))
+			return;
+		String scratchName = createScratchFileName(runs * oldRun);
+		if (scratchName == null) {
+			System.err.println(fileName + " : no room to move the cells to the new size");
+			return;
+		}
+		RandomAccessFile scratch = new RandomAccessFile(scratchName, "rw");
+		try {
+			FileChannel sc = scratch.getChannel();
+			transfer(channel, dataOffset, sc, 0, runs * oldRun);
+			long n = Math.min(oldRun, newRun);
+			for (long r = 0; r < runs; r++) {
+				transfer(sc, r * oldRun, channel, dataOffset + r * newRun, n);
+			}
+		} finally {
+			scratch.close();
+			TempFileStore.getDefault().delete(scratchName);
+		}
 	}
 
-	private void increase(Size s) {
-		// do we need to do anything with the mapped memory?
+	/**
+	 * Zero the cells outside the old size, which may hold values moved
+	 * there or left from before the matrix was made smaller.
+	 * 
+	 * @param old
+	 * @throws IOException
+	 */
+	private void clearNewCells(Size old) throws IOException {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		int keptRows = Math.min(old.getRows(), rows);
+		double[] zeros = new double[cols];
+		if (old.getCols() < cols)
+			writeRegion(0, old.getCols(), keptRows, cols - old.getCols(), zeros, 0, 0);
+		if (keptRows < rows)
+			writeRegion(keptRows, 0, rows - keptRows, cols, zeros, 0, 0);
 	}
 
 	/*
@@ -1482,7 +2799,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 */
 	public  IMatrix rowsMeans() {
 		int rows = this.getSize().getRows();
-		IMatrix<Double> means = CreateMatrixBuffer(rows, 1);
+		IMatrix<Double> means = newBuffer(rows, 1);
 		return rowsMeans(means);
 	}
 
@@ -1495,19 +2812,25 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 		if ((r >= 0) && (r < getSize().getRows()) && (c >= 0)
 				&& (c < getSize().getCols())) {
 			try {
-				lock();
-				int position = index(r, c) * DOUBLE_SIZE;
+				long position = offsetOf(r, c) * getElementSize();
 				if (position < 0) {
 					throw new Exception("Negative Position");
 				}
-				ByteBuffer dst = ByteBuffer.allocateDirect(DOUBLE_SIZE);
-				dst.asDoubleBuffer().put((Double)item);
-				channel.write(dst, position);
-				dst.clear();
-				dst = null;
-				dst = null;
-				//channel.force(true);
-				lock.release();
+				StampedLock rowLock = stripe(r);
+				long stamp = rowLock.writeLock();
+				try {
+					if (checksummed)
+						clearChecksum();
+					MappedByteBuffer[] segments = maps;
+					if (segments != null) {
+						putValue(segment(segments, position), segmentOffset(position), (Double)item);
+						return;
+					}
+					writeCells(offsetOf(r, c), new double[] { (Double)item }, 0, 1);
+					//channel.force(true);
+				} finally {
+					rowLock.unlockWrite(stamp);
+				}
 			} catch (Exception e) {
 				System.err.println("Cannot write: " + r + ", " + c + " = " + item);
 				e.printStackTrace();
@@ -1549,7 +2872,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
 	 */
 	public  IMatrix shuffle() {
-		IMatrix<Double> shuffled = CreateMatrixBuffer(this.getSize().getRows(),
+		IMatrix<Double> shuffled = newBuffer(this.getSize().getRows(),
 				this.getSize().getCols());
 		return shuffle(shuffled);
 	}
@@ -1560,7 +2883,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
 	 */
 	public  IMatrix sin() {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize().getRows(), this.getSize().getCols());
 		return sin(result);
 	}
@@ -1571,7 +2894,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
 	 */
 	public  IMatrix subtract(IMatrix matrix) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize());
 		return subtract(matrix, result);
 	}
@@ -1582,7 +2905,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
 	 */
 	public  IMatrix subtract(Double b) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize());
 		return subtract(b, result);
 	}
@@ -1593,7 +2916,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
 	 */
 	public  IMatrix subtractFrom(Double b) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize());
 		return subtractFrom(b, result);
 	}
@@ -1604,7 +2927,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
 	 */
 	public  IMatrix<Number> sum(Double b) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize());
 		return sum(b, result);
 	}
@@ -1615,7 +2938,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
 	 */
 	public  IMatrix<Number> sum(IMatrix<Number> matrix) {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize());
 		return sum(matrix, result);
 	}
@@ -1631,8 +2954,11 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 			return n;
 		if (col > this.getSize().getCols())
 			return n;
-		for (int i = 0; i < this.getSize().getRows(); i++) {
-			n += (Double) this.get(i, col);
+		double[] colData = new double[this.getSize().getRows()];
+		if (!readBlock(0, col, colData.length, 1, colData))
+			return null;
+		for (int i = 0; i < colData.length; i++) {
+			n += colData[i];
 		}
 		return n;
 	}
@@ -1658,7 +2984,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
 	 */
 	public  IMatrix tanh() {
-		IMatrix<Number> result = (IMatrix<Number>) CreateMatrixBuffer(this
+		IMatrix<Number> result = (IMatrix<Number>) newBuffer(this
 				.getSize().getRows(), this.getSize().getCols());
 		return tanh(result);
 	}
@@ -1690,12 +3016,100 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
 	 */
 	public  IMatrix<Number> transform() {
-		IMatrix<Number> matrix = (IMatrix<Number>) MatrixBuffer
-				.CreateMatrixBuffer(this.getSize().getCols(), this.getSize()
+		IMatrix<Number> matrix = (IMatrix<Number>) newBuffer(this.getSize().getCols(), this.getSize()
 						.getRows());
 		return transform(matrix);
 	}
 
+	/**
+	 * Least recently used blocks of cells, keyed by block number,
+	 * holding no more than a budget of bytes.
+	 * 
+	 * @author cd
+	 * 
+	 */
+	private static class BlockCache implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Blocks in order of use, least recent first.
+		 */
+		private final LinkedHashMap<Long, double[]> blocks = new LinkedHashMap<Long, double[]>(16, 0.75f, true);
+
+		private long budget;
+
+		private long bytes;
+
+		private long hits;
+
+		private long misses;
+
+		BlockCache(long budget) {
+			this.budget = budget;
+		}
+
+		synchronized double[] get(long k) {
+			double[] block = blocks.get(k);
+			if (block != null)
+				hits++;
+			else
+				misses++;
+			return block;
+		}
+
+		synchronized void put(long k, double[] block) {
+			double[] old = blocks.put(k, block);
+			if (old != null)
+				bytes -= (long) old.length * DOUBLE_SIZE;
+			bytes += (long) block.length * DOUBLE_SIZE;
+			evict();
+		}
+
+		/**
+		 * Drop blocks first to last.
+		 */
+		synchronized void remove(long first, long last) {
+			if (blocks.isEmpty())
+				return;
+			for (long k = first; k <= last; k++) {
+				double[] old = blocks.remove(k);
+				if (old != null)
+					bytes -= (long) old.length * DOUBLE_SIZE;
+			}
+		}
+
+		synchronized void clear() {
+			blocks.clear();
+			bytes = 0;
+		}
+
+		private void evict() {
+			Iterator<double[]> it = blocks.values().iterator();
+			while ((bytes > budget) && it.hasNext()) {
+				bytes -= (long) it.next().length * DOUBLE_SIZE;
+				it.remove();
+			}
+		}
+
+		synchronized long getBudget() {
+			return budget;
+		}
+
+		synchronized void setBudget(long budget) {
+			this.budget = budget;
+			evict();
+		}
+
+		synchronized long getHits() {
+			return hits;
+		}
+
+		synchronized long getMisses() {
+			return misses;
+		}
+	}
+
 	/**
 	 * java.io.Serializable.readObject(ObjectInputStream is)
 	 */
@@ -1743,7 +3157,7 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	}
 
 	/**
-	 * @return the lock
+	 * @return the lock on the file held for other processes, null unless file locking is on.
 	 */
 	public FileLock getLock() {
 		return lock;
@@ -1758,17 +3172,97 @@ public class MatrixBuffer<Number> extends AbstractMatrix<Number> {
 	}
 
 	/**
-	 * @return the map
+	 * @return rows and columns in a tile of the file, 0 when row major.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return bytes of blocks that may be cached in CHANNEL mode.
+	 */
+	public long getCacheSize() {
+		return cache.getBudget();
+	}
+
+	/**
+	 * Set the bytes of blocks that may be cached in CHANNEL mode,
+	 * 0 to read every cell from the file.
+	 * @param cacheSize
+	 */
+	public void setCacheSize(long cacheSize) {
+		cache.setBudget(cacheSize);
+	}
+
+	/**
+	 * @return reads of cells found in the cache.
+	 */
+	public long getCacheHits() {
+		return cache.getHits();
+	}
+
+	/**
+	 * @return reads of cells that read a block from the file.
+	 */
+	public long getCacheMisses() {
+		return cache.getMisses();
+	}
+
+	/**
+	 * @return how cells are accessed.
+	 */
+	public AccessMode getAccessMode() {
+		return accessMode;
+	}
+
+	/**
+	 * Switch between mapped and channel access.
+	 * @param accessMode
+	 */
+	public void setAccessMode(AccessMode accessMode) {
+		long[] stamps = lockAll(true);
+		try {
+			this.accessMode = accessMode;
+			remap();
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	/**
+	 * The returned segment must not be used once the buffer is closed,
+	 * close unmaps it and touching it then crashes the jvm rather than
+	 * throwing an exception.
+	 * 
+	 * @return the first mapped segment or null if the file is not mapped
+	 *         or the buffer is closed.
+	 * @deprecated the file is mapped in segments that close releases,
+	 *             use readBlock and writeBlock.
 	 */
+	@Deprecated
 	public MappedByteBuffer getMap() {
-		return map;
+		long[] stamps = lockAll(false);
+		try {
+			MappedByteBuffer[] segments = maps;
+			return (segments != null) ? segments[0] : null;
+		} finally {
+			unlockAll(stamps);
+		}
 	}
 
 	/**
 	 * @param map the map to set
+	 * @deprecated the mapping is made and released by the buffer, a
+	 *             map set here is released by close.
 	 */
+	@Deprecated
 	public void setMap(MappedByteBuffer map) {
-		this.map = map;
+		long[] stamps = lockAll(true);
+		try {
+			this.maps = (map != null) ? new MappedByteBuffer[] { map } : null;
+		} finally {
+			unlockAll(stamps);
+		}
 	}
 
 	/**
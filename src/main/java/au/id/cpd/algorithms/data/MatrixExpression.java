@@ -0,0 +1,416 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import au.id.cpd.algorithms.algebra.DoubleKernels;
+
+/**
+ * A lazily evaluated element-wise expression over matrices of the same size.
+ *
+ * Each operation records a node rather than building a temporary matrix.
+ * evaluate() walks the cells once, computing the whole expression for a
+ * block of cells at a time, and writes only the destination matrix.
+ *
+ * <pre>
+ * // A / (1 + exp(-T*h)) in one pass.
+ * IMatrix&lt;Double&gt; o = h.lazy().multiply(-T).exp().sum(1.0).divisorOf(A).evaluate();
+ * </pre>
+ *
+ * Expressions are immutable so a sub expression can be shared by
+ * several larger expressions. A shared sub expression is recomputed
+ * for each use, evaluate it first when it is expensive.
+ *
+ * @author cd
+ *
+ */
+public class MatrixExpression {
+
+	/**
+	 * Cells computed together by each step of the program.
+	 */
+	private static final int BLOCK = 256;
+
+	/**
+	 * Cells below which a parallel evaluation runs on the calling thread.
+	 */
+	private static final int PARALLEL_CELLS = 1 << 14;
+
+	private static final int LEAF = 0;
+	private static final int EXP = 1;
+	private static final int TANH = 2;
+	private static final int SIN = 3;
+	private static final int COS = 4;
+	private static final int ADD_SCALAR = 5;
+	private static final int MUL_SCALAR = 6;
+	private static final int DIV_SCALAR = 7;
+	private static final int SCALAR_DIV = 8;
+	private static final int SCALAR_SUB = 9;
+	private static final int POWER = 10;
+	private static final int ADD = 11;
+	private static final int SUB = 12;
+	private static final int MUL = 13;
+	private static final int DIV = 14;
+	private static final int TANH_APPROX = 15;
+
+	private final int op;
+	private final double arg;
+	private final IMatrix leaf;
+	private final MatrixExpression left;
+	private final MatrixExpression right;
+	private final Size size;
+	private final boolean parallel;
+
+	/**
+	 * Begin an expression over the supplied matrix.
+	 * @param m
+	 */
+	public MatrixExpression(IMatrix m) {
+		this(LEAF, 0.0, m, null, null, m.getSize(), false);
+	}
+
+	private MatrixExpression(int op, double arg, IMatrix leaf, MatrixExpression left, MatrixExpression right, Size size, boolean parallel) {
+		this.op = op;
+		this.arg = arg;
+		this.leaf = leaf;
+		this.left = left;
+		this.right = right;
+		this.size = size;
+		this.parallel = parallel;
+	}
+
+	private MatrixExpression unary(int code, double a) {
+		return new MatrixExpression(code, a, null, this, null, size, parallel);
+	}
+
+	private MatrixExpression binary(int code, MatrixExpression b) {
+		if (!size.equals(b.size))
+			throw new IllegalArgumentException("Expression sizes differ: " + size + " " + b.size);
+		return new MatrixExpression(code, 0.0, null, this, b, size, parallel || b.parallel);
+	}
+
+	/**
+	 * Evaluate on a fork join pool when the expression is large enough.
+	 * @return
+	 */
+	public MatrixExpression parallel() {
+		return new MatrixExpression(op, arg, leaf, left, right, size, true);
+	}
+
+	/**
+	 * @return the size of the result.
+	 */
+	public Size getSize() {
+		return size;
+	}
+
+	public MatrixExpression exp() {
+		return unary(EXP, 0.0);
+	}
+
+	public MatrixExpression tanh() {
+		return unary(TANH, 0.0);
+	}
+
+	/**
+	 * tanh using DoubleKernels.tanhApprox, within 30 units in the last
+	 * place of Math.tanh and several times faster.
+	 */
+	public MatrixExpression tanhApprox() {
+		return unary(TANH_APPROX, 0.0);
+	}
+
+	public MatrixExpression sin() {
+		return unary(SIN, 0.0);
+	}
+
+	public MatrixExpression cos() {
+		return unary(COS, 0.0);
+	}
+
+	public MatrixExpression power(double p) {
+		return unary(POWER, p);
+	}
+
+	public MatrixExpression sum(double b) {
+		return unary(ADD_SCALAR, b);
+	}
+
+	public MatrixExpression subtract(double b) {
+		return unary(ADD_SCALAR, -b);
+	}
+
+	/**
+	 * b - this
+	 */
+	public MatrixExpression subtractFrom(double b) {
+		return unary(SCALAR_SUB, b);
+	}
+
+	public MatrixExpression multiply(double m) {
+		return unary(MUL_SCALAR, m);
+	}
+
+	/**
+	 * this / m, cells are left unchanged when m is zero as in IMatrix.divide.
+	 */
+	public MatrixExpression divide(double m) {
+		return unary(DIV_SCALAR, m);
+	}
+
+	/**
+	 * m / this
+	 */
+	public MatrixExpression divisorOf(double m) {
+		return unary(SCALAR_DIV, m);
+	}
+
+	public MatrixExpression sum(MatrixExpression b) {
+		return binary(ADD, b);
+	}
+
+	public MatrixExpression sum(IMatrix b) {
+		return binary(ADD, new MatrixExpression(b));
+	}
+
+	public MatrixExpression subtract(MatrixExpression b) {
+		return binary(SUB, b);
+	}
+
+	public MatrixExpression subtract(IMatrix b) {
+		return binary(SUB, new MatrixExpression(b));
+	}
+
+	public MatrixExpression pointwiseMultiply(MatrixExpression b) {
+		return binary(MUL, b);
+	}
+
+	public MatrixExpression pointwiseMultiply(IMatrix b) {
+		return binary(MUL, new MatrixExpression(b));
+	}
+
+	public MatrixExpression pointwiseDivide(MatrixExpression b) {
+		return binary(DIV, b);
+	}
+
+	public MatrixExpression pointwiseDivide(IMatrix b) {
+		return binary(DIV, new MatrixExpression(b));
+	}
+
+	/**
+	 * Evaluate into a new dense matrix.
+	 * @return
+	 */
+	public IMatrix<Double> evaluate() {
+		DenseMatrix<Double> result = new DenseMatrix<Double>(size.getRows(), size.getCols());
+		return evaluate(result);
+	}
+
+	/**
+	 * Evaluate into the supplied matrix, which may be one of the operands.
+	 * @param result a matrix of the same size as the expression.
+	 * @return result or null if the sizes differ.
+	 */
+	public IMatrix<Double> evaluate(IMatrix<Double> result) {
+		if (!size.equals(result.getSize())) return null;
+		Program program = new Program(this);
+		int cells = size.getRows()*size.getCols();
+		if (!parallel || (cells < PARALLEL_CELLS) || (ForkJoinPool.getCommonPoolParallelism() <= 1)) {
+			program.run(result, 0, cells);
+		} else {
+			ForkJoinPool.commonPool().invoke(new RangeTask(program, result, 0, cells));
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the cells between fork join tasks.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Program program;
+		private final IMatrix result;
+		private final int start;
+		private final int end;
+
+		RangeTask(Program program, IMatrix result, int start, int end) {
+			this.program = program;
+			this.result = result;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start <= PARALLEL_CELLS) {
+				program.run(result, start, end);
+				return;
+			}
+			// split on a block boundary.
+			int mid = start + (((end - start) / 2) / BLOCK) * BLOCK;
+			invokeAll(new RangeTask(program, result, start, mid),
+					new RangeTask(program, result, mid, end));
+		}
+	}
+
+	/**
+	 * The expression flattened to postfix order, run as a stack machine
+	 * whose slots each hold a block of cells.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class Program {
+		private final int[] ops;
+		private final double[] args;
+		private final IMatrix[] leaves;
+		private final int depth;
+		private final int cols;
+
+		Program(MatrixExpression e) {
+			List<MatrixExpression> postfix = new ArrayList<MatrixExpression>();
+			flatten(e, postfix);
+			ops = new int[postfix.size()];
+			args = new double[postfix.size()];
+			leaves = new IMatrix[postfix.size()];
+			int d = 0;
+			int max = 0;
+			for(int i=0;i<postfix.size();i++) {
+				MatrixExpression n = postfix.get(i);
+				ops[i] = n.op;
+				args[i] = n.arg;
+				leaves[i] = n.leaf;
+				if (n.op == LEAF) d++;
+				else if (n.right != null) d--;
+				max = Math.max(max, d);
+			}
+			depth = max;
+			cols = e.size.getCols();
+		}
+
+		private static void flatten(MatrixExpression e, List<MatrixExpression> postfix) {
+			if (e.left != null) flatten(e.left, postfix);
+			if (e.right != null) flatten(e.right, postfix);
+			postfix.add(e);
+		}
+
+		/**
+		 * Compute cells start .. end-1 (row major) into result.
+		 */
+		void run(IMatrix result, int start, int end) {
+			double[][] stack = new double[depth][BLOCK];
+			double[] out = (result instanceof DenseMatrix) ? ((DenseMatrix)result).getValues() : null;
+			float[] outFloat = (result instanceof FloatMatrix) ? ((FloatMatrix)result).getValues() : null;
+			for(int base=start;base<end;base+=BLOCK) {
+				int n = Math.min(BLOCK, end - base);
+				int top = -1;
+				for(int p=0;p<ops.length;p++) {
+					double a = args[p];
+					double[] x;
+					switch (ops[p]) {
+					case LEAF:
+						load(leaves[p], base, n, stack[++top]);
+						break;
+					case EXP:
+						x = stack[top];
+						DoubleKernels.exp(x, x, n);
+						break;
+					case TANH:
+						x = stack[top];
+						DoubleKernels.tanh(x, x, n);
+						break;
+					case TANH_APPROX:
+						x = stack[top];
+						DoubleKernels.tanhApprox(x, x, n);
+						break;
+					case SIN:
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] = Math.sin(x[i]);
+						break;
+					case COS:
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] = Math.cos(x[i]);
+						break;
+					case POWER:
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] = Math.pow(x[i], a);
+						break;
+					case ADD_SCALAR:
+						x = stack[top];
+						DoubleKernels.addScalar(x, a, x, n);
+						break;
+					case MUL_SCALAR:
+						x = stack[top];
+						DoubleKernels.scale(x, a, x, n);
+						break;
+					case DIV_SCALAR:
+						if (a == 0.0) break;
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] /= a;
+						break;
+					case SCALAR_DIV:
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] = a / x[i];
+						break;
+					case SCALAR_SUB:
+						x = stack[top];
+						for(int i=0;i<n;i++) x[i] = a - x[i];
+						break;
+					default:
+						double[] y = stack[top--];
+						x = stack[top];
+						switch (ops[p]) {
+						case ADD:
+							DoubleKernels.add(x, y, x, n);
+							break;
+						case SUB:
+							DoubleKernels.subtract(x, y, x, n);
+							break;
+						case MUL:
+							DoubleKernels.multiply(x, y, x, n);
+							break;
+						case DIV:
+							DoubleKernels.divide(x, y, x, n);
+							break;
+						}
+					}
+				}
+				if (out != null) {
+					System.arraycopy(stack[0], 0, out, base, n);
+				} else if (outFloat != null) {
+					for(int i=0;i<n;i++) {
+						outFloat[base + i] = (float)stack[0][i];
+					}
+				} else {
+					for(int i=0;i<n;i++) {
+						result.set((base + i) / cols, (base + i) % cols, stack[0][i]);
+					}
+				}
+			}
+		}
+
+		private void load(IMatrix m, int base, int n, double[] x) {
+			if (m instanceof DenseMatrix) {
+				System.arraycopy(((DenseMatrix)m).getValues(), base, x, 0, n);
+				return;
+			}
+			if (m instanceof FloatMatrix) {
+				float[] f = ((FloatMatrix)m).getValues();
+				for(int i=0;i<n;i++) {
+					x[i] = f[base + i];
+				}
+				return;
+			}
+			for(int i=0;i<n;i++) {
+				java.lang.Number v = m.get((base + i) / cols, (base + i) % cols);
+				x[i] = (v != null) ? v.doubleValue() : 0.0;
+			}
+		}
+	}
+}
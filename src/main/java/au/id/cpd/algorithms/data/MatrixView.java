@@ -0,0 +1,658 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * A view of part of another matrix which shares the parent's storage.
+ *
+ * Cell (i,j) of the view is cell
+ * (rowOffset + i*rowStride, colOffset + j*colStride) of the parent,
+ * with i and j exchanged first when the view is transposed.
+ * Creating a view is constant time and no cells are copied.
+ * Writes through the view change the parent, and changes to the parent
+ * are seen by the view.
+ *
+ * The multiply kernels read a view of a DenseMatrix directly
+ * from the parent's array, so
+ *
+ * <pre>
+ * W.transposeView().multiply(X.transposeView())
+ * </pre>
+ *
+ * computes W'X' without building either transpose.
+ *
+ * Operations that produce a new matrix return a DenseMatrix.
+ * The shape of a view is fixed, operations that would add or
+ * remove cells throw UnsupportedOperationException.
+ *
+ * @author cd
+ *
+ */
+public class MatrixView<Number> extends AbstractMatrix<Number> {
+
+	/**
+	 * serial version id.
+	 */
+	static final long serialVersionUID = 4188206402650453961L;
+
+	/**
+	 * @serial the matrix holding the cells.
+	 */
+	private IMatrix parent;
+
+	/**
+	 * @serial parent row of the first cell.
+	 */
+	private int rowOffset;
+
+	/**
+	 * @serial parent column of the first cell.
+	 */
+	private int colOffset;
+
+	/**
+	 * @serial parent rows between consecutive rows of the (untransposed) view.
+	 */
+	private int rowStride;
+
+	/**
+	 * @serial parent columns between consecutive columns of the (untransposed) view.
+	 */
+	private int colStride;
+
+	/**
+	 * @serial exchange row and column before mapping to the parent.
+	 */
+	private boolean transposed;
+
+	private MatrixView(IMatrix parent, int rowOffset, int colOffset, int rows, int cols, int rowStride, int colStride, boolean transposed) {
+		this.parent = parent;
+		this.rowOffset = rowOffset;
+		this.colOffset = colOffset;
+		this.rowStride = rowStride;
+		this.colStride = colStride;
+		this.transposed = transposed;
+		setSize(transposed ? new Size(cols, rows) : new Size(rows, cols));
+	}
+
+	/**
+	 * The view of m's cells (row + i*rowStep, col + j*colStep)
+	 * for i in 0 .. rows-1 and j in 0 .. cols-1, optionally transposed.
+	 * A view of a view is mapped straight onto the underlying matrix.
+	 */
+	private static <T> MatrixView<T> create(IMatrix m, int row, int col, int rows, int cols, int rowStep, int colStep, boolean trans) {
+		Size s = m.getSize();
+		if ((rows < 0) || (cols < 0) || (rowStep < 1) || (colStep < 1)
+				|| ((rows > 0) && ((row < 0) || (row + (rows - 1)*rowStep >= s.getRows())))
+				|| ((cols > 0) && ((col < 0) || (col + (cols - 1)*colStep >= s.getCols()))))
+			throw new IllegalArgumentException("View " + rows + "x" + cols + " at " + row + "," + col
+					+ " step " + rowStep + "," + colStep + " is outside " + s);
+		if (!(m instanceof MatrixView))
+			return new MatrixView<T>(m, row, col, rows, cols, rowStep, colStep, trans);
+		MatrixView v = (MatrixView)m;
+		if (!v.transposed) {
+			return new MatrixView<T>(v.parent, v.rowOffset + row*v.rowStride, v.colOffset + col*v.colStride,
+					rows, cols, rowStep*v.rowStride, colStep*v.colStride, trans);
+		}
+		// rows of the view are columns of the parent.
+		return new MatrixView<T>(v.parent, v.rowOffset + col*v.rowStride, v.colOffset + row*v.colStride,
+				cols, rows, colStep*v.rowStride, rowStep*v.colStride, !trans);
+	}
+
+	/**
+	 * The transpose of m.
+	 * @param m
+	 * @return
+	 */
+	public static <T> MatrixView<T> transpose(IMatrix m) {
+		return create(m, 0, 0, m.getSize().getRows(), m.getSize().getCols(), 1, 1, true);
+	}
+
+	/**
+	 * Rows start .. end-1 of m.
+	 * @param m
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static <T> MatrixView<T> rows(IMatrix m, int start, int end) {
+		return create(m, start, 0, end - start, m.getSize().getCols(), 1, 1, false);
+	}
+
+	/**
+	 * Columns start .. end-1 of m.
+	 * @param m
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static <T> MatrixView<T> columns(IMatrix m, int start, int end) {
+		return create(m, 0, start, m.getSize().getRows(), end - start, 1, 1, false);
+	}
+
+	/**
+	 * The rows x cols block of m starting at (row, col), taking
+	 * every rowStep'th row and every colStep'th column.
+	 * @param m
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param rowStep
+	 * @param colStep
+	 * @return
+	 */
+	public static <T> MatrixView<T> block(IMatrix m, int row, int col, int rows, int cols, int rowStep, int colStep) {
+		return create(m, row, col, rows, cols, rowStep, colStep, false);
+	}
+
+	/**
+	 * @return the matrix holding the cells.
+	 */
+	public IMatrix getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return parent row of the first cell.
+	 */
+	public int getRowOffset() {
+		return rowOffset;
+	}
+
+	/**
+	 * @return parent column of the first cell.
+	 */
+	public int getColumnOffset() {
+		return colOffset;
+	}
+
+	/**
+	 * @return parent rows between rows of the untransposed view.
+	 */
+	public int getRowStride() {
+		return rowStride;
+	}
+
+	/**
+	 * @return parent columns between columns of the untransposed view.
+	 */
+	public int getColumnStride() {
+		return colStride;
+	}
+
+	/**
+	 * @return true if rows of the view are read down columns of the parent.
+	 */
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	private int parentRow(int row, int col) {
+		return rowOffset + (transposed ? col : row)*rowStride;
+	}
+
+	private int parentCol(int row, int col) {
+		return colOffset + (transposed ? row : col)*colStride;
+	}
+
+	private boolean inside(int row, int col) {
+		return (row >= 0) && (row < getSize().getRows()) && (col >= 0) && (col < getSize().getCols());
+	}
+
+	private DenseMatrix<Number> like() {
+		return new DenseMatrix<Number>(getSize().getRows(), getSize().getCols());
+	}
+
+	/**
+	 * Copy the cells of the view into a new dense matrix.
+	 * @return
+	 */
+	public DenseMatrix<Number> toDense() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Number> result = like();
+		double[] r = result.getValues();
+		if (parent instanceof DenseMatrix) {
+			double[] p = ((DenseMatrix)parent).getValues();
+			int ld = parent.getSize().getCols();
+			for(int i=0;i<rows;i++) {
+				for(int j=0;j<cols;j++) {
+					r[i*cols + j] = p[parentRow(i, j)*ld + parentCol(i, j)];
+				}
+			}
+		} else {
+			for(int i=0;i<rows;i++) {
+				for(int j=0;j<cols;j++) {
+					java.lang.Number v = parent.get(parentRow(i, j), parentCol(i, j));
+					r[i*cols + j] = (v != null) ? v.doubleValue() : 0.0;
+				}
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#get(int, int)
+	 */
+	public java.lang.Number get(int row, int col) {
+		if (!inside(row, col)) return null;
+		return parent.get(parentRow(row, col), parentCol(row, col));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#set(int, int, java.lang.Object)
+	 */
+	public void set(int row, int col, Object item) {
+		if (!inside(row, col)) return;
+		parent.set(parentRow(row, col), parentCol(row, col), item);
+	}
+
+	/**
+	 * A copy of the cells of the view.
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#clone()
+	 */
+	public IMatrix<Double> clone() {
+		return (IMatrix<Double>)toDense();
+	}
+
+	/**
+	 * A copy of the transpose, use transposeView() to avoid the copy.
+	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
+	 */
+	public IMatrix<Number> transform() {
+		return transform(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> multiply(IMatrix<Number> matrix) {
+		return multiply(matrix, new DenseMatrix<Number>(getSize().getRows(), matrix.getSize().getCols()));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#ddot(int, au.id.cpd.algorithms.data.IMatrix, int)
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		double sum = 0.0;
+		for(int k=0;k<getSize().getCols();k++) {
+			sum += get(row, k).doubleValue() * matrix.get(k, col).doubleValue();
+		}
+		return sum;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
+	 */
+	public IMatrix<Number> multiply(Double m) {
+		return multiply(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
+	 */
+	public IMatrix<Number> divide(Double m) {
+		return divide(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
+	 */
+	public IMatrix<Number> divisorOf(Double m) {
+		return divisorOf(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix) {
+		return pointwiseMultiply(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix) {
+		return pointwiseDivide(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public IMatrix<Number> operate(IMatrixOperation op) {
+		return operate(op, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
+	 */
+	public IMatrix<Number> exp() {
+		return exp(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
+	 */
+	public IMatrix<Number> tanh() {
+		return tanh(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
+	 */
+	public IMatrix<Number> sin() {
+		return sin(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
+	 */
+	public IMatrix<Number> cos() {
+		return cos(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public IMatrix<Number> power(Double p) {
+		return power(p, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
+	 */
+	public IMatrix<Number> sum(Double b) {
+		return sum(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> sum(IMatrix<Number> matrix) {
+		return sum(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> subtract(IMatrix<Number> matrix) {
+		return subtract(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
+	 */
+	public IMatrix<Number> subtract(Double b) {
+		return subtract(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
+	 */
+	public IMatrix<Number> subtractFrom(Double b) {
+		return subtractFrom(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public IMatrix<Double> normalise() {
+		return normalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#meanNormalise()
+	 */
+	public IMatrix<Double> meanNormalise() {
+		return meanNormalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#minMaxNormalise()
+	 */
+	public IMatrix<Double> minMaxNormalise() {
+		return minMaxNormalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsMeans()
+	 */
+	public IMatrix<Double> rowsMeans() {
+		return rowsMeans(new DenseMatrix<Double>(getSize().getRows(), 1));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnMeans()
+	 */
+	public IMatrix<Double> columnMeans() {
+		return columnMeans(new DenseMatrix<Double>(1, getSize().getCols()));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
+	 */
+	public IMatrix<Double> shuffle() {
+		return shuffle((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#repmat(int, int)
+	 */
+	public IMatrix<Double> repmat(int x, int y) {
+		return repmat(x, y, new DenseMatrix<Double>(getSize().getRows()*x, getSize().getCols()*y));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
+	 */
+	public IMatrix<Double> reshape(int rows, int cols) {
+		return reshape(rows, cols, new DenseMatrix<Double>(rows, cols));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getRow(int)
+	 */
+	public List<Number> getRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return null;
+		List<Number> rowList = new Vector<Number>(getSize().getCols());
+		for(int j=0;j<getSize().getCols();j++) {
+			rowList.add((Number)get(row, j));
+		}
+		return rowList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setRow(int, java.util.List)
+	 */
+	public void setRow(int row, List<Number> rowValues) {
+		if ((row < 0) || (row >= getSize().getRows()) || (rowValues.size() != getSize().getCols()))
+			return;
+		for(int j=0;j<getSize().getCols();j++) {
+			set(row, j, rowValues.get(j));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumRow(int)
+	 */
+	public Double sumRow(int row) {
+		double n = 0.0;
+		if ((row < 0) || (row >= getSize().getRows())) return n;
+		for(int j=0;j<getSize().getCols();j++) {
+			n += get(row, j).doubleValue();
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getColumn(int)
+	 */
+	public List<Number> getColumn(int col) {
+		if ((col < 0) || (col >= getSize().getCols())) return null;
+		List<Number> colList = new Vector<Number>(getSize().getRows());
+		for(int i=0;i<getSize().getRows();i++) {
+			colList.add((Number)get(i, col));
+		}
+		return colList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setColumn(int, java.util.List)
+	 */
+	public void setColumn(int col, List<Number> colValues) {
+		if ((col < 0) || (col >= getSize().getCols()) || (colValues.size() != getSize().getRows()))
+			return;
+		for(int i=0;i<getSize().getRows();i++) {
+			set(i, col, colValues.get(i));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumColumn(int)
+	 */
+	public Double sumColumn(int col) {
+		double n = 0.0;
+		if ((col < 0) || (col >= getSize().getCols())) return n;
+		for(int i=0;i<getSize().getRows();i++) {
+			n += get(i, col).doubleValue();
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContains(int, Number)
+	 */
+	public boolean rowContains(int row, Number o) {
+		return !findColumns(row, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContains(int, Number)
+	 */
+	public boolean columnContains(int col, Number o) {
+		return !findRows(col, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#containsAll(java.util.Collection)
+	 */
+	public boolean containsAll(Collection c) {
+		for(Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContainsAll(int, java.util.Collection)
+	 */
+	public boolean rowContainsAll(int row, Collection c) {
+		if ((row < 0) || (row >= getSize().getRows())) return false;
+		for(Object o : c) {
+			if (findColumns(row, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContainsAll(int, java.util.Collection)
+	 */
+	public boolean columnContainsAll(int col, Collection c) {
+		if ((col < 0) || (col >= getSize().getCols())) return false;
+		for(Object o : c) {
+			if (findRows(col, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return (getSize().getRows() == 0) || (getSize().getCols() == 0);
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public boolean add(Object o) {
+		throw new UnsupportedOperationException("Cannot add cells to a view.");
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 */
+	public boolean add(int row, int col, Object item) {
+		throw new UnsupportedOperationException("Cannot add cells to a view.");
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#clear()
+	 */
+	public void clear() {
+		throw new UnsupportedOperationException("Cannot clear a view.");
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
+	 */
+	public void resize(Size s) {
+		throw new UnsupportedOperationException("Cannot resize a view.");
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeRow(int)
+	 */
+	@Override
+	public boolean removeRow(int row) {
+		throw new UnsupportedOperationException("Cannot remove a row from a view.");
+	}
+
+	/**
+	 * Not supported, the shape of a view is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeColumn(int)
+	 */
+	@Override
+	public boolean removeColumn(int col) {
+		throw new UnsupportedOperationException("Cannot remove a column from a view.");
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toString()
+	 */
+	public String toString() {
+		return toDense().toString();
+	}
+
+	/**
+	 * Save the cells of the view to the supplied file.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		return new MatrixChannelWriter().save(this, file);
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+	}
+}
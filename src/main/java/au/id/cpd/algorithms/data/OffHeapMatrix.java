@@ -0,0 +1,954 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import au.id.cpd.algorithms.data.io.*;
+import au.id.cpd.algorithms.algebra.OutOfCoreMultiplierOperation;
+
+/**
+ * A dense matrix of doubles held outside the java heap, either in
+ * native memory or in a mapped .jmat file.
+ *
+ * The memory is released when the matrix is closed rather than when the
+ * collector finds it unreachable, so large temporaries can be freed as
+ * soon as they are no longer needed:
+ *
+ * <pre>
+ * try (OffHeapMatrix<Double> a = new OffHeapMatrix<Double>(rows, cols);
+ *      OffHeapMatrix<Double> b = OffHeapMatrix.map("b.jmat")) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * A closed matrix returns null from get and ignores set. The matrix must
+ * not be closed while another thread is using it.
+ *
+ * Cells are row major, 2^27 cells to a segment of memory.
+ * Operations that produce a new matrix of the same size return a new
+ * OffHeapMatrix in native memory which the caller closes.
+ * The shape of the matrix is fixed, operations that would add or
+ * remove cells throw UnsupportedOperationException.
+ *
+ * @author cd
+ *
+ */
+public class OffHeapMatrix<Number> extends AbstractMatrix<Number> {
+
+	/**
+	 * serial version id.
+	 */
+	static final long serialVersionUID = 2290410633761262754L;
+
+	/**
+	 * log2 of the cells in a segment, 1GB of doubles.
+	 */
+	private static final int SEGMENT_SHIFT = 27;
+
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	/**
+	 * Number of bytes in a double.
+	 */
+	private static final int DOUBLE_SIZE = 8;
+
+	/**
+	 * The memory of each segment, freed by close.
+	 */
+	private transient ByteBuffer[] segments;
+
+	/**
+	 * The cells of each segment, null once closed.
+	 */
+	private transient volatile DoubleBuffer[] cells;
+
+	/**
+	 * The mapped file, null for native memory.
+	 */
+	private transient RandomAccessFile file;
+
+	/**
+	 * The name of the mapped file.
+	 */
+	private transient String fileName;
+
+	/**
+	 * Allocate a matrix of zeroes in native memory.
+	 * @param rows
+	 * @param cols
+	 */
+	public OffHeapMatrix(int rows, int cols) {
+		setSize(new Size(rows, cols));
+		allocate();
+	}
+
+	public OffHeapMatrix(Size s) {
+		this(s.getRows(), s.getCols());
+	}
+
+	/**
+	 * Copy the supplied matrix into native memory.
+	 * @param m
+	 */
+	public OffHeapMatrix(IMatrix m) {
+		this(m.getSize().getRows(), m.getSize().getCols());
+		copyFrom(m);
+	}
+
+	private OffHeapMatrix(String fileName, RandomAccessFile file, ByteBuffer[] segments, int rows, int cols) {
+		setSize(new Size(rows, cols));
+		this.fileName = fileName;
+		this.file = file;
+		this.segments = segments;
+		this.cells = views(segments);
+	}
+
+	/**
+	 * Map an existing .jmat file of doubles stored row major.
+	 * Changes to the matrix are written to the file.
+	 *
+	 * @param name
+	 * @return the matrix or null if the file cannot be mapped.
+	 */
+	public static OffHeapMatrix<Double> map(String name) {
+		RandomAccessFile f = null;
+		try {
+			f = new RandomAccessFile(name, "rw");
+			FileChannel channel = f.getChannel();
+			MatrixFileHeader header = MatrixFileHeader.read(channel);
+			if (header == null) {
+				System.err.println(name + " has no matrix header");
+			} else if (header.getDataType() != MatrixFileHeader.FLOAT64) {
+				System.err.println(name + " does not hold doubles");
+			} else if (header.getTileSize() != 0) {
+				System.err.println(name + " is stored in tiles");
+			} else {
+				if (header.hasChecksum()) {
+					// the cells may be changed through the map.
+					header.setChecksum(false, 0);
+					header.write(channel);
+				}
+				return map(name, f, header);
+			}
+			f.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			closeQuietly(f);
+		}
+		return null;
+	}
+
+	/**
+	 * Create or replace a .jmat file of zeroes and map it.
+	 *
+	 * @param name
+	 * @param rows
+	 * @param cols
+	 * @return the matrix or null if the file cannot be created.
+	 */
+	public static OffHeapMatrix<Double> map(String name, int rows, int cols) {
+		RandomAccessFile f = null;
+		try {
+			f = new RandomAccessFile(name, "rw");
+			f.setLength(0);
+			MatrixFileHeader header = new MatrixFileHeader(DOUBLE_SIZE, ByteOrder.nativeOrder(), rows, cols, 0);
+			header.write(f.getChannel());
+			return map(name, f, header);
+		} catch (Exception e) {
+			e.printStackTrace();
+			closeQuietly(f);
+		}
+		return null;
+	}
+
+	/**
+	 * Map rows x cols doubles stored row major in a region of an open
+	 * channel, such as a column of a ColumnFile. The channel may be
+	 * closed while the matrix is in use. With MapMode.PRIVATE changes
+	 * to the matrix are not written to the file.
+	 *
+	 * @param channel
+	 * @param mode
+	 * @param position of the first cell.
+	 * @param order of the cells in the file.
+	 * @param rows
+	 * @param cols
+	 * @return the matrix.
+	 * @throws IOException
+	 */
+	public static OffHeapMatrix<Double> map(FileChannel channel, FileChannel.MapMode mode, long position, ByteOrder order, int rows, int cols) throws IOException {
+		long n = (long) rows * cols;
+		ByteBuffer[] segments = new ByteBuffer[segmentCount(n)];
+		for (int k = 0; k < segments.length; k++) {
+			long start = (long) k << SEGMENT_SHIFT;
+			long len = Math.min(1L << SEGMENT_SHIFT, n - start);
+			segments[k] = channel.map(mode, position + start * DOUBLE_SIZE, len * DOUBLE_SIZE);
+			segments[k].order(order);
+		}
+		return new OffHeapMatrix<Double>(null, null, segments, rows, cols);
+	}
+
+	private static OffHeapMatrix<Double> map(String name, RandomAccessFile f, MatrixFileHeader header) throws IOException {
+		int rows = header.getRows();
+		int cols = header.getCols();
+		long n = (long) rows * cols;
+		FileChannel channel = f.getChannel();
+		long length = MatrixFileHeader.SIZE + n * DOUBLE_SIZE;
+		if (channel.size() < length)
+			f.setLength(length);
+		OffHeapMatrix<Double> m = map(channel, FileChannel.MapMode.READ_WRITE, MatrixFileHeader.SIZE, header.getByteOrder(), rows, cols);
+		m.fileName = name;
+		m.file = f;
+		return m;
+	}
+
+	private static void closeQuietly(RandomAccessFile f) {
+		try {
+			if (f != null)
+				f.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static int segmentCount(long n) {
+		return (int) ((n + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+	}
+
+	/**
+	 * Allocate native memory for the cells of the current size.
+	 */
+	private void allocate() {
+		long n = (long) getSize().getRows() * getSize().getCols();
+		ByteBuffer[] s = new ByteBuffer[segmentCount(n)];
+		for (int k = 0; k < s.length; k++) {
+			long len = Math.min(1L << SEGMENT_SHIFT, n - ((long) k << SEGMENT_SHIFT));
+			s[k] = ByteBuffer.allocateDirect((int) (len * DOUBLE_SIZE)).order(ByteOrder.nativeOrder());
+		}
+		segments = s;
+		cells = views(s);
+	}
+
+	private static DoubleBuffer[] views(ByteBuffer[] segments) {
+		DoubleBuffer[] views = new DoubleBuffer[segments.length];
+		for (int k = 0; k < segments.length; k++) {
+			views[k] = segments[k].asDoubleBuffer();
+		}
+		return views;
+	}
+
+	/**
+	 * Release the memory of the matrix and close the mapped file.
+	 * The matrix is empty afterwards.
+	 * @see au.id.cpd.algorithms.data.IMatrix#close()
+	 */
+	public synchronized void close() {
+		if (cells == null)
+			return;
+		cells = null;
+		DirectBuffers.free(segments);
+		segments = null;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			file = null;
+		}
+	}
+
+	/**
+	 * @return true once the matrix is closed.
+	 */
+	public boolean isClosed() {
+		return cells == null;
+	}
+
+	/**
+	 * @return the name of the mapped file or null for native memory.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	private boolean inside(int row, int col) {
+		return (row >= 0) && (row < getSize().getRows()) && (col >= 0) && (col < getSize().getCols());
+	}
+
+	private long index(int row, int col) {
+		return (long) row * getSize().getCols() + col;
+	}
+
+	/**
+	 * Copy n cells from index into values at off.
+	 */
+	private static void read(DoubleBuffer[] c, long index, double[] values, int off, int n) {
+		while (n > 0) {
+			DoubleBuffer v = c[(int) (index >>> SEGMENT_SHIFT)].duplicate();
+			int p = (int) (index & SEGMENT_MASK);
+			int len = Math.min(n, v.capacity() - p);
+			v.position(p);
+			v.get(values, off, len);
+			index += len;
+			off += len;
+			n -= len;
+		}
+	}
+
+	/**
+	 * Copy n cells from values at off to index.
+	 */
+	private static void write(DoubleBuffer[] c, long index, double[] values, int off, int n) {
+		while (n > 0) {
+			DoubleBuffer v = c[(int) (index >>> SEGMENT_SHIFT)].duplicate();
+			int p = (int) (index & SEGMENT_MASK);
+			int len = Math.min(n, v.capacity() - p);
+			v.position(p);
+			v.put(values, off, len);
+			index += len;
+			off += len;
+			n -= len;
+		}
+	}
+
+	private static double toDouble(Object item) {
+		if (item == null) return 0.0;
+		return ((java.lang.Number)item).doubleValue();
+	}
+
+	private OffHeapMatrix<Number> like() {
+		return new OffHeapMatrix<Number>(getSize().getRows(), getSize().getCols());
+	}
+
+	/**
+	 * Primitive access to the value at row, col.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double getDouble(int row, int col) {
+		long i = index(row, col);
+		return cells[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK));
+	}
+
+	/**
+	 * Primitive assignment of the value at row, col.
+	 * @param row
+	 * @param col
+	 * @param v
+	 */
+	public void setDouble(int row, int col, double v) {
+		long i = index(row, col);
+		cells[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK), v);
+	}
+
+	/**
+	 * Read the block of cells starting at row, col into values, row major.
+	 *
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values at least rows*cols values.
+	 * @return false if the block is outside the matrix or it is closed.
+	 */
+	public boolean readBlock(int row, int col, int rows, int cols, double[] values) {
+		DoubleBuffer[] c = cells;
+		if ((c == null) || !block(row, col, rows, cols))
+			return false;
+		for (int i = 0; i < rows; i++) {
+			read(c, index(row + i, col), values, i * cols, cols);
+		}
+		return true;
+	}
+
+	/**
+	 * Write values, row major, to the block of cells starting at row, col.
+	 *
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @param values at least rows*cols values.
+	 * @return false if the block is outside the matrix or it is closed.
+	 */
+	public boolean writeBlock(int row, int col, int rows, int cols, double[] values) {
+		DoubleBuffer[] c = cells;
+		if ((c == null) || !block(row, col, rows, cols))
+			return false;
+		for (int i = 0; i < rows; i++) {
+			write(c, index(row + i, col), values, i * cols, cols);
+		}
+		return true;
+	}
+
+	private boolean block(int row, int col, int rows, int cols) {
+		return (row >= 0) && (col >= 0) && (rows >= 0) && (cols >= 0)
+				&& (row + rows <= getSize().getRows()) && (col + cols <= getSize().getCols());
+	}
+
+	/**
+	 * Copy the cells of m, which has the size of this matrix.
+	 * @param m
+	 * @return this matrix or null if the sizes differ.
+	 */
+	public OffHeapMatrix<Number> copyFrom(IMatrix m) {
+		if (getSize().compareTo(m.getSize()) != 0) return null;
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if (m instanceof OffHeapMatrix) {
+			DoubleBuffer[] src = ((OffHeapMatrix)m).cells;
+			DoubleBuffer[] dst = cells;
+			if ((src == null) || (dst == null)) return null;
+			for (int k = 0; k < dst.length; k++) {
+				dst[k].duplicate().put(src[k].duplicate());
+			}
+			return this;
+		}
+		double[] row = new double[cols];
+		if (m instanceof DenseMatrix) {
+			double[] d = ((DenseMatrix)m).getValues();
+			for (int i = 0; i < rows; i++) {
+				write(cells, index(i, 0), d, i * cols, cols);
+			}
+		} else if (m instanceof MatrixBuffer) {
+			for (int i = 0; i < rows; i++) {
+				if (!((MatrixBuffer)m).readBlock(i, 0, 1, cols, row)) return null;
+				write(cells, index(i, 0), row, 0, cols);
+			}
+		} else {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					row[j] = toDouble(m.get(i, j));
+				}
+				write(cells, index(i, 0), row, 0, cols);
+			}
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#get(int, int)
+	 */
+	public java.lang.Number get(int row, int col) {
+		DoubleBuffer[] c = cells;
+		if ((c == null) || !inside(row, col)) return null;
+		long i = index(row, col);
+		return c[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#set(int, int, java.lang.Object)
+	 */
+	public void set(int row, int col, Object item) {
+		DoubleBuffer[] c = cells;
+		if ((c == null) || !inside(row, col)) return;
+		long i = index(row, col);
+		c[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK), toDouble(item));
+	}
+
+	/**
+	 * A copy of the matrix in native memory.
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#clone()
+	 */
+	public OffHeapMatrix<Double> clone() {
+		if (isClosed()) return null;
+		OffHeapMatrix<Double> child = new OffHeapMatrix<Double>(getSize().getRows(), getSize().getCols());
+		return child.copyFrom(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
+	 */
+	public IMatrix<Number> transform() {
+		return transform(new OffHeapMatrix<Number>(getSize().getCols(), getSize().getRows()));
+	}
+
+	/**
+	 * The product is computed a tile at a time so that neither operand
+	 * is copied onto the heap.
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> multiply(IMatrix<Number> matrix) {
+		// unique case where 1x1 matrix - instead of scalar.
+		if ((getSize().getRows() == 1) && (getSize().getCols() == 1))
+			return matrix.multiply(get(0, 0).doubleValue());
+		if ((matrix.getSize().getRows() == 1) && (matrix.getSize().getCols() == 1))
+			return multiply(matrix.get(0, 0).doubleValue());
+		if (getSize().getCols() != matrix.getSize().getRows()) return null;
+		OffHeapMatrix<Number> result = new OffHeapMatrix<Number>(getSize().getRows(), matrix.getSize().getCols());
+		if (!new OutOfCoreMultiplierOperation().multiply(this, matrix, result)) {
+			result.close();
+			return null;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#covariance()
+	 */
+	@Override
+	public IMatrix<Number> covariance() {
+		IMatrix<Number> t = transform();
+		try {
+			return multiply(t);
+		} finally {
+			t.close();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#ddot(int, au.id.cpd.algorithms.data.IMatrix, int)
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		double sum = 0.0;
+		for (int k = 0; k < getSize().getCols(); k++) {
+			sum += getDouble(row, k) * matrix.get(k, col).doubleValue();
+		}
+		return sum;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
+	 */
+	public IMatrix<Number> multiply(Double m) {
+		return multiply(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
+	 */
+	public IMatrix<Number> divide(Double m) {
+		return divide(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
+	 */
+	public IMatrix<Number> divisorOf(Double m) {
+		return divisorOf(m, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix) {
+		return pointwiseMultiply(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix) {
+		return pointwiseDivide(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public IMatrix<Number> operate(IMatrixOperation op) {
+		return operate(op, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
+	 */
+	public IMatrix<Number> exp() {
+		return exp(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
+	 */
+	public IMatrix<Number> tanh() {
+		return tanh(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
+	 */
+	public IMatrix<Number> sin() {
+		return sin(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
+	 */
+	public IMatrix<Number> cos() {
+		return cos(like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public IMatrix<Number> power(Double p) {
+		return power(p, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
+	 */
+	public IMatrix<Number> sum(Double b) {
+		return sum(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> sum(IMatrix<Number> matrix) {
+		return sum(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> subtract(IMatrix<Number> matrix) {
+		return subtract(matrix, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
+	 */
+	public IMatrix<Number> subtract(Double b) {
+		return subtract(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
+	 */
+	public IMatrix<Number> subtractFrom(Double b) {
+		return subtractFrom(b, like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public IMatrix<Double> normalise() {
+		return normalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#meanNormalise()
+	 */
+	public IMatrix<Double> meanNormalise() {
+		return meanNormalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#minMaxNormalise()
+	 */
+	public IMatrix<Double> minMaxNormalise() {
+		return minMaxNormalise((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsMeans()
+	 */
+	public IMatrix<Double> rowsMeans() {
+		return rowsMeans(new DenseMatrix<Double>(getSize().getRows(), 1));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnMeans()
+	 */
+	public IMatrix<Double> columnMeans() {
+		return columnMeans(new DenseMatrix<Double>(1, getSize().getCols()));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
+	 */
+	public IMatrix<Double> shuffle() {
+		return shuffle((IMatrix<Double>)like());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#repmat(int, int)
+	 */
+	public IMatrix<Double> repmat(int x, int y) {
+		return repmat(x, y, new OffHeapMatrix<Double>(getSize().getRows()*x, getSize().getCols()*y));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
+	 */
+	public IMatrix<Double> reshape(int rows, int cols) {
+		return reshape(rows, cols, new OffHeapMatrix<Double>(rows, cols));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#convertToDoubles()
+	 */
+	@Override
+	public double[][] convertToDoubles() {
+		double[][] values = new double[getSize().getRows()][getSize().getCols()];
+		for (int i = 0; i < values.length; i++) {
+			readBlock(i, 0, 1, values[i].length, values[i]);
+		}
+		return values;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getRow(int)
+	 */
+	public List<Number> getRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return null;
+		List<Number> rowList = new Vector<Number>(getSize().getCols());
+		for (int j = 0; j < getSize().getCols(); j++) {
+			rowList.add((Number)get(row, j));
+		}
+		return rowList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setRow(int, java.util.List)
+	 */
+	public void setRow(int row, List<Number> rowValues) {
+		if ((row < 0) || (row >= getSize().getRows()) || (rowValues.size() != getSize().getCols()))
+			return;
+		for (int j = 0; j < getSize().getCols(); j++) {
+			set(row, j, rowValues.get(j));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumRow(int)
+	 */
+	public Double sumRow(int row) {
+		double n = 0.0;
+		if ((row < 0) || (row >= getSize().getRows())) return n;
+		for (int j = 0; j < getSize().getCols(); j++) {
+			n += getDouble(row, j);
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getColumn(int)
+	 */
+	public List<Number> getColumn(int col) {
+		if ((col < 0) || (col >= getSize().getCols())) return null;
+		List<Number> colList = new Vector<Number>(getSize().getRows());
+		for (int i = 0; i < getSize().getRows(); i++) {
+			colList.add((Number)get(i, col));
+		}
+		return colList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setColumn(int, java.util.List)
+	 */
+	public void setColumn(int col, List<Number> colValues) {
+		if ((col < 0) || (col >= getSize().getCols()) || (colValues.size() != getSize().getRows()))
+			return;
+		for (int i = 0; i < getSize().getRows(); i++) {
+			set(i, col, colValues.get(i));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumColumn(int)
+	 */
+	public Double sumColumn(int col) {
+		double n = 0.0;
+		if ((col < 0) || (col >= getSize().getCols())) return n;
+		for (int i = 0; i < getSize().getRows(); i++) {
+			n += getDouble(i, col);
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContains(int, Number)
+	 */
+	public boolean rowContains(int row, Number o) {
+		return !findColumns(row, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContains(int, Number)
+	 */
+	public boolean columnContains(int col, Number o) {
+		return !findRows(col, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#containsAll(java.util.Collection)
+	 */
+	public boolean containsAll(Collection c) {
+		for (Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContainsAll(int, java.util.Collection)
+	 */
+	public boolean rowContainsAll(int row, Collection c) {
+		if ((row < 0) || (row >= getSize().getRows())) return false;
+		for (Object o : c) {
+			if (findColumns(row, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContainsAll(int, java.util.Collection)
+	 */
+	public boolean columnContainsAll(int col, Collection c) {
+		if ((col < 0) || (col >= getSize().getCols())) return false;
+		for (Object o : c) {
+			if (findRows(col, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return isClosed() || (getSize().getRows() == 0) || (getSize().getCols() == 0);
+	}
+
+	/**
+	 * Set every cell to zero.
+	 * @see au.id.cpd.algorithms.data.IMatrix#clear()
+	 */
+	public void clear() {
+		DoubleBuffer[] c = cells;
+		if (c == null) return;
+		for (int k = 0; k < c.length; k++) {
+			for (int i = 0; i < c[k].capacity(); i++) {
+				c[k].put(i, 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Not supported, the shape of the matrix is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public boolean add(Object o) {
+		throw new UnsupportedOperationException("Cannot add cells to an off heap matrix.");
+	}
+
+	/**
+	 * Not supported, the shape of the matrix is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 */
+	public boolean add(int row, int col, Object item) {
+		throw new UnsupportedOperationException("Cannot add cells to an off heap matrix.");
+	}
+
+	/**
+	 * Not supported, the shape of the matrix is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
+	 */
+	public void resize(Size s) {
+		throw new UnsupportedOperationException("Cannot resize an off heap matrix.");
+	}
+
+	/**
+	 * Not supported, the shape of the matrix is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeRow(int)
+	 */
+	@Override
+	public boolean removeRow(int row) {
+		throw new UnsupportedOperationException("Cannot remove a row from an off heap matrix.");
+	}
+
+	/**
+	 * Not supported, the shape of the matrix is fixed.
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeColumn(int)
+	 */
+	@Override
+	public boolean removeColumn(int col) {
+		throw new UnsupportedOperationException("Cannot remove a column from an off heap matrix.");
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toString()
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		String separator = System.getProperty("line.separator");
+		int cols = getSize().getCols();
+		for (int i = 0; i < getSize().getRows(); i++) {
+			for (int j = 0; j < cols; j++) {
+				str.append(get(i, j));
+				if (j < cols - 1)
+					str.append(',');
+			}
+			str.append(separator);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Save the matrix to the supplied file as a .jmat file,
+	 * which may be mapped or opened by MatrixBuffer.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		ByteBuffer[] s = segments;
+		if (s == null) return false;
+		try {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(0);
+				FileChannel channel = out.getChannel();
+				ByteOrder order = (s.length > 0) ? s[0].order() : ByteOrder.nativeOrder();
+				new MatrixFileHeader(DOUBLE_SIZE, order, getSize().getRows(), getSize().getCols(), 0).write(channel);
+				long position = MatrixFileHeader.SIZE;
+				for (int k = 0; k < s.length; k++) {
+					ByteBuffer buf = s[k].duplicate();
+					buf.clear();
+					while (buf.hasRemaining()) {
+						position += channel.write(buf, position);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 * The cells are read into native memory.
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+		allocate();
+		double[] row = new double[getSize().getCols()];
+		for (int i = 0; i < getSize().getRows(); i++) {
+			for (int j = 0; j < row.length; j++) {
+				row[j] = is.readDouble();
+			}
+			write(cells, index(i, 0), row, 0, row.length);
+		}
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+		double[] row = new double[getSize().getCols()];
+		for (int i = 0; i < getSize().getRows(); i++) {
+			readBlock(i, 0, 1, row.length, row);
+			for (int j = 0; j < row.length; j++) {
+				os.writeDouble(row[j]);
+			}
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads the rows of a MatrixBuffer from first to last a block of rows at
+ * a time. The next few blocks are read on background threads while the
+ * current block is used, so a pass over a file is limited by how fast
+ * the disk reads rather than by waiting on each read in turn.
+ *
+ * <pre>
+ * RowCursor cursor = buffer.scan();
+ * while (cursor.next()) {
+ *     double[] values = cursor.getValues();
+ *     // row cursor.getRow() + i, column j is values[i * cols + j]
+ * }
+ * cursor.close();
+ * </pre>
+ *
+ * The values of a block may be changed, they are not written back and
+ * are overwritten by a later block.
+ *
+ * @author cd
+ *
+ */
+public class RowCursor implements Closeable {
+
+	/**
+	 * Blocks read ahead of the current block by default.
+	 */
+	public static final int DEFAULT_READ_AHEAD = 4;
+
+	/**
+	 * Threads reading blocks ahead, shared by all cursors.
+	 */
+	private static final ExecutorService IO = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "RowCursor");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final MatrixBuffer buffer;
+
+	private final int blockRows;
+
+	private final int rows;
+
+	private final int cols;
+
+	/**
+	 * The current block and those read ahead of it, block b is held in
+	 * blocks[b % blocks.length].
+	 */
+	private final double[][] blocks;
+
+	private final Future<Boolean>[] reads;
+
+	/**
+	 * The current block, -1 before the first.
+	 */
+	private int block = -1;
+
+	/**
+	 * Set by close, blocks not yet started are then not read.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * @param buffer
+	 * @param blockRows rows in a block.
+	 * @param readAhead blocks read ahead of the current block.
+	 */
+	public RowCursor(MatrixBuffer buffer, int blockRows, int readAhead) {
+		this.buffer = buffer;
+		this.rows = buffer.getSize().getRows();
+		this.cols = buffer.getSize().getCols();
+		this.blockRows = Math.max(1, Math.min(blockRows, Math.max(rows, 1)));
+		int count = (rows + this.blockRows - 1) / this.blockRows;
+		int ring = Math.max(1, Math.min(readAhead + 1, count));
+		this.blocks = new double[ring][];
+		this.reads = new Future[ring];
+		for (int b = 0; b < ring; b++) {
+			read(b);
+		}
+	}
+
+	/**
+	 * Start reading block b into its buffer.
+	 */
+	private void read(final int b) {
+		final int first = b * blockRows;
+		if (closed || (first >= rows))
+			return;
+		final int n = Math.min(blockRows, rows - first);
+		final int slot = b % blocks.length;
+		if (blocks[slot] == null)
+			blocks[slot] = new double[blockRows * cols];
+		final double[] values = blocks[slot];
+		reads[slot] = IO.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				if (closed)
+					return false;
+				return buffer.readBlock(first, 0, n, cols, values);
+			}
+		});
+	}
+
+	/**
+	 * Move to the next block, waiting for it to be read.
+	 *
+	 * @return false after the last block or if the block cannot be read.
+	 */
+	public boolean next() {
+		if (closed)
+			return false;
+		if (block >= 0) {
+			// the buffer of the block left is free for the block readAhead on.
+			read(block + blocks.length);
+		}
+		block++;
+		if (block * (long) blockRows >= rows)
+			return false;
+		try {
+			return reads[block % blocks.length].get();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * @return the values of the current block, row major.
+	 */
+	public double[] getValues() {
+		return blocks[block % blocks.length];
+	}
+
+	/**
+	 * @return the first row of the current block.
+	 */
+	public int getRow() {
+		return block * blockRows;
+	}
+
+	/**
+	 * @return the rows in the current block.
+	 */
+	public int getRows() {
+		return Math.min(blockRows, rows - getRow());
+	}
+
+	/**
+	 * @return the columns in a row.
+	 */
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * Stop reading ahead. Blocks not yet started are skipped and those
+	 * being read are waited for, so the buffer is no longer read once
+	 * close returns and may then be closed itself.
+	 */
+	public void close() {
+		closed = true;
+		boolean interrupted = false;
+		for (int b = 0; b < reads.length; b++) {
+			while (reads[b] != null) {
+				try {
+					reads[b].get();
+					reads[b] = null;
+				} catch (InterruptedException e) {
+					// keep waiting, the interrupt is restored below.
+					interrupted = true;
+				} catch (Exception e) {
+					// the read failed, it has finished either way.
+					reads[b] = null;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
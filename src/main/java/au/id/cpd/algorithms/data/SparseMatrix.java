@@ -0,0 +1,1429 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data;
+
+import java.util.*;
+import java.io.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * A sparse matrix held in compressed sparse row (CSR) form.
+ *
+ * Only non-zero cells are stored. The column indices and values of row i
+ * are held at rowPtr[i] .. rowPtr[i+1]-1 of colIdx and vals, in ascending
+ * column order. The transpose of a CSR matrix is its compressed sparse
+ * column (CSC) form, so column access is had through transform().
+ *
+ * Build large matrices with addRow, which appends in amortised constant
+ * time. Setting an arbitrary cell shifts the arrays behind it and
+ * is intended for occasional edits only.
+ *
+ * Operations that keep zero at zero (scaling, tanh, sin, pointwise
+ * multiply, products) return sparse matrices. Operations that fill
+ * the zeros (exp, cos, adding a scalar, mean normalisation) return
+ * a DenseMatrix.
+ *
+ * @author cd
+ *
+ */
+public class SparseMatrix<Number> extends AbstractMatrix<Number> {
+
+	/**
+	 * serial version id.
+	 */
+	static final long serialVersionUID = -2968143775621069813L;
+
+	/**
+	 * @serial offsets of each row into colIdx and vals, valid for 0 .. rows.
+	 */
+	private int[] rowPtr;
+
+	/**
+	 * @serial column index of each stored value.
+	 */
+	private int[] colIdx;
+
+	/**
+	 * @serial stored values.
+	 */
+	private double[] vals;
+
+	/**
+	 * @serial number of stored values.
+	 */
+	private int nnz;
+
+	/**
+	 * @serial number of cells filled by add(Object).
+	 */
+	private long filled;
+
+	/**
+	 * Iterate over the stored values in row order.
+	 * getRow and getCol return the position of the value
+	 * last returned by next.
+	 *
+	 * @author cd
+	 *
+	 */
+	public class NonZeroIterator implements Iterator {
+		private int index = 0;
+		private int row = 0;
+		private int current = -1;
+
+		public boolean hasNext() {
+			return index < nnz;
+		}
+
+		public Object next() {
+			return nextDouble();
+		}
+
+		/**
+		 * Advance to the next stored value without boxing it.
+		 * @return
+		 */
+		public double nextDouble() {
+			if (index >= nnz) throw new NoSuchElementException();
+			while (rowPtr[row + 1] <= index) row++;
+			current = index++;
+			return vals[current];
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		public int getCol() {
+			return colIdx[current];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public SparseMatrix() {
+		this(0, 0);
+	}
+
+	public SparseMatrix(int rows, int cols) {
+		setSize(new Size(rows, cols));
+		this.rowPtr = new int[rows + 1];
+		this.colIdx = new int[16];
+		this.vals = new double[16];
+	}
+
+	public SparseMatrix(Size s) {
+		this(s.getRows(), s.getCols());
+	}
+
+	/**
+	 * Wrap the supplied CSR arrays.
+	 * The arrays are not copied.
+	 * @param rows
+	 * @param cols
+	 * @param rowPtr rows + 1 offsets.
+	 * @param colIdx column index of each value, ascending within a row.
+	 * @param vals
+	 */
+	public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colIdx, double[] vals) {
+		if (rowPtr.length < rows + 1)
+			throw new IllegalArgumentException("Expected " + (rows + 1) + " row offsets but found " + rowPtr.length);
+		setSize(new Size(rows, cols));
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.vals = vals;
+		this.nnz = rowPtr[rows];
+		this.filled = (long)rows*cols;
+	}
+
+	/**
+	 * Copy the non-zero cells of the supplied matrix.
+	 * @param m
+	 */
+	public SparseMatrix(IMatrix m) {
+		this(0, m.getSize().getCols());
+		if (m instanceof SparseMatrix) {
+			SparseMatrix s = (SparseMatrix)m;
+			int rows = s.getSize().getRows();
+			this.rowPtr = Arrays.copyOf(s.rowPtr, rows + 1);
+			this.colIdx = Arrays.copyOf(s.colIdx, Math.max(s.nnz, 1));
+			this.vals = Arrays.copyOf(s.vals, Math.max(s.nnz, 1));
+			this.nnz = s.nnz;
+			setSize(new Size(rows, s.getSize().getCols()));
+		} else {
+			int cols = m.getSize().getCols();
+			int[] c = new int[cols];
+			double[] v = new double[cols];
+			for(int i=0;i<m.getSize().getRows();i++) {
+				int n = 0;
+				for(int j=0;j<cols;j++) {
+					java.lang.Number num = m.get(i, j);
+					double d = (num != null) ? num.doubleValue() : 0.0;
+					if (d != 0.0) {
+						c[n] = j;
+						v[n++] = d;
+					}
+				}
+				addRow(c, v, n);
+			}
+		}
+		this.filled = (long)getSize().getRows()*getSize().getCols();
+	}
+
+	/**
+	 * Construct a sparse matrix with 1.0 in the diagonal.
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public static SparseMatrix<Double> identity(int rows, int cols) {
+		SparseMatrix<Double> m = new SparseMatrix<Double>(0, cols);
+		int[] c = new int[1];
+		double[] v = { 1.0 };
+		for(int i=0;i<rows;i++) {
+			c[0] = i;
+			m.addRow(c, v, (i < cols) ? 1 : 0);
+		}
+		return m;
+	}
+
+	/**
+	 * Offsets of each row into the column index and value arrays.
+	 * Only the first rows + 1 entries are valid.
+	 * @return
+	 */
+	public int[] getRowPointers() {
+		return rowPtr;
+	}
+
+	/**
+	 * Column index of each stored value.
+	 * Only the first getNonZeroCount() entries are valid.
+	 * @return
+	 */
+	public int[] getColumnIndices() {
+		return colIdx;
+	}
+
+	/**
+	 * Stored values.
+	 * Only the first getNonZeroCount() entries are valid.
+	 * @return
+	 */
+	public double[] getNonZeroValues() {
+		return vals;
+	}
+
+	/**
+	 * @return the number of stored values.
+	 */
+	public int getNonZeroCount() {
+		return nnz;
+	}
+
+	/**
+	 * @return an iterator over the stored values in row order.
+	 */
+	public NonZeroIterator nonZeros() {
+		return new NonZeroIterator();
+	}
+
+	/**
+	 * Append a row to the bottom of the matrix.
+	 * Zero values are skipped, and the matrix is widened if a column
+	 * index lies past the current number of columns.
+	 * @param columns column index of each value.
+	 * @param values
+	 * @param count number of entries of columns and values to use.
+	 */
+	public void addRow(int[] columns, double[] values, int count) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		ensureCapacity(nnz + count);
+		if (rowPtr.length < rows + 2) {
+			rowPtr = Arrays.copyOf(rowPtr, Math.max(rows + 2, rowPtr.length*2));
+		}
+		int start = nnz;
+		boolean sorted = true;
+		for(int k=0;k<count;k++) {
+			if (values[k] == 0.0) continue;
+			int c = columns[k];
+			if ((nnz > start) && (c <= colIdx[nnz - 1])) sorted = false;
+			if (c >= cols) cols = c + 1;
+			colIdx[nnz] = c;
+			vals[nnz++] = values[k];
+		}
+		if (!sorted) sortRow(start, nnz);
+		rowPtr[rows + 1] = nnz;
+		setSize(new Size(rows + 1, cols));
+		filled = (long)(rows + 1)*cols;
+	}
+
+	/**
+	 * Append a row to the bottom of the matrix.
+	 * @param columns
+	 * @param values
+	 */
+	public void addRow(int[] columns, double[] values) {
+		addRow(columns, values, Math.min(columns.length, values.length));
+	}
+
+	/**
+	 * Order the entries start .. end by column,
+	 * merging duplicate columns by taking the last value.
+	 */
+	private void sortRow(int start, int end) {
+		for(int i=start+1;i<end;i++) {
+			int c = colIdx[i];
+			double v = vals[i];
+			int j = i - 1;
+			while ((j >= start) && (colIdx[j] > c)) {
+				colIdx[j + 1] = colIdx[j];
+				vals[j + 1] = vals[j];
+				j--;
+			}
+			colIdx[j + 1] = c;
+			vals[j + 1] = v;
+		}
+		int n = start;
+		for(int i=start;i<end;i++) {
+			if ((n > start) && (colIdx[n - 1] == colIdx[i])) {
+				vals[n - 1] = vals[i];
+			} else {
+				colIdx[n] = colIdx[i];
+				vals[n++] = vals[i];
+			}
+		}
+		nnz = n;
+	}
+
+	private void ensureCapacity(int n) {
+		if (colIdx.length < n) {
+			int len = Math.max(n, colIdx.length*2);
+			colIdx = Arrays.copyOf(colIdx, len);
+			vals = Arrays.copyOf(vals, len);
+		}
+	}
+
+	/**
+	 * Position of (row, col) in the stored arrays,
+	 * or -(insertion point) - 1 when the cell is zero.
+	 */
+	private int find(int row, int col) {
+		return Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+	}
+
+	/**
+	 * Primitive access to the value at row, col.
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double getDouble(int row, int col) {
+		int k = find(row, col);
+		return (k >= 0) ? vals[k] : 0.0;
+	}
+
+	/**
+	 * Primitive assignment of the value at row, col.
+	 * Assigning zero removes the stored value.
+	 * @param row
+	 * @param col
+	 * @param v
+	 */
+	public void setDouble(int row, int col, double v) {
+		int k = find(row, col);
+		if (k >= 0) {
+			if (v != 0.0) {
+				vals[k] = v;
+				return;
+			}
+			System.arraycopy(colIdx, k + 1, colIdx, k, nnz - k - 1);
+			System.arraycopy(vals, k + 1, vals, k, nnz - k - 1);
+			nnz--;
+			for(int i=row+1;i<=getSize().getRows();i++) rowPtr[i]--;
+			return;
+		}
+		if (v == 0.0) return;
+		k = -k - 1;
+		ensureCapacity(nnz + 1);
+		System.arraycopy(colIdx, k, colIdx, k + 1, nnz - k);
+		System.arraycopy(vals, k, vals, k + 1, nnz - k);
+		colIdx[k] = col;
+		vals[k] = v;
+		nnz++;
+		for(int i=row+1;i<=getSize().getRows();i++) rowPtr[i]++;
+	}
+
+	private static double toDouble(Object item) {
+		if (item == null) return 0.0;
+		return ((java.lang.Number)item).doubleValue();
+	}
+
+	/**
+	 * A sparse matrix with the same non-zero structure as this one.
+	 * The values are copied so that the caller can transform them in place.
+	 */
+	private SparseMatrix<Number> copyStructure() {
+		int rows = getSize().getRows();
+		return new SparseMatrix<Number>(rows, getSize().getCols(),
+				Arrays.copyOf(rowPtr, rows + 1),
+				Arrays.copyOf(colIdx, Math.max(nnz, 1)),
+				Arrays.copyOf(vals, Math.max(nnz, 1)));
+	}
+
+	/**
+	 * Expand into a dense matrix.
+	 * @return
+	 */
+	public DenseMatrix<Number> toDense() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		DenseMatrix<Number> m = new DenseMatrix<Number>(rows, cols);
+		double[] d = m.getValues();
+		for(int i=0;i<rows;i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				d[i*cols + colIdx[k]] = vals[k];
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Copy the rows start .. end-1 into a new sparse matrix.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public SparseMatrix<Number> sliceRows(int start, int end) {
+		start = Math.max(0, start);
+		end = Math.min(getSize().getRows(), end);
+		if (end < start) end = start;
+		int from = rowPtr[start];
+		int n = rowPtr[end] - from;
+		int[] ptr = new int[end - start + 1];
+		for(int i=start;i<=end;i++) {
+			ptr[i - start] = rowPtr[i] - from;
+		}
+		return new SparseMatrix<Number>(end - start, getSize().getCols(), ptr,
+				Arrays.copyOfRange(colIdx, from, from + Math.max(n, 1)),
+				Arrays.copyOfRange(vals, from, from + Math.max(n, 1)));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clone()
+	 */
+	public SparseMatrix<Double> clone() {
+		SparseMatrix<Double> child = (SparseMatrix<Double>)copyStructure();
+		child.filled = filled;
+		return child;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#resize(au.id.cpd.algorithms.data.Size)
+	 */
+	public void resize(Size s) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((s.getRows() == rows) && (s.getCols() == cols)) return;
+		if (s.getRows() < rows) {
+			nnz = rowPtr[s.getRows()];
+		} else if (s.getRows() > rows) {
+			rowPtr = Arrays.copyOf(rowPtr, s.getRows() + 1);
+			Arrays.fill(rowPtr, rows + 1, s.getRows() + 1, nnz);
+		}
+		rows = s.getRows();
+		if (s.getCols() < cols) {
+			// drop the cells past the last column.
+			int n = 0;
+			int start = 0;
+			for(int i=0;i<rows;i++) {
+				int end = rowPtr[i + 1];
+				for(int k=start;k<end;k++) {
+					if (colIdx[k] < s.getCols()) {
+						colIdx[n] = colIdx[k];
+						vals[n++] = vals[k];
+					}
+				}
+				start = end;
+				rowPtr[i + 1] = n;
+			}
+			nnz = n;
+		}
+		filled = Math.min(filled, (long)rows*s.getCols());
+		setSize(new Size(s));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#reshape(int, int)
+	 */
+	public IMatrix<Double> reshape(int rows, int cols) {
+		int oldCols = getSize().getCols();
+		if ((long)rows*cols > (long)getSize().getRows()*oldCols) return null;
+		long limit = (long)rows*cols;
+		// row major position is preserved so the cells stay in order.
+		int[] ptr = new int[rows + 1];
+		int[] c = new int[Math.max(nnz, 1)];
+		double[] v = new double[Math.max(nnz, 1)];
+		int n = 0;
+		for(int i=0;i<getSize().getRows();i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				long pos = (long)i*oldCols + colIdx[k];
+				if (pos >= limit) break;
+				int r = (int)(pos / cols);
+				ptr[r + 1]++;
+				c[n] = (int)(pos % cols);
+				v[n++] = vals[k];
+			}
+		}
+		for(int i=0;i<rows;i++) {
+			ptr[i + 1] += ptr[i];
+		}
+		return new SparseMatrix<Double>(rows, cols, ptr, c, v);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#repmat(int, int)
+	 */
+	public IMatrix<Double> repmat(int x, int y) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		SparseMatrix<Double> m = new SparseMatrix<Double>(0, cols*y);
+		int[] c = new int[cols*y];
+		double[] v = new double[cols*y];
+		for(int i=0;i<rows*x;i++) {
+			int src = i % rows;
+			int n = 0;
+			for(int r=0;r<y;r++) {
+				for(int k=rowPtr[src];k<rowPtr[src+1];k++) {
+					c[n] = colIdx[k] + r*cols;
+					v[n++] = vals[k];
+				}
+			}
+			m.addRow(c, v, n);
+		}
+		return m;
+	}
+
+	/**
+	 * Transpose by counting the cells in each column.
+	 * @see au.id.cpd.algorithms.data.IMatrix#transform()
+	 */
+	public IMatrix<Number> transform() {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		int[] ptr = new int[cols + 1];
+		for(int k=0;k<nnz;k++) {
+			ptr[colIdx[k] + 1]++;
+		}
+		for(int j=0;j<cols;j++) {
+			ptr[j + 1] += ptr[j];
+		}
+		int[] next = Arrays.copyOf(ptr, cols);
+		int[] c = new int[Math.max(nnz, 1)];
+		double[] v = new double[Math.max(nnz, 1)];
+		for(int i=0;i<rows;i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				int dst = next[colIdx[k]]++;
+				c[dst] = i;
+				v[dst] = vals[k];
+			}
+		}
+		return new SparseMatrix<Number>(cols, rows, ptr, c, v);
+	}
+
+	/**
+	 * A sparse product for a sparse operand, otherwise a dense product.
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> multiply(IMatrix<Number> matrix) {
+		IMatrix<Number> result;
+		if (matrix instanceof SparseMatrix)
+			result = new SparseMatrix<Number>(getSize().getRows(), matrix.getSize().getCols());
+		else
+			result = new DenseMatrix<Number>(getSize().getRows(), matrix.getSize().getCols());
+		return multiply(matrix, result);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#multiply(au.id.cpd.algorithms.data.IMatrix, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	@Override
+	public IMatrix<Number> multiply(IMatrix<Number> matrix, IMatrix<Number> result) {
+		// unique case where 1x1 matrix - instead of scalar.
+		if ((getSize().getRows() == 1) && (getSize().getCols() == 1))
+			return matrix.multiply(getDouble(0, 0));
+		else if ((matrix.getSize().getCols() == 1) && (matrix.getSize().getRows() == 1))
+			return this.multiply(matrix.get(0, 0).doubleValue());
+		if (matrix.getSize().getRows() != getSize().getCols()) return null;
+		if ((matrix instanceof SparseMatrix) && (result instanceof SparseMatrix)) {
+			multiplySparse((SparseMatrix)matrix, (SparseMatrix)result);
+			return result;
+		}
+		if (result instanceof DenseMatrix) {
+			DenseMatrix b = (matrix instanceof DenseMatrix) ? (DenseMatrix)matrix : new DenseMatrix(matrix);
+			multiplyDense(b, (DenseMatrix)result);
+			return result;
+		}
+		return super.multiply(matrix, result);
+	}
+
+	/**
+	 * Sparse x sparse product by Gustavson's row by row method.
+	 * Row i of the result is the sum of the rows of b selected by row i of this,
+	 * gathered in a dense accumulator.
+	 */
+	private void multiplySparse(SparseMatrix b, SparseMatrix c) {
+		int rows = getSize().getRows();
+		int n = b.getSize().getCols();
+		double[] acc = new double[n];
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		int[] touched = new int[n];
+		c.rowPtr = new int[rows + 1];
+		c.nnz = 0;
+		c.setSize(new Size(0, n));
+		for(int i=0;i<rows;i++) {
+			int count = 0;
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				double a = vals[k];
+				int bRow = colIdx[k];
+				for(int p=b.rowPtr[bRow];p<b.rowPtr[bRow+1];p++) {
+					int j = b.colIdx[p];
+					if (mark[j] != i) {
+						mark[j] = i;
+						acc[j] = 0.0;
+						touched[count++] = j;
+					}
+					acc[j] += a * b.vals[p];
+				}
+			}
+			Arrays.sort(touched, 0, count);
+			double[] v = new double[count];
+			for(int t=0;t<count;t++) {
+				v[t] = acc[touched[t]];
+			}
+			c.addRow(touched, v, count);
+		}
+		c.setSize(new Size(rows, n));
+		c.filled = (long)rows*n;
+	}
+
+	/**
+	 * Sparse x dense product, each stored value scales a row of b
+	 * into the matching row of c.
+	 */
+	private void multiplyDense(DenseMatrix b, DenseMatrix c) {
+		int rows = getSize().getRows();
+		int n = b.getSize().getCols();
+		double[] bv = b.getValues();
+		double[] cv = c.getValues();
+		for(int i=0;i<rows;i++) {
+			int cOff = i*n;
+			Arrays.fill(cv, cOff, cOff + n, 0.0);
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				double a = vals[k];
+				int bOff = colIdx[k]*n;
+				for(int j=0;j<n;j++) {
+					cv[cOff + j] += a * bv[bOff + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dense x sparse product c = a * s.
+	 * Each cell of a scales the matching row of s into the row of c.
+	 * @param a
+	 * @param s
+	 * @param c
+	 */
+	public static void multiply(DenseMatrix a, SparseMatrix s, DenseMatrix c) {
+		int rows = a.getSize().getRows();
+		int inner = a.getSize().getCols();
+		int n = s.getSize().getCols();
+		double[] av = a.getValues();
+		double[] cv = c.getValues();
+		for(int i=0;i<rows;i++) {
+			int cOff = i*n;
+			Arrays.fill(cv, cOff, cOff + n, 0.0);
+			for(int k=0;k<inner;k++) {
+				double d = av[i*inner + k];
+				if (d == 0.0) continue;
+				for(int p=s.rowPtr[k];p<s.rowPtr[k+1];p++) {
+					cv[cOff + s.colIdx[p]] += d * s.vals[p];
+				}
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#covariance()
+	 */
+	@Override
+	public IMatrix<Number> covariance() {
+		return multiply(transform());
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#ddot(int, au.id.cpd.algorithms.data.IMatrix, int)
+	 */
+	public double ddot(int row, IMatrix<Number> matrix, int col) {
+		double result = 0.0;
+		for(int k=rowPtr[row];k<rowPtr[row+1];k++) {
+			java.lang.Number n = matrix.get(colIdx[k], col);
+			if (n != null) result += vals[k] * n.doubleValue();
+		}
+		return result;
+	}
+
+	/**
+	 * The CSR transpose rather than a view, it costs O(nnz) and
+	 * keeps the sparse products available. It is a copy, writes to it
+	 * do not change this matrix, MatrixView.transpose(this) is the view.
+	 * @see au.id.cpd.algorithms.data.IMatrix#transposeView()
+	 */
+	@Override
+	public IMatrix<Number> transposeView() {
+		return transform();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#multiply(java.lang.Double)
+	 */
+	public IMatrix<Number> multiply(Double m) {
+		SparseMatrix<Number> result = copyStructure();
+		double d = m.doubleValue();
+		for(int k=0;k<nnz;k++) {
+			result.vals[k] *= d;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divide(java.lang.Double)
+	 */
+	public IMatrix<Number> divide(Double m) {
+		SparseMatrix<Number> result = copyStructure();
+		double d = m.doubleValue();
+		// the cells are left as they are when dividing by zero.
+		if (d == 0) return result;
+		for(int k=0;k<nnz;k++) {
+			result.vals[k] /= d;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#divisorOf(java.lang.Double)
+	 */
+	public IMatrix<Number> divisorOf(Double m) {
+		return toDense().divisorOf(m);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseMultiply(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseMultiply(IMatrix<Number> matrix) {
+		if (!getSize().equals(matrix.getSize())) return null;
+		SparseMatrix<Number> result = copyStructure();
+		for(int i=0;i<getSize().getRows();i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				double d;
+				if (matrix instanceof SparseMatrix)
+					d = ((SparseMatrix)matrix).getDouble(i, colIdx[k]);
+				else if (matrix instanceof DenseMatrix)
+					d = ((DenseMatrix)matrix).getDouble(i, colIdx[k]);
+				else
+					d = toDouble(matrix.get(i, colIdx[k]));
+				result.vals[k] *= d;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scales the stored values, the structure is unchanged.
+	 * @see au.id.cpd.algorithms.data.IMatrix#scaleInPlace(double)
+	 */
+	@Override
+	public IMatrix<Number> scaleInPlace(double alpha) {
+		for(int k=0;k<nnz;k++) {
+			vals[k] *= alpha;
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies the stored values, the structure is unchanged.
+	 * @see au.id.cpd.algorithms.data.IMatrix#hadamardInPlace(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	@Override
+	public IMatrix<Number> hadamardInPlace(IMatrix<Number> matrix) {
+		if (!getSize().equals(matrix.getSize())) return null;
+		for(int i=0;i<getSize().getRows();i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				double d;
+				if (matrix instanceof SparseMatrix)
+					d = ((SparseMatrix)matrix).getDouble(i, colIdx[k]);
+				else if (matrix instanceof DenseMatrix)
+					d = ((DenseMatrix)matrix).getDouble(i, colIdx[k]);
+				else
+					d = toDouble(matrix.get(i, colIdx[k]));
+				vals[k] *= d;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * A sparse x is merged into the rows of this matrix,
+	 * otherwise each cell is updated in turn.
+	 * @see au.id.cpd.algorithms.data.IMatrix#axpy(double, au.id.cpd.algorithms.data.IMatrix)
+	 */
+	@Override
+	public IMatrix<Number> axpy(double alpha, IMatrix<Number> x) {
+		if (!(x instanceof SparseMatrix)) return super.axpy(alpha, x);
+		SparseMatrix merged = (SparseMatrix)merge((SparseMatrix)x, alpha);
+		if (merged == null) return null;
+		this.rowPtr = merged.rowPtr;
+		this.colIdx = merged.colIdx;
+		this.vals = merged.vals;
+		this.nnz = merged.nnz;
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#pointwiseDivide(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> pointwiseDivide(IMatrix<Number> matrix) {
+		return toDense().pointwiseDivide(matrix);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#operate(au.id.cpd.algorithms.data.IMatrixOperation)
+	 */
+	public IMatrix<Number> operate(IMatrixOperation op) {
+		return toDense().operate(op);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#exp()
+	 */
+	public IMatrix<Number> exp() {
+		return toDense().exp();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#tanh()
+	 */
+	public IMatrix<Number> tanh() {
+		SparseMatrix<Number> result = copyStructure();
+		for(int k=0;k<nnz;k++) {
+			result.vals[k] = Math.tanh(vals[k]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sin()
+	 */
+	public IMatrix<Number> sin() {
+		SparseMatrix<Number> result = copyStructure();
+		for(int k=0;k<nnz;k++) {
+			result.vals[k] = Math.sin(vals[k]);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#cos()
+	 */
+	public IMatrix<Number> cos() {
+		return toDense().cos();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#power(java.lang.Double)
+	 */
+	public IMatrix<Number> power(Double p) {
+		if (p.doubleValue() <= 0.0) return toDense().power(p);
+		SparseMatrix<Number> result = copyStructure();
+		for(int k=0;k<nnz;k++) {
+			result.vals[k] = Math.pow(vals[k], p);
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(java.lang.Double)
+	 */
+	public IMatrix<Number> sum(Double b) {
+		return toDense().sum(b);
+	}
+
+	/**
+	 * Sparse when both operands are sparse, otherwise dense.
+	 * @see au.id.cpd.algorithms.data.IMatrix#sum(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> sum(IMatrix<Number> matrix) {
+		if (!(matrix instanceof SparseMatrix)) return toDense().sum(matrix);
+		return merge((SparseMatrix)matrix, 1.0);
+	}
+
+	/**
+	 * Sparse when both operands are sparse, otherwise dense.
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public IMatrix<Number> subtract(IMatrix<Number> matrix) {
+		if (!(matrix instanceof SparseMatrix)) return toDense().subtract(matrix);
+		return merge((SparseMatrix)matrix, -1.0);
+	}
+
+	/**
+	 * this + sign * b by merging the sorted rows.
+	 * sign may be any scale factor.
+	 */
+	private IMatrix<Number> merge(SparseMatrix b, double sign) {
+		if (!getSize().equals(b.getSize())) return null;
+		int cols = getSize().getCols();
+		SparseMatrix<Number> result = new SparseMatrix<Number>(0, cols);
+		result.ensureCapacity(nnz + b.nnz);
+		int[] c = new int[cols];
+		double[] v = new double[cols];
+		for(int i=0;i<getSize().getRows();i++) {
+			int p = rowPtr[i];
+			int q = b.rowPtr[i];
+			int pEnd = rowPtr[i+1];
+			int qEnd = b.rowPtr[i+1];
+			int n = 0;
+			while ((p < pEnd) || (q < qEnd)) {
+				int cp = (p < pEnd) ? colIdx[p] : Integer.MAX_VALUE;
+				int cq = (q < qEnd) ? b.colIdx[q] : Integer.MAX_VALUE;
+				if (cp == cq) {
+					c[n] = cp;
+					v[n++] = vals[p++] + sign*b.vals[q++];
+				} else if (cp < cq) {
+					c[n] = cp;
+					v[n++] = vals[p++];
+				} else {
+					c[n] = cq;
+					v[n++] = sign*b.vals[q++];
+				}
+			}
+			result.addRow(c, v, n);
+		}
+		result.setSize(new Size(getSize()));
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtract(java.lang.Double)
+	 */
+	public IMatrix<Number> subtract(Double b) {
+		return toDense().subtract(b);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#subtractFrom(java.lang.Double)
+	 */
+	public IMatrix<Number> subtractFrom(Double b) {
+		return toDense().subtractFrom(b);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise()
+	 */
+	public IMatrix<Double> normalise() {
+		return toDense().normalise();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#normalise(int)
+	 */
+	public IMatrix<Double> normalise(int exclude) {
+		return toDense().normalise(exclude);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#meanNormalise()
+	 */
+	public IMatrix<Double> meanNormalise() {
+		return toDense().meanNormalise();
+	}
+
+	/**
+	 * Zero cells are left as they are, so the result stays sparse.
+	 * @see au.id.cpd.algorithms.data.IMatrix#minMaxNormalise()
+	 */
+	public IMatrix<Double> minMaxNormalise() {
+		SparseMatrix<Double> normal = (SparseMatrix<Double>)copyStructure();
+		double max = this.max();
+		double min = this.min();
+		double delta = max - min;
+		if (delta == 0.0) return normal;
+		for(int k=0;k<nnz;k++) {
+			normal.vals[k] = (vals[k] - min) / delta;
+		}
+		return normal;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowsMeans()
+	 */
+	public IMatrix<Double> rowsMeans() {
+		int rows = getSize().getRows();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(rows, 1);
+		for(int i=0;i<rows;i++) {
+			double sum = 0.0;
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				sum += vals[k];
+			}
+			// as per AbstractMatrix.rowsMeans.
+			means.getValues()[i] = (sum != 0) ? sum/rows : 0.0;
+		}
+		return means;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnMeans()
+	 */
+	public IMatrix<Double> columnMeans() {
+		int rows = getSize().getRows();
+		DenseMatrix<Double> means = new DenseMatrix<Double>(1, getSize().getCols());
+		double[] m = means.getValues();
+		for(int k=0;k<nnz;k++) {
+			m[colIdx[k]] += vals[k];
+		}
+		for(int j=0;j<m.length;j++) {
+			m[j] = (m[j] != 0) ? m[j]/rows : 0.0;
+		}
+		return means;
+	}
+
+	/**
+	 * Reorder the rows at random.
+	 * @see au.id.cpd.algorithms.data.IMatrix#shuffle()
+	 */
+	public IMatrix<Double> shuffle() {
+		int rows = getSize().getRows();
+		List<Integer> order = new ArrayList<Integer>(rows);
+		for(int i=0;i<rows;i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order);
+		SparseMatrix<Double> shuffled = new SparseMatrix<Double>(0, getSize().getCols());
+		shuffled.ensureCapacity(nnz);
+		for(int i=0;i<rows;i++) {
+			int src = order.get(i);
+			int from = rowPtr[src];
+			shuffled.addRow(Arrays.copyOfRange(colIdx, from, rowPtr[src+1]),
+					Arrays.copyOfRange(vals, from, rowPtr[src+1]));
+		}
+		shuffled.setSize(new Size(getSize()));
+		return shuffled;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#euclideanNorm()
+	 */
+	public double euclideanNorm() {
+		double norm = 0.0;
+		for(int k=0;k<nnz;k++) {
+			norm += vals[k] * vals[k];
+		}
+		return Math.sqrt(norm);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#max()
+	 */
+	public double max() {
+		double max = Double.MIN_VALUE;
+		for(int k=0;k<nnz;k++) {
+			if (vals[k] > max) max = vals[k];
+		}
+		return max;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#min()
+	 */
+	public double min() {
+		double min = Double.MAX_VALUE;
+		for(int k=0;k<nnz;k++) {
+			if (vals[k] < min) min = vals[k];
+		}
+		if ((nnz < (long)getSize().getRows()*getSize().getCols()) && (min > 0.0))
+			min = 0.0;
+		return min;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMax()
+	 */
+	public double getMax() {
+		return max();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getMin()
+	 */
+	public double getMin() {
+		return min();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#convertToDoubles()
+	 */
+	public double[][] convertToDoubles() {
+		int rows = getSize().getRows();
+		double[][] result = new double[rows][getSize().getCols()];
+		for(int i=0;i<rows;i++) {
+			for(int k=rowPtr[i];k<rowPtr[i+1];k++) {
+				result[i][colIdx[k]] = vals[k];
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#equals(au.id.cpd.algorithms.data.IMatrix)
+	 */
+	public boolean equals(IMatrix<Double> m) {
+		if (!this.getSize().equals(m.getSize())) return false;
+		if (!(m instanceof SparseMatrix)) return super.equals(m);
+		SparseMatrix b = (SparseMatrix)m;
+		for(int i=0;i<getSize().getRows();i++) {
+			int p = rowPtr[i];
+			int q = b.rowPtr[i];
+			int pEnd = rowPtr[i+1];
+			int qEnd = b.rowPtr[i+1];
+			while ((p < pEnd) || (q < qEnd)) {
+				int cp = (p < pEnd) ? colIdx[p] : Integer.MAX_VALUE;
+				int cq = (q < qEnd) ? b.colIdx[q] : Integer.MAX_VALUE;
+				double vp = (cp <= cq) ? vals[p++] : 0.0;
+				double vq = (cq <= cp) ? b.vals[q++] : 0.0;
+				if (vp != vq) return false;
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(java.lang.Object)
+	 */
+	public boolean add(Object o) {
+		int cols = getSize().getCols();
+		if (cols == 0) {
+			cols = 1;
+			resize(new Size(getSize().getRows(), cols));
+		}
+		if (filled >= (long)getSize().getRows()*cols) {
+			resize(new Size(getSize().getRows() + 1, cols));
+		}
+		setDouble((int)(filled / cols), (int)(filled % cols), toDouble(o));
+		filled++;
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#add(int, int, java.lang.Object)
+	 */
+	public boolean add(int row, int col, Object item) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((row >= rows) || (col >= cols)) {
+			resize(new Size(Math.max(rows, row + 1), Math.max(cols, col + 1)));
+		}
+		setDouble(row, col, toDouble(item));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#set(int, int, java.lang.Object)
+	 */
+	public void set(int row, int col, Object item) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return;
+		setDouble(row, col, toDouble(item));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#get(int, int)
+	 */
+	public java.lang.Number get(int row, int col) {
+		if ((row < 0) || (row >= getSize().getRows()) || (col < 0) || (col >= getSize().getCols()))
+			return null;
+		return getDouble(row, col);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getRow(int)
+	 */
+	public List<Number> getRow(int row) {
+		if ((row < 0) || (row >= getSize().getRows())) return null;
+		int cols = getSize().getCols();
+		Double[] d = new Double[cols];
+		Arrays.fill(d, 0.0);
+		for(int k=rowPtr[row];k<rowPtr[row+1];k++) {
+			d[colIdx[k]] = vals[k];
+		}
+		return new Vector<Number>((List<Number>)(List)Arrays.asList(d));
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setRow(int, java.util.List)
+	 */
+	public void setRow(int row, List<Number> rowValues) {
+		int cols = getSize().getCols();
+		if ((row < 0) || (row >= getSize().getRows()) || (rowValues.size() != cols))
+			return;
+		for(int j=0;j<cols;j++) {
+			setDouble(row, j, toDouble(rowValues.get(j)));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumRow(int)
+	 */
+	public Double sumRow(int row) {
+		double n = 0.0;
+		if ((row < 0) || (row >= getSize().getRows())) return n;
+		for(int k=rowPtr[row];k<rowPtr[row+1];k++) {
+			n += vals[k];
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#getColumn(int)
+	 */
+	public List<Number> getColumn(int col) {
+		if ((col < 0) || (col >= getSize().getCols())) return null;
+		List<Number> colList = new Vector<Number>(getSize().getRows());
+		for(int i=0;i<getSize().getRows();i++) {
+			colList.add((Number)(Double)getDouble(i, col));
+		}
+		return colList;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#setColumn(int, java.util.List)
+	 */
+	public void setColumn(int col, List<Number> colValues) {
+		if ((col < 0) || (col >= getSize().getCols()) || (colValues.size() != getSize().getRows()))
+			return;
+		for(int i=0;i<getSize().getRows();i++) {
+			setDouble(i, col, toDouble(colValues.get(i)));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#sumColumn(int)
+	 */
+	public Double sumColumn(int col) {
+		double n = 0.0;
+		if ((col < 0) || (col >= getSize().getCols())) return n;
+		for(int k=0;k<nnz;k++) {
+			if (colIdx[k] == col) n += vals[k];
+		}
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#clear()
+	 */
+	public void clear() {
+		Arrays.fill(rowPtr, 0);
+		nnz = 0;
+		filled = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#contains(java.lang.Object)
+	 */
+	public boolean contains(Object o) {
+		if (!(o instanceof java.lang.Number)) return false;
+		double v = ((java.lang.Number)o).doubleValue();
+		if (v == 0.0) return nnz < (long)getSize().getRows()*getSize().getCols();
+		for(int k=0;k<nnz;k++) {
+			if (vals[k] == v) return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContains(int, Number)
+	 */
+	public boolean rowContains(int row, Number o) {
+		return !findColumns(row, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContains(int, Number)
+	 */
+	public boolean columnContains(int col, Number o) {
+		return !findRows(col, o).isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#containsAll(java.util.Collection)
+	 */
+	public boolean containsAll(Collection c) {
+		for(Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#rowContainsAll(int, java.util.Collection)
+	 */
+	public boolean rowContainsAll(int row, Collection c) {
+		if ((row < 0) || (row >= getSize().getRows())) return false;
+		for(Object o : c) {
+			if (findColumns(row, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#columnContainsAll(int, java.util.Collection)
+	 */
+	public boolean columnContainsAll(int col, Collection c) {
+		if ((col < 0) || (col >= getSize().getCols())) return false;
+		for(Object o : c) {
+			if (findRows(col, (Number)o).isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findColumns(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findColumns(int row, Number o) {
+		List<Integer> columns = new Vector<Integer>();
+		if ((row < 0) || (row >= getSize().getRows()) || !(o instanceof java.lang.Number)) return columns;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int j=0;j<getSize().getCols();j++) {
+			if (getDouble(row, j) == v) columns.add(j);
+		}
+		return columns;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.AbstractMatrix#findRows(int, java.lang.Object)
+	 */
+	@Override
+	public List<Integer> findRows(int col, Number o) {
+		List<Integer> rows = new Vector<Integer>();
+		if ((col < 0) || (col >= getSize().getCols()) || !(o instanceof java.lang.Number)) return rows;
+		double v = ((java.lang.Number)o).doubleValue();
+		for(int i=0;i<getSize().getRows();i++) {
+			if (getDouble(i, col) == v) rows.add(i);
+		}
+		return rows;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return (getSize().getRows() == 0) || (getSize().getCols() == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeRow(int)
+	 */
+	@Override
+	public boolean removeRow(int row) {
+		int rows = getSize().getRows();
+		if ((row < 0) || (row >= rows)) return false;
+		int from = rowPtr[row];
+		int n = rowPtr[row + 1] - from;
+		System.arraycopy(colIdx, from + n, colIdx, from, nnz - from - n);
+		System.arraycopy(vals, from + n, vals, from, nnz - from - n);
+		nnz -= n;
+		for(int i=row+1;i<rows;i++) {
+			rowPtr[i] = rowPtr[i + 1] - n;
+		}
+		setSize(new Size(rows - 1, getSize().getCols()));
+		filled = Math.min(filled, (long)(rows - 1)*getSize().getCols());
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#removeColumn(int)
+	 */
+	@Override
+	public boolean removeColumn(int col) {
+		int rows = getSize().getRows();
+		int cols = getSize().getCols();
+		if ((col < 0) || (col >= cols)) return false;
+		int n = 0;
+		int start = 0;
+		for(int i=0;i<rows;i++) {
+			int end = rowPtr[i + 1];
+			for(int k=start;k<end;k++) {
+				if (colIdx[k] == col) continue;
+				colIdx[n] = (colIdx[k] > col) ? colIdx[k] - 1 : colIdx[k];
+				vals[n++] = vals[k];
+			}
+			start = end;
+			rowPtr[i + 1] = n;
+		}
+		nnz = n;
+		setSize(new Size(rows, cols - 1));
+		filled = Math.min(filled, (long)rows*(cols - 1));
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.IMatrix#toString()
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		String separator = System.getProperty("line.separator");
+		int cols = getSize().getCols();
+		for(int i=0;i<getSize().getRows();i++) {
+			int k = rowPtr[i];
+			for(int j=0;j<cols;j++) {
+				if ((k < rowPtr[i+1]) && (colIdx[k] == j))
+					str.append(vals[k++]);
+				else
+					str.append(0.0);
+				if (j<cols-1)
+					str.append(',');
+			}
+			str.append(separator);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Save the matrix to the supplied file.
+	 * @param file
+	 * @return
+	 */
+	public boolean save(String file) {
+		return new MatrixChannelWriter().save(this, file);
+	}
+
+	/**
+	 * java.io.Serializable.readObject(ObjectInputStream is)
+	 */
+	private void readObject(java.io.ObjectInputStream is) throws ClassNotFoundException, java.io.IOException {
+		is.defaultReadObject();
+	}
+	/**
+	 * java.io.Serializable.writeObject(ObjectOutputStream os)
+	 */
+	private void writeObject(java.io.ObjectOutputStream os) throws ClassNotFoundException, java.io.IOException {
+		os.defaultWriteObject();
+	}
+}
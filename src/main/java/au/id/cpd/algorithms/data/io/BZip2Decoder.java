@@ -0,0 +1,495 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the blocks of a bzip2 stream, read either from an InputStream
+ * or from any bit of a ByteBuffer, so that blocks may be decoded apart.
+ *
+ * A block is read whole: its Huffman coded symbols are undone to the
+ * move to front indices and runs of zeros, then the Burrows Wheeler
+ * transform is inverted and the runs of four or more bytes expanded.
+ * The CRC of each block is checked. Randomised blocks, which bzip2 has
+ * not written since version 0.9.5, are not supported.
+ *
+ * @author cd
+ *
+ */
+class BZip2Decoder {
+
+	/**
+	 * The 48 bits starting each block, the digits of pi.
+	 */
+	static final long BLOCK_MAGIC = 0x314159265359L;
+
+	/**
+	 * The 48 bits ending each stream, the digits of the square root of pi.
+	 */
+	static final long END_MAGIC = 0x177245385090L;
+
+	/**
+	 * Bytes in a block of the largest block size, level 9.
+	 */
+	static final int MAX_BLOCK_SIZE = 900000;
+
+	private static final int RUNA = 0;
+
+	private static final int RUNB = 1;
+
+	private static final int MAX_GROUPS = 6;
+
+	private static final int GROUP_SIZE = 50;
+
+	private static final int MAX_CODE_LENGTH = 20;
+
+	private static final int MAX_ALPHA_SIZE = 258;
+
+	private static final int MAX_SELECTORS = 18002;
+
+	/**
+	 * CRC32 of bzip2, most significant bit first.
+	 */
+	private static final int[] CRC_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c = i << 24;
+			for (int k = 0; k < 8; k++) {
+				c = ((c & 0x80000000) != 0) ? (c << 1) ^ 0x04c11db7 : c << 1;
+			}
+			CRC_TABLE[i] = c;
+		}
+	}
+
+	private final InputStream in;
+
+	private final byte[] inBuf;
+
+	private int inPos;
+
+	private int inLimit;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Next byte of the buffer.
+	 */
+	private int position;
+
+	private long bitBuffer;
+
+	private int bitCount;
+
+	private int[] tt;
+
+	private final int[][] limit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+
+	private final int[][] base = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+
+	private final int[][] perm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+
+	private final int[] minLength = new int[MAX_GROUPS];
+
+	private final byte[] selectors = new byte[MAX_SELECTORS];
+
+	private final byte[][] lengths = new byte[MAX_GROUPS][MAX_ALPHA_SIZE];
+
+	private int blockCrc;
+
+	private int selectorCount;
+
+	/**
+	 * The group of symbols being decoded and the symbols left in it.
+	 */
+	private int group;
+
+	private int groupLeft;
+
+	private int[] groupLimit;
+
+	private int[] groupBase;
+
+	private int[] groupPerm;
+
+	private int groupMinLength;
+
+	/**
+	 * Read the stream from in.
+	 * @param in
+	 */
+	BZip2Decoder(InputStream in) {
+		this.in = in;
+		this.inBuf = new byte[1 << 16];
+		this.buffer = null;
+	}
+
+	/**
+	 * Read the buffer from a bit, counted from its first byte.
+	 * @param buffer
+	 * @param bit
+	 */
+	BZip2Decoder(ByteBuffer buffer, long bit) {
+		this.in = null;
+		this.inBuf = null;
+		this.buffer = buffer;
+		this.position = (int) (bit >>> 3);
+		int skip = (int) (bit & 7);
+		if (skip > 0) {
+			bitBuffer = buffer.get(position++) & 0xff;
+			bitCount = 8 - skip;
+		}
+	}
+
+	/**
+	 * @return the bit of the buffer read next.
+	 */
+	long bitPosition() {
+		return ((long) position << 3) - bitCount;
+	}
+
+	/**
+	 * Read the "BZh" and block size level starting a stream.
+	 *
+	 * @return the largest bytes in a block or -1 at the end of the input.
+	 * @throws IOException if the input is not a bzip2 stream.
+	 */
+	int readHeader() throws IOException {
+		int b = nextByte();
+		if (b < 0)
+			return -1;
+		if ((b != 'B') || (nextByte() != 'Z') || (nextByte() != 'h'))
+			throw new IOException("Not a bzip2 stream");
+		int level = nextByte() - '0';
+		if ((level < 1) || (level > 9))
+			throw new IOException("Bad bzip2 block size " + level);
+		return level * 100000;
+	}
+
+	/**
+	 * @return the 48 bits starting a block or ending the stream.
+	 */
+	long readMagic() throws IOException {
+		return ((long) bits(24) << 24) | bits(24);
+	}
+
+	/**
+	 * @return the next 32 bits.
+	 */
+	int readInt() throws IOException {
+		return (bits(16) << 16) | bits(16);
+	}
+
+	/**
+	 * Skip to the start of the next byte, as at the end of a stream.
+	 */
+	void alignToByte() {
+		bitCount -= bitCount & 7;
+	}
+
+	/**
+	 * @return the CRC of the last block decoded.
+	 */
+	int getBlockCrc() {
+		return blockCrc;
+	}
+
+	/**
+	 * Combine the CRC of a block into that of the stream.
+	 */
+	static int combineCrc(int streamCrc, int blockCrc) {
+		return ((streamCrc << 1) | (streamCrc >>> 31)) ^ blockCrc;
+	}
+
+	private int nextByte() throws IOException {
+		if (buffer != null)
+			return (position < buffer.limit()) ? (buffer.get(position++) & 0xff) : -1;
+		if (inPos == inLimit) {
+			inLimit = in.read(inBuf, 0, inBuf.length);
+			inPos = 0;
+			if (inLimit <= 0) {
+				inLimit = 0;
+				return -1;
+			}
+		}
+		return inBuf[inPos++] & 0xff;
+	}
+
+	/**
+	 * @param n no more than 24.
+	 * @return the next n bits.
+	 */
+	private int bits(int n) throws IOException {
+		while (bitCount < n) {
+			int b = nextByte();
+			if (b < 0)
+				throw new EOFException("Unexpected end of bzip2 stream");
+			bitBuffer = (bitBuffer << 8) | b;
+			bitCount += 8;
+		}
+		bitCount -= n;
+		return (int) (bitBuffer >>> bitCount) & ((1 << n) - 1);
+	}
+
+	private boolean bit() throws IOException {
+		return bits(1) != 0;
+	}
+
+	/**
+	 * Decode the block following its magic.
+	 *
+	 * @param blockSize the largest bytes in the block before the
+	 *            transform, from the stream header.
+	 * @return the bytes of the block.
+	 * @throws IOException if the block is corrupt.
+	 */
+	byte[] decodeBlock(int blockSize) throws IOException {
+		int storedCrc = readInt();
+		if (bit())
+			throw new IOException("Randomised bzip2 blocks are not supported");
+		int origPtr = bits(24);
+
+		// the bytes used in the block.
+		byte[] seqToUnseq = new byte[256];
+		int inUse = 0;
+		int used = bits(16);
+		for (int i = 0; i < 16; i++) {
+			if ((used & (0x8000 >>> i)) == 0)
+				continue;
+			int u = bits(16);
+			for (int j = 0; j < 16; j++) {
+				if ((u & (0x8000 >>> j)) != 0)
+					seqToUnseq[inUse++] = (byte) (i * 16 + j);
+			}
+		}
+		if (inUse == 0)
+			throw new IOException("bzip2 block uses no bytes");
+		int alphaSize = inUse + 2;
+
+		// the coding table chosen for each group of symbols.
+		int groups = bits(3);
+		int selectorCount = bits(15);
+		if ((groups < 2) || (groups > MAX_GROUPS) || (selectorCount < 1))
+			throw new IOException("Bad bzip2 coding tables");
+		byte[] order = { 0, 1, 2, 3, 4, 5 };
+		for (int i = 0; i < selectorCount; i++) {
+			int j = 0;
+			while (bit()) {
+				if (++j >= groups)
+					throw new IOException("Bad bzip2 selector");
+			}
+			byte v = order[j];
+			for (; j > 0; j--) {
+				order[j] = order[j - 1];
+			}
+			order[0] = v;
+			if (i < MAX_SELECTORS)
+				selectors[i] = v;
+		}
+		selectorCount = Math.min(selectorCount, MAX_SELECTORS);
+
+		// the code lengths of each table, as differences.
+		for (int t = 0; t < groups; t++) {
+			int length = bits(5);
+			for (int i = 0; i < alphaSize; i++) {
+				for (;;) {
+					if ((length < 1) || (length > MAX_CODE_LENGTH))
+						throw new IOException("Bad bzip2 code length");
+					if (!bit())
+						break;
+					length += bit() ? -1 : 1;
+				}
+				lengths[t][i] = (byte) length;
+			}
+			createDecodeTable(t, alphaSize);
+		}
+
+		// undo the huffman codes, the runs of zeros and the move to front.
+		if ((tt == null) || (tt.length < blockSize))
+			tt = new int[blockSize];
+		int[] counts = new int[256];
+		byte[] mtf = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			mtf[i] = (byte) i;
+		}
+		int endOfBlock = inUse + 1;
+		int count = 0;
+		this.selectorCount = selectorCount;
+		group = -1;
+		groupLeft = 0;
+		int sym = -1;
+		boolean next = true;
+		for (;;) {
+			if (next) {
+				sym = nextSymbol();
+			}
+			next = true;
+			if (sym == endOfBlock)
+				break;
+			if ((sym == RUNA) || (sym == RUNB)) {
+				int run = 0;
+				int weight = 1;
+				do {
+					run += (sym == RUNA) ? weight : 2 * weight;
+					weight <<= 1;
+					if (weight > blockSize)
+						throw new IOException("bzip2 run is too long");
+					sym = nextSymbol();
+				} while ((sym == RUNA) || (sym == RUNB));
+				int b = seqToUnseq[mtf[0] & 0xff] & 0xff;
+				if (count + run > blockSize)
+					throw new IOException("bzip2 block is too long");
+				counts[b] += run;
+				for (int k = 0; k < run; k++) {
+					tt[count++] = b;
+				}
+				// sym is the symbol after the run.
+				next = false;
+				continue;
+			}
+			if (count >= blockSize)
+				throw new IOException("bzip2 block is too long");
+			int k = sym - 1;
+			byte v = mtf[k];
+			System.arraycopy(mtf, 0, mtf, 1, k);
+			mtf[0] = v;
+			int b = seqToUnseq[v & 0xff] & 0xff;
+			counts[b]++;
+			tt[count++] = b;
+		}
+		if (origPtr >= count)
+			throw new IOException("Bad bzip2 block origin");
+
+		// invert the transform, linking each byte to the one after it.
+		int[] start = new int[256];
+		for (int i = 1; i < 256; i++) {
+			start[i] = start[i - 1] + counts[i - 1];
+		}
+		for (int i = 0; i < count; i++) {
+			int b = tt[i] & 0xff;
+			tt[start[b]++] |= i << 8;
+		}
+		byte[] out = new byte[count + (count >>> 2) + 16];
+		int length = 0;
+		int crc = 0xffffffff;
+		int t = tt[origPtr] >>> 8;
+		int last = -1;
+		int repeated = 0;
+		for (int i = 0; i < count; i++) {
+			t = tt[t];
+			int b = t & 0xff;
+			t >>>= 8;
+			if (repeated == 4) {
+				// b counts the further copies of the last byte.
+				if (length + b > out.length)
+					out = grow(out, length + b);
+				for (int k = 0; k < b; k++) {
+					out[length++] = (byte) last;
+					crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ last) & 0xff];
+				}
+				repeated = 0;
+				last = -1;
+				continue;
+			}
+			if (b == last) {
+				repeated++;
+			} else {
+				last = b;
+				repeated = 1;
+			}
+			if (length == out.length)
+				out = grow(out, length + 1);
+			out[length++] = (byte) b;
+			crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xff];
+		}
+		blockCrc = ~crc;
+		if (blockCrc != storedCrc)
+			throw new IOException("bzip2 block CRC mismatch");
+		if (length == out.length)
+			return out;
+		byte[] result = new byte[length];
+		System.arraycopy(out, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * @return the next huffman coded symbol of the block.
+	 */
+	private int nextSymbol() throws IOException {
+		if (groupLeft == 0) {
+			if (++group >= selectorCount)
+				throw new IOException("bzip2 block has too few selectors");
+			groupLeft = GROUP_SIZE;
+			int t = selectors[group];
+			groupLimit = limit[t];
+			groupBase = base[t];
+			groupPerm = perm[t];
+			groupMinLength = minLength[t];
+		}
+		groupLeft--;
+		int n = groupMinLength;
+		int code = bits(n);
+		while (code > groupLimit[n]) {
+			if (++n > MAX_CODE_LENGTH)
+				throw new IOException("Bad bzip2 huffman code");
+			code = (code << 1) | bits(1);
+		}
+		int index = code - groupBase[n];
+		if ((index < 0) || (index >= MAX_ALPHA_SIZE))
+			throw new IOException("Bad bzip2 huffman code");
+		return groupPerm[index];
+	}
+
+	private static byte[] grow(byte[] out, int needed) {
+		byte[] tmp = new byte[Math.max(needed, out.length * 2)];
+		System.arraycopy(out, 0, tmp, 0, out.length);
+		return tmp;
+	}
+
+	/**
+	 * Build the canonical huffman decoding table of group t.
+	 * A code of n bits is the symbol perm[code - base[n]] when it is no
+	 * greater than limit[n].
+	 */
+	private void createDecodeTable(int t, int alphaSize) {
+		byte[] length = lengths[t];
+		int[] lim = limit[t];
+		int[] bas = base[t];
+		int[] per = perm[t];
+		int min = MAX_CODE_LENGTH;
+		int max = 0;
+		for (int i = 0; i < alphaSize; i++) {
+			min = Math.min(min, length[i]);
+			max = Math.max(max, length[i]);
+		}
+		int p = 0;
+		for (int n = min; n <= max; n++) {
+			for (int i = 0; i < alphaSize; i++) {
+				if (length[i] == n)
+					per[p++] = i;
+			}
+		}
+		int[] codes = new int[MAX_CODE_LENGTH + 2];
+		for (int i = 0; i < alphaSize; i++) {
+			codes[length[i] + 1]++;
+		}
+		for (int n = 1; n < codes.length; n++) {
+			codes[n] += codes[n - 1];
+		}
+		// codes[n] is now the number of symbols with codes shorter than n.
+		java.util.Arrays.fill(lim, -1);
+		int code = 0;
+		for (int n = min; n <= max; n++) {
+			code += codes[n + 1] - codes[n];
+			lim[n] = code - 1;
+			code <<= 1;
+		}
+		for (int n = min; n <= max; n++) {
+			bas[n] = (n == min) ? codes[n] : ((lim[n - 1] + 1) << 1) - codes[n];
+		}
+		minLength[t] = min;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+
+/**
+ * Reads the bytes of bzip2 compressed input a block at a time.
+ *
+ * Streams that follow one another, as written by parallel bzip2
+ * compressors, are read as one. Input following the last stream that
+ * does not start another is ignored, as by bzip2 itself.
+ *
+ * @author cd
+ *
+ */
+public class BZip2InputStream extends InputStream {
+
+	private final InputStream in;
+
+	private final BZip2Decoder decoder;
+
+	/**
+	 * Largest bytes of a block of the current stream.
+	 */
+	private int blockSize;
+
+	private int streamCrc;
+
+	private byte[] block = new byte[0];
+
+	private int position;
+
+	private boolean done;
+
+	/**
+	 * @param in the compressed input, closed with this stream.
+	 * @throws IOException if the input is not a bzip2 stream.
+	 */
+	public BZip2InputStream(InputStream in) throws IOException {
+		this.in = in;
+		this.decoder = new BZip2Decoder(in);
+		blockSize = decoder.readHeader();
+		if (blockSize < 0)
+			throw new EOFException("Empty bzip2 input");
+	}
+
+	/**
+	 * Decode the next block.
+	 * @return false at the end of the input.
+	 */
+	private boolean nextBlock() throws IOException {
+		while (!done) {
+			long magic = decoder.readMagic();
+			if (magic == BZip2Decoder.BLOCK_MAGIC) {
+				block = decoder.decodeBlock(blockSize);
+				position = 0;
+				streamCrc = BZip2Decoder.combineCrc(streamCrc, decoder.getBlockCrc());
+				return true;
+			}
+			if (magic != BZip2Decoder.END_MAGIC)
+				throw new IOException("Bad bzip2 block");
+			if (decoder.readInt() != streamCrc)
+				throw new IOException("bzip2 stream CRC mismatch");
+			decoder.alignToByte();
+			streamCrc = 0;
+			try {
+				blockSize = decoder.readHeader();
+			} catch (IOException e) {
+				// not another stream.
+				blockSize = -1;
+			}
+			done = blockSize < 0;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException {
+		if ((position == block.length) && !nextBlock())
+			return -1;
+		return block[position++] & 0xff;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == block.length) {
+			if (!nextBlock())
+				return -1;
+		}
+		int n = Math.min(len, block.length - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() {
+		return block.length - position;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#close()
+	 */
+	public void close() throws IOException {
+		done = true;
+		block = new byte[0];
+		position = 0;
+		in.close();
+	}
+}
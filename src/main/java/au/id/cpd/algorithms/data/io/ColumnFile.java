@@ -0,0 +1,485 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * A .jcol file holding a matrix by column, written by ColumnFileWriter.
+ *
+ * The file is opened by reading its header and the directory of its
+ * columns, the cells of a column are mapped only when the column is
+ * read, so a few columns of a large file are read without reading the
+ * rest.
+ *
+ * Each column is a run of blocks of block rows cells. A column is stored
+ * as the smallest type that holds each of its values exactly, INT8, INT32,
+ * FLOAT32 or FLOAT64, and a block may be compressed with deflate. The
+ * least and greatest value of each column and of each block are kept in
+ * the directory.
+ *
+ * The file starts with a 64 byte header, big endian, holding by byte offset:
+ *
+ * <pre>
+ *  0  magic "JCOL"
+ *  4  version (short)
+ *  6  byte order of the cells, BIG_ENDIAN or LITTLE_ENDIAN
+ *  8  rows (int)
+ * 12  columns (int)
+ * 16  block rows (int)
+ * 24  offset of the directory (long)
+ * 32  reserved, zero
+ * </pre>
+ *
+ * The directory holds for each column its type, a reserved byte and
+ * short, the number of blocks, and its least and greatest value, then for
+ * each block its offset, its length in the file, its flags and its least
+ * and greatest value.
+ *
+ * @author cd
+ *
+ */
+public class ColumnFile implements Closeable {
+
+	/**
+	 * Bytes in the header.
+	 */
+	public static final int HEADER_SIZE = 64;
+
+	/**
+	 * "JCOL"
+	 */
+	public static final int MAGIC = 0x4A434F4C;
+
+	public static final short VERSION = 1;
+
+	/**
+	 * Bytes, for integers from -128 to 127.
+	 */
+	public static final byte INT8 = 1;
+
+	/**
+	 * 4 byte integers.
+	 */
+	public static final byte INT32 = 2;
+
+	/**
+	 * 4 byte floats.
+	 */
+	public static final byte FLOAT32 = 3;
+
+	/**
+	 * 8 byte doubles.
+	 */
+	public static final byte FLOAT64 = 4;
+
+	/**
+	 * Flag of a block compressed with deflate.
+	 */
+	public static final int DEFLATE = 1;
+
+	/**
+	 * Bytes in the directory entry of a column.
+	 */
+	static final int COLUMN_ENTRY_SIZE = 24;
+
+	/**
+	 * Bytes in the directory entry of a block.
+	 */
+	static final int BLOCK_ENTRY_SIZE = 32;
+
+	private final String fileName;
+
+	private RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final ByteOrder byteOrder;
+
+	private final int rows;
+
+	private final int cols;
+
+	private final int blockRows;
+
+	private final byte[] types;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	private final long[][] blockOffsets;
+
+	private final int[][] blockLengths;
+
+	private final int[][] blockFlags;
+
+	private final double[][] blockMin;
+
+	private final double[][] blockMax;
+
+	/**
+	 * The cells of each column once mapped.
+	 */
+	private final MappedByteBuffer[] maps;
+
+	private ColumnFile(String fileName, RandomAccessFile file, ByteBuffer header, ByteBuffer directory) {
+		this.fileName = fileName;
+		this.file = file;
+		this.channel = file.getChannel();
+		this.byteOrder = (header.get(6) == MatrixFileHeader.LITTLE_ENDIAN) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		this.rows = header.getInt(8);
+		this.cols = header.getInt(12);
+		this.blockRows = header.getInt(16);
+		types = new byte[cols];
+		min = new double[cols];
+		max = new double[cols];
+		blockOffsets = new long[cols][];
+		blockLengths = new int[cols][];
+		blockFlags = new int[cols][];
+		blockMin = new double[cols][];
+		blockMax = new double[cols][];
+		maps = new MappedByteBuffer[cols];
+		for (int j = 0; j < cols; j++) {
+			types[j] = directory.get();
+			directory.get();
+			directory.getShort();
+			int blocks = directory.getInt();
+			min[j] = directory.getDouble();
+			max[j] = directory.getDouble();
+			blockOffsets[j] = new long[blocks];
+			blockLengths[j] = new int[blocks];
+			blockFlags[j] = new int[blocks];
+			blockMin[j] = new double[blocks];
+			blockMax[j] = new double[blocks];
+			for (int b = 0; b < blocks; b++) {
+				blockOffsets[j][b] = directory.getLong();
+				blockLengths[j][b] = directory.getInt();
+				blockFlags[j][b] = directory.getInt();
+				blockMin[j][b] = directory.getDouble();
+				blockMax[j][b] = directory.getDouble();
+			}
+		}
+	}
+
+	/**
+	 * Open a .jcol file, reading only its header and directory.
+	 *
+	 * @param name
+	 * @return the file or null if it cannot be read.
+	 */
+	public static ColumnFile open(String name) {
+		RandomAccessFile f = null;
+		try {
+			f = new RandomAccessFile(name, "r");
+			FileChannel channel = f.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != MAGIC) {
+				System.err.println(name + " is not a column file");
+				f.close();
+				return null;
+			}
+			if (header.getShort(4) > VERSION) {
+				System.err.println("Column file version " + header.getShort(4) + " is newer than " + VERSION);
+			}
+			long offset = header.getLong(24);
+			ByteBuffer directory = ByteBuffer.allocate((int) (channel.size() - offset));
+			readFully(channel, directory, offset);
+			directory.flip();
+			return new ColumnFile(name, f, header, directory);
+		} catch (Exception e) {
+			e.printStackTrace();
+			try {
+				if (f != null)
+					f.close();
+			} catch (IOException x) {
+			}
+		}
+		return null;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * A column as a rows x 1 matrix.
+	 *
+	 * A column of doubles that is not compressed is mapped from the file
+	 * without being copied, it cannot be changed and the caller closes it
+	 * to unmap it. Other columns are read into a DenseMatrix.
+	 *
+	 * @param col
+	 * @return the column or null if it cannot be read.
+	 */
+	public IMatrix<Double> column(int col) {
+		if ((col < 0) || (col >= cols))
+			return null;
+		try {
+			if (isMappable(col))
+				return OffHeapMatrix.map(channel, FileChannel.MapMode.READ_ONLY, blockOffsets[col][0], byteOrder, rows, 1);
+			DenseMatrix<Double> m = new DenseMatrix<Double>(rows, 1);
+			readColumn(col, m.getValues(), 0, 1);
+			return m;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Read the columns into a new row major matrix.
+	 *
+	 * @param columns
+	 * @return the matrix or null if a column cannot be read.
+	 */
+	public DenseMatrix<Double> columns(int[] columns) {
+		DenseMatrix<Double> m = new DenseMatrix<Double>(rows, columns.length);
+		try {
+			for (int k = 0; k < columns.length; k++) {
+				readColumn(columns[k], m.getValues(), k, columns.length);
+			}
+			return m;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Read a column into values, the cell of row i to off + i * ld.
+	 *
+	 * @param col
+	 * @param values
+	 * @param off
+	 * @param ld
+	 * @throws IOException
+	 */
+	public void readColumn(int col, double[] values, int off, int ld) throws IOException {
+		byte type = types[col];
+		int size = typeSize(type);
+		byte[] inflated = null;
+		for (int b = 0; b < blockOffsets[col].length; b++) {
+			int first = b * blockRows;
+			int n = Math.min(blockRows, rows - first);
+			ByteBuffer block = block(col, b);
+			if ((blockFlags[col][b] & DEFLATE) != 0) {
+				if (inflated == null)
+					inflated = new byte[blockRows * size];
+				inflate(block, inflated, n * size);
+				block = ByteBuffer.wrap(inflated).order(byteOrder);
+			}
+			decode(type, block, n, values, off + first * ld, ld);
+		}
+	}
+
+	/**
+	 * The bytes of a block of a column as held in the file,
+	 * the column is mapped when first read.
+	 */
+	private ByteBuffer block(int col, int b) throws IOException {
+		long start = blockOffsets[col][0];
+		int last = blockOffsets[col].length - 1;
+		long extent = blockOffsets[col][last] + blockLengths[col][last] - start;
+		if (extent > Integer.MAX_VALUE) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[col][b], blockLengths[col][b]).order(byteOrder);
+		}
+		MappedByteBuffer map;
+		synchronized (maps) {
+			map = maps[col];
+			if (map == null) {
+				map = channel.map(FileChannel.MapMode.READ_ONLY, start, extent);
+				maps[col] = map;
+			}
+		}
+		ByteBuffer block = map.duplicate();
+		int position = (int) (blockOffsets[col][b] - start);
+		block.limit(position + blockLengths[col][b]);
+		block.position(position);
+		return block.slice().order(byteOrder);
+	}
+
+	private static void inflate(ByteBuffer block, byte[] out, int length) throws IOException {
+		byte[] in = new byte[block.remaining()];
+		block.get(in);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			int n = 0;
+			while ((n < length) && !inflater.finished()) {
+				int k = inflater.inflate(out, n, length - n);
+				if ((k == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += k;
+			}
+			if (n != length)
+				throw new IOException("Block inflated to " + n + " bytes, expected " + length);
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void decode(byte type, ByteBuffer block, int n, double[] values, int off, int ld) {
+		switch (type) {
+		case INT8:
+			for (int i = 0; i < n; i++) {
+				values[off + i * ld] = block.get(i);
+			}
+			break;
+		case INT32:
+			for (int i = 0; i < n; i++) {
+				values[off + i * ld] = block.getInt(4 * i);
+			}
+			break;
+		case FLOAT32:
+			for (int i = 0; i < n; i++) {
+				values[off + i * ld] = block.getFloat(4 * i);
+			}
+			break;
+		default:
+			if (ld == 1) {
+				DoubleBuffer d = block.asDoubleBuffer();
+				d.get(values, off, n);
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				values[off + i * ld] = block.getDouble(8 * i);
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes of a value of the type.
+	 */
+	static int typeSize(byte type) {
+		switch (type) {
+		case INT8:
+			return 1;
+		case INT32:
+		case FLOAT32:
+			return 4;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * @param col
+	 * @return true if the column is mapped without a copy by column(col).
+	 */
+	public boolean isMappable(int col) {
+		if ((types[col] != FLOAT64) || (rows == 0))
+			return false;
+		for (int b = 0; b < blockFlags[col].length; b++) {
+			if ((blockFlags[col][b] & DEFLATE) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Unmap the columns read and close the file. Columns returned by
+	 * column(col) remain open.
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() {
+		synchronized (maps) {
+			for (int j = 0; j < maps.length; j++) {
+				if (maps[j] != null)
+					DirectBuffers.free(maps[j]);
+				maps[j] = null;
+			}
+		}
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			file = null;
+		}
+	}
+
+	/**
+	 * @return the rows and columns of the matrix.
+	 */
+	public Size getSize() {
+		return new Size(rows, cols);
+	}
+
+	/**
+	 * @return the rows in a block of a column.
+	 */
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	/**
+	 * @param col
+	 * @return the type the column is stored as.
+	 */
+	public byte getType(int col) {
+		return types[col];
+	}
+
+	/**
+	 * @param col
+	 * @return the least value of the column.
+	 */
+	public double getMin(int col) {
+		return min[col];
+	}
+
+	/**
+	 * @param col
+	 * @return the greatest value of the column.
+	 */
+	public double getMax(int col) {
+		return max[col];
+	}
+
+	/**
+	 * @param col
+	 * @return the number of blocks of the column.
+	 */
+	public int getBlockCount(int col) {
+		return blockOffsets[col].length;
+	}
+
+	/**
+	 * @param col
+	 * @param block
+	 * @return the least value of the block.
+	 */
+	public double getBlockMin(int col, int block) {
+		return blockMin[col][block];
+	}
+
+	/**
+	 * @param col
+	 * @param block
+	 * @return the greatest value of the block.
+	 */
+	public double getBlockMax(int col, int block) {
+		return blockMax[col][block];
+	}
+
+	/**
+	 * @return the name of the file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+}
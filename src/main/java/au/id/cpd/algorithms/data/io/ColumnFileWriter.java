@@ -0,0 +1,306 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Writes a matrix to a .jcol file, described by ColumnFile.
+ *
+ * Each column is read twice, once to find the smallest type that holds
+ * its values exactly and their range, and once to write its blocks.
+ *
+ * @author cd
+ *
+ */
+public class ColumnFileWriter {
+
+	/**
+	 * Rows in a block by default.
+	 */
+	public static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+
+	private int blockRows = DEFAULT_BLOCK_ROWS;
+
+	/**
+	 * Whether blocks are compressed.
+	 */
+	private boolean compress;
+
+	/**
+	 * Whether columns may be stored as integers or floats.
+	 */
+	private boolean narrow = true;
+
+	private ByteOrder byteOrder = ByteOrder.nativeOrder();
+
+	/**
+	 * Write a file of uncompressed blocks, narrowing the types of columns.
+	 */
+	public ColumnFileWriter() {
+	}
+
+	/**
+	 * Read a delimited file with a ParallelCsvLoader and save it as a
+	 * column file, so that later runs do not parse the text.
+	 *
+	 * @param csvFile
+	 * @param file
+	 * @return false if either file cannot be read or written.
+	 */
+	public boolean convert(String csvFile, String file) {
+		MatrixBuffer<Double> m = new ParallelCsvLoader(csvFile).loadBuffer();
+		if (m == null)
+			return false;
+		try {
+			return save(m, file);
+		} finally {
+			m.close();
+		}
+	}
+
+	/**
+	 * Save the matrix to a file, replacing it.
+	 *
+	 * @param matrix
+	 * @param file
+	 * @return false if the file cannot be written.
+	 */
+	public boolean save(IMatrix matrix, String file) {
+		RandomAccessFile f = null;
+		try {
+			f = new RandomAccessFile(file, "rw");
+			f.setLength(0);
+			write(matrix, f.getChannel());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (f != null) {
+				try {
+					f.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Write the matrix from the start of the channel.
+	 *
+	 * @param matrix
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void write(IMatrix matrix, FileChannel channel) throws IOException {
+		int rows = matrix.getSize().getRows();
+		int cols = matrix.getSize().getCols();
+		int blocks = (rows + blockRows - 1) / blockRows;
+		ByteBuffer directory = ByteBuffer.allocate(cols * (ColumnFile.COLUMN_ENTRY_SIZE + blocks * ColumnFile.BLOCK_ENTRY_SIZE));
+		double[] values = new double[Math.min(rows, blockRows)];
+		ByteBuffer raw = ByteBuffer.allocate(values.length * 8).order(byteOrder);
+		byte[] deflated = new byte[raw.capacity() + 64];
+		Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+		long position = ColumnFile.HEADER_SIZE;
+		try {
+			for (int j = 0; j < cols; j++) {
+				// find the type and the range of the column.
+				double lo = Double.POSITIVE_INFINITY;
+				double hi = Double.NEGATIVE_INFINITY;
+				boolean bytes = narrow;
+				boolean ints = narrow;
+				boolean floats = narrow;
+				for (int b = 0; b < blocks; b++) {
+					int n = readColumn(matrix, j, b * blockRows, values);
+					for (int i = 0; i < n; i++) {
+						double v = values[i];
+						lo = Math.min(lo, v);
+						hi = Math.max(hi, v);
+						if (ints && ((v != (int) v) || (Double.doubleToRawLongBits(v) == Long.MIN_VALUE))) {
+							ints = false;
+							bytes = false;
+						}
+						if (bytes && ((v < Byte.MIN_VALUE) || (v > Byte.MAX_VALUE)))
+							bytes = false;
+						if (floats && (Double.compare((double) (float) v, v) != 0))
+							floats = false;
+					}
+				}
+				byte type = bytes ? ColumnFile.INT8 : ints ? ColumnFile.INT32 : floats ? ColumnFile.FLOAT32 : ColumnFile.FLOAT64;
+				directory.put(type);
+				directory.put((byte) 0);
+				directory.putShort((short) 0);
+				directory.putInt(blocks);
+				directory.putDouble(lo);
+				directory.putDouble(hi);
+				// blocks of doubles start on a multiple of 8 bytes.
+				position = (position + 7) & ~7L;
+				for (int b = 0; b < blocks; b++) {
+					int n = readColumn(matrix, j, b * blockRows, values);
+					raw.clear();
+					double blockLo = Double.POSITIVE_INFINITY;
+					double blockHi = Double.NEGATIVE_INFINITY;
+					for (int i = 0; i < n; i++) {
+						double v = values[i];
+						blockLo = Math.min(blockLo, v);
+						blockHi = Math.max(blockHi, v);
+						encode(type, v, raw);
+					}
+					raw.flip();
+					ByteBuffer out = raw;
+					int flags = 0;
+					if (deflater != null) {
+						deflater.reset();
+						deflater.setInput(raw.array(), 0, raw.limit());
+						deflater.finish();
+						int length = 0;
+						while (!deflater.finished() && (length < deflated.length)) {
+							length += deflater.deflate(deflated, length, deflated.length - length);
+						}
+						// keep the block only if it is worth inflating.
+						if (deflater.finished() && (length < raw.limit() - raw.limit() / 8)) {
+							out = ByteBuffer.wrap(deflated, 0, length);
+							flags = ColumnFile.DEFLATE;
+						}
+					}
+					int length = out.remaining();
+					directory.putLong(position);
+					directory.putInt(length);
+					directory.putInt(flags);
+					directory.putDouble(blockLo);
+					directory.putDouble(blockHi);
+					while (out.hasRemaining()) {
+						position += channel.write(out, position);
+					}
+				}
+			}
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+		directory.flip();
+		long offset = position;
+		while (directory.hasRemaining()) {
+			position += channel.write(directory, position);
+		}
+		ByteBuffer header = ByteBuffer.allocate(ColumnFile.HEADER_SIZE);
+		header.putInt(0, ColumnFile.MAGIC);
+		header.putShort(4, ColumnFile.VERSION);
+		header.put(6, (byteOrder == ByteOrder.LITTLE_ENDIAN) ? MatrixFileHeader.LITTLE_ENDIAN : MatrixFileHeader.BIG_ENDIAN);
+		header.putInt(8, rows);
+		header.putInt(12, cols);
+		header.putInt(16, blockRows);
+		header.putLong(24, offset);
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	private static void encode(byte type, double v, ByteBuffer out) {
+		switch (type) {
+		case ColumnFile.INT8:
+			out.put((byte) v);
+			break;
+		case ColumnFile.INT32:
+			out.putInt((int) v);
+			break;
+		case ColumnFile.FLOAT32:
+			out.putFloat((float) v);
+			break;
+		default:
+			out.putDouble(v);
+		}
+	}
+
+	/**
+	 * Copy the cells of column col from row first into values.
+	 * @return the number of cells copied.
+	 */
+	private static int readColumn(IMatrix m, int col, int first, double[] values) {
+		int rows = m.getSize().getRows();
+		int cols = m.getSize().getCols();
+		int n = Math.min(values.length, rows - first);
+		if (m instanceof DenseMatrix) {
+			double[] d = ((DenseMatrix) m).getValues();
+			for (int i = 0; i < n; i++) {
+				values[i] = d[(first + i) * cols + col];
+			}
+			return n;
+		}
+		if ((m instanceof MatrixBuffer) && ((MatrixBuffer) m).readBlock(first, col, n, 1, values))
+			return n;
+		if ((m instanceof OffHeapMatrix) && ((OffHeapMatrix) m).readBlock(first, col, n, 1, values))
+			return n;
+		for (int i = 0; i < n; i++) {
+			Object v = m.get(first + i, col);
+			values[i] = (v == null) ? 0.0 : ((java.lang.Number) v).doubleValue();
+		}
+		return n;
+	}
+
+	/**
+	 * @return the rows in a block.
+	 */
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	/**
+	 * @param blockRows the rows in a block.
+	 */
+	public void setBlockRows(int blockRows) {
+		this.blockRows = Math.max(1, blockRows);
+	}
+
+	/**
+	 * @return whether blocks are compressed with deflate.
+	 */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * @param compress whether blocks are compressed with deflate,
+	 *            a compressed column is read with a copy.
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * @return whether columns may be stored as integers or floats.
+	 */
+	public boolean isNarrow() {
+		return narrow;
+	}
+
+	/**
+	 * @param narrow whether columns whose values are all integers or floats
+	 *            are stored as such, only columns of doubles are read
+	 *            without a copy.
+	 */
+	public void setNarrow(boolean narrow) {
+		this.narrow = narrow;
+	}
+
+	/**
+	 * @return the byte order of the cells.
+	 */
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * @param byteOrder the byte order of the cells, native by default.
+	 */
+	public void setByteOrder(ByteOrder byteOrder) {
+		this.byteOrder = byteOrder;
+	}
+}
@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+
+/**
+ * Reads delimited numbers a row at a time into a sink.
+ *
+ * The input is read in blocks and each field is parsed straight from the
+ * bytes into a double, no line or field strings are made, so the memory
+ * used is a block of input and one row of values however large the file.
+ *
+ * The first row sets the number of columns. Later rows with fewer fields
+ * are padded with zero and extra fields are ignored. Fields that are not
+ * numbers read as zero. Blank lines are skipped.
+ *
+ * A field may be quoted, a delimiter between the quotes is part of the
+ * field rather than the start of the next one. The quotes themselves are
+ * dropped. A quoted field ends at the end of its line, so that every line
+ * is a row and a file can be split at any new line.
+ *
+ * @author cd
+ *
+ */
+public class CsvParser {
+
+	/**
+	 * Bytes read from the input at a time.
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Exact powers of ten, a double holds 10^22 without rounding.
+	 */
+	private static final double[] POWERS = new double[23];
+
+	static {
+		POWERS[0] = 1.0;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i - 1] * 10.0;
+		}
+	}
+
+	private final InputStream in;
+
+	private final Reader reader;
+
+	private char delimiter = ',';
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+
+	/**
+	 * Characters read from a Reader before they are narrowed to buf.
+	 */
+	private char[] chars;
+
+	/**
+	 * The current field.
+	 */
+	private byte[] field = new byte[64];
+
+	private int fieldLength;
+
+	/**
+	 * Whether the input is between quotes.
+	 */
+	private boolean quoted;
+
+	/**
+	 * Whether the last field was empty or white space.
+	 */
+	private boolean blank;
+
+	/**
+	 * The values of the current row.
+	 */
+	private double[] values = new double[16];
+
+	/**
+	 * Fields in the current row.
+	 */
+	private int count;
+
+	/**
+	 * Columns in a row, -1 until the first row is read.
+	 */
+	private int cols = -1;
+
+	/**
+	 * Read bytes from the stream.
+	 * @param in
+	 */
+	public CsvParser(InputStream in) {
+		this.in = in;
+		this.reader = null;
+	}
+
+	/**
+	 * Read characters from the reader.
+	 * @param reader
+	 */
+	public CsvParser(Reader reader) {
+		this.in = null;
+		this.reader = reader;
+		this.chars = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * @param delimiter the character between fields, ',' by default.
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * Fix the number of columns rather than take it from the first row,
+	 * as when the input starts part way through a file.
+	 * @param cols
+	 */
+	public void setColumns(int cols) {
+		this.cols = cols;
+	}
+
+	/**
+	 * @return the number of columns, -1 before the first row is read.
+	 */
+	public int getColumns() {
+		return cols;
+	}
+
+	/**
+	 * Read every row into the sink.
+	 *
+	 * @param sink
+	 * @return the number of rows read.
+	 * @throws IOException
+	 */
+	public int parse(IRowSink sink) throws IOException {
+		int rows = 0;
+		byte delim = (byte) delimiter;
+		int n;
+		read:
+		while ((n = fill()) > 0) {
+			for (int i = 0; i < n; i++) {
+				byte b = buf[i];
+				if (b == '\n') {
+					quoted = false;
+					endField();
+					if (endRow()) {
+						if (!sink.row(rows++, values, cols))
+							break read;
+					}
+				} else if (b == '"') {
+					quoted = !quoted;
+				} else if ((b == delim) && !quoted) {
+					endField();
+				} else {
+					if (fieldLength == field.length) {
+						byte[] tmp = new byte[field.length * 2];
+						System.arraycopy(field, 0, tmp, 0, fieldLength);
+						field = tmp;
+					}
+					field[fieldLength++] = b;
+				}
+			}
+		}
+		// the last line may not end in a new line.
+		if ((n <= 0) && ((count > 0) || (fieldLength > 0))) {
+			endField();
+			if (endRow())
+				sink.row(rows++, values, cols);
+		}
+		sink.end(rows);
+		return rows;
+	}
+
+	/**
+	 * Read the next block of input into buf.
+	 * @return the number of bytes read, -1 at the end.
+	 */
+	private int fill() throws IOException {
+		if (in != null)
+			return in.read(buf, 0, buf.length);
+		int n = reader.read(chars, 0, chars.length);
+		for (int i = 0; i < n; i++) {
+			char c = chars[i];
+			// only ascii characters are part of a number.
+			buf[i] = (c < 128) ? (byte) c : (byte) '?';
+		}
+		return n;
+	}
+
+	private void endField() {
+		if ((cols >= 0) && (count >= cols)) {
+			fieldLength = 0;
+			count++;
+			return;
+		}
+		if (count == values.length) {
+			double[] tmp = new double[values.length * 2];
+			System.arraycopy(values, 0, tmp, 0, count);
+			values = tmp;
+		}
+		blank = true;
+		for (int i = 0; (i < fieldLength) && blank; i++) {
+			blank = isSpace(field[i]);
+		}
+		values[count++] = blank ? 0.0 : parseDouble(field, 0, fieldLength);
+		fieldLength = 0;
+	}
+
+	/**
+	 * Finish the current row.
+	 * @return false if the line was blank.
+	 */
+	private boolean endRow() {
+		int fields = count;
+		count = 0;
+		if ((fields == 1) && blank)
+			return false;
+		if (cols < 0)
+			cols = fields;
+		for (int j = Math.min(fields, cols); j < cols; j++) {
+			values[j] = 0.0;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the number in b[start..end), ignoring white space around it.
+	 *
+	 * @param b
+	 * @param start
+	 * @param end
+	 * @return the value or 0.0 if the field is not a number.
+	 */
+	public static double parseDouble(byte[] b, int start, int end) {
+		while ((start < end) && isSpace(b[start]))
+			start++;
+		while ((end > start) && isSpace(b[end - 1]))
+			end--;
+		if (start == end)
+			return 0.0;
+		int i = start;
+		boolean negative = false;
+		if ((b[i] == '-') || (b[i] == '+')) {
+			negative = (b[i] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		while ((i < end) && (b[i] >= '0') && (b[i] <= '9')) {
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (b[i] - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+			}
+			any = true;
+			i++;
+		}
+		if ((i < end) && (b[i] == '.')) {
+			i++;
+			while ((i < end) && (b[i] >= '0') && (b[i] <= '9')) {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b[i] - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				}
+				any = true;
+				i++;
+			}
+		}
+		if ((i < end) && any && ((b[i] == 'e') || (b[i] == 'E'))) {
+			i++;
+			boolean negativeExponent = false;
+			if ((i < end) && ((b[i] == '-') || (b[i] == '+'))) {
+				negativeExponent = (b[i] == '-');
+				i++;
+			}
+			int e = 0;
+			boolean exponentDigits = false;
+			while ((i < end) && (b[i] >= '0') && (b[i] <= '9')) {
+				if (e < 10000)
+					e = e * 10 + (b[i] - '0');
+				exponentDigits = true;
+				i++;
+			}
+			if (!exponentDigits)
+				return parseSlowly(b, start, end);
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!any || (i != end))
+			return parseSlowly(b, start, end);
+		if (mantissa == 0)
+			return negative ? -0.0 : 0.0;
+		// exact when both the mantissa and the power of ten are exact,
+		// the result is then rounded once.
+		if ((mantissa <= (1L << 53)) && (exponent >= -22) && (exponent <= 22)) {
+			double v = (exponent >= 0) ? mantissa * POWERS[exponent] : mantissa / POWERS[-exponent];
+			return negative ? -v : v;
+		}
+		return parseSlowly(b, start, end);
+	}
+
+	/**
+	 * Parse the field with Double.parseDouble, for long mantissas, large
+	 * exponents, NaN and Infinity.
+	 */
+	private static double parseSlowly(byte[] b, int start, int end) {
+		try {
+			return Double.parseDouble(new String(b, start, end - start, "ISO-8859-1"));
+		} catch (NumberFormatException e) {
+			return 0.0;
+		} catch (UnsupportedEncodingException e) {
+			return 0.0;
+		}
+	}
+
+	static boolean isSpace(byte b) {
+		return (b == ' ') || (b == '\t') || (b == '\r');
+	}
+}
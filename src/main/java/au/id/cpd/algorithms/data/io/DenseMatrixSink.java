@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.util.Arrays;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Collects rows into a DenseMatrix.
+ *
+ * @author cd
+ *
+ */
+public class DenseMatrixSink implements IRowSink {
+
+	private double[] values = new double[1024];
+
+	private int rows;
+
+	private int cols;
+
+	private DenseMatrix<Double> matrix;
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.IRowSink#row(int, double[], int)
+	 */
+	public boolean row(int row, double[] rowValues, int cols) {
+		this.cols = cols;
+		int off = rows * cols;
+		if (off + cols > values.length) {
+			values = Arrays.copyOf(values, Math.max(values.length * 2, off + cols));
+		}
+		System.arraycopy(rowValues, 0, values, off, cols);
+		rows++;
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.IRowSink#end(int)
+	 */
+	public void end(int rows) {
+		matrix = new DenseMatrix<Double>(this.rows, cols, Arrays.copyOf(values, this.rows * cols));
+		values = null;
+	}
+
+	/**
+	 * @return the matrix of the rows read, null before the end.
+	 */
+	public DenseMatrix<Double> getMatrix() {
+		return matrix;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.lang.reflect.*;
+import java.nio.*;
+
+/**
+ * Releases the memory of direct and mapped byte buffers when they are
+ * closed rather than when the collector finds them unreachable.
+ *
+ * A buffer must not be used after it is freed, reading a freed buffer
+ * reads memory that is no longer mapped.
+ *
+ * @author cd
+ *
+ */
+public class DirectBuffers {
+
+	/**
+	 * sun.misc.Unsafe.invokeCleaner, from Java 9.
+	 */
+	private static final Method INVOKE_CLEANER;
+
+	private static final Object UNSAFE;
+
+	static {
+		Method invoke = null;
+		Object unsafe = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			invoke = c.getMethod("invokeCleaner", ByteBuffer.class);
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+		} catch (Exception e) {
+			// Java 8, the cleaner is found on the buffer.
+			invoke = null;
+		}
+		INVOKE_CLEANER = invoke;
+		UNSAFE = unsafe;
+	}
+
+	private DirectBuffers() {
+	}
+
+	/**
+	 * Free the memory of a buffer returned by ByteBuffer.allocateDirect
+	 * or FileChannel.map. Slices and duplicates cannot be freed.
+	 *
+	 * @param buf
+	 * @return false if the buffer is not direct or cannot be freed, its
+	 *         memory is then freed by the collector.
+	 */
+	public static boolean free(ByteBuffer buf) {
+		if ((buf == null) || !buf.isDirect())
+			return false;
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buf);
+				return true;
+			}
+			Method cleaner = buf.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(buf);
+			if (c == null)
+				return false;
+			Method clean = c.getClass().getMethod("clean");
+			clean.setAccessible(true);
+			clean.invoke(c);
+			return true;
+		} catch (Exception e) {
+			System.err.println("Cannot free buffer : " + e);
+		}
+		return false;
+	}
+
+	/**
+	 * Free each of the buffers.
+	 *
+	 * @param buffers
+	 */
+	public static void free(ByteBuffer[] buffers) {
+		if (buffers == null)
+			return;
+		for (int i = 0; i < buffers.length; i++) {
+			free(buffers[i]);
+		}
+	}
+}
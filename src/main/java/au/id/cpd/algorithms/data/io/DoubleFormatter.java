@@ -0,0 +1,362 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles as the shortest decimal that reads back as the same
+ * double, written straight into a byte array.
+ *
+ * The digits are found with the Ryu algorithm of Ulf Adams, which
+ * brackets the value between its neighbours with fixed point powers of
+ * five and removes digits while the result stays inside the bracket.
+ * The layout is that of Double.toString, plain for 10^-3 <= |v| < 10^7
+ * and otherwise with an exponent, eg 1.0E-4.
+ *
+ * @author cd
+ *
+ */
+public final class DoubleFormatter {
+
+	/**
+	 * The most bytes written for one value, as in -2.2250738585072014E-308.
+	 */
+	public static final int MAX_LENGTH = 24;
+
+	private static final int MANTISSA_BITS = 52;
+
+	private static final int EXPONENT_BIAS = 1023;
+
+	private static final int POW5_BITCOUNT = 125;
+
+	private static final int POW5_INV_BITCOUNT = 125;
+
+	private static final int POW5_TABLE_SIZE = 326;
+
+	private static final int POW5_INV_TABLE_SIZE = 342;
+
+	/**
+	 * 5^i in its top 125 bits, low and high words of each.
+	 */
+	private static final long[] POW5 = new long[2 * POW5_TABLE_SIZE];
+
+	/**
+	 * 2^(bits(5^i) - 1 + 125) / 5^i rounded up, low and high words of each.
+	 */
+	private static final long[] POW5_INV = new long[2 * POW5_INV_TABLE_SIZE];
+
+	static {
+		BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for (int i = 0; i < POW5_INV_TABLE_SIZE; i++) {
+			BigInteger pow = BigInteger.valueOf(5).pow(i);
+			int length = pow.bitLength();
+			if (i < POW5_TABLE_SIZE) {
+				BigInteger v = (length > POW5_BITCOUNT) ? pow.shiftRight(length - POW5_BITCOUNT)
+						: pow.shiftLeft(POW5_BITCOUNT - length);
+				POW5[2 * i] = v.and(mask).longValue();
+				POW5[2 * i + 1] = v.shiftRight(64).longValue();
+			}
+			BigInteger inv = BigInteger.ONE.shiftLeft(length - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+			POW5_INV[2 * i] = inv.and(mask).longValue();
+			POW5_INV[2 * i + 1] = inv.shiftRight(64).longValue();
+		}
+	}
+
+	private static final byte[] NAN = { 'N', 'a', 'N' };
+
+	private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+
+	private DoubleFormatter() {
+	}
+
+	/**
+	 * @param value
+	 * @return the shortest decimal of value.
+	 */
+	public static String toString(double value) {
+		byte[] b = new byte[MAX_LENGTH];
+		int n = format(value, b, 0);
+		return new String(b, 0, n, java.nio.charset.StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Write the shortest decimal of value to buf from pos.
+	 *
+	 * @param value
+	 * @param buf with at least MAX_LENGTH bytes from pos.
+	 * @param pos
+	 * @return the position after the last byte written.
+	 */
+	public static int format(double value, byte[] buf, int pos) {
+		long bits = Double.doubleToRawLongBits(value);
+		long ieeeMantissa = bits & ((1L << MANTISSA_BITS) - 1);
+		int ieeeExponent = (int) ((bits >>> MANTISSA_BITS) & 0x7ff);
+		if (ieeeExponent == 0x7ff) {
+			if (ieeeMantissa != 0)
+				return put(NAN, buf, pos);
+			if (bits < 0)
+				buf[pos++] = '-';
+			return put(INFINITY, buf, pos);
+		}
+		if (bits < 0)
+			buf[pos++] = '-';
+		if ((ieeeExponent == 0) && (ieeeMantissa == 0)) {
+			buf[pos++] = '0';
+			buf[pos++] = '.';
+			buf[pos++] = '0';
+			return pos;
+		}
+
+		int e2;
+		long m2;
+		if (ieeeExponent == 0) {
+			e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+			m2 = ieeeMantissa;
+		} else {
+			e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+			m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+		}
+		boolean even = (m2 & 1) == 0;
+		boolean acceptBounds = even;
+
+		// the value is mv * 2^e2 and halfway to its neighbours are
+		// mp and mm, which are converted to the decimals vr, vp and vm.
+		long mv = 4 * m2;
+		int mmShift = ((ieeeMantissa != 0) || (ieeeExponent <= 1)) ? 1 : 0;
+		long mp = mv + 2;
+		long mm = mv - 1 - mmShift;
+		long vr, vp, vm;
+		int e10;
+		boolean vmIsTrailingZeros = false;
+		boolean vrIsTrailingZeros = false;
+		if (e2 >= 0) {
+			int q = log10Pow2(e2) - ((e2 > 3) ? 1 : 0);
+			e10 = q;
+			int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+			int i = -e2 + q + k;
+			vr = mulShift(mv, POW5_INV, q, i);
+			vp = mulShift(mp, POW5_INV, q, i);
+			vm = mulShift(mm, POW5_INV, q, i);
+			if (q <= 21) {
+				// only one of mp, mv and mm can be a multiple of 5, if any.
+				if (mv % 5 == 0) {
+					vrIsTrailingZeros = pow5Factor(mv) >= q;
+				} else if (acceptBounds) {
+					vmIsTrailingZeros = pow5Factor(mm) >= q;
+				} else if (pow5Factor(mp) >= q) {
+					vp--;
+				}
+			}
+		} else {
+			int q = log10Pow5(-e2) - ((-e2 > 1) ? 1 : 0);
+			e10 = q + e2;
+			int i = -e2 - q;
+			int k = pow5bits(i) - POW5_BITCOUNT;
+			int j = q - k;
+			vr = mulShift(mv, POW5, i, j);
+			vp = mulShift(mp, POW5, i, j);
+			vm = mulShift(mm, POW5, i, j);
+			if (q <= 1) {
+				// mv has at least q trailing zero bits.
+				vrIsTrailingZeros = true;
+				if (acceptBounds) {
+					vmIsTrailingZeros = mmShift == 1;
+				} else {
+					vp--;
+				}
+			} else if (q < 63) {
+				vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+			}
+		}
+
+		// remove digits while vp and vm still differ.
+		int removed = 0;
+		int lastRemovedDigit = 0;
+		long output;
+		if (vmIsTrailingZeros || vrIsTrailingZeros) {
+			while (vp / 10 > vm / 10) {
+				vmIsTrailingZeros &= (vm % 10) == 0;
+				vrIsTrailingZeros &= lastRemovedDigit == 0;
+				lastRemovedDigit = (int) (vr % 10);
+				vr /= 10;
+				vp /= 10;
+				vm /= 10;
+				removed++;
+			}
+			if (vmIsTrailingZeros) {
+				while (vm % 10 == 0) {
+					vrIsTrailingZeros &= lastRemovedDigit == 0;
+					lastRemovedDigit = (int) (vr % 10);
+					vr /= 10;
+					vp /= 10;
+					vm /= 10;
+					removed++;
+				}
+			}
+			if (vrIsTrailingZeros && (lastRemovedDigit == 5) && (vr % 2 == 0)) {
+				// exactly halfway, round to even.
+				lastRemovedDigit = 4;
+			}
+			output = vr + ((((vr == vm) && (!acceptBounds || !vmIsTrailingZeros)) || (lastRemovedDigit >= 5)) ? 1 : 0);
+		} else {
+			boolean roundUp = false;
+			if (vp / 100 > vm / 100) {
+				roundUp = (vr % 100) >= 50;
+				vr /= 100;
+				vp /= 100;
+				vm /= 100;
+				removed += 2;
+			}
+			while (vp / 10 > vm / 10) {
+				roundUp = (vr % 10) >= 5;
+				vr /= 10;
+				vp /= 10;
+				vm /= 10;
+				removed++;
+			}
+			output = vr + (((vr == vm) || roundUp) ? 1 : 0);
+		}
+		int exp = e10 + removed;
+		return layout(output, exp, buf, pos);
+	}
+
+	/**
+	 * Write output * 10^exp in the layout of Double.toString.
+	 */
+	private static int layout(long output, int exp, byte[] buf, int pos) {
+		int length = decimalLength(output);
+		int scientific = exp + length - 1;
+		if ((scientific >= -3) && (scientific < 7)) {
+			if (scientific < 0) {
+				buf[pos++] = '0';
+				buf[pos++] = '.';
+				for (int i = -1; i > scientific; i--) {
+					buf[pos++] = '0';
+				}
+				return digits(output, length, buf, pos);
+			}
+			int whole = scientific + 1;
+			if (length <= whole) {
+				pos = digits(output, length, buf, pos);
+				for (int i = length; i < whole; i++) {
+					buf[pos++] = '0';
+				}
+				buf[pos++] = '.';
+				buf[pos++] = '0';
+				return pos;
+			}
+			int end = digits(output, length, buf, pos + 1);
+			// move the whole digits in front of the point.
+			System.arraycopy(buf, pos + 1, buf, pos, whole);
+			buf[pos + whole] = '.';
+			return end;
+		}
+		int end = digits(output, length, buf, pos + 1);
+		buf[pos] = buf[pos + 1];
+		buf[pos + 1] = '.';
+		pos = end;
+		if (length == 1)
+			buf[pos++] = '0';
+		buf[pos++] = 'E';
+		if (scientific < 0) {
+			buf[pos++] = '-';
+			scientific = -scientific;
+		}
+		return digits(scientific, decimalLength(scientific), buf, pos);
+	}
+
+	/**
+	 * Write the length digits of v from pos.
+	 */
+	private static int digits(long v, int length, byte[] buf, int pos) {
+		int end = pos + length;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + (v % 10));
+			v /= 10;
+		}
+		return end;
+	}
+
+	private static int put(byte[] text, byte[] buf, int pos) {
+		System.arraycopy(text, 0, buf, pos, text.length);
+		return pos + text.length;
+	}
+
+	private static int decimalLength(long v) {
+		int length = 1;
+		while (v >= 10) {
+			v /= 10;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the number of times 5 divides value.
+	 */
+	private static int pow5Factor(long value) {
+		int count = 0;
+		while ((value > 0) && (value % 5 == 0)) {
+			value /= 5;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return ceil(log2(5^e)), or 1 for e = 0.
+	 */
+	private static int pow5bits(int e) {
+		return (int) (((e * 1217359L) >>> 19) + 1);
+	}
+
+	/**
+	 * @return floor(log10(2^e)).
+	 */
+	private static int log10Pow2(int e) {
+		return (int) ((e * 78913L) >>> 18);
+	}
+
+	/**
+	 * @return floor(log10(5^e)).
+	 */
+	private static int log10Pow5(int e) {
+		return (int) ((e * 732923L) >>> 20);
+	}
+
+	/**
+	 * @return (m * table[index]) >> shift, with the 128 bit entry of the table.
+	 */
+	private static long mulShift(long m, long[] table, int index, int shift) {
+		long low = table[2 * index];
+		long high = table[2 * index + 1];
+		long b0 = multiplyHigh(m, low);
+		long b2Low = m * high;
+		long b2High = multiplyHigh(m, high);
+		long sum = b2Low + b0;
+		if (Long.compareUnsigned(sum, b2Low) < 0)
+			b2High++;
+		int s = shift - 64;
+		if (s == 0)
+			return sum;
+		if (s < 64)
+			return (sum >>> s) | (b2High << (64 - s));
+		return b2High >>> (s - 64);
+	}
+
+	/**
+	 * @return the high word of the unsigned product of a and b.
+	 */
+	private static long multiplyHigh(long a, long b) {
+		long a0 = a & 0xffffffffL;
+		long a1 = a >>> 32;
+		long b0 = b & 0xffffffffL;
+		long b1 = b >>> 32;
+		long p01 = a0 * b1;
+		long p10 = a1 * b0;
+		long middle = ((a0 * b0) >>> 32) + (p01 & 0xffffffffL) + (p10 & 0xffffffffL);
+		return a1 * b1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+	}
+}
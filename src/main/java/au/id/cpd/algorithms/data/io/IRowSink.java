@@ -0,0 +1,32 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+/**
+ * Receives the rows of a matrix as they are read.
+ *
+ * @author cd
+ *
+ */
+public interface IRowSink {
+
+	/**
+	 * Take the values of a row.
+	 * The array is reused for the next row so the values must be copied
+	 * if they are kept.
+	 *
+	 * @param row the index of the row.
+	 * @param values
+	 * @param cols the number of values in the row.
+	 * @return false to stop reading.
+	 */
+	public boolean row(int row, double[] values, int cols);
+
+	/**
+	 * Called after the last row.
+	 *
+	 * @param rows the number of rows read.
+	 */
+	public void end(int rows);
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+/**
+ * Receives the labelled sparse rows of a matrix as they are read.
+ *
+ * @author cd
+ *
+ */
+public interface ISparseRowSink {
+
+	/**
+	 * Take the entries of a row.
+	 * The arrays are reused for the next row so the entries must be
+	 * copied if they are kept.
+	 *
+	 * @param row the index of the row.
+	 * @param label the value the row is labelled with.
+	 * @param columns column index of each value, from 0.
+	 * @param values
+	 * @param count the number of entries in the row.
+	 * @return false to stop reading.
+	 */
+	public boolean row(int row, double label, int[] columns, double[] values, int count);
+
+	/**
+	 * Called after the last row.
+	 *
+	 * @param rows the number of rows read.
+	 */
+	public void end(int rows);
+}
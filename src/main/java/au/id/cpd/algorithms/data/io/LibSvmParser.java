@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+
+/**
+ * Reads sparse rows in the LIBSVM format, a row a line of
+ * <pre>
+ * label index:value index:value ...
+ * </pre>
+ * into a sink.
+ *
+ * The input is read in blocks and parsed straight from the bytes as in
+ * CsvParser. Indexes start from 1 by default and are given to the sink
+ * from 0. White space may follow the colon, tokens that are not an index
+ * and value, such as qid:1, are skipped and a '#' starts a comment to the
+ * end of the line. Blank lines are skipped.
+ *
+ * Files ending in .bz2 are opened with ParallelBZip2InputStream so the
+ * blocks are decompressed at once while the rows are parsed, or with
+ * BZip2InputStream when they are too large to map.
+ *
+ * @author cd
+ *
+ */
+public class LibSvmParser {
+
+	private final InputStream in;
+
+	private final byte[] buf = new byte[CsvParser.BUFFER_SIZE];
+
+	/**
+	 * The current line.
+	 */
+	private byte[] line = new byte[256];
+
+	private int lineLength;
+
+	private int[] columns = new int[16];
+
+	private double[] values = new double[16];
+
+	/**
+	 * Entries in the current row.
+	 */
+	private int count;
+
+	private double label;
+
+	/**
+	 * The index of the first column in the input.
+	 */
+	private int firstIndex = 1;
+
+	/**
+	 * Largest column read plus one.
+	 */
+	private int cols;
+
+	/**
+	 * @param in
+	 */
+	public LibSvmParser(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Open a file, decompressing it if its name ends in .bz2.
+	 * Files too large to map are decompressed a block at a time.
+	 *
+	 * @param fileName
+	 * @return the input of the file.
+	 * @throws IOException
+	 */
+	public static InputStream open(String fileName) throws IOException {
+		if (!fileName.endsWith(".bz2"))
+			return new FileInputStream(fileName);
+		if (new File(fileName).length() <= ParallelBZip2InputStream.MAX_LENGTH)
+			return new ParallelBZip2InputStream(fileName);
+		InputStream in = new FileInputStream(fileName);
+		try {
+			return new BZip2InputStream(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param firstIndex the index of the first column in the input,
+	 * 1 by default.
+	 */
+	public void setFirstIndex(int firstIndex) {
+		this.firstIndex = firstIndex;
+	}
+
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+
+	/**
+	 * @return the largest column read plus one.
+	 */
+	public int getColumns() {
+		return cols;
+	}
+
+	/**
+	 * Read every row into the sink.
+	 *
+	 * @param sink
+	 * @return the number of rows read.
+	 * @throws IOException
+	 */
+	public int parse(ISparseRowSink sink) throws IOException {
+		int rows = 0;
+		int n;
+		read:
+		while ((n = in.read(buf, 0, buf.length)) > 0) {
+			int start = 0;
+			for (int i = 0; i < n; i++) {
+				if (buf[i] != '\n')
+					continue;
+				byte[] b = buf;
+				int from = start;
+				int to = i;
+				if (lineLength > 0) {
+					// the line began in the last block.
+					append(buf, start, i);
+					b = line;
+					from = 0;
+					to = lineLength;
+					lineLength = 0;
+				}
+				start = i + 1;
+				if (parseLine(b, from, to)) {
+					if (!sink.row(rows++, label, columns, values, count))
+						break read;
+				}
+			}
+			append(buf, start, n);
+		}
+		// the last line may not end in a new line.
+		if ((n <= 0) && (lineLength > 0)) {
+			if (parseLine(line, 0, lineLength))
+				sink.row(rows++, label, columns, values, count);
+		}
+		lineLength = 0;
+		sink.end(rows);
+		return rows;
+	}
+
+	private void append(byte[] b, int start, int end) {
+		int len = end - start;
+		if (lineLength + len > line.length) {
+			byte[] tmp = new byte[Math.max(line.length * 2, lineLength + len)];
+			System.arraycopy(line, 0, tmp, 0, lineLength);
+			line = tmp;
+		}
+		System.arraycopy(b, start, line, lineLength, len);
+		lineLength += len;
+	}
+
+	/**
+	 * Parse the line in b[start..end) into the label and entries.
+	 * @return false if the line is blank.
+	 */
+	private boolean parseLine(byte[] b, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (b[i] == '#') {
+				end = i;
+				break;
+			}
+		}
+		int i = skipSpace(b, start, end);
+		if (i == end)
+			return false;
+		int j = i;
+		while ((j < end) && !CsvParser.isSpace(b[j]))
+			j++;
+		label = CsvParser.parseDouble(b, i, j);
+		count = 0;
+		i = skipSpace(b, j, end);
+		while (i < end) {
+			// the index up to the colon.
+			long index = 0;
+			boolean digits = false;
+			j = i;
+			while ((j < end) && (b[j] >= '0') && (b[j] <= '9')) {
+				if (index <= Integer.MAX_VALUE)
+					index = index * 10 + (b[j] - '0');
+				digits = true;
+				j++;
+			}
+			boolean entry = digits && (j < end) && (b[j] == ':');
+			if (entry) {
+				i = skipSpace(b, j + 1, end);
+			} else {
+				i = j;
+			}
+			j = i;
+			while ((j < end) && !CsvParser.isSpace(b[j]))
+				j++;
+			long c = index - firstIndex;
+			if (entry && (c >= 0) && (c < Integer.MAX_VALUE)) {
+				if (count == columns.length) {
+					int[] tmpColumns = new int[columns.length * 2];
+					double[] tmpValues = new double[columns.length * 2];
+					System.arraycopy(columns, 0, tmpColumns, 0, count);
+					System.arraycopy(values, 0, tmpValues, 0, count);
+					columns = tmpColumns;
+					values = tmpValues;
+				}
+				columns[count] = (int) c;
+				values[count++] = CsvParser.parseDouble(b, i, j);
+				if (c >= cols)
+					cols = (int) c + 1;
+			}
+			i = skipSpace(b, j, end);
+		}
+		return true;
+	}
+
+	private static int skipSpace(byte[] b, int start, int end) {
+		while ((start < end) && CsvParser.isSpace(b[start]))
+			start++;
+		return start;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Writes rows to a MatrixBuffer a block of rows at a time.
+ *
+ * The buffer is resized to the columns of the first row and grown as
+ * rows arrive, doubling its rows so the file is resized only a few times,
+ * then cut to the rows read at the end.
+ *
+ * @author cd
+ *
+ */
+public class MatrixBufferSink implements IRowSink {
+
+	/**
+	 * Rows written to the buffer at a time.
+	 */
+	public static final int BLOCK_ROWS = 1024;
+
+	private final MatrixBuffer buffer;
+
+	private double[] block;
+
+	/**
+	 * Rows held in block.
+	 */
+	private int held;
+
+	/**
+	 * Rows written to the buffer.
+	 */
+	private int written;
+
+	private int cols;
+
+	/**
+	 * @param buffer receives the rows, its size is replaced.
+	 */
+	public MatrixBufferSink(MatrixBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.IRowSink#row(int, double[], int)
+	 */
+	public boolean row(int row, double[] values, int cols) {
+		if (block == null) {
+			this.cols = cols;
+			block = new double[BLOCK_ROWS * cols];
+		}
+		System.arraycopy(values, 0, block, held * cols, cols);
+		held++;
+		if (held == BLOCK_ROWS)
+			return flush();
+		return true;
+	}
+
+	private boolean flush() {
+		if (held == 0)
+			return true;
+		int rows = buffer.getSize().getRows();
+		if ((written + held > rows) || (buffer.getSize().getCols() != cols)) {
+			buffer.resize(new Size(Math.max(written + held, 2 * rows), cols));
+		}
+		boolean ok = buffer.writeBlock(written, 0, held, cols, block);
+		written += held;
+		held = 0;
+		return ok;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.IRowSink#end(int)
+	 */
+	public void end(int rows) {
+		flush();
+		if (buffer.getSize().getRows() != written)
+			buffer.resize(new Size(written, cols));
+		block = null;
+	}
+
+	/**
+	 * @return the buffer receiving the rows.
+	 */
+	public MatrixBuffer getBuffer() {
+		return buffer;
+	}
+}
@@ -0,0 +1,310 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Writes a matrix as delimited text through a FileChannel.
+ *
+ * Each value is formatted by DoubleFormatter into a byte array that is
+ * reused from row to row, so no strings are made. In parallel the rows
+ * are cut into ranges which are formatted at once on a fork join pool,
+ * a few ranges per worker at a time. Each range is then given the region
+ * of the file following the range before it and the ranges are written
+ * to their regions at once.
+ *
+ * @author cd
+ *
+ */
+public class MatrixChannelWriter {
+
+	/**
+	 * Bytes formatted before they are written to the channel.
+	 */
+	private static final int FLUSH_SIZE = 1 << 16;
+
+	/**
+	 * Rows formatted by one task.
+	 */
+	private static final int TASK_ROWS = 1024;
+
+	private char delimiter = ',';
+
+	private String lineSeparator = System.getProperty("line.separator");
+
+	private boolean parallel;
+
+	/**
+	 * Number of worker threads, 0 uses the common pool.
+	 */
+	private volatile int parallelism;
+
+	/**
+	 * Pool of parallelism workers, null until first used.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Format a range of rows.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class FormatTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowFormatter formatter;
+		private IMatrix matrix;
+		private int start;
+		private int end;
+
+		FormatTask(RowFormatter formatter) {
+			this.formatter = formatter;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			formatter.clear();
+			for (int i = start; i < end; i++) {
+				formatter.append(matrix, i);
+			}
+		}
+	}
+
+	/**
+	 * Write the formatted rows of a range to its region of the file.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class WriteTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final RowFormatter formatter;
+		private final long position;
+		private IOException failure;
+
+		WriteTask(FileChannel channel, RowFormatter formatter, long position) {
+			this.channel = channel;
+			this.formatter = formatter;
+			this.position = position;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			try {
+				write(channel, formatter, position);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Write a file with a comma between values on the calling thread.
+	 */
+	public MatrixChannelWriter() {
+	}
+
+	/**
+	 * Save the matrix to a file, replacing it.
+	 *
+	 * @param matrix
+	 * @param file
+	 * @return false if the file cannot be written.
+	 */
+	public boolean save(IMatrix matrix, String file) {
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			write(matrix, out.getChannel());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Write the matrix from the position of the channel,
+	 * which is left after the last row.
+	 *
+	 * @param matrix
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void write(IMatrix matrix, FileChannel channel) throws IOException {
+		int rows = matrix.getSize().getRows();
+		int workers = (parallelism <= 0) ? ForkJoinPool.getCommonPoolParallelism() : parallelism;
+		if (!parallel || (workers <= 1) || (rows <= TASK_ROWS)) {
+			RowFormatter formatter = new RowFormatter(delimiter, lineSeparator);
+			for (int i = 0; i < rows; i++) {
+				formatter.append(matrix, i);
+				if (formatter.length() >= FLUSH_SIZE) {
+					write(channel, formatter);
+				}
+			}
+			write(channel, formatter);
+			return;
+		}
+		ForkJoinPool pool = pool();
+		FormatTask[] format = new FormatTask[2 * workers];
+		for (int k = 0; k < format.length; k++) {
+			format[k] = new FormatTask(new RowFormatter(delimiter, lineSeparator));
+			format[k].matrix = matrix;
+		}
+		long position = channel.position();
+		for (int start = 0; start < rows;) {
+			int n = 0;
+			while ((n < format.length) && (start < rows)) {
+				FormatTask t = format[n++];
+				t.reinitialize();
+				t.start = start;
+				t.end = Math.min(rows, start + TASK_ROWS);
+				start = t.end;
+			}
+			invokeAll(pool, format, n);
+			WriteTask[] write = new WriteTask[n];
+			for (int k = 0; k < n; k++) {
+				write[k] = new WriteTask(channel, format[k].formatter, position);
+				position += format[k].formatter.length();
+			}
+			invokeAll(pool, write, n);
+			for (WriteTask t : write) {
+				if (t.failure != null)
+					throw t.failure;
+			}
+		}
+		channel.position(position);
+	}
+
+	/**
+	 * @return the pool the rows are formatted and written on, made on
+	 * first use and kept for later matrices. Idle workers exit on their own.
+	 */
+	private synchronized ForkJoinPool pool() {
+		if (parallelism <= 0)
+			return ForkJoinPool.commonPool();
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * Run the first n tasks on the pool and wait for them.
+	 */
+	private static void invokeAll(ForkJoinPool pool, final ForkJoinTask<?>[] tasks, final int n) {
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			protected void compute() {
+				ForkJoinTask<?>[] run = new ForkJoinTask<?>[n];
+				System.arraycopy(tasks, 0, run, 0, n);
+				invokeAll(run);
+			}
+		});
+	}
+
+	/**
+	 * Write the formatted rows at the position of the channel and clear them.
+	 */
+	private static void write(FileChannel channel, RowFormatter formatter) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(formatter.getBytes(), 0, formatter.length());
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+		formatter.clear();
+	}
+
+	/**
+	 * Write the formatted rows from position, leaving the position
+	 * of the channel as it is.
+	 */
+	private static void write(FileChannel channel, RowFormatter formatter, long position) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(formatter.getBytes(), 0, formatter.length());
+		while (b.hasRemaining()) {
+			position += channel.write(b, position);
+		}
+	}
+
+	/**
+	 * @param delimiter the character between values, ',' by default.
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @param lineSeparator ending each row, line.separator by default.
+	 */
+	public void setLineSeparator(String lineSeparator) {
+		this.lineSeparator = lineSeparator;
+	}
+
+	public String getLineSeparator() {
+		return lineSeparator;
+	}
+
+	/**
+	 * @return whether rows are formatted and written by several threads.
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param parallel whether rows are formatted and written by several threads.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the number of worker threads, 0 for the common pool.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of worker threads, 0 for the common pool.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if ((pool != null) && (parallelism != this.parallelism)) {
+			// tasks already running finish on the old pool.
+			pool.shutdown();
+			pool = null;
+		}
+		this.parallelism = parallelism;
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * The 64 byte header at the start of a .jmat file.
+ *
+ * The header is written big endian and holds, by byte offset:
+ *
+ * <pre>
+ *  0  magic "JMAT"
+ *  4  version (short)
+ *  6  element type, FLOAT64 or FLOAT32
+ *  7  byte order of the elements, BIG_ENDIAN or LITTLE_ENDIAN
+ *  8  rows (int)
+ * 12  columns (int)
+ * 16  tile size (int), 0 when the cells are row major
+ * 20  flags (int), CHECKSUM when the checksum is set
+ * 24  CRC32 of the cells (long)
+ * 32  reserved, zero
+ * </pre>
+ *
+ * The cells follow the header.
+ *
+ * @author cd
+ *
+ */
+public class MatrixFileHeader {
+
+	/**
+	 * Bytes in the header, the offset of the first cell.
+	 */
+	public static final int SIZE = 64;
+
+	/**
+	 * "JMAT"
+	 */
+	public static final int MAGIC = 0x4A4D4154;
+
+	public static final short VERSION = 1;
+
+	/**
+	 * 8 byte doubles.
+	 */
+	public static final byte FLOAT64 = 1;
+
+	/**
+	 * 4 byte floats.
+	 */
+	public static final byte FLOAT32 = 2;
+
+	public static final byte BIG_ENDIAN = 0;
+
+	public static final byte LITTLE_ENDIAN = 1;
+
+	/**
+	 * Flag set when the checksum holds the CRC32 of the cells.
+	 */
+	public static final int CHECKSUM = 1;
+
+	private short version = VERSION;
+
+	private byte dataType = FLOAT64;
+
+	private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
+	private int rows;
+
+	private int cols;
+
+	private int tileSize;
+
+	private int flags;
+
+	private long checksum;
+
+	public MatrixFileHeader() {
+	}
+
+	/**
+	 * @param elementSize bytes in an element, 8 or 4.
+	 * @param byteOrder
+	 * @param rows
+	 * @param cols
+	 * @param tileSize
+	 */
+	public MatrixFileHeader(int elementSize, ByteOrder byteOrder, int rows, int cols, int tileSize) {
+		this.dataType = (elementSize == 4) ? FLOAT32 : FLOAT64;
+		this.byteOrder = byteOrder;
+		this.rows = rows;
+		this.cols = cols;
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Read the header at the start of the channel.
+	 *
+	 * @param channel
+	 * @return the header or null if the file does not start with one.
+	 * @throws IOException
+	 */
+	public static MatrixFileHeader read(FileChannel channel) throws IOException {
+		if (channel.size() < SIZE)
+			return null;
+		ByteBuffer buf = ByteBuffer.allocate(SIZE);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, buf.position()) < 0)
+				return null;
+		}
+		buf.flip();
+		if (buf.getInt(0) != MAGIC)
+			return null;
+		MatrixFileHeader header = new MatrixFileHeader();
+		header.version = buf.getShort(4);
+		header.dataType = buf.get(6);
+		header.byteOrder = (buf.get(7) == LITTLE_ENDIAN) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		header.rows = buf.getInt(8);
+		header.cols = buf.getInt(12);
+		header.tileSize = buf.getInt(16);
+		header.flags = buf.getInt(20);
+		header.checksum = buf.getLong(24);
+		if (header.version > VERSION) {
+			System.err.println("Matrix file version " + header.version + " is newer than " + VERSION);
+		}
+		return header;
+	}
+
+	/**
+	 * Write the header at the start of the channel.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void write(FileChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SIZE);
+		buf.putInt(0, MAGIC);
+		buf.putShort(4, version);
+		buf.put(6, dataType);
+		buf.put(7, (byteOrder == ByteOrder.LITTLE_ENDIAN) ? LITTLE_ENDIAN : BIG_ENDIAN);
+		buf.putInt(8, rows);
+		buf.putInt(12, cols);
+		buf.putInt(16, tileSize);
+		buf.putInt(20, flags);
+		buf.putLong(24, checksum);
+		while (buf.hasRemaining()) {
+			channel.write(buf, buf.position());
+		}
+	}
+
+	/**
+	 * @return bytes in an element.
+	 */
+	public int getElementSize() {
+		return (dataType == FLOAT32) ? 4 : 8;
+	}
+
+	/**
+	 * @return true if the checksum holds the CRC32 of the cells.
+	 */
+	public boolean hasChecksum() {
+		return (flags & CHECKSUM) != 0;
+	}
+
+	/**
+	 * @return the version
+	 */
+	public short getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the element type, FLOAT64 or FLOAT32.
+	 */
+	public byte getDataType() {
+		return dataType;
+	}
+
+	/**
+	 * @return the byte order of the elements.
+	 */
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * @return the rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the cols
+	 */
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * @return the tile size, 0 when row major.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return the CRC32 of the cells when hasChecksum().
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Set or clear the checksum of the cells.
+	 * @param hasChecksum
+	 * @param checksum
+	 */
+	public void setChecksum(boolean hasChecksum, long checksum) {
+		this.flags = hasChecksum ? (flags | CHECKSUM) : (flags & ~CHECKSUM);
+		this.checksum = hasChecksum ? checksum : 0;
+	}
+}
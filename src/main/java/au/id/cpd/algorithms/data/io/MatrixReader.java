@@ -4,8 +4,6 @@
 package au.id.cpd.algorithms.data.io;
 
 import java.io.*;
-import java.util.List;
-import java.util.Vector;
 
 import au.id.cpd.algorithms.data.*;
 /**
@@ -23,36 +21,27 @@ public class MatrixReader extends BufferedReader {
 	}
 	/**
 	 * Read a comma delimited file into a matrix data type.
-	 * @return Matrix<Double> matrix
+	 * The text is parsed as it is read, see CsvParser.
+	 * @return DenseMatrix<Double> matrix
 	 */
 	public IMatrix<Double> readMatrix() {
-		String line = "";
-		List<String[]> dataItems = new Vector<String[]>();
- 		int cols = 0;
+		DenseMatrixSink sink = new DenseMatrixSink();
+		if (!readMatrix(sink))
+			return null;
+		return sink.getMatrix();
+	}
+
+	/**
+	 * Read a comma delimited file a row at a time into the sink.
+	 * @param sink
+	 * @return false if the file cannot be read.
+	 */
+	public boolean readMatrix(IRowSink sink) {
 		try {
-	 		while((line = this.readLine()) != null) {
-				String[] items = line.split(",");
-				if (cols == 0)
-					cols = items.length;
-				dataItems.add(items);
-			}
-	 		int rows = dataItems.size();
-			int cnt = 0;
-			Matrix<Double> matrix = new Matrix<Double>(rows, cols);
-			for(String[] items : dataItems) {
-				for(String item : items) {
-					try {
-					Double val = Double.parseDouble(item);
-						matrix.add(val);
-					} catch(NumberFormatException e) {
-						matrix.add(0);
-					}
-				}
-				cnt++;
-			}
-			return matrix;
+			new CsvParser(this).parse(sink);
+			return true;
 		} catch(IOException e) {
-			return null;
+			return false;
 		}
 	}
 }
@@ -1,14 +1,15 @@
 /**
- * 
+ *
  */
 package au.id.cpd.algorithms.data.io;
 
 import java.io.*;
-import java.util.List;
-import java.util.Vector;
 
 import au.id.cpd.algorithms.data.*;
 /**
+ * Writes a matrix as comma delimited text.
+ * Files are written faster through a MatrixChannelWriter.
+ *
  * @author cd
  *
  */
@@ -17,28 +18,51 @@ public class MatrixWriter extends BufferedWriter {
 	public MatrixWriter(Writer in) {
 		super(in);
 	}
-	
+
 	public MatrixWriter(Writer in, int sz) {
 		super(in, sz);
 	}
-	
+
 	/**
 	 * Write the matrix data to the output stream.
 	 * @param matrix
 	 * @param out
 	 */
 	public void writeMatrix(IMatrix<Double> matrix, FileWriter out) throws IOException {
+		writeMatrix(matrix, (Writer)out);
+	}
+
+	/**
+	 * Write the matrix data to this writer, which must be flushed
+	 * or closed after.
+	 * @param matrix
+	 */
+	public void writeMatrix(IMatrix<Double> matrix) throws IOException {
+		writeMatrix(matrix, this);
+	}
+
+	/**
+	 * Write the rows of the matrix to out, formatting each row
+	 * into one buffer of characters.
+	 * @param matrix
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeMatrix(IMatrix<Double> matrix, Writer out) throws IOException {
+		RowFormatter formatter = new RowFormatter(',', System.getProperty("line.separator"));
+		char[] chars = new char[0];
 		int rowCnt = matrix.getSize().getRows();
-		int colCnt = matrix.getSize().getCols();
 		for(int i=0;i<rowCnt;i++) {
-			String row = "";
-			for(int j=0;j<colCnt;j++) {
-				row += matrix.get(i, j).toString();
-				if (j<colCnt-1)
-					row+=",";
+			formatter.clear();
+			formatter.append(matrix, i);
+			int n = formatter.length();
+			if (chars.length < n)
+				chars = new char[Math.max(n, 2*chars.length)];
+			byte[] b = formatter.getBytes();
+			for(int j=0;j<n;j++) {
+				chars[j] = (char)b[j];
 			}
-			row += System.getProperty("line.separator");
-			out.write(row);
+			out.write(chars, 0, n);
 		}
 	}
 }
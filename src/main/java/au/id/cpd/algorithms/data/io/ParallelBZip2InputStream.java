@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+/**
+ * Reads a bzip2 file, decoding its blocks at once on a fork join pool.
+ *
+ * The blocks of a bzip2 stream are compressed apart, each starting with
+ * a 48 bit magic number at any bit of the file. The mapped file is
+ * scanned for the magic ahead of the reader and each block found is
+ * decoded by its own task, a few per worker at a time, and read in
+ * order. The magic may also occur by chance within a block, such a
+ * block is dropped once the block it lies in is read.
+ *
+ * Files of up to MAX_LENGTH bytes can be mapped, larger files must be
+ * read with BZip2InputStream, as LibSvmParser.open does.
+ *
+ * @author cd
+ *
+ */
+public class ParallelBZip2InputStream extends InputStream {
+
+	/**
+	 * Largest file that can be mapped, 2GB.
+	 */
+	public static final long MAX_LENGTH = Integer.MAX_VALUE;
+
+	private static final long MAGIC_MASK = (1L << 48) - 1;
+
+	private RandomAccessFile file;
+
+	private MappedByteBuffer map;
+
+	/**
+	 * Number of worker threads, 0 uses the common pool.
+	 */
+	private final int parallelism;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Blocks being decoded, in the order of the file.
+	 */
+	private final ArrayDeque<BlockTask> pending = new ArrayDeque<BlockTask>();
+
+	/**
+	 * Tasks of magic numbers found within blocks, which may still be
+	 * running and are waited for before the file is unmapped.
+	 * A task that has started cannot be cancelled.
+	 */
+	private final ArrayDeque<BlockTask> dropped = new ArrayDeque<BlockTask>();
+
+	/**
+	 * Blocks decoded at once.
+	 */
+	private final int window;
+
+	/**
+	 * Next byte of the file to scan for a magic number.
+	 */
+	private int scanPosition;
+
+	/**
+	 * The last bits scanned.
+	 */
+	private long scanBits;
+
+	/**
+	 * Bit of the last magic number found.
+	 */
+	private long lastFound = -1;
+
+	/**
+	 * Bit of the next block or end of stream to read.
+	 */
+	private long nextBit;
+
+	private int streamCrc;
+
+	private byte[] block = new byte[0];
+
+	private int position;
+
+	private boolean done;
+
+	/**
+	 * Set by close, blocks not yet started are then not decoded.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Decode the block at a bit of the file.
+	 *
+	 * @author cd
+	 *
+	 */
+	private class BlockTask extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer map;
+		private final long start;
+		private long end;
+		private int crc;
+		private Exception failure;
+
+		BlockTask(ByteBuffer map, long start) {
+			this.map = map;
+			this.start = start;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		protected byte[] compute() {
+			if (closed)
+				return null;
+			try {
+				BZip2Decoder decoder = new BZip2Decoder(map, start);
+				decoder.readMagic();
+				byte[] b = decoder.decodeBlock(BZip2Decoder.MAX_BLOCK_SIZE);
+				crc = decoder.getBlockCrc();
+				end = decoder.bitPosition();
+				return b;
+			} catch (Exception e) {
+				// not a block or a corrupt one.
+				failure = e;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Decode on the common pool.
+	 * @param fileName
+	 * @throws IOException if the file is not a bzip2 file.
+	 */
+	public ParallelBZip2InputStream(String fileName) throws IOException {
+		this(fileName, 0);
+	}
+
+	/**
+	 * @param fileName
+	 * @param parallelism the number of worker threads, 0 for the common pool.
+	 * @throws IOException if the file is not a bzip2 file or is longer
+	 * than MAX_LENGTH.
+	 */
+	public ParallelBZip2InputStream(String fileName, int parallelism) throws IOException {
+		this.parallelism = parallelism;
+		this.pool = (parallelism <= 0) ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+		int workers = (parallelism <= 0) ? ForkJoinPool.getCommonPoolParallelism() : parallelism;
+		this.window = 2 * Math.max(1, workers);
+		try {
+			file = new RandomAccessFile(fileName, "r");
+			long length = file.length();
+			if (length > MAX_LENGTH)
+				throw new IOException(fileName + " is too large to map, " + length + " bytes");
+			map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (new BZip2Decoder(map, 0).readHeader() < 0)
+				throw new EOFException("Empty bzip2 input");
+		} catch (Throwable e) {
+			close();
+			throw e;
+		}
+		nextBit = 32;
+	}
+
+	/**
+	 * @return the bit of the next magic number in the file or -1.
+	 */
+	private long scan() {
+		int limit = map.limit();
+		while (scanPosition < limit) {
+			scanBits = (scanBits << 8) | (map.get(scanPosition++) & 0xff);
+			if (scanPosition < 6)
+				continue;
+			for (int s = 7; s >= 0; s--) {
+				long bits = (scanBits >>> s) & MAGIC_MASK;
+				if (bits != BZip2Decoder.BLOCK_MAGIC)
+					continue;
+				long bit = ((long) scanPosition << 3) - s - 48;
+				if (bit > lastFound) {
+					lastFound = bit;
+					return bit;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the next block in the order of the file.
+	 * @return false at the end of the file.
+	 */
+	private boolean nextBlock() throws IOException {
+		while (!done) {
+			while (pending.size() < window) {
+				long bit = scan();
+				if (bit < 0)
+					break;
+				BlockTask t = new BlockTask(map, bit);
+				pool.execute(t);
+				pending.addLast(t);
+			}
+			BlockTask t = pending.peekFirst();
+			if ((t != null) && (t.start < nextBit)) {
+				// a magic number inside the block already read.
+				pending.pollFirst();
+				while (!dropped.isEmpty() && dropped.peekFirst().isDone()) {
+					dropped.pollFirst();
+				}
+				dropped.addLast(t);
+				continue;
+			}
+			if ((t != null) && (t.start == nextBit)) {
+				pending.pollFirst();
+				byte[] b = t.join();
+				if (b == null)
+					throw new IOException("Bad bzip2 block at bit " + t.start, t.failure);
+				streamCrc = BZip2Decoder.combineCrc(streamCrc, t.crc);
+				nextBit = t.end;
+				block = b;
+				position = 0;
+				return true;
+			}
+			endStream();
+		}
+		return false;
+	}
+
+	/**
+	 * Read the end of the stream at the next bit and the header of
+	 * the stream after it, if any.
+	 */
+	private void endStream() throws IOException {
+		BZip2Decoder decoder = new BZip2Decoder(map, nextBit);
+		if (decoder.readMagic() != BZip2Decoder.END_MAGIC)
+			throw new IOException("Bad bzip2 block at bit " + nextBit);
+		if (decoder.readInt() != streamCrc)
+			throw new IOException("bzip2 stream CRC mismatch");
+		decoder.alignToByte();
+		streamCrc = 0;
+		long header = decoder.bitPosition();
+		int blockSize;
+		try {
+			blockSize = decoder.readHeader();
+		} catch (IOException e) {
+			// not another stream.
+			blockSize = -1;
+		}
+		done = blockSize < 0;
+		nextBit = header + 32;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException {
+		if ((position == block.length) && !nextBlock())
+			return -1;
+		return block[position++] & 0xff;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == block.length) {
+			if (!nextBlock())
+				return -1;
+		}
+		int n = Math.min(len, block.length - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() {
+		return block.length - position;
+	}
+
+	/**
+	 * Wait for the blocks being decoded, then unmap and close the file.
+	 * @see java.io.InputStream#close()
+	 */
+	public void close() throws IOException {
+		done = true;
+		closed = true;
+		pending.addAll(dropped);
+		dropped.clear();
+		while (!pending.isEmpty()) {
+			// tasks not yet started return at once.
+			pending.pollFirst().quietlyJoin();
+		}
+		if (parallelism > 0)
+			pool.shutdown();
+		block = new byte[0];
+		position = 0;
+		if (map != null) {
+			DirectBuffers.free(map);
+			map = null;
+		}
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * @return the number of worker threads, 0 for the common pool.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+}
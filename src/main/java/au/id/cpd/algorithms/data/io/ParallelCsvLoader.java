@@ -0,0 +1,604 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Loads a delimited file of numbers into a matrix on a fork join pool.
+ *
+ * The file is split into byte ranges that start at the beginning of a
+ * line. A first pass counts the rows in each range, which gives the size
+ * of the matrix and the first row of each range, then each range is
+ * parsed by its own CsvParser straight into its own rows of the
+ * destination. Rows are read the same way as by CsvParser.
+ *
+ * The file must not change while it is loaded.
+ *
+ * @author cd
+ *
+ */
+public class ParallelCsvLoader {
+
+	/**
+	 * Largest range of the file read by one task.
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 1L << 24;
+
+	/**
+	 * Files are not split into ranges smaller than this.
+	 */
+	private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+	/**
+	 * Bytes read at a time when counting rows.
+	 */
+	private static final int READ_SIZE = 1 << 16;
+
+	private final File file;
+
+	private char delimiter = ',';
+
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Number of worker threads, 0 uses the common pool.
+	 */
+	private volatile int parallelism;
+
+	/**
+	 * Pool of parallelism workers, null until first used.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Start of each range followed by the length of the file,
+	 * null until the file is scanned.
+	 */
+	private long[] bounds;
+
+	/**
+	 * Rows in each range.
+	 */
+	private int[] counts;
+
+	private int cols;
+
+	/**
+	 * Count the rows of one range of the file.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class CountTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final byte delimiter;
+		private int rows;
+		private IOException failure;
+
+		CountTask(FileChannel channel, long start, long end, byte delimiter) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.delimiter = delimiter;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			try {
+				rows = countRows(channel, start, end, delimiter);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Parse one range of the file into its rows of the destination.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class ParseTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final char delimiter;
+		private final RegionSink sink;
+		private boolean done;
+		private IOException failure;
+
+		ParseTask(FileChannel channel, long start, long end, char delimiter, RegionSink sink) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.delimiter = delimiter;
+			this.sink = sink;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			CsvParser parser = new CsvParser(new RangeInputStream(channel, start, end));
+			parser.setDelimiter(delimiter);
+			parser.setColumns(sink.cols);
+			try {
+				done = (parser.parse(sink) == sink.rows) && sink.ok;
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Writes the rows of a range to the destination a block at a time
+	 * from its first row.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class RegionSink implements IRowSink {
+
+		private final IMatrix dest;
+		private final int first;
+		private final int rows;
+		private final int cols;
+		private final double[] block;
+		private final int blockRows;
+		private int held;
+		private int written;
+		private boolean ok = true;
+
+		RegionSink(IMatrix dest, int first, int rows, int cols) {
+			this.dest = dest;
+			this.first = first;
+			this.rows = rows;
+			this.cols = cols;
+			this.blockRows = Math.max(1, Math.min(rows, MatrixBufferSink.BLOCK_ROWS));
+			this.block = new double[blockRows * cols];
+		}
+
+		/* (non-Javadoc)
+		 * @see au.id.cpd.algorithms.data.io.IRowSink#row(int, double[], int)
+		 */
+		public boolean row(int row, double[] values, int cols) {
+			if (written + held == rows) {
+				// more rows than were counted.
+				ok = false;
+				return false;
+			}
+			System.arraycopy(values, 0, block, held * cols, cols);
+			held++;
+			if (held == blockRows)
+				flush();
+			return ok;
+		}
+
+		/* (non-Javadoc)
+		 * @see au.id.cpd.algorithms.data.io.IRowSink#end(int)
+		 */
+		public void end(int rows) {
+			flush();
+		}
+
+		private void flush() {
+			if (held == 0)
+				return;
+			ok = write(dest, first + written, held, cols, block) && ok;
+			written += held;
+			held = 0;
+		}
+	}
+
+	/**
+	 * Reads a range of a file channel from its own position so that
+	 * ranges of the one channel may be read at once.
+	 *
+	 * @author cd
+	 *
+	 */
+	private static class RangeInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RangeInputStream(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end)
+				return -1;
+			len = (int) Math.min(len, end - position);
+			int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (n <= 0)
+				return -1;
+			position += n;
+			return n;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read()
+		 */
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == 1) ? (b[0] & 0xff) : -1;
+		}
+	}
+
+	/**
+	 * @param fileName
+	 */
+	public ParallelCsvLoader(String fileName) {
+		this(new File(fileName));
+	}
+
+	/**
+	 * @param file
+	 */
+	public ParallelCsvLoader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Scan the file for its size.
+	 * @return the rows and columns of the file or null if it cannot be read.
+	 */
+	public Size size() {
+		if ((bounds == null) && !scan())
+			return null;
+		return new Size(rows(), cols);
+	}
+
+	/**
+	 * Load the file into a new DenseMatrix.
+	 * @return the matrix or null if the file cannot be read.
+	 */
+	public DenseMatrix<Double> loadMatrix() {
+		Size s = size();
+		if (s == null)
+			return null;
+		DenseMatrix<Double> m = new DenseMatrix<Double>(s.getRows(), s.getCols());
+		return load(m) ? m : null;
+	}
+
+	/**
+	 * Load the file into a new MatrixBuffer, for files larger than the heap.
+	 * @return the buffer or null if the file cannot be read.
+	 */
+	public MatrixBuffer<Double> loadBuffer() {
+		Size s = size();
+		if (s == null)
+			return null;
+		MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(s);
+		if (m == null)
+			return null;
+		if (!load(m)) {
+			m.close();
+			return null;
+		}
+		return m;
+	}
+
+	/**
+	 * Load the file into a matrix that has the size of the file.
+	 *
+	 * DenseMatrix, MatrixBuffer and OffHeapMatrix are written a block of
+	 * rows at a time, other matrices a cell at a time, and must allow
+	 * different rows to be set at once.
+	 *
+	 * @param dest
+	 * @return false if the sizes differ or the file cannot be read.
+	 */
+	public boolean load(IMatrix dest) {
+		Size s = size();
+		if ((s == null) || (s.compareTo(dest.getSize()) != 0))
+			return false;
+		if (s.getRows() == 0)
+			return true;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			ParseTask[] tasks = new ParseTask[counts.length];
+			int first = 0;
+			for (int k = 0; k < tasks.length; k++) {
+				RegionSink sink = new RegionSink(dest, first, counts[k], cols);
+				tasks[k] = new ParseTask(channel, bounds[k], bounds[k + 1], delimiter, sink);
+				first += counts[k];
+			}
+			invoke(tasks);
+			for (ParseTask t : tasks) {
+				if (t.failure != null)
+					throw t.failure;
+				if (!t.done) {
+					System.err.println("Rows of " + file + " changed while loading");
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Split the file into ranges, count the rows of each
+	 * and read the columns of the first row.
+	 * @return false if the file cannot be read.
+	 */
+	private boolean scan() {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			long[] b = split(channel, channel.size());
+			CountTask[] tasks = new CountTask[b.length - 1];
+			for (int k = 0; k < tasks.length; k++) {
+				tasks[k] = new CountTask(channel, b[k], b[k + 1], (byte) delimiter);
+			}
+			invoke(tasks);
+			int[] c = new int[tasks.length];
+			long total = 0;
+			for (int k = 0; k < tasks.length; k++) {
+				if (tasks[k].failure != null)
+					throw tasks[k].failure;
+				c[k] = tasks[k].rows;
+				total += c[k];
+			}
+			if (total > Integer.MAX_VALUE) {
+				System.err.println(file + " has " + total + " rows, more than a matrix holds");
+				return false;
+			}
+			int columns = 0;
+			if (total > 0) {
+				CsvParser parser = new CsvParser(new RangeInputStream(channel, 0, b[b.length - 1]));
+				parser.setDelimiter(delimiter);
+				parser.parse(new IRowSink() {
+					public boolean row(int row, double[] values, int cols) {
+						return false;
+					}
+
+					public void end(int rows) {
+					}
+				});
+				columns = parser.getColumns();
+			}
+			bounds = b;
+			counts = c;
+			cols = columns;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return false;
+	}
+
+	private int rows() {
+		int n = 0;
+		for (int c : counts) {
+			n += c;
+		}
+		return n;
+	}
+
+	/**
+	 * Split the file into ranges of about the chunk size, smaller for
+	 * files too small to give each worker a few ranges, each moved on
+	 * to the start of the next line.
+	 *
+	 * @return the start of each range followed by the length.
+	 */
+	private long[] split(FileChannel channel, long length) throws IOException {
+		int workers = (parallelism <= 0) ? ForkJoinPool.getCommonPoolParallelism() : parallelism;
+		long size = Math.min(chunkSize, Math.max(MIN_CHUNK_SIZE, length / (4L * Math.max(1, workers))));
+		// an empty file is one empty range.
+		long[] b = new long[(int) Math.max(1, (length + size - 1) / size) + 1];
+		int n = 1;
+		for (long p = size; p < length; p += size) {
+			long start = lineStart(channel, Math.max(p, b[n - 1] + 1), length);
+			if (start >= length)
+				break;
+			b[n++] = start;
+		}
+		b[n++] = length;
+		long[] result = new long[n];
+		System.arraycopy(b, 0, result, 0, n);
+		return result;
+	}
+
+	/**
+	 * @return the start of the first line that begins at or after pos.
+	 */
+	private static long lineStart(FileChannel channel, long pos, long length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4096);
+		long p = pos - 1;
+		while (p < length) {
+			b.clear();
+			int n = channel.read(b, p);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++) {
+				if (b.get(i) == '\n')
+					return p + i + 1;
+			}
+			p += n;
+		}
+		return length;
+	}
+
+	/**
+	 * Count the lines of start..end that CsvParser reads as rows,
+	 * those holding a delimiter or a character that is not white space
+	 * or a quote.
+	 */
+	private static int countRows(FileChannel channel, long start, long end, byte delimiter) throws IOException {
+		byte[] buf = new byte[READ_SIZE];
+		RangeInputStream in = new RangeInputStream(channel, start, end);
+		int rows = 0;
+		boolean content = false;
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) > 0) {
+			for (int i = 0; i < n; i++) {
+				byte b = buf[i];
+				if (b == '\n') {
+					if (content)
+						rows++;
+					content = false;
+				} else if (!content && ((b == delimiter) || ((b != '"') && !CsvParser.isSpace(b)))) {
+					content = true;
+				}
+			}
+		}
+		if (content)
+			rows++;
+		return rows;
+	}
+
+	/**
+	 * Write rows x cols values to the rows of dest from row.
+	 */
+	private static boolean write(IMatrix dest, int row, int rows, int cols, double[] values) {
+		if (dest instanceof DenseMatrix) {
+			System.arraycopy(values, 0, ((DenseMatrix) dest).getValues(), row * cols, rows * cols);
+			return true;
+		}
+		if (dest instanceof MatrixBuffer)
+			return ((MatrixBuffer) dest).writeBlock(row, 0, rows, cols, values);
+		if (dest instanceof OffHeapMatrix)
+			return ((OffHeapMatrix) dest).writeBlock(row, 0, rows, cols, values);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				dest.set(row + i, j, Double.valueOf(values[i * cols + j]));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Run the tasks on the pool.
+	 * @param tasks
+	 */
+	private void invoke(final ForkJoinTask<?>[] tasks) {
+		if (tasks.length == 1) {
+			tasks[0].invoke();
+			return;
+		}
+		RecursiveAction all = new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		};
+		pool().invoke(all);
+	}
+
+	/**
+	 * @return the pool the tasks are run on, made on first use and kept
+	 * for later calls. Idle workers exit on their own.
+	 */
+	private synchronized ForkJoinPool pool() {
+		if (parallelism <= 0)
+			return ForkJoinPool.commonPool();
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * @param delimiter the character between fields, ',' by default.
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+		this.bounds = null;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @return the largest range of the file read by one task.
+	 */
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize the largest range of the file read by one task.
+	 */
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+		this.bounds = null;
+	}
+
+	/**
+	 * @return the number of worker threads, 0 for the common pool.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of worker threads, 0 for the common pool.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if ((pool != null) && (parallelism != this.parallelism)) {
+			// tasks already running finish on the old pool.
+			pool.shutdown();
+			pool = null;
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the file loaded.
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.util.Arrays;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Formats rows of a matrix as delimited text into a reusable byte array.
+ *
+ * @author cd
+ *
+ */
+class RowFormatter {
+
+	private final byte delimiter;
+
+	private final byte[] separator;
+
+	private double[] row = new double[0];
+
+	private byte[] buf = new byte[1 << 16];
+
+	private int length;
+
+	/**
+	 * @param delimiter between values.
+	 * @param separator ending each row.
+	 */
+	RowFormatter(char delimiter, String separator) {
+		this.delimiter = (byte) delimiter;
+		this.separator = new byte[separator.length()];
+		for (int i = 0; i < this.separator.length; i++) {
+			this.separator[i] = (byte) separator.charAt(i);
+		}
+	}
+
+	/**
+	 * Append row i of the matrix.
+	 *
+	 * @param m
+	 * @param i
+	 */
+	void append(IMatrix m, int i) {
+		int cols = m.getSize().getCols();
+		if (row.length != cols)
+			row = new double[cols];
+		readRow(m, i, row);
+		int needed = length + cols * (DoubleFormatter.MAX_LENGTH + 1) + separator.length;
+		if (needed > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+		int pos = length;
+		for (int j = 0; j < cols; j++) {
+			if (j > 0)
+				buf[pos++] = delimiter;
+			pos = DoubleFormatter.format(row[j], buf, pos);
+		}
+		System.arraycopy(separator, 0, buf, pos, separator.length);
+		length = pos + separator.length;
+	}
+
+	/**
+	 * @return the bytes formatted, valid up to the length.
+	 */
+	byte[] getBytes() {
+		return buf;
+	}
+
+	int length() {
+		return length;
+	}
+
+	void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Copy row i of a matrix, cells that are null read as 0.
+	 */
+	private static void readRow(IMatrix m, int i, double[] row) {
+		int n = row.length;
+		if (m instanceof DenseMatrix) {
+			System.arraycopy(((DenseMatrix) m).getValues(), i * n, row, 0, n);
+			return;
+		}
+		if (m instanceof FloatMatrix) {
+			float[] values = ((FloatMatrix) m).getValues();
+			for (int j = 0; j < n; j++) {
+				row[j] = values[i * n + j];
+			}
+			return;
+		}
+		if ((m instanceof MatrixBuffer) && ((MatrixBuffer) m).readBlock(i, 0, 1, n, row))
+			return;
+		if ((m instanceof OffHeapMatrix) && ((OffHeapMatrix) m).readBlock(i, 0, 1, n, row))
+			return;
+		for (int j = 0; j < n; j++) {
+			Object v = m.get(i, j);
+			row[j] = (v == null) ? 0.0 : ((java.lang.Number) v).doubleValue();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.util.Arrays;
+
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Collects sparse rows into a SparseMatrix and their labels into
+ * a column vector.
+ *
+ * @author cd
+ *
+ */
+public class SparseMatrixSink implements ISparseRowSink {
+
+	/**
+	 * Whether the label is kept as the first column of the matrix.
+	 */
+	private final boolean labelColumn;
+
+	private SparseMatrix<Double> matrix = new SparseMatrix<Double>();
+
+	private double[] labels = new double[1024];
+
+	private int rows;
+
+	private int[] columns = new int[16];
+
+	private double[] values = new double[16];
+
+	private DenseMatrix<Double> labelMatrix;
+
+	public SparseMatrixSink() {
+		this(false);
+	}
+
+	/**
+	 * @param labelColumn true to store the label in column 0 of the matrix
+	 * and the features from column 1, as the classifiers take their data.
+	 */
+	public SparseMatrixSink(boolean labelColumn) {
+		this.labelColumn = labelColumn;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.ISparseRowSink#row(int, double, int[], double[], int)
+	 */
+	public boolean row(int row, double label, int[] rowColumns, double[] rowValues, int count) {
+		if (rows == labels.length) {
+			labels = Arrays.copyOf(labels, labels.length * 2);
+		}
+		labels[rows++] = label;
+		if (!labelColumn) {
+			matrix.addRow(rowColumns, rowValues, count);
+			return true;
+		}
+		if (count + 1 > columns.length) {
+			columns = new int[Math.max(columns.length * 2, count + 1)];
+			values = new double[columns.length];
+		}
+		columns[0] = 0;
+		values[0] = label;
+		for (int k = 0; k < count; k++) {
+			columns[k + 1] = rowColumns[k] + 1;
+			values[k + 1] = rowValues[k];
+		}
+		matrix.addRow(columns, values, count + 1);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.id.cpd.algorithms.data.io.ISparseRowSink#end(int)
+	 */
+	public void end(int rows) {
+		labelMatrix = new DenseMatrix<Double>(this.rows, 1, Arrays.copyOf(labels, this.rows));
+		labels = null;
+	}
+
+	/**
+	 * Widen the matrix to a number of feature columns, as when a test
+	 * file does not use the last features of the training file.
+	 * @param cols
+	 */
+	public void setColumns(int cols) {
+		int c = labelColumn ? cols + 1 : cols;
+		if (c > matrix.getSize().getCols())
+			matrix.resize(new Size(matrix.getSize().getRows(), c));
+	}
+
+	/**
+	 * @return the rows read.
+	 */
+	public SparseMatrix<Double> getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return the label of each row as a column, null before the end.
+	 */
+	public DenseMatrix<Double> getLabels() {
+		return labelMatrix;
+	}
+}
@@ -0,0 +1,449 @@
+/**
+ *
+ */
+package au.id.cpd.algorithms.data.io;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Names the temporary files of MatrixBuffers and keeps the total
+ * size of those on disk within a disk budget.
+ *
+ * Names are a prefix chosen when the store is created followed by a
+ * counter. A file is written to its full size when it is named, so a
+ * full disk is reported then rather than as a fault on a later write to
+ * a mapping. A file released by a closed buffer is kept at its size and
+ * given to the next buffer asking for the same number of bytes, so that
+ * creating a buffer does not create, grow and delete a file each time.
+ * Every file of the store is deleted when the jvm terminates.
+ *
+ * The store also tracks the open buffers. The file of a buffer that is
+ * collected without being closed is closed, and a temporary one given
+ * back, by a reaper thread as soon as the collector finds the buffer,
+ * without waiting for finalization. When a file would exceed the budget
+ * the store first collects such buffers before refusing it.
+ *
+ * The budget of the default store may be set with the system property
+ * au.id.cpd.algorithms.tempDiskBudget, in bytes. Released files kept for
+ * reuse count towards it.
+ *
+ * @author cd
+ *
+ */
+public class TempFileStore {
+
+	/**
+	 * Released files kept for reuse by default.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 64;
+
+	/**
+	 * Times the store waits for collected buffers before refusing a file.
+	 */
+	private static final int COLLECT_TRIES = 9;
+
+	private static TempFileStore defaultStore;
+
+	/**
+	 * Directory holding the files.
+	 */
+	private final File directory;
+
+	/**
+	 * Start of every file name of this store.
+	 */
+	private final String prefix;
+
+	private long counter;
+
+	/**
+	 * Bytes of each file in use.
+	 */
+	private final Map<String, Long> inUse = new HashMap<String, Long>();
+
+	/**
+	 * Released files for reuse by their size.
+	 */
+	private final TreeMap<Long, Deque<String>> pool = new TreeMap<Long, Deque<String>>();
+
+	private int pooled;
+
+	private long bytesPooled;
+
+	private int poolSize = DEFAULT_POOL_SIZE;
+
+	private long bytesInUse;
+
+	private long diskBudget = Long.MAX_VALUE;
+
+	/**
+	 * Handles of the buffers being tracked.
+	 */
+	private final Set<Handle> handles = new HashSet<Handle>();
+
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	/**
+	 * The file of a tracked buffer, closed if the buffer is collected
+	 * before it is untracked.
+	 *
+	 * @author cd
+	 *
+	 */
+	public static class Handle extends PhantomReference<Object> {
+
+		private final Closeable file;
+
+		/**
+		 * The name of a temporary file, null for other files.
+		 */
+		private String name;
+
+		Handle(Object owner, Closeable file, ReferenceQueue<Object> queue) {
+			super(owner, queue);
+			this.file = file;
+		}
+	}
+
+	/**
+	 * @param directory
+	 */
+	public TempFileStore(File directory) {
+		this.directory = directory;
+		this.prefix = "jmat" + Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36) + "-";
+		Runtime.getRuntime().addShutdownHook(new Thread("TempFileStore") {
+			public void run() {
+				deleteAll();
+			}
+		});
+		Thread reaper = new Thread("TempFileStore reaper") {
+			public void run() {
+				while (true) {
+					try {
+						reclaim((Handle) collected.remove());
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+
+	/**
+	 * The store in java.io.tmpdir used by MatrixBuffer.
+	 * @return
+	 */
+	public static synchronized TempFileStore getDefault() {
+		if (defaultStore == null) {
+			defaultStore = new TempFileStore(new File(System.getProperty("java.io.tmpdir")));
+			defaultStore.setDiskBudget(Long.getLong("au.id.cpd.algorithms.tempDiskBudget", Long.MAX_VALUE));
+		}
+		return defaultStore;
+	}
+
+	/**
+	 * Name a file of zeroes for a buffer of the given size.
+	 *
+	 * @param bytes the size of the file.
+	 * @return the file name or null if the file would exceed the budget
+	 *         or cannot be written.
+	 */
+	public String acquire(long bytes) {
+		return acquire(bytes, true);
+	}
+
+	/**
+	 * Name a file for a buffer of the given size.
+	 *
+	 * @param bytes the size of the file.
+	 * @param zero true for a file of zeroes of its full size, false when
+	 *        the caller writes the whole file itself through a channel,
+	 *        the file may then hold anything.
+	 * @return the file name or null if the file would exceed the budget
+	 *         or cannot be written.
+	 */
+	public String acquire(long bytes, boolean zero) {
+		String name;
+		synchronized (this) {
+			if (!reserve(bytes)) {
+				System.err.println("Temporary matrix of " + bytes + " bytes exceeds the budget of " + diskBudget
+						+ " bytes, " + bytesInUse + " in use");
+				return null;
+			}
+			name = take(bytes);
+			// drop the largest released files first to stay in the budget.
+			while ((pooled > 0) && (bytesInUse + bytes + bytesPooled > diskBudget)) {
+				new File(remove(pool.lastKey())).delete();
+			}
+			try {
+				while (name == null) {
+					File f = new File(directory, prefix + (counter++) + ".jmat");
+					if (f.createNewFile())
+						name = f.getPath();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			inUse.put(name, bytes);
+			bytesInUse += bytes;
+		}
+		if (!zero)
+			return name;
+		try {
+			fill(name, bytes);
+		} catch (IOException e) {
+			e.printStackTrace();
+			delete(name);
+			return null;
+		}
+		return name;
+	}
+
+	/**
+	 * Whether a file of bytes fits the budget, collecting buffers that
+	 * were not closed to make room. The caller holds the lock of the store.
+	 */
+	private boolean reserve(long bytes) {
+		for (int tries = 0; bytesInUse + bytes > diskBudget; tries++) {
+			if (tries == COLLECT_TRIES)
+				return false;
+			if (tries == 0)
+				System.gc();
+			try {
+				// the reaper gives back the files of collected buffers.
+				wait(1L << tries);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write zeroes over the whole file, so that the file system allocates
+	 * every block of a new file and a reused file holds no old cells.
+	 */
+	private static void fill(String name, long bytes) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(name, "rw");
+		try {
+			FileChannel ch = f.getChannel();
+			ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(bytes, 1 << 20)));
+			long position = 0;
+			while (position < bytes) {
+				zeros.clear();
+				zeros.limit((int) Math.min(zeros.capacity(), bytes - position));
+				while (zeros.hasRemaining()) {
+					position += ch.write(zeros, position);
+				}
+			}
+		} finally {
+			f.close();
+		}
+	}
+
+	/**
+	 * Take a released file of the given size from the pool.
+	 * @return the name or null if there is none.
+	 */
+	private String take(long bytes) {
+		return pool.containsKey(bytes) ? remove(bytes) : null;
+	}
+
+	private String remove(long bytes) {
+		Deque<String> names = pool.get(bytes);
+		String name = names.pollFirst();
+		if (names.isEmpty())
+			pool.remove(bytes);
+		pooled--;
+		bytesPooled -= bytes;
+		return name;
+	}
+
+	/**
+	 * Record a new size for a file in use.
+	 *
+	 * @param name
+	 * @param bytes
+	 */
+	public synchronized void resized(String name, long bytes) {
+		Long previous = inUse.get(name);
+		if (previous == null)
+			return;
+		inUse.put(name, bytes);
+		bytesInUse += bytes - previous;
+	}
+
+	/**
+	 * Return a closed file for reuse at its size, it is deleted if
+	 * the pool is full.
+	 *
+	 * @param name
+	 */
+	public synchronized void release(String name) {
+		if (!free(name))
+			return;
+		long bytes = new File(name).length();
+		if ((pooled < poolSize) && (bytesInUse + bytesPooled + bytes <= diskBudget)) {
+			Deque<String> names = pool.get(bytes);
+			if (names == null) {
+				names = new ArrayDeque<String>();
+				pool.put(bytes, names);
+			}
+			names.addLast(name);
+			pooled++;
+			bytesPooled += bytes;
+		} else {
+			new File(name).delete();
+		}
+	}
+
+	/**
+	 * Delete a file that is no longer used.
+	 *
+	 * @param name
+	 */
+	public synchronized void delete(String name) {
+		free(name);
+		new File(name).delete();
+	}
+
+	private boolean free(String name) {
+		Long bytes = inUse.remove(name);
+		if (bytes == null)
+			return false;
+		bytesInUse -= bytes;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Close the file of a buffer if the buffer is collected before it
+	 * is untracked.
+	 *
+	 * @param owner the buffer.
+	 * @param file
+	 * @return the handle to untrack the buffer with.
+	 */
+	public synchronized Handle track(Object owner, Closeable file) {
+		Handle handle = new Handle(owner, file, collected);
+		handles.add(handle);
+		return handle;
+	}
+
+	/**
+	 * Give the named temporary file back as well as closing the file
+	 * if the buffer of the handle is collected.
+	 *
+	 * @param handle
+	 * @param name
+	 */
+	public synchronized void setTemporary(Handle handle, String name) {
+		if (handles.contains(handle))
+			handle.name = name;
+	}
+
+	/**
+	 * Stop tracking a buffer that is being closed.
+	 *
+	 * @param handle
+	 */
+	public synchronized void untrack(Handle handle) {
+		if ((handle != null) && handles.remove(handle))
+			handle.clear();
+	}
+
+	/**
+	 * Close the file of a collected buffer and give back its
+	 * temporary file.
+	 */
+	private synchronized void reclaim(Handle handle) {
+		if (!handles.remove(handle))
+			return;
+		try {
+			handle.file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (handle.name != null)
+			release(handle.name);
+	}
+
+	/**
+	 * Delete the files kept for reuse.
+	 */
+	public synchronized void clear() {
+		while (pooled > 0) {
+			new File(remove(pool.lastKey())).delete();
+		}
+	}
+
+	private synchronized void deleteAll() {
+		clear();
+		for (String name : inUse.keySet()) {
+			new File(name).delete();
+		}
+		inUse.clear();
+		bytesInUse = 0;
+	}
+
+	/**
+	 * @return the bytes of the files in use.
+	 */
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	/**
+	 * @return the bytes of the released files kept for reuse.
+	 */
+	public synchronized long getBytesPooled() {
+		return bytesPooled;
+	}
+
+	/**
+	 * @return the bytes the files may take, in use or kept for reuse.
+	 */
+	public synchronized long getDiskBudget() {
+		return diskBudget;
+	}
+
+	/**
+	 * @param diskBudget the bytes the files may take, in use or kept
+	 *        for reuse.
+	 */
+	public synchronized void setDiskBudget(long diskBudget) {
+		this.diskBudget = diskBudget;
+	}
+
+	/**
+	 * @return the number of released files kept for reuse.
+	 */
+	public synchronized int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @param poolSize the number of released files kept for reuse.
+	 */
+	public synchronized void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+		while (pooled > poolSize) {
+			new File(remove(pool.lastKey())).delete();
+		}
+	}
+
+	/**
+	 * @return the directory holding the files.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+}
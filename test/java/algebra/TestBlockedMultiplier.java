@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package algebra;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.algebra.*;
+
+/**
+ * Compare the blocked multiplier against a plain triple loop
+ * on sizes that do not divide the block sizes.
+ * @author cd
+ *
+ */
+public class TestBlockedMultiplier {
+
+	private DenseMatrix<Double> A;
+	private DenseMatrix<Double> B;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random rand = new Random(7);
+		A = new DenseMatrix<Double>(131, 261);
+		B = new DenseMatrix<Double>(261, 67);
+		for(int i=0;i<A.getValues().length;i++)
+			A.getValues()[i] = rand.nextDouble() - 0.5;
+		for(int i=0;i<B.getValues().length;i++)
+			B.getValues()[i] = rand.nextDouble() - 0.5;
+	}
+
+	private static double[][] naive(IMatrix<Double> a, IMatrix<Double> b) {
+		int m = a.getSize().getRows();
+		int n = b.getSize().getCols();
+		double[][] c = new double[m][n];
+		for(int i=0;i<m;i++)
+			for(int j=0;j<n;j++)
+				for(int k=0;k<a.getSize().getCols();k++)
+					c[i][j] += a.get(i, k).doubleValue() * b.get(k, j).doubleValue();
+		return c;
+	}
+
+	private static void assertSame(double[][] expect, IMatrix<Double> actual) {
+		assertEquals(expect.length, actual.getSize().getRows());
+		assertEquals(expect[0].length, actual.getSize().getCols());
+		for(int i=0;i<expect.length;i++)
+			for(int j=0;j<expect[i].length;j++)
+				assertEquals(expect[i][j], actual.get(i, j).doubleValue(), 1e-10);
+	}
+
+	@Test
+	public void testMultiply() {
+		assertSame(naive(A, B), A.multiply(B));
+	}
+
+	@Test
+	public void testTransposed() {
+		BlockedMultiplierOperation op = new BlockedMultiplierOperation();
+		IMatrix<Double> At = A.transform();
+		IMatrix<Double> Bt = B.transform();
+		assertSame(naive(A, B), op.operate(At, true, B, false));
+		assertSame(naive(A, B), op.operate(A, false, Bt, true));
+		assertSame(naive(A, B), op.operate(At, true, Bt, true));
+	}
+
+	@Test
+	public void testBoxedOperands() {
+		Matrix<Double> a = new Matrix<Double>(A.getSize().getRows(), A.getSize().getCols());
+		for(int i=0;i<A.getValues().length;i++)
+			a.add(A.getValues()[i]);
+		assertSame(naive(A, B), a.multiply(B));
+	}
+
+	@Test
+	public void testCovariance() {
+		assertSame(naive(A, A.transform()), A.covariance());
+	}
+
+	@Test
+	public void testForkJoin() {
+		DenseMatrix<Double> a = new DenseMatrix<Double>(300, 200);
+		DenseMatrix<Double> b = new DenseMatrix<Double>(200, 310);
+		Random rand = new Random(11);
+		for(int i=0;i<a.getValues().length;i++)
+			a.getValues()[i] = rand.nextDouble();
+		for(int i=0;i<b.getValues().length;i++)
+			b.getValues()[i] = rand.nextDouble();
+		double[][] expect = naive(a, b);
+		assertSame(expect, new ForkJoinMultiplierOperation().operate(a, b));
+		// the pool of an operation is kept for later products.
+		ForkJoinMultiplierOperation op = new ForkJoinMultiplierOperation(3);
+		for(int k=0;k<3;k++)
+			assertSame(expect, op.operate(a, b));
+		op.setParallelism(2);
+		assertSame(expect, op.operate(a, b));
+	}
+
+	@Test
+	public void testOutOfCore() {
+		// a budget small enough that every dimension spans several tiles.
+		OutOfCoreMultiplierOperation op = new OutOfCoreMultiplierOperation(7*32*32*8);
+		assertEquals(32, op.getTileSize());
+		MatrixBuffer<Double> a = MatrixBuffer.CreateMatrixBuffer(A.getSize().getRows(), A.getSize().getCols());
+		MatrixBuffer<Double> b = MatrixBuffer.CreateMatrixBuffer(B.getSize().getRows(), B.getSize().getCols());
+		a.copyFrom(A);
+		b.copyFrom(B);
+		double[][] expect = naive(A, B);
+		IMatrix<Double> c = op.operate(a, b);
+		assertSame(expect, c);
+		DenseMatrix<Double> d = new DenseMatrix<Double>(A.getSize().getRows(), B.getSize().getCols());
+		assertTrue(op.multiply(a, B, d));
+		assertSame(expect, d);
+		a.close();
+		b.close();
+		((MatrixBuffer<Double>)c).close();
+	}
+
+	@Test
+	public void testOutOfCoreTiled() {
+		// tiles of the product that are not a multiple of the file tiles.
+		OutOfCoreMultiplierOperation op = new OutOfCoreMultiplierOperation(7*40*40*8);
+		MatrixBuffer<Double> a = MatrixBuffer.CreateMatrixBuffer(A.getSize(), 16);
+		MatrixBuffer<Double> b = MatrixBuffer.CreateMatrixBuffer(B.getSize(), 16);
+		MatrixBuffer<Double> c = MatrixBuffer.CreateMatrixBuffer(new Size(A.getSize().getRows(), B.getSize().getCols()), 16);
+		a.copyFrom(A);
+		b.copyFrom(B);
+		assertTrue(op.multiply(a, b, c));
+		assertSame(naive(A, B), c);
+		a.close();
+		b.close();
+		c.close();
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package classifier;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.classifier.*;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Check that dense, sparse and column file data give the network the
+ * same targets and the same data columns.
+ * @author cd
+ *
+ */
+public class TestMlpInitialiseData {
+
+	private DenseMatrix<Double> dense;
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(7);
+		dense = new DenseMatrix<Double>(40, 9);
+		for(int i=0;i<40;i++) {
+			for(int j=0;j<9;j++) {
+				// about half the cells are zero.
+				dense.set(i, j, random.nextBoolean() ? 0.0 : (double) random.nextInt(100));
+			}
+		}
+		file = File.createTempFile("mlp", ".jcol");
+		assertTrue(new ColumnFileWriter().save(dense, file.getPath()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static MlpNeuralNetwork network(Integer... targets) {
+		MlpNeuralNetwork net = new MlpNeuralNetwork();
+		net.setOutputCount(targets.length);
+		net.setTargetColumn(new ArrayList<Integer>(Arrays.asList(targets)));
+		return net;
+	}
+
+	private static void assertSame(IMatrix<Double> expected, IMatrix<Double> actual) {
+		assertEquals(expected.getSize().getRows(), actual.getSize().getRows());
+		assertEquals(expected.getSize().getCols(), actual.getSize().getCols());
+		for(int i=0;i<expected.getSize().getRows();i++)
+			for(int j=0;j<expected.getSize().getCols();j++)
+				assertEquals(expected.get(i, j).doubleValue(), actual.get(i, j).doubleValue(), 0.0);
+	}
+
+	private void assertPaths(Integer... targets) throws Exception {
+		MlpNeuralNetwork net = network(targets);
+		net.initialiseData(dense);
+		IMatrix<Double> data = net.getData();
+		IMatrix<Double> t = net.getTargets();
+		// the columns left in order, then the bias.
+		List<Integer> kept = new ArrayList<Integer>();
+		for(int j=0;j<dense.getSize().getCols();j++)
+			if (!Arrays.asList(targets).contains(j))
+				kept.add(j);
+		assertEquals(kept.size() + 1, data.getSize().getCols());
+		for(int i=0;i<dense.getSize().getRows();i++) {
+			for(int k=0;k<kept.size();k++)
+				assertEquals(dense.get(i, kept.get(k)).doubleValue(), data.get(i, k).doubleValue(), 0.0);
+			assertEquals(-1.0, data.get(i, kept.size()).doubleValue(), 0.0);
+			for(int k=0;k<targets.length;k++)
+				assertEquals(dense.get(i, targets[k]).doubleValue(), t.get(i, k).doubleValue(), 0.0);
+		}
+		// the target columns are left as they were set.
+		assertEquals(Arrays.asList(targets), net.getTargetColumns());
+		net.initialiseData(dense);
+		assertSame(data, net.getData());
+		assertSame(t, net.getTargets());
+
+		MlpNeuralNetwork sparse = network(targets);
+		sparse.initialiseData(new SparseMatrix<Double>(dense));
+		assertSame(data, sparse.getData());
+		assertSame(t, sparse.getTargets());
+
+		MlpNeuralNetwork columns = network(targets);
+		ColumnFile f = ColumnFile.open(file.getPath());
+		try {
+			columns.initialiseData(f);
+		} finally {
+			f.close();
+		}
+		assertSame(data, columns.getData());
+		assertSame(t, columns.getTargets());
+	}
+
+	@Test
+	public void testLastColumn() throws Exception {
+		assertPaths(8);
+	}
+
+	@Test
+	public void testUnorderedColumns() throws Exception {
+		assertPaths(5, 1, 7);
+		assertPaths(0, 8);
+	}
+}
@@ -22,8 +22,8 @@ public class TestMlpNetTRwoClasses implements Observer {
 	
 
 	private static String data1 = "resources/data/test-pima-diabetes/pima-indians-diabetes.data";
-	private Matrix<Double> train1;
-	private Matrix<Double> test1;
+	private IMatrix<Double> train1;
+	private IMatrix<Double> test1;
 	private IMatrix<Double> data;
 	private MlpNeuralNetwork net;
 	private GradientDescentFrame plotter;
@@ -51,17 +51,8 @@ public class TestMlpNetTRwoClasses implements Observer {
 		int cols = matrix.getSize().getCols();
 		int trows = (int)(0.7*rows);
 		int cnt = 0;
-		this.train1 = new Matrix<Double>(trows, cols);
-		this.test1 = new Matrix<Double>(rows - trows, cols);
-		for(int i=0;i<rows;i++) {
-			for(int j=0;j<cols;j++) {
-				if (i < trows) {
-					this.train1.add(matrix.get(i,j));
-				} else {
-					this.test1.add(matrix.get(i, j));
-				}
-			}
-		}
+		this.train1 = matrix.rowsView(0, trows);
+		this.test1 = matrix.rowsView(trows, rows);
 	}
 	
 	@Test
@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Compare the primitive dense matrix against the boxed matrix.
+ * @author cd
+ *
+ */
+public class TestDenseMatrix {
+
+	private Matrix<Double> boxed;
+	private DenseMatrix<Double> dense;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		boxed = new Matrix<Double>(4, 3);
+		dense = new DenseMatrix<Double>(4, 3);
+		for(int i=0;i<12;i++) {
+			double d = (i - 5) * 0.25;
+			boxed.add(d);
+			dense.add(d);
+		}
+	}
+
+	@Test
+	public void testGetSet() {
+		dense.setDouble(1, 2, 7.5);
+		assertEquals(7.5, dense.get(1, 2).doubleValue(), 0.0);
+		dense.set(2, 1, 3);
+		assertEquals(3.0, dense.getDouble(2, 1), 0.0);
+		assertNull(dense.get(4, 0));
+	}
+
+	@Test
+	public void testElementwise() {
+		assertTrue(dense.exp().equals(boxed.exp()));
+		assertTrue(dense.tanh().equals(boxed.tanh()));
+		assertTrue(dense.sum(1.0).equals(boxed.sum(1.0)));
+		assertTrue(dense.subtractFrom(1.0).equals(boxed.subtractFrom(1.0)));
+		assertTrue(dense.multiply(3.0).equals(boxed.multiply(3.0)));
+		assertTrue(dense.divide(2.0).equals(boxed.divide(2.0)));
+		assertTrue(dense.power(2.0).equals(boxed.power(2.0)));
+		assertTrue(dense.pointwiseMultiply(dense).equals(boxed.pointwiseMultiply(boxed)));
+		assertTrue(dense.sum(dense).equals(boxed.sum(boxed)));
+		assertTrue(dense.subtract(dense.multiply(2.0)).equals(boxed.subtract(boxed.multiply(2.0))));
+	}
+
+	@Test
+	public void testMultiply() {
+		IMatrix<Double> a = dense.multiply(dense.transform());
+		IMatrix<Double> b = boxed.multiply(boxed.transform());
+		assertEquals(a.getSize(), b.getSize());
+		for(int i=0;i<a.getSize().getRows();i++) {
+			for(int j=0;j<a.getSize().getCols();j++) {
+				assertEquals(b.get(i, j).doubleValue(), a.get(i, j).doubleValue(), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testNormalise() {
+		assertTrue(dense.normalise().equals(boxed.normalise()));
+		assertTrue(dense.meanNormalise().equals(boxed.meanNormalise()));
+		assertTrue(dense.minMaxNormalise().equals(boxed.minMaxNormalise()));
+		assertTrue(dense.columnMeans().equals(boxed.columnMeans()));
+		assertEquals(boxed.euclideanNorm(), dense.euclideanNorm(), 1e-12);
+	}
+
+	@Test
+	public void testRemoveColumn() {
+		dense.removeColumn(1);
+		boxed.removeColumn(1);
+		assertTrue(dense.equals(boxed));
+		dense.removeRow(0);
+		boxed.removeRow(0);
+		assertTrue(dense.equals(boxed));
+	}
+
+	@Test
+	public void testResize() {
+		dense.resize(5, 4);
+		assertEquals(20, dense.size());
+		assertEquals(boxed.get(3, 2).doubleValue(), dense.getDouble(3, 2), 0.0);
+		assertEquals(0.0, dense.getDouble(4, 3), 0.0);
+	}
+
+	@Test
+	public void testInPlace() {
+		IMatrix<Double> expect = boxed.sum(boxed.multiply(0.5)).multiply(2.0).pointwiseMultiply(boxed);
+		assertSame(dense, dense.axpy(0.5, dense.clone()));
+		dense.scaleInPlace(2.0).hadamardInPlace(boxed);
+		assertTrue(dense.equals(expect));
+		IMatrix<Double> original = boxed.clone();
+		boxed.axpy(0.5, original).scaleInPlace(2.0).hadamardInPlace(original);
+		assertTrue(boxed.equals(expect));
+		assertNull(dense.addInPlace(new DenseMatrix<Double>(2, 2)));
+		assertSame(dense, dense.exp(dense));
+	}
+
+	@Test
+	public void testViews() {
+		IMatrix<Double> t = dense.transposeView();
+		assertTrue(t.equals(boxed.transform()));
+		assertTrue(dense.rowsView(1, 3).columnsView(1, 3).transposeView()
+				.equals(dense.blockView(1, 1, 2, 2, 1, 1).transform()));
+		IMatrix<Double> odd = dense.blockView(1, 0, 2, 2, 2, 2);
+		assertEquals(dense.get(3, 2).doubleValue(), odd.get(1, 1).doubleValue(), 0.0);
+		assertEquals(dense.get(3, 0).doubleValue(), odd.transposeView().get(0, 1).doubleValue(), 0.0);
+		t.set(2, 3, 9.0);
+		assertEquals(9.0, dense.getDouble(3, 2), 0.0);
+		boxed.set(3, 2, 9.0);
+		assertTrue(t.multiply(dense).equals(dense.transform().multiply(dense)));
+		assertTrue(dense.rowsView(1, 4).multiply(t.columnsView(0, 2))
+				.equals(boxed.multiply(boxed.transform()).blockView(1, 0, 3, 2, 1, 1)));
+	}
+
+	@Test
+	public void testFloat() {
+		FloatMatrix<Double> single = new FloatMatrix<Double>(dense);
+		assertTrue(single.toDense().equals(dense));
+		assertTrue(single.multiply(single.transform()) instanceof FloatMatrix);
+		assertTrue(new DenseMatrix<Double>(single.multiply(single.transform())).equals(dense.multiply(boxed.transform())));
+		assertTrue(new DenseMatrix<Double>(single.sum(single)).equals(dense.sum(dense)));
+		assertTrue(single.columnMeans().equals(dense.columnMeans()));
+		assertEquals(dense.euclideanNorm(), single.euclideanNorm(), 0.0);
+		IMatrix<Double> e = single.exp();
+		for(int i=0;i<4;i++)
+			for(int j=0;j<3;j++)
+				assertEquals(dense.exp().get(i, j).doubleValue(), e.get(i, j).doubleValue(), 1e-6);
+		FloatMatrixBuffer<Double> buffer = FloatMatrixBuffer.CreateFloatMatrixBuffer(dense);
+		assertTrue(new DenseMatrix<Double>(buffer).equals(dense));
+		buffer.set(2, 1, 0.1);
+		assertEquals(0.1f, buffer.get(2, 1).floatValue(), 0.0f);
+		assertTrue(buffer.sum(buffer) instanceof FloatMatrixBuffer);
+		buffer.close();
+	}
+}
@@ -0,0 +1,439 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Check the file layouts and access modes of MatrixBuffer against
+ * the cells written to it.
+ * @author cd
+ *
+ */
+public class TestMatrixBuffer {
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("buffer", ".jmat");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+		new File(file.getPath() + ".size").delete();
+		new File(file.getPath() + ".copy").delete();
+	}
+
+	/**
+	 * A value for each cell that differs from its neighbours.
+	 */
+	private static double value(int i, int j) {
+		return i * 1000.0 + j + 0.25;
+	}
+
+	private static void fill(MatrixBuffer<Double> m) {
+		for(int i=0;i<m.getSize().getRows();i++)
+			for(int j=0;j<m.getSize().getCols();j++)
+				m.set(i, j, value(i, j));
+	}
+
+	private static void assertCells(MatrixBuffer<Double> m, int rows, int cols) {
+		assertEquals(rows, m.getSize().getRows());
+		assertEquals(cols, m.getSize().getCols());
+		for(int i=0;i<rows;i++)
+			for(int j=0;j<cols;j++)
+				assertEquals(value(i, j), m.get(i, j), 0.0);
+	}
+
+	@Test
+	public void testMappedAccess() throws Exception {
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), 300, 40);
+		assertEquals(MatrixBuffer.AccessMode.MAPPED, m.getAccessMode());
+		assertNotNull(m.getMap());
+		fill(m);
+		// the mapping is kept between calls.
+		assertSame(m.getMap(), m.getMap());
+		assertCells(m, 300, 40);
+		assertNull(m.get(300, 0));
+		m.close();
+		// close unmaps the segments.
+		assertNull(m.getMap());
+		m = new MatrixBuffer<Double>(file.getPath());
+		assertCells(m, 300, 40);
+		m.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+		assertNull(m.getMap());
+		assertCells(m, 300, 40);
+		m.close();
+		FloatMatrixBuffer<Double> f = FloatMatrixBuffer.CreateFloatMatrixBuffer(30, 20);
+		f.set(29, 19, 0.5);
+		f.set(3, 4, 1.0 / 3.0);
+		assertEquals(0.5, f.get(29, 19), 0.0);
+		assertEquals((float) (1.0 / 3.0), f.get(3, 4), 0.0);
+		f.close();
+	}
+
+	@Test
+	public void testSegments() throws Exception {
+		// 2.2GB of cells, a sparse file mapped in 1GB segments.
+		int rows = 17000;
+		int cols = 16000;
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), rows, cols);
+		try {
+			for(long boundary = 1L << 30; boundary < (long) rows * cols * 8; boundary += 1L << 30) {
+				long cell = boundary / 8;
+				int row = (int) (cell / cols);
+				int col = (int) (cell % cols);
+				m.set(row, col, value(row, col));
+				// a block of rows crossing the boundary.
+				double[] values = new double[3 * cols];
+				for(int k=0;k<values.length;k++)
+					values[k] = value(row - 1 + k / cols, k % cols);
+				assertTrue(m.writeBlock(row - 1, 0, 3, cols, values));
+				double[] read = new double[3 * cols];
+				assertTrue(m.readBlock(row - 1, 0, 3, cols, read));
+				assertArrayEquals(values, read, 0.0);
+				assertEquals(value(row, col), m.get(row, col), 0.0);
+				assertEquals(value(row, col - 1), m.get(row, col - 1), 0.0);
+			}
+			m.set(rows - 1, cols - 1, 7.0);
+			assertEquals(7.0, m.get(rows - 1, cols - 1), 0.0);
+			m.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+			assertEquals(7.0, m.get(rows - 1, cols - 1), 0.0);
+			long cell = (1L << 31) / 8;
+			assertEquals(value((int) (cell / cols), (int) (cell % cols)), m.get((int) (cell / cols), (int) (cell % cols)), 0.0);
+		} finally {
+			m.close();
+		}
+	}
+
+	@Test
+	public void testTiled() throws Exception {
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), new Size(150, 130), 64);
+		try {
+			assertEquals(64, m.getTileSize());
+			// edge tiles are stored whole.
+			assertEquals(MatrixFileHeader.SIZE + 192 * 192 * 8, file.length());
+			// a block that starts and ends inside tiles.
+			double[] values = new double[90 * 100];
+			for(int k=0;k<values.length;k++)
+				values[k] = value(30 + k / 100, 20 + k % 100);
+			assertTrue(m.writeBlock(30, 20, 90, 100, values));
+			for(int i=0;i<150;i++)
+				for(int j=0;j<130;j++) {
+					boolean inside = (i >= 30) && (i < 120) && (j >= 20) && (j < 120);
+					assertEquals(inside ? value(i, j) : 0.0, m.get(i, j), 0.0);
+				}
+			fill(m);
+			double[] read = new double[150 * 3];
+			assertTrue(m.readBlock(0, 63, 150, 3, read));
+			for(int k=0;k<read.length;k++)
+				assertEquals(value(k / 3, 63 + k % 3), read[k], 0.0);
+			List<Double> column = m.getColumn(65);
+			for(int i=0;i<150;i++)
+				assertEquals(value(i, 65), column.get(i).doubleValue(), 0.0);
+			double sum = 0;
+			for(int i=0;i<150;i++)
+				sum += value(i, 129);
+			assertEquals(sum, m.sumColumn(129), 1e-9);
+			m.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+			assertCells(m, 150, 130);
+			// a copy keeps the layout.
+			assertTrue(m.copyFileTo(file.getPath() + ".copy"));
+		} finally {
+			m.close();
+		}
+		m = MatrixBuffer.open(file.getPath());
+		assertEquals(64, m.getTileSize());
+		assertCells(m, 150, 130);
+		m.close();
+		m = MatrixBuffer.open(file.getPath() + ".copy");
+		assertEquals(64, m.getTileSize());
+		assertCells(m, 150, 130);
+		m.close();
+	}
+
+	@Test
+	public void testStripedWrites() throws Exception {
+		final MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(256, 40);
+		final AtomicInteger torn = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t=0;t<threads.length;t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				public void run() {
+					double[] values = new double[3 * 40];
+					Random random = new Random(id);
+					for(int k=0;k<2000;k++) {
+						// blocks of rows across stripe boundaries.
+						int row = random.nextInt(254);
+						if ((id & 1) == 0) {
+							Arrays.fill(values, id * 10000 + k);
+							m.writeBlock(row, 0, 3, 40, values);
+						} else if (m.readBlock(row, 0, 3, 40, values)) {
+							// each row is written whole by one block.
+							for(int j=0;j<values.length;j++)
+								if (values[j] != values[j - j % 40])
+									torn.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		assertEquals(0, torn.get());
+		m.setFileLocking(true);
+		assertTrue(m.isFileLocking());
+		m.set(0, 0, 1.0);
+		assertEquals(1.0, m.get(0, 0), 0.0);
+		m.setFileLocking(false);
+		assertFalse(m.isFileLocking());
+		m.close();
+	}
+
+	@Test
+	public void testBlockCache() throws Exception {
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), 300, 40);
+		try {
+			fill(m);
+			m.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+			assertEquals(value(0, 0), m.get(0, 0), 0.0);
+			assertEquals(1, m.getCacheMisses());
+			// the rest of the block is read from the cache.
+			assertEquals(value(63, 39), m.get(63, 39), 0.0);
+			assertEquals(1, m.getCacheHits());
+			assertEquals(value(64, 0), m.get(64, 0), 0.0);
+			assertEquals(2, m.getCacheMisses());
+			// writes drop the blocks they change.
+			m.set(5, 5, -1.0);
+			assertEquals(-1.0, m.get(5, 5), 0.0);
+			double[] values = new double[10 * 40];
+			Arrays.fill(values, -2.0);
+			assertTrue(m.writeBlock(60, 0, 10, 40, values));
+			assertEquals(-2.0, m.get(63, 0), 0.0);
+			assertEquals(-2.0, m.get(64, 39), 0.0);
+			assertEquals(value(70, 0), m.get(70, 0), 0.0);
+			fill(m);
+			assertCells(m, 300, 40);
+			// the blocks depend on the size.
+			m.resize(new Size(300, 50));
+			assertEquals(value(64, 39), m.get(64, 39), 0.0);
+			assertEquals(0.0, m.get(64, 45), 0.0);
+			m.setCacheSize(0);
+			long hits = m.getCacheHits();
+			m.get(64, 39);
+			m.get(64, 39);
+			assertEquals(hits, m.getCacheHits());
+		} finally {
+			m.close();
+		}
+		MatrixBuffer<Double> t = MatrixBuffer.CreateMatrixBuffer(new Size(100, 100), 16);
+		fill(t);
+		t.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+		assertCells(t, 100, 100);
+		t.set(20, 90, -3.0);
+		assertEquals(-3.0, t.get(20, 90), 0.0);
+		t.close();
+	}
+
+	private static MatrixFileHeader readHeader(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			return MatrixFileHeader.read(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), 30, 20);
+		fill(m);
+		assertTrue(m.updateChecksum());
+		m.close();
+		MatrixFileHeader header = readHeader(file);
+		assertNotNull(header);
+		assertEquals(MatrixFileHeader.FLOAT64, header.getDataType());
+		assertEquals(8, header.getElementSize());
+		assertEquals(ByteOrder.nativeOrder(), header.getByteOrder());
+		assertEquals(30, header.getRows());
+		assertEquals(20, header.getCols());
+		assertEquals(0, header.getTileSize());
+		assertTrue(header.hasChecksum());
+		assertEquals(MatrixFileHeader.SIZE + 30 * 20 * 8, file.length());
+		// the size is read from the header.
+		m = new MatrixBuffer<Double>(file.getPath());
+		assertTrue(m.verifyChecksum());
+		assertCells(m, 30, 20);
+		m.close();
+		// a changed cell no longer matches the checksum.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(MatrixFileHeader.SIZE + 8 * 7);
+		raf.writeLong(~raf.readLong());
+		raf.close();
+		m = new MatrixBuffer<Double>(file.getPath());
+		assertFalse(m.verifyChecksum());
+		// a write drops the checksum.
+		m.set(0, 7, value(0, 7));
+		assertTrue(m.verifyChecksum());
+		m.close();
+		assertFalse(readHeader(file).hasChecksum());
+		FloatMatrixBuffer<Double> f = FloatMatrixBuffer.CreateFloatMatrixBuffer(10, 10);
+		assertEquals(MatrixFileHeader.FLOAT32, readHeader(new File(f.getFileName())).getDataType());
+		f.close();
+	}
+
+	@Test
+	public void testUpgrade() throws Exception {
+		// a file from before the header, big endian cells beside a .size file.
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		for(int i=0;i<25;i++)
+			for(int j=0;j<17;j++)
+				out.writeDouble(value(i, j));
+		out.close();
+		IMatrix<Double> size = new Matrix<Double>(1, 2);
+		size.add(25);
+		size.add(17);
+		FileWriter fout = new FileWriter(file.getPath() + ".size");
+		MatrixWriter writer = new MatrixWriter(fout);
+		writer.writeMatrix(size, fout);
+		writer.close();
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath());
+		assertCells(m, 25, 17);
+		m.close();
+		assertFalse(new File(file.getPath() + ".size").exists());
+		MatrixFileHeader header = readHeader(file);
+		assertEquals(ByteOrder.BIG_ENDIAN, header.getByteOrder());
+		assertEquals(25, header.getRows());
+		assertEquals(17, header.getCols());
+		assertEquals(MatrixFileHeader.SIZE + 25 * 17 * 8, file.length());
+		m = MatrixBuffer.open(file.getPath());
+		assertCells(m, 25, 17);
+		m.close();
+	}
+
+	private static void assertResized(MatrixBuffer<Double> m, int oldRows, int oldCols) {
+		int rows = m.getSize().getRows();
+		int cols = m.getSize().getCols();
+		for(int i=0;i<rows;i++)
+			for(int j=0;j<cols;j++) {
+				boolean kept = (i < oldRows) && (j < oldCols);
+				assertEquals(kept ? value(i, j) : 0.0, m.get(i, j), 0.0);
+			}
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		for(int tile : new int[] { 0, 16 }) {
+			MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(new Size(70, 45), tile);
+			fill(m);
+			MatrixBuffer<Double> c = (MatrixBuffer<Double>) m.clone();
+			assertFalse(m.getFileName().equals(c.getFileName()));
+			assertEquals(tile, c.getTileSize());
+			assertCells(c, 70, 45);
+			// the copy is independent of the original.
+			c.set(1, 1, -1.0);
+			assertEquals(value(1, 1), m.get(1, 1), 0.0);
+			c.close();
+			assertTrue(m.save(file.getPath()));
+			MatrixBuffer<Double> saved = MatrixBuffer.open(file.getPath());
+			assertEquals(tile, saved.getTileSize());
+			assertCells(saved, 70, 45);
+			saved.close();
+			m.resize(new Size(90, 60));
+			assertResized(m, 70, 45);
+			m.resize(new Size(50, 30));
+			assertResized(m, 50, 30);
+			m.resize(new Size(80, 50));
+			assertResized(m, 50, 30);
+			m.close();
+		}
+		// a file without a header opened for reading is copied behind one.
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		for(int i=0;i<12;i++)
+			for(int j=0;j<9;j++)
+				out.writeDouble(value(i, j));
+		out.close();
+		MatrixBuffer<Double> r = new MatrixBuffer<Double>(file.getPath(), "r", 12, 9);
+		assertCells(r, 12, 9);
+		assertTrue(r.copyFileTo(file.getPath() + ".copy"));
+		r.close();
+		assertEquals(12 * 9 * 8, file.length());
+		MatrixBuffer<Double> copy = MatrixBuffer.open(file.getPath() + ".copy");
+		assertCells(copy, 12, 9);
+		copy.close();
+	}
+
+	@Test
+	public void testCloseWhileReading() throws Exception {
+		for(int k=0;k<50;k++) {
+			final MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(2000, 50);
+			final CountDownLatch started = new CountDownLatch(2);
+			Thread[] readers = new Thread[2];
+			for(int t=0;t<readers.length;t++) {
+				readers[t] = new Thread() {
+					public void run() {
+						double[] values = new double[64 * 50];
+						started.countDown();
+						for(int r=0;r<100000;r++) {
+							if (m.get(r % 2000, r % 50) == null)
+								break;
+							if (((r & 63) == 0) && !m.readBlock((r / 64) % 30 * 64, 0, 64, 50, values))
+								break;
+						}
+					}
+				};
+				readers[t].start();
+			}
+			started.await();
+			m.close();
+			for(Thread t : readers)
+				t.join();
+			assertNull(m.get(0, 0));
+		}
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		MatrixBuffer<Double> m = new MatrixBuffer<Double>(file.getPath(), 2, 3);
+		// filled a row after another, then grown a row at a time.
+		for(int i=0;i<3000;i++)
+			assertTrue(m.add((double) i));
+		assertEquals(1000, m.getSize().getRows());
+		assertEquals(3, m.getSize().getCols());
+		for(int i=0;i<1000;i++)
+			for(int j=0;j<3;j++)
+				assertEquals(i * 3 + j, m.get(i, j), 0.0);
+		assertEquals(MatrixFileHeader.SIZE + 3000 * 8, file.length());
+		m.close();
+		// an empty buffer grows into a column.
+		m = MatrixBuffer.CreateMatrixBuffer(0, 0);
+		for(int i=0;i<50;i++)
+			assertTrue(m.add((double) i));
+		assertEquals(50, m.getSize().getRows());
+		assertEquals(1, m.getSize().getCols());
+		for(int i=0;i<50;i++)
+			assertEquals(i, m.get(i, 0), 0.0);
+		m.close();
+	}
+}
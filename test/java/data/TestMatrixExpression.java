@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.algebra.DoubleKernels;
+
+/**
+ * Compare fused expressions against the equivalent chained operations.
+ * @author cd
+ *
+ */
+public class TestMatrixExpression {
+
+	private DenseMatrix<Double> h;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random rand = new Random(5);
+		h = new DenseMatrix<Double>(150, 130);
+		for(int i=0;i<h.getValues().length;i++)
+			h.getValues()[i] = rand.nextDouble()*4.0 - 2.0;
+	}
+
+	private static void assertSame(IMatrix<Double> expect, IMatrix<Double> actual) {
+		assertEquals(expect.getSize(), actual.getSize());
+		for(int i=0;i<expect.getSize().getRows();i++)
+			for(int j=0;j<expect.getSize().getCols();j++)
+				assertEquals(expect.get(i, j).doubleValue(), actual.get(i, j).doubleValue(), 1e-12);
+	}
+
+	@Test
+	public void testSigmoid() {
+		double A = 1.5;
+		double T = 0.7;
+		IMatrix<Double> a = Matrix.ones(150, 130).multiply(A);
+		IMatrix<Double> expect = a.pointwiseDivide(h.multiply(-1.0*T).exp().sum(1.0));
+		IMatrix<Double> o = h.lazy().multiply(-1.0*T).exp().sum(1.0).divisorOf(A).evaluate();
+		assertSame(expect, o);
+		assertSame(o.multiply(T).pointwiseMultiply(a.subtract(o)),
+				o.lazy().multiply(T).pointwiseMultiply(o.lazy().subtractFrom(A)).parallel().evaluate());
+	}
+
+	@Test
+	public void testOperands() {
+		Matrix<Double> boxed = new Matrix<Double>(150, 130);
+		for(int i=0;i<h.getValues().length;i++)
+			boxed.add(h.getValues()[i]);
+		IMatrix<Double> expect = h.tanh().subtract(boxed.power(2.0)).divide(3.0);
+		assertSame(expect, h.lazy().tanh().subtract(boxed.lazy().power(2.0)).divide(3.0).evaluate());
+		// evaluate into a boxed matrix and in place.
+		assertSame(expect, h.lazy().tanh().subtract(boxed.lazy().power(2.0)).divide(3.0).evaluate(new Matrix<Double>(150, 130)));
+		h.lazy().tanh().subtract(boxed.lazy().power(2.0)).divide(3.0).parallel().evaluate(h);
+		assertSame(expect, h);
+	}
+
+	private static void assertExp(double v) {
+		double e = StrictMath.exp(v);
+		assertEquals("exp(" + v + ")", e, DoubleKernels.expApprox(v), 2 * Math.ulp(e));
+	}
+
+	@Test
+	public void testApprox() {
+		DenseMatrix<Double> x = new DenseMatrix<Double>(1, 4001);
+		for(int i=0;i<x.getValues().length;i++)
+			x.getValues()[i] = (i - 2000) / 80.0;
+		IMatrix<Double> t = x.lazy().tanhApprox().evaluate();
+		for(int i=0;i<x.getValues().length;i++) {
+			double v = x.getValues()[i];
+			assertEquals(StrictMath.tanh(v), t.get(0, i).doubleValue(), 30 * Math.ulp(StrictMath.tanh(v)));
+			assertEquals(StrictMath.exp(v), DoubleKernels.expApprox(v), Math.ulp(StrictMath.exp(v)));
+		}
+		// normal results, the two inputs are 2 ulp off.
+		Random rand = new Random(5);
+		for(int i=0;i<200000;i++)
+			assertExp(-708.39 + rand.nextDouble() * (709.78 + 708.39));
+		for(double v=-708.39;v<709.78;v+=0.0137)
+			assertExp(v);
+		assertExp(-236.7092977774363);
+		assertExp(660.9177052423711);
+		assertExp(709.78);
+		// subnormal results.
+		for(double v=-745.0;v<-708.0;v+=0.37)
+			assertEquals(StrictMath.exp(v), DoubleKernels.expApprox(v), Double.MIN_VALUE);
+		assertEquals(Double.MIN_VALUE, DoubleKernels.expApprox(-745.1332191019411), 0.0);
+		assertEquals(0.0, DoubleKernels.expApprox(-745.1332191019412), 0.0);
+		assertEquals(0.0, DoubleKernels.expApprox(-1000.0), 0.0);
+		assertTrue(Double.isInfinite(DoubleKernels.expApprox(1000.0)));
+		assertTrue(Double.isNaN(DoubleKernels.tanhApprox(Double.NaN)));
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Compare OffHeapMatrix in native memory and in mapped files with
+ * DenseMatrix, and check that a closed matrix no longer reads its cells.
+ * @author cd
+ *
+ */
+public class TestOffHeapMatrix {
+
+	private DenseMatrix<Double> dense;
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(23);
+		dense = new DenseMatrix<Double>(37, 23);
+		double[] values = dense.getValues();
+		for(int i=0;i<values.length;i++)
+			values[i] = random.nextGaussian();
+		file = File.createTempFile("offheap", ".jmat");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static void assertCells(IMatrix<Double> expected, IMatrix<Double> m, double tolerance) {
+		assertEquals(0, expected.getSize().compareTo(m.getSize()));
+		for(int i=0;i<expected.getSize().getRows();i++)
+			for(int j=0;j<expected.getSize().getCols();j++)
+				assertEquals(expected.get(i, j).doubleValue(), m.get(i, j).doubleValue(), tolerance);
+	}
+
+	@Test
+	public void testNative() throws Exception {
+		OffHeapMatrix<Double> m = new OffHeapMatrix<Double>(dense);
+		try {
+			assertNull(m.getFileName());
+			assertCells(dense, m, 0.0);
+			m.set(3, 4, 2.5);
+			assertEquals(2.5, m.getDouble(3, 4), 0.0);
+			assertNull(m.get(37, 0));
+			double[] block = new double[5 * 6];
+			for(int k=0;k<block.length;k++)
+				block[k] = k;
+			assertTrue(m.writeBlock(30, 17, 5, 6, block));
+			double[] read = new double[block.length];
+			assertTrue(m.readBlock(30, 17, 5, 6, read));
+			assertArrayEquals(block, read, 0.0);
+			assertFalse(m.readBlock(35, 0, 5, 6, read));
+			m.copyFrom(dense);
+			// the clone is independent of the original.
+			OffHeapMatrix<Double> c = m.clone();
+			c.set(0, 0, 9.0);
+			assertEquals(dense.get(0, 0).doubleValue(), m.getDouble(0, 0), 0.0);
+			c.close();
+			IMatrix<Double> t = (IMatrix<Double>) (IMatrix) m.transform();
+			IMatrix<Double> product = (IMatrix<Double>) (IMatrix) m.multiply((IMatrix) t);
+			assertCells((IMatrix<Double>) (IMatrix) dense.multiply((IMatrix) dense.transform()), product, 1e-12);
+			product.close();
+			t.close();
+			try {
+				m.resize(new Size(40, 23));
+				fail();
+			} catch (UnsupportedOperationException e) {
+			}
+		} finally {
+			m.close();
+		}
+		assertTrue(m.isClosed());
+		assertNull(m.get(0, 0));
+		m.set(0, 0, 1.0);
+		assertNull(m.clone());
+		m.close();
+	}
+
+	@Test
+	public void testMapped() throws Exception {
+		OffHeapMatrix<Double> m = OffHeapMatrix.map(file.getPath(), 37, 23);
+		assertEquals(file.getPath(), m.getFileName());
+		m.copyFrom(dense);
+		m.close();
+		// the file is a .jmat file any buffer opens.
+		MatrixBuffer<Double> b = MatrixBuffer.open(file.getPath());
+		assertCells(dense, b, 0.0);
+		b.set(1, 1, -4.0);
+		b.close();
+		m = OffHeapMatrix.map(file.getPath());
+		assertEquals(-4.0, m.getDouble(1, 1), 0.0);
+		m.set(1, 1, dense.get(1, 1).doubleValue());
+		m.close();
+		m = OffHeapMatrix.map(file.getPath());
+		assertCells(dense, m, 0.0);
+		m.close();
+		// tiled files are not mapped.
+		MatrixBuffer<Double> tiled = new MatrixBuffer<Double>(file.getPath(), new Size(10, 10), 4);
+		tiled.close();
+		assertNull(OffHeapMatrix.map(file.getPath()));
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		OffHeapMatrix<Double> m = new OffHeapMatrix<Double>(dense);
+		assertTrue(m.save(file.getPath()));
+		m.close();
+		assertFalse(m.save(file.getPath()));
+		MatrixBuffer<Double> b = MatrixBuffer.open(file.getPath());
+		assertCells(dense, b, 0.0);
+		b.close();
+		// serialized cells are read back into native memory.
+		m = new OffHeapMatrix<Double>(dense);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(m);
+		out.close();
+		m.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		OffHeapMatrix<Double> read = (OffHeapMatrix<Double>) in.readObject();
+		in.close();
+		assertCells(dense, read, 0.0);
+		read.close();
+	}
+}
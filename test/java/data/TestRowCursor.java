@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+
+/**
+ * Read a buffer through a cursor and check that closing the cursor
+ * leaves no block being read.
+ * @author cd
+ *
+ */
+public class TestRowCursor {
+
+	/**
+	 * Counts the blocks being read and makes each read slow.
+	 */
+	private static class SlowBuffer extends MatrixBuffer<Double> {
+
+		final AtomicInteger reading = new AtomicInteger();
+
+		SlowBuffer(String name, int rows, int cols) throws IOException {
+			super(name, rows, cols);
+		}
+
+		public boolean readBlock(int row, int col, int rows, int cols, double[] values) {
+			reading.incrementAndGet();
+			try {
+				Thread.sleep(5);
+				return super.readBlock(row, col, rows, cols, values);
+			} catch (InterruptedException e) {
+				return false;
+			} finally {
+				reading.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Fails to read the blocks past a row, as on an I/O error.
+	 */
+	private static class FailingBuffer extends MatrixBuffer<Double> {
+
+		int failRow = Integer.MAX_VALUE;
+
+		FailingBuffer(String name, int rows, int cols) throws IOException {
+			super(name, rows, cols);
+		}
+
+		public boolean readBlock(int row, int col, int rows, int cols, double[] values) {
+			if (row + rows > failRow)
+				return false;
+			return super.readBlock(row, col, rows, cols, values);
+		}
+	}
+
+	private File file;
+
+	private MatrixBuffer<Double> buffer;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("cursor", ".jmat");
+		buffer = new MatrixBuffer<Double>(file.getPath(), 1000, 7);
+		fill(buffer);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		buffer.close();
+		file.delete();
+	}
+
+	private static void fill(MatrixBuffer<Double> m) {
+		int rows = m.getSize().getRows();
+		int cols = m.getSize().getCols();
+		double[] values = new double[rows * cols];
+		for(int i=0;i<values.length;i++)
+			values[i] = i;
+		assertTrue(m.writeBlock(0, 0, rows, cols, values));
+	}
+
+	private static void assertScan(MatrixBuffer<Double> m, int blockRows, int readAhead) {
+		int cols = m.getSize().getCols();
+		RowCursor cursor = m.scan(blockRows, readAhead);
+		int row = 0;
+		while (cursor.next()) {
+			assertEquals(row, cursor.getRow());
+			double[] values = cursor.getValues();
+			for(int i=0;i<cursor.getRows();i++)
+				for(int j=0;j<cols;j++)
+					assertEquals((row + i) * cols + j, values[i * cols + j], 0.0);
+			row += cursor.getRows();
+		}
+		cursor.close();
+		assertEquals(m.getSize().getRows(), row);
+	}
+
+	@Test
+	public void testScan() {
+		assertScan(buffer, 64, 4);
+		assertScan(buffer, 1, 0);
+		assertScan(buffer, 333, 16);
+		assertScan(buffer, 5000, 2);
+		buffer.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+		assertScan(buffer, 64, 4);
+		assertScan(buffer, 7, 3);
+	}
+
+	@Test
+	public void testEarlyClose() throws Exception {
+		SlowBuffer slow = new SlowBuffer(file.getPath() + ".slow", 1000, 7);
+		try {
+			fill(slow);
+			RowCursor cursor = slow.scan(16, 16);
+			assertTrue(cursor.next());
+			cursor.close();
+			assertEquals(0, slow.reading.get());
+			assertFalse(cursor.next());
+			cursor.close();
+		} finally {
+			slow.close();
+			new File(file.getPath() + ".slow").delete();
+		}
+	}
+
+	@Test
+	public void testCloseBuffer() throws Exception {
+		for(int k=0;k<50;k++) {
+			MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(1000, 7);
+			fill(m);
+			if ((k & 1) == 1)
+				m.setAccessMode(MatrixBuffer.AccessMode.CHANNEL);
+			RowCursor cursor = m.scan(64, 16);
+			assertTrue(cursor.next());
+			assertEquals(3.0, cursor.getValues()[3], 0.0);
+			cursor.close();
+			m.close();
+		}
+	}
+
+	@Test
+	public void testFailedRead() throws Exception {
+		String name = file.getPath() + ".failing";
+		FailingBuffer failing = new FailingBuffer(name, 40000, 7);
+		try {
+			fill(failing);
+			DenseMatrix<Double> other = new DenseMatrix<Double>(7, 2);
+			MatrixBuffer<Double> product = MatrixBuffer.CreateMatrixBuffer(40000, 2);
+			assertEquals(279999.0, failing.max(), 0.0);
+			assertNotNull(failing.convertToDoubles());
+			assertNotNull(failing.multiply(other, product));
+			// a read failing part way is not the end of the rows.
+			failing.failRow = 25000;
+			assertTrue(Double.isNaN(failing.max()));
+			assertTrue(Double.isNaN(failing.min()));
+			assertNull(failing.convertToDoubles());
+			assertNull(failing.normalise(new DenseMatrix<Double>(40000, 7)));
+			assertNull(failing.minMaxNormalise(new DenseMatrix<Double>(40000, 7)));
+			assertNull(failing.columnMeans(new DenseMatrix<Double>(1, 7)));
+			assertNull(failing.multiply(other, product));
+			product.close();
+		} finally {
+			failing.close();
+			new File(name).delete();
+		}
+	}
+}
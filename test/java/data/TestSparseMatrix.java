@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package data;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.algebra.*;
+
+/**
+ * Compare the sparse matrix against the dense matrix.
+ * @author cd
+ *
+ */
+public class TestSparseMatrix {
+
+	private DenseMatrix<Double> dense;
+	private SparseMatrix<Double> sparse;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random rand = new Random(3);
+		dense = new DenseMatrix<Double>(20, 30);
+		for(int i=0;i<20;i++) {
+			for(int j=0;j<30;j++) {
+				if (rand.nextInt(10) == 0)
+					dense.setDouble(i, j, rand.nextDouble() - 0.5);
+			}
+		}
+		sparse = new SparseMatrix<Double>(dense);
+	}
+
+	private static void assertSame(IMatrix<Double> expect, IMatrix<Double> actual) {
+		assertEquals(expect.getSize(), actual.getSize());
+		for(int i=0;i<expect.getSize().getRows();i++)
+			for(int j=0;j<expect.getSize().getCols();j++)
+				assertEquals(expect.get(i, j).doubleValue(), actual.get(i, j).doubleValue(), 1e-12);
+	}
+
+	@Test
+	public void testGetSet() {
+		assertSame(dense, sparse);
+		sparse.setDouble(3, 4, 2.5);
+		sparse.setDouble(3, 5, 0.0);
+		dense.setDouble(3, 4, 2.5);
+		dense.setDouble(3, 5, 0.0);
+		assertSame(dense, sparse);
+		assertTrue(sparse.equals(new SparseMatrix<Double>(dense)));
+	}
+
+	@Test
+	public void testAddRow() {
+		SparseMatrix<Double> m = new SparseMatrix<Double>();
+		m.addRow(new int[] { 4, 1 }, new double[] { 2.0, 1.0 });
+		m.addRow(new int[0], new double[0]);
+		m.addRow(new int[] { 2 }, new double[] { 3.0 });
+		assertEquals(new Size(3, 5), m.getSize());
+		assertEquals(3, m.getNonZeroCount());
+		assertEquals(1.0, m.getDouble(0, 1), 0.0);
+		assertEquals(2.0, m.getDouble(0, 4), 0.0);
+		assertEquals(3.0, m.getDouble(2, 2), 0.0);
+		SparseMatrix.NonZeroIterator it = m.nonZeros();
+		int n = 0;
+		while (it.hasNext()) {
+			double v = it.nextDouble();
+			assertEquals(v, m.getDouble(it.getRow(), it.getCol()), 0.0);
+			n++;
+		}
+		assertEquals(3, n);
+	}
+
+	@Test
+	public void testTranspose() {
+		assertSame(dense.transform(), sparse.transform());
+		SparseMatrix<Double> slice = (SparseMatrix<Double>)sparse.sliceRows(5, 9);
+		assertEquals(new Size(4, 30), slice.getSize());
+		for(int i=0;i<4;i++)
+			for(int j=0;j<30;j++)
+				assertEquals(dense.getDouble(i + 5, j), slice.getDouble(i, j), 0.0);
+	}
+
+	@Test
+	public void testTransposeView() {
+		IMatrix t = sparse.transposeView();
+		assertTrue(t instanceof SparseMatrix);
+		assertSame(dense.transform(), t);
+		// a copy, writes do not reach the matrix.
+		t.set(4, 3, 7.0);
+		assertEquals(dense.getDouble(3, 4), sparse.getDouble(3, 4), 0.0);
+		IMatrix view = MatrixView.transpose(sparse);
+		view.set(4, 3, 7.0);
+		assertEquals(7.0, sparse.getDouble(3, 4), 0.0);
+		dense.setDouble(3, 4, 7.0);
+		assertSame(dense.transform().multiply(dense), (IMatrix)sparse.transposeView().multiply(sparse));
+	}
+
+	@Test
+	public void testMultiply() {
+		IMatrix<Double> t = dense.transform();
+		assertSame(dense.multiply(t), sparse.multiply(t));
+		assertSame(dense.multiply(t), sparse.multiply(sparse.transform()));
+		assertSame(t.multiply(dense), t.multiply(sparse));
+		assertTrue(sparse.multiply(sparse.transform()) instanceof SparseMatrix);
+	}
+
+	@Test
+	public void testElementwise() {
+		assertSame(dense.multiply(2.0), sparse.multiply(2.0));
+		assertSame(dense.divide(4.0), sparse.divide(4.0));
+		assertSame(dense.divide(0.0), sparse.divide(0.0));
+		assertSame(dense.tanh(), sparse.tanh());
+		assertSame(dense.exp(), sparse.exp());
+		assertSame(dense.sum(dense), sparse.sum(sparse));
+		assertSame(dense.subtract(dense.multiply(3.0)), sparse.subtract(sparse.multiply(3.0)));
+		assertSame(dense.pointwiseMultiply(dense), sparse.pointwiseMultiply(sparse));
+		assertSame(dense.columnMeans(), sparse.columnMeans());
+		assertEquals(dense.euclideanNorm(), sparse.euclideanNorm(), 1e-12);
+	}
+
+	@Test
+	public void testRemove() {
+		dense.removeColumn(7);
+		sparse.removeColumn(7);
+		assertSame(dense, sparse);
+		dense.removeRow(19);
+		sparse.removeRow(19);
+		dense.removeRow(2);
+		sparse.removeRow(2);
+		assertSame(dense, sparse);
+	}
+
+	@Test
+	public void testDistance() {
+		SparseMatrix<Double> other = (SparseMatrix<Double>)sparse.multiply(-1.0);
+		EuclideanDistanceMatrixOperation op = new EuclideanDistanceMatrixOperation();
+		for(DistanceMatrixOperation.Distance type : DistanceMatrixOperation.Distance.values()) {
+			assertSame(op.operate(dense, (IMatrix<Double>)dense.multiply(-1.0), type), op.operate(sparse, other, type));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Compare the sequential and parallel bzip2 readers on the protein
+ * data, on streams that follow one another and on a corrupt block.
+ * @author cd
+ *
+ */
+public class TestBZip2InputStream {
+
+	private static String data = "resources/data/protein/protein.val.bz2";
+
+	/**
+	 * Bytes of the decompressed data.
+	 */
+	private static int length = 2813894;
+
+	private byte[] compressed;
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		compressed = Files.readAllBytes(new File(data).toPath());
+		file = File.createTempFile("test", ".bz2");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8191];
+		int n;
+		try {
+			while ((n = in.read(buf, 0, buf.length)) > 0)
+				out.write(buf, 0, n);
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	private void write(byte[]... parts) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		for(byte[] part : parts)
+			out.write(part);
+		out.close();
+	}
+
+	@Test
+	public void testSequentialAndParallel() throws Exception {
+		byte[] expect = readAll(new BZip2InputStream(new FileInputStream(data)));
+		assertEquals(length, expect.length);
+		assertEquals('\n', expect[length - 1]);
+		for(int parallelism : new int[] { 0, 1, 3 }) {
+			byte[] actual = readAll(new ParallelBZip2InputStream(data, parallelism));
+			assertTrue(Arrays.equals(expect, actual));
+		}
+	}
+
+	@Test
+	public void testMultiStream() throws Exception {
+		byte[] single = readAll(new BZip2InputStream(new FileInputStream(data)));
+		write(compressed, compressed);
+		byte[] sequential = readAll(new BZip2InputStream(new FileInputStream(file)));
+		byte[] parallel = readAll(new ParallelBZip2InputStream(file.getPath(), 2));
+		assertEquals(2 * length, sequential.length);
+		assertTrue(Arrays.equals(sequential, parallel));
+		assertTrue(Arrays.equals(single, Arrays.copyOfRange(parallel, length, 2 * length)));
+	}
+
+	@Test
+	public void testCorruptBlockCrc() throws Exception {
+		// the crc of the first block follows the 4 byte header and
+		// the 6 byte block magic.
+		byte[] corrupt = compressed.clone();
+		corrupt[10] ^= 1;
+		write(corrupt);
+		try {
+			readAll(new BZip2InputStream(new FileInputStream(file)));
+			fail("sequential read of a bad crc");
+		} catch (IOException e) {
+		}
+		try {
+			readAll(new ParallelBZip2InputStream(file.getPath(), 2));
+			fail("parallel read of a bad crc");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testNotBZip2() throws Exception {
+		write("not compressed".getBytes("US-ASCII"));
+		try {
+			new ParallelBZip2InputStream(file.getPath(), 2);
+			fail("read of a plain file");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testLibSvm() throws Exception {
+		InputStream in = LibSvmParser.open(data);
+		SparseMatrixSink sink = new SparseMatrixSink();
+		int rows;
+		try {
+			rows = new LibSvmParser(in).parse(sink);
+		} finally {
+			in.close();
+		}
+		assertEquals(2871, rows);
+		assertEquals(2871, sink.getLabels().getSize().getRows());
+		assertEquals(357, sink.getMatrix().getSize().getCols());
+		assertEquals(280241, sink.getMatrix().getNonZeroCount());
+	}
+}
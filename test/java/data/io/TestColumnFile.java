@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Write matrices as column files with and without narrowing and
+ * compression and compare the columns read back, their types and
+ * the least and greatest values in the directory.
+ * @author cd
+ *
+ */
+public class TestColumnFile {
+
+	private static String pima = "resources/data/test-pima-diabetes/pima-indians-diabetes.data";
+
+	private static int rows = 1000;
+
+	private DenseMatrix<Double> matrix;
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(29);
+		matrix = new DenseMatrix<Double>(rows, 5);
+		for(int i=0;i<rows;i++) {
+			matrix.set(i, 0, (double) (random.nextInt(201) - 100));
+			matrix.set(i, 1, (double) random.nextInt());
+			matrix.set(i, 2, (double) (float) random.nextGaussian());
+			matrix.set(i, 3, random.nextGaussian());
+			matrix.set(i, 4, 0.0);
+		}
+		file = File.createTempFile("columns", ".jcol");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static double[] column(IMatrix<Double> m, int col) {
+		double[] values = new double[m.getSize().getRows()];
+		for(int i=0;i<values.length;i++)
+			values[i] = m.get(i, col).doubleValue();
+		return values;
+	}
+
+	private void assertColumns(ColumnFile f) throws IOException {
+		assertEquals(0, matrix.getSize().compareTo(f.getSize()));
+		for(int j=0;j<5;j++) {
+			double[] expected = column(matrix, j);
+			double[] read = new double[rows];
+			f.readColumn(j, read, 0, 1);
+			assertArrayEquals(expected, read, 0.0);
+			IMatrix<Double> c = f.column(j);
+			assertArrayEquals(expected, column(c, 0), 0.0);
+			c.close();
+			double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+			for(double v : expected) {
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			assertEquals(min, f.getMin(j), 0.0);
+			assertEquals(max, f.getMax(j), 0.0);
+			assertEquals((rows + f.getBlockRows() - 1) / f.getBlockRows(), f.getBlockCount(j));
+			for(int b=0;b<f.getBlockCount(j);b++) {
+				min = Double.MAX_VALUE;
+				max = -Double.MAX_VALUE;
+				for(int i=b*f.getBlockRows();i<Math.min(rows, (b + 1)*f.getBlockRows());i++) {
+					min = Math.min(min, expected[i]);
+					max = Math.max(max, expected[i]);
+				}
+				assertEquals(min, f.getBlockMin(j, b), 0.0);
+				assertEquals(max, f.getBlockMax(j, b), 0.0);
+			}
+		}
+		DenseMatrix<Double> m = f.columns(new int[] { 3, 0 });
+		assertArrayEquals(column(matrix, 3), column(m, 0), 0.0);
+		assertArrayEquals(column(matrix, 0), column(m, 1), 0.0);
+	}
+
+	@Test
+	public void testNarrow() throws Exception {
+		ColumnFileWriter writer = new ColumnFileWriter();
+		writer.setBlockRows(128);
+		assertTrue(writer.save(matrix, file.getPath()));
+		ColumnFile f = ColumnFile.open(file.getPath());
+		try {
+			assertEquals(128, f.getBlockRows());
+			assertEquals(ColumnFile.INT8, f.getType(0));
+			assertEquals(ColumnFile.INT32, f.getType(1));
+			assertEquals(ColumnFile.FLOAT32, f.getType(2));
+			assertEquals(ColumnFile.FLOAT64, f.getType(3));
+			assertEquals(ColumnFile.INT8, f.getType(4));
+			assertTrue(f.isMappable(3));
+			assertFalse(f.isMappable(0));
+			assertColumns(f);
+		} finally {
+			f.close();
+		}
+	}
+
+	@Test
+	public void testCompressed() throws Exception {
+		for(ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			ColumnFileWriter writer = new ColumnFileWriter();
+			writer.setBlockRows(300);
+			writer.setCompress(true);
+			writer.setByteOrder(order);
+			assertTrue(writer.save(matrix, file.getPath()));
+			ColumnFile f = ColumnFile.open(file.getPath());
+			try {
+				// the zero column is kept compressed.
+				assertFalse(f.isMappable(4));
+				assertColumns(f);
+			} finally {
+				f.close();
+			}
+			writer.setCompress(false);
+			writer.setNarrow(false);
+			assertTrue(writer.save(matrix, file.getPath()));
+			f = ColumnFile.open(file.getPath());
+			try {
+				for(int j=0;j<5;j++) {
+					assertEquals(ColumnFile.FLOAT64, f.getType(j));
+					assertTrue(f.isMappable(j));
+				}
+				assertColumns(f);
+			} finally {
+				f.close();
+			}
+		}
+	}
+
+	@Test
+	public void testColumnOutlivesFile() throws Exception {
+		assertTrue(new ColumnFileWriter().save(matrix, file.getPath()));
+		ColumnFile f = ColumnFile.open(file.getPath());
+		IMatrix<Double> c = f.column(3);
+		assertNull(f.column(5));
+		f.close();
+		assertArrayEquals(column(matrix, 3), column(c, 0), 0.0);
+		c.close();
+	}
+
+	@Test
+	public void testConvert() throws Exception {
+		assertTrue(new ColumnFileWriter().convert(pima, file.getPath()));
+		DenseMatrix<Double> expected = new ParallelCsvLoader(pima).loadMatrix();
+		ColumnFile f = ColumnFile.open(file.getPath());
+		try {
+			assertEquals(0, new Size(768, 9).compareTo(f.getSize()));
+			DenseMatrix<Double> m = f.columns(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 });
+			assertArrayEquals(expected.getValues(), m.getValues(), 0.0);
+			// the class column holds 0 and 1.
+			assertEquals(ColumnFile.INT8, f.getType(8));
+		} finally {
+			f.close();
+		}
+	}
+
+	@Test
+	public void testNotColumnFile() throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[ColumnFile.HEADER_SIZE]);
+		out.close();
+		assertNull(ColumnFile.open(file.getPath()));
+	}
+}
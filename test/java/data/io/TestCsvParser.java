@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Parse delimited text with CsvParser and compare the rows with
+ * those expected, for line endings, blank lines, quotes and fields
+ * that cross the blocks the input is read in.
+ * @author cd
+ *
+ */
+public class TestCsvParser {
+
+	private static DenseMatrix<Double> parse(String text) throws IOException {
+		DenseMatrixSink sink = new DenseMatrixSink();
+		new CsvParser(new ByteArrayInputStream(text.getBytes("ISO-8859-1"))).parse(sink);
+		DenseMatrix<Double> m = sink.getMatrix();
+		// the same rows are read from characters.
+		DenseMatrixSink chars = new DenseMatrixSink();
+		new CsvParser(new StringReader(text)).parse(chars);
+		assertRows(m.getValues(), m.getSize().getCols(), chars.getMatrix());
+		return m;
+	}
+
+	private static void assertRows(double[] expected, int cols, DenseMatrix<Double> m) {
+		assertEquals(cols, m.getSize().getCols());
+		assertEquals(expected.length / Math.max(cols, 1), m.getSize().getRows());
+		assertArrayEquals(expected, m.getValues(), 0.0);
+	}
+
+	@Test
+	public void testLineEndings() throws Exception {
+		double[] expected = { 1, 2, 3, 4.5, -5, 6e3 };
+		assertRows(expected, 3, parse("1,2,3\n4.5,-5,6e3\n"));
+		assertRows(expected, 3, parse("1,2,3\r\n4.5,-5,6e3\r\n"));
+		// the last line need not end in a new line.
+		assertRows(expected, 3, parse("1,2,3\r\n4.5,-5,6e3"));
+		assertRows(expected, 3, parse(" 1 ,\t2, 3 \n4.5 , -5,6e3 \r"));
+	}
+
+	@Test
+	public void testBlankLines() throws Exception {
+		double[] expected = { 1, 2, 3, 4 };
+		assertRows(expected, 2, parse("\n1,2\n\n  \n\r\n3,4\n\n"));
+		// a line of empty fields is a row of zeroes.
+		assertRows(new double[] { 1, 2, 0, 0, 3, 4 }, 2, parse("1,2\n,\n3,4\n"));
+		assertEquals(0, parse("").getSize().getRows());
+		assertEquals(0, parse("\n\r\n \n").getSize().getRows());
+	}
+
+	@Test
+	public void testRaggedRows() throws Exception {
+		// short rows are padded, long rows cut to the first row.
+		assertRows(new double[] { 1, 2, 3, 4, 0, 0, 5, 6, 7 }, 3, parse("1,2,3\n4\n5,6,7,8,9\n"));
+		// fields that are not numbers read as zero.
+		assertRows(new double[] { 1, 0, 3, 0 }, 2, parse("1,a\n3,1e\n"));
+	}
+
+	@Test
+	public void testQuotes() throws Exception {
+		assertRows(new double[] { 1, 2, 3 }, 3, parse("\"1\",\"2\",3\n"));
+		// a delimiter within quotes does not start a field.
+		assertRows(new double[] { 0, 2, 3, 0, 5, 6 }, 3, parse("\"1,5\",2,3\n\"a,b\",5,6\n"));
+		assertRows(new double[] { 0, 7 }, 2, parse("\"\"\"x\"\", y\",7\n"));
+		// a quote left open ends with its line.
+		assertRows(new double[] { 1, 0, 8, 9 }, 2, parse("1,\"2,3\n8,9\n"));
+		assertEquals(0, parse("\"\"\n\" \"\n").getSize().getRows());
+	}
+
+	@Test
+	public void testBlocks() throws Exception {
+		// fields and lines cross the blocks the input is read in.
+		Random random = new Random(3);
+		int rows = 3 * CsvParser.BUFFER_SIZE / 40;
+		double[] expected = new double[rows * 3];
+		StringBuilder text = new StringBuilder();
+		for(int i=0;i<expected.length;i++) {
+			expected[i] = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+			text.append(expected[i]).append(((i % 3) == 2) ? ((i % 2 == 0) ? "\n" : "\r\n") : ",");
+		}
+		assertRows(expected, 3, parse(text.toString()));
+	}
+
+	@Test
+	public void testParseDouble() throws Exception {
+		Random random = new Random(11);
+		for(int k=0;k<100000;k++) {
+			double v = Double.longBitsToDouble(random.nextLong());
+			if (Double.isNaN(v))
+				continue;
+			String[] forms = { Double.toString(v), String.format("%.6f", v), String.format("%.17e", v), Long.toString(random.nextLong() >> random.nextInt(64)) };
+			for(String s : forms) {
+				byte[] b = s.getBytes("ISO-8859-1");
+				assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(CsvParser.parseDouble(b, 0, b.length)));
+			}
+		}
+		byte[] b = " 12.5e-1 ".getBytes("ISO-8859-1");
+		assertEquals(1.25, CsvParser.parseDouble(b, 0, b.length), 0.0);
+		b = "NaN".getBytes("ISO-8859-1");
+		assertTrue(Double.isNaN(CsvParser.parseDouble(b, 0, b.length)));
+	}
+
+	@Test
+	public void testMatrixBufferSink() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for(int i=0;i<3000;i++)
+			text.append(i).append(',').append(-i).append('\n');
+		MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(0, 0);
+		MatrixBufferSink sink = new MatrixBufferSink(m);
+		assertEquals(3000, new CsvParser(new StringReader(text.toString())).parse(sink));
+		assertEquals(3000, m.getSize().getRows());
+		assertEquals(2, m.getSize().getCols());
+		for(int i=0;i<3000;i+=7) {
+			assertEquals(i, m.get(i, 0), 0.0);
+			assertEquals(-i, m.get(i, 1), 0.0);
+		}
+		m.close();
+		MatrixReader reader = new MatrixReader(new StringReader("1,2\r\n3,4\r\n"));
+		IMatrix<Double> r = reader.readMatrix();
+		reader.close();
+		assertEquals(4.0, r.get(1, 1).doubleValue(), 0.0);
+	}
+}
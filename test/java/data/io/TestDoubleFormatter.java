@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Check that DoubleFormatter writes decimals that read back as the
+ * same double, no longer than those of Double.toString and in its layout.
+ * @author cd
+ *
+ */
+public class TestDoubleFormatter {
+
+	private static void assertRoundTrip(double v) {
+		String s = DoubleFormatter.toString(v);
+		assertEquals(s, Double.doubleToLongBits(v), Double.doubleToLongBits(Double.parseDouble(s)));
+		assertTrue(s + " is longer than " + Double.toString(v), s.length() <= Double.toString(v).length());
+		// plain or with an exponent as Double.toString writes it.
+		assertEquals(s, Double.toString(v).contains("E"), s.contains("E"));
+	}
+
+	@Test
+	public void testValues() {
+		assertEquals("0.0", DoubleFormatter.toString(0.0));
+		assertEquals("-0.0", DoubleFormatter.toString(-0.0));
+		assertEquals("1.0", DoubleFormatter.toString(1.0));
+		assertEquals("0.1", DoubleFormatter.toString(0.1));
+		assertEquals("0.001", DoubleFormatter.toString(0.001));
+		assertEquals("1.0E-4", DoubleFormatter.toString(1e-4));
+		assertEquals("9999999.0", DoubleFormatter.toString(9999999.0));
+		assertEquals("1.0E7", DoubleFormatter.toString(1e7));
+		assertEquals("-123.456", DoubleFormatter.toString(-123.456));
+		// the shortest decimal, Double.toString writes 4.9E-324.
+		assertEquals("5.0E-324", DoubleFormatter.toString(Double.MIN_VALUE));
+		assertEquals("1.7976931348623157E308", DoubleFormatter.toString(Double.MAX_VALUE));
+		assertEquals("2.2250738585072014E-308", DoubleFormatter.toString(Double.MIN_NORMAL));
+		assertEquals("NaN", DoubleFormatter.toString(Double.NaN));
+		assertEquals("Infinity", DoubleFormatter.toString(Double.POSITIVE_INFINITY));
+		assertEquals("-Infinity", DoubleFormatter.toString(Double.NEGATIVE_INFINITY));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(17);
+		for(int k=0;k<200000;k++) {
+			double v = Double.longBitsToDouble(random.nextLong());
+			if (!Double.isNaN(v) && !Double.isInfinite(v))
+				assertRoundTrip(v);
+			assertRoundTrip(random.nextDouble());
+			assertRoundTrip(random.nextInt(1000000) / 1000.0);
+		}
+		for(double v = Double.MIN_VALUE; v < Double.MAX_VALUE / 2; v *= 2)
+			assertRoundTrip(v);
+		for(long p = 1; p > 0; p *= 10)
+			assertRoundTrip(p);
+	}
+
+	@Test
+	public void testFormatAt() {
+		byte[] buf = new byte[2 * DoubleFormatter.MAX_LENGTH + 1];
+		int pos = DoubleFormatter.format(-2.2250738585072014E-308, buf, 0);
+		assertEquals(DoubleFormatter.MAX_LENGTH, pos);
+		buf[pos++] = ',';
+		pos = DoubleFormatter.format(0.5, buf, pos);
+		assertEquals("-2.2250738585072014E-308,0.5", new String(buf, 0, pos));
+	}
+}
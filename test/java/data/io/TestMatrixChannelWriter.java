@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Write matrices with MatrixChannelWriter on one thread and on a pool,
+ * and compare the text with MatrixWriter and the values read back.
+ * @author cd
+ *
+ */
+public class TestMatrixChannelWriter {
+
+	private File file;
+
+	private DenseMatrix<Double> matrix;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("writer", ".csv");
+		Random random = new Random(13);
+		// more rows than one task formats.
+		matrix = new DenseMatrix<Double>(5000, 7);
+		double[] values = matrix.getValues();
+		for(int i=0;i<values.length;i++)
+			values[i] = (i % 5 == 0) ? random.nextInt(100) : random.nextGaussian() * Math.pow(10, random.nextInt(16) - 8);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private byte[] saved(MatrixChannelWriter writer, IMatrix m) throws IOException {
+		assertTrue(writer.save(m, file.getPath()));
+		return Files.readAllBytes(file.toPath());
+	}
+
+	@Test
+	public void testSameAsMatrixWriter() throws Exception {
+		StringWriter text = new StringWriter();
+		MatrixWriter writer = new MatrixWriter(text);
+		writer.writeMatrix(matrix);
+		writer.close();
+		byte[] expected = text.toString().getBytes("ISO-8859-1");
+		assertArrayEquals(expected, saved(new MatrixChannelWriter(), matrix));
+		MatrixChannelWriter parallel = new MatrixChannelWriter();
+		parallel.setParallel(true);
+		parallel.setParallelism(3);
+		// the rows are written in order whichever worker formats them.
+		for(int k=0;k<3;k++)
+			assertArrayEquals(expected, saved(parallel, matrix));
+		parallel.setParallelism(2);
+		assertArrayEquals(expected, saved(parallel, matrix));
+	}
+
+	@Test
+	public void testReadBack() throws Exception {
+		MatrixChannelWriter writer = new MatrixChannelWriter();
+		writer.setParallel(true);
+		writer.setParallelism(2);
+		writer.setDelimiter('\t');
+		writer.setLineSeparator("\r\n");
+		assertTrue(writer.save(matrix, file.getPath()));
+		DenseMatrixSink sink = new DenseMatrixSink();
+		InputStream in = new FileInputStream(file);
+		CsvParser parser = new CsvParser(in);
+		parser.setDelimiter('\t');
+		parser.parse(sink);
+		in.close();
+		assertArrayEquals(matrix.getValues(), sink.getMatrix().getValues(), 0.0);
+		// other matrices are read a cell at a time.
+		SparseMatrix<Double> sparse = new SparseMatrix<Double>(matrix);
+		assertTrue(writer.save(sparse, file.getPath()));
+		sink = new DenseMatrixSink();
+		in = new FileInputStream(file);
+		parser = new CsvParser(in);
+		parser.setDelimiter('\t');
+		parser.parse(sink);
+		in.close();
+		assertArrayEquals(matrix.getValues(), sink.getMatrix().getValues(), 0.0);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertEquals(0, saved(new MatrixChannelWriter(), new DenseMatrix<Double>(0, 3)).length);
+		MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(2, 2);
+		m.set(1, 1, 0.5);
+		MatrixChannelWriter writer = new MatrixChannelWriter();
+		writer.setLineSeparator("\n");
+		assertEquals("0.0,0.0\n0.0,0.5\n", new String(saved(writer, m), "ISO-8859-1"));
+		m.close();
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Load files split into ranges of many sizes and compare the matrix
+ * with the rows CsvParser reads from the whole file.
+ * @author cd
+ *
+ */
+public class TestParallelCsvLoader {
+
+	private static String pima = "resources/data/test-pima-diabetes/pima-indians-diabetes.data";
+
+	private File file;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("loader", ".csv");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private void write(String text) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(text.getBytes("ISO-8859-1"));
+		out.close();
+	}
+
+	private static DenseMatrix<Double> parse(File f, char delimiter) throws IOException {
+		DenseMatrixSink sink = new DenseMatrixSink();
+		InputStream in = new FileInputStream(f);
+		try {
+			CsvParser parser = new CsvParser(in);
+			parser.setDelimiter(delimiter);
+			parser.parse(sink);
+		} finally {
+			in.close();
+		}
+		return sink.getMatrix();
+	}
+
+	private static void assertLoads(File f, char delimiter) throws IOException {
+		DenseMatrix<Double> expected = parse(f, delimiter);
+		// ranges from a byte up to the whole file, so that ranges start
+		// on blank lines, new lines and the middle of fields.
+		for(long chunk : new long[] { 1, 2, 7, 31, 64, 1000, ParallelCsvLoader.DEFAULT_CHUNK_SIZE }) {
+			ParallelCsvLoader loader = new ParallelCsvLoader(f);
+			loader.setDelimiter(delimiter);
+			loader.setChunkSize(chunk);
+			loader.setParallelism(2);
+			assertEquals(0, expected.getSize().compareTo(loader.size()));
+			DenseMatrix<Double> m = loader.loadMatrix();
+			assertNotNull(m);
+			assertArrayEquals(expected.getValues(), m.getValues(), 0.0);
+			// the pool of the loader is kept for later loads.
+			m = loader.loadMatrix();
+			assertArrayEquals(expected.getValues(), m.getValues(), 0.0);
+		}
+	}
+
+	@Test
+	public void testRanges() throws Exception {
+		write("1,2,3\n4,5,6\n7,8,9\n");
+		assertLoads(file, ',');
+		write("\n\n1,2\r\n\r\n3,4\r\n  \n5,6\n\n");
+		assertLoads(file, ',');
+		// the last line need not end in a new line.
+		write("1,2\n3,4\n5,6");
+		assertLoads(file, ',');
+		write("1,2,3\n4\n5,6,7,8\n,\n\"9,1\",2,3\n");
+		assertLoads(file, ',');
+		write("1 2\n3 4\n");
+		assertLoads(file, ' ');
+		write("\n \r\n");
+		assertLoads(file, ',');
+		write("");
+		assertLoads(file, ',');
+	}
+
+	@Test
+	public void testLargeFile() throws Exception {
+		Random random = new Random(5);
+		StringBuilder text = new StringBuilder();
+		for(int i=0;i<60000;i++) {
+			for(int j=0;j<6;j++)
+				text.append(j == 0 ? "" : ",").append(random.nextGaussian());
+			text.append((i % 1000 == 0) ? "\r\n\n" : "\n");
+		}
+		write(text.toString());
+		DenseMatrix<Double> expected = parse(file, ',');
+		assertEquals(60000, expected.getSize().getRows());
+		for(int parallelism : new int[] { 0, 1, 3 }) {
+			ParallelCsvLoader loader = new ParallelCsvLoader(file);
+			loader.setParallelism(parallelism);
+			loader.setChunkSize(1 << 16);
+			assertArrayEquals(expected.getValues(), loader.loadMatrix().getValues(), 0.0);
+			MatrixBuffer<Double> m = loader.loadBuffer();
+			double[] values = new double[60000 * 6];
+			assertTrue(m.readBlock(0, 0, 60000, 6, values));
+			assertArrayEquals(expected.getValues(), values, 0.0);
+			m.close();
+			loader.setParallelism(2);
+			assertArrayEquals(expected.getValues(), loader.loadMatrix().getValues(), 0.0);
+		}
+	}
+
+	@Test
+	public void testPima() throws Exception {
+		File f = new File(pima);
+		assertLoads(f, ',');
+		assertEquals(0, new Size(768, 9).compareTo(new ParallelCsvLoader(f).size()));
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		write("1,2\n3,4\n");
+		ParallelCsvLoader loader = new ParallelCsvLoader(file);
+		assertFalse(loader.load(new DenseMatrix<Double>(3, 2)));
+		assertNull(new ParallelCsvLoader(file.getPath() + ".missing").loadMatrix());
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package data.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import au.id.cpd.algorithms.data.*;
+import au.id.cpd.algorithms.data.io.*;
+
+/**
+ * Check that the store hands out files of their full size, reuses
+ * released files of the same size, keeps to its budget and gives back
+ * the files of buffers that were never closed.
+ * @author cd
+ *
+ */
+public class TestTempFileStore {
+
+	private File directory;
+
+	private TempFileStore store;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("store").toFile();
+		store = new TempFileStore(directory);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.clear();
+		for (File f : directory.listFiles())
+			f.delete();
+		directory.delete();
+	}
+
+	private static void scribble(String name) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(name, "rw");
+		try {
+			for (long i = 0; i < f.length(); i += 7)
+				f.write((int) i | 1);
+		} finally {
+			f.close();
+		}
+	}
+
+	private static void assertZeroes(String name, long length) throws IOException {
+		assertEquals(length, new File(name).length());
+		byte[] bytes = Files.readAllBytes(new File(name).toPath());
+		for (int i = 0; i < bytes.length; i++)
+			assertEquals(0, bytes[i]);
+	}
+
+	@Test
+	public void testPreallocated() throws Exception {
+		String a = store.acquire(5000);
+		assertZeroes(a, 5000);
+		String b = store.acquire(3 << 20);
+		assertZeroes(b, 3 << 20);
+		assertEquals(5000 + (3 << 20), store.getBytesInUse());
+		store.delete(a);
+		store.delete(b);
+		assertFalse(new File(a).exists());
+		assertEquals(0, store.getBytesInUse());
+	}
+
+	@Test
+	public void testReuseBySize() throws Exception {
+		String a = store.acquire(1000);
+		scribble(a);
+		store.release(a);
+		assertEquals(1000, new File(a).length());
+		assertEquals(1000, store.getBytesPooled());
+		String b = store.acquire(2000);
+		assertFalse(a.equals(b));
+		String c = store.acquire(1000);
+		assertEquals(a, c);
+		assertZeroes(c, 1000);
+		assertEquals(0, store.getBytesPooled());
+		scribble(c);
+		store.release(c);
+		String d = store.acquire(1000, false);
+		assertEquals(c, d);
+		assertEquals(1000, new File(d).length());
+		store.delete(b);
+		store.delete(d);
+	}
+
+	@Test
+	public void testBudget() throws Exception {
+		store.setDiskBudget(3000);
+		String a = store.acquire(2000);
+		assertNotNull(a);
+		assertNull(store.acquire(2000));
+		store.release(a);
+		assertEquals(2000, store.getBytesPooled());
+		// the released file is dropped to make room.
+		String b = store.acquire(1500);
+		assertNotNull(b);
+		assertFalse(new File(a).exists());
+		assertEquals(0, store.getBytesPooled());
+		assertEquals(1500, store.getBytesInUse());
+		store.delete(b);
+	}
+
+	@Test
+	public void testPoolSize() throws Exception {
+		store.setPoolSize(1);
+		String a = store.acquire(100);
+		String b = store.acquire(100);
+		store.release(a);
+		store.release(b);
+		assertTrue(new File(a).exists());
+		assertFalse(new File(b).exists());
+		store.setPoolSize(0);
+		assertFalse(new File(a).exists());
+		assertEquals(0, store.getBytesPooled());
+	}
+
+	@Test
+	public void testBufferKeepsFile() throws Exception {
+		MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(100, 10);
+		String name = m.getFileName();
+		long length = new File(name).length();
+		assertEquals(MatrixFileHeader.SIZE + 100 * 10 * 8, length);
+		m.set(5, 5, 3.0);
+		m.close();
+		assertEquals(length, new File(name).length());
+		// a recycled file holds zeroes and the header of its new size.
+		m = MatrixBuffer.CreateMatrixBuffer(100, 10);
+		assertEquals(name, m.getFileName());
+		assertEquals(0.0, m.get(5, 5), 0.0);
+		assertEquals(100, m.getSize().getRows());
+		assertEquals(10, m.getSize().getCols());
+		m.close();
+		FloatMatrixBuffer<Double> f = FloatMatrixBuffer.CreateFloatMatrixBuffer(100, 20);
+		assertEquals(name, f.getFileName());
+		assertEquals(0.0, f.get(5, 5), 0.0);
+		assertEquals(20, f.getSize().getCols());
+		f.set(1, 1, 2.0);
+		assertEquals(2.0, f.get(1, 1), 0.0);
+		f.close();
+	}
+
+	@Test
+	public void testUnclosedBuffers() throws Exception {
+		TempFileStore shared = TempFileStore.getDefault();
+		long budget = shared.getDiskBudget();
+		long bytes = MatrixFileHeader.SIZE + 500 * 100 * 8;
+		shared.setDiskBudget(shared.getBytesInUse() + 3 * bytes);
+		try {
+			for (int k = 0; k < 20; k++) {
+				MatrixBuffer<Double> m = MatrixBuffer.CreateMatrixBuffer(500, 100);
+				assertNotNull(m);
+				m.set(k, 0, 1.0);
+			}
+		} finally {
+			shared.setDiskBudget(budget);
+		}
+	}
+}